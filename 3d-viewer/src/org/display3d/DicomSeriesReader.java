@@ -0,0 +1,381 @@
+package org.display3d;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+import ij.plugin.DICOM;
+import ij.process.ImageProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Opens a directory of DICOM files as one volume.
+ *
+ * The headers of all files are read first, one file per fork/join task,
+ * without decoding any pixels. The slices are then grouped by
+ * SeriesInstanceUID (0020,000E) and sorted along the slice normal by
+ * ImagePositionPatient (0020,0032) and ImageOrientationPatient
+ * (0020,0037), falling back to InstanceNumber (0020,0013) and then to the
+ * file name when the position tags are missing. Finally the pixels of the
+ * chosen series are decoded in parallel into one stack, so opening a
+ * large series is bounded by the disk rather than by a single core.
+ */
+public class DicomSeriesReader {
+
+    /** Create a reader for the largest series that uses all cores. */
+    public DicomSeriesReader() {
+    }
+
+    /**
+     * Open a series from the given directory.
+     *
+     * @param directory the directory holding the DICOM files.
+     * @return the series as a 16-bit, 32-bit or RGB stack with the
+     * DICOM calibration and display range set to the range of the data,
+     * or null if the directory holds no DICOM file.
+     * @throws IOException if the requested series is not in the directory
+     * or its slices cannot be decoded.
+     */
+    public ImagePlus open(String directory) throws IOException {
+        List<Slice> slices = scan(directory);
+        if (slices.isEmpty()) {
+            return null;
+        }
+
+        Map<String, List<Slice>> series = new LinkedHashMap<String, List<Slice>>();
+        for (Slice slice : slices) {
+            List<Slice> members = series.get(slice.seriesUID);
+            if (members == null) {
+                members = new ArrayList<Slice>();
+                series.put(slice.seriesUID, members);
+            }
+            members.add(slice);
+        }
+
+        List<Slice> chosen = null;
+        if (_series != null && _series.length() > 0) {
+            chosen = series.get(_series);
+            if (chosen == null) {
+                throw new IOException("No DICOM series " + _series + " in "
+                        + directory + ", found " + series.keySet());
+            }
+        } else {
+            for (List<Slice> members : series.values()) {
+                if (chosen == null || members.size() > chosen.size()) {
+                    chosen = members;
+                }
+            }
+        }
+        return _read(new File(directory).getName(), _sort(chosen));
+    }
+
+    /**
+     * Read the header of every file in the directory, in parallel.
+     *
+     * @param directory the directory to scan.
+     * @return the DICOM slices found, in file name order; files that are
+     * not DICOM images are left out.
+     */
+    public List<Slice> scan(String directory) {
+        File[] files = new File(directory).listFiles();
+        if (files == null) {
+            return new ArrayList<Slice>();
+        }
+        final List<File> candidates = new ArrayList<File>();
+        for (File file : files) {
+            if (file.isFile() && !file.isHidden()) {
+                candidates.add(file);
+            }
+        }
+        Collections.sort(candidates);
+
+        final Slice[] headers = new Slice[candidates.size()];
+        ParallelStackConverter.SliceFunction readHeader =
+                new ParallelStackConverter.SliceFunction() {
+                    public void apply(int index) {
+                        headers[index] = _readHeader(candidates.get(index));
+                    }
+                };
+        if (headers.length > 0) {
+            // the first header loads the shared DICOM dictionary
+            readHeader.apply(0);
+        }
+        ParallelStackConverter.forEachSlice(headers.length - 1, _threads,
+                new ParallelStackConverter.SliceFunction() {
+                    public void apply(int index) {
+                        headers[index + 1] = _readHeader(candidates
+                                .get(index + 1));
+                    }
+                });
+
+        List<Slice> slices = new ArrayList<Slice>();
+        for (Slice slice : headers) {
+            if (slice != null) {
+                slices.add(slice);
+            }
+        }
+        return slices;
+    }
+
+    /** Set the SeriesInstanceUID to open, null or empty for the series
+     *  with the most slices.
+     */
+    public void setSeries(String series) {
+        _series = series;
+    }
+
+    /** Set the number of threads used to read headers and decode slices,
+     *  0 or less for all cores.
+     */
+    public void setThreads(int threads) {
+        _threads = threads;
+    }
+
+    /** The header fields of one DICOM file needed to order a series. */
+    public static class Slice {
+        /** The DICOM file. */
+        public File file;
+
+        /** SeriesInstanceUID, empty if the tag is missing. */
+        public String seriesUID;
+
+        /** InstanceNumber, 0 if the tag is missing. */
+        public int instanceNumber;
+
+        /** ImagePositionPatient, or null if the tag is missing. */
+        public double[] position;
+
+        /** ImageOrientationPatient (row then column direction), or null
+         *  if the tag is missing.
+         */
+        public double[] orientation;
+
+        /** Rows and Columns. */
+        public int rows;
+
+        public int columns;
+    }
+
+    /* Parse the header of a file, or return null if it is not a DICOM image. */
+    private static Slice _readHeader(File file) {
+        String info;
+        try {
+            info = new DICOM().getInfo(file.getPath());
+        } catch (RuntimeException e) {
+            return null;
+        }
+        if (info == null) {
+            return null;
+        }
+        Slice slice = new Slice();
+        slice.file = file;
+        slice.rows = (int) _number(_tag(info, "0028,0010"), -1);
+        slice.columns = (int) _number(_tag(info, "0028,0011"), -1);
+        if (slice.rows <= 0 || slice.columns <= 0) {
+            return null;
+        }
+        String uid = _tag(info, "0020,000E");
+        slice.seriesUID = uid == null ? "" : uid;
+        slice.instanceNumber = (int) _number(_tag(info, "0020,0013"), 0);
+        slice.position = _vector(_tag(info, "0020,0032"), 3);
+        slice.orientation = _vector(_tag(info, "0020,0037"), 6);
+        return slice;
+    }
+
+    /* Return the value of a tag in the header dump of DICOM.getInfo(). */
+    private static String _tag(String info, String tag) {
+        int index = info.startsWith(tag) ? 0 : info.indexOf("\n" + tag);
+        if (index < 0) {
+            return null;
+        }
+        int colon = info.indexOf(':', index + tag.length() + 1);
+        if (colon < 0) {
+            return null;
+        }
+        int end = info.indexOf('\n', colon);
+        if (end < 0) {
+            end = info.length();
+        }
+        return info.substring(colon + 1, end).trim();
+    }
+
+    private static double _number(String value, double missing) {
+        if (value == null || value.length() == 0) {
+            return missing;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return missing;
+        }
+    }
+
+    /* Parse a backslash separated multi-valued DS tag. */
+    private static double[] _vector(String value, int length) {
+        if (value == null) {
+            return null;
+        }
+        String[] parts = value.split("\\\\");
+        if (parts.length != length) {
+            return null;
+        }
+        double[] result = new double[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = _number(parts[i], Double.NaN);
+            if (Double.isNaN(result[i])) {
+                return null;
+            }
+        }
+        return result;
+    }
+
+    /*
+    Order the slices along the normal of the first slice when every
+    slice has a position and orientation, by instance number otherwise.
+    The files are already in name order, which the stable sort keeps
+    for equal keys.
+     */
+    private static List<Slice> _sort(List<Slice> slices) {
+        final double[] normal = _normal(slices.get(0).orientation);
+        boolean positioned = normal != null;
+        for (Slice slice : slices) {
+            positioned &= slice.position != null;
+        }
+        List<Slice> sorted = new ArrayList<Slice>(slices);
+        if (positioned) {
+            Collections.sort(sorted, new Comparator<Slice>() {
+                public int compare(Slice a, Slice b) {
+                    return Double.compare(_dot(a.position, normal),
+                            _dot(b.position, normal));
+                }
+            });
+        } else {
+            Collections.sort(sorted, new Comparator<Slice>() {
+                public int compare(Slice a, Slice b) {
+                    return a.instanceNumber < b.instanceNumber ? -1
+                            : a.instanceNumber == b.instanceNumber ? 0 : 1;
+                }
+            });
+        }
+        return sorted;
+    }
+
+    /* The cross product of the row and column directions. */
+    private static double[] _normal(double[] orientation) {
+        if (orientation == null) {
+            return null;
+        }
+        double[] normal = new double[] {
+                orientation[1] * orientation[5] - orientation[2] * orientation[4],
+                orientation[2] * orientation[3] - orientation[0] * orientation[5],
+                orientation[0] * orientation[4] - orientation[1] * orientation[3] };
+        if (_dot(normal, normal) < 1e-12) {
+            return null;
+        }
+        return normal;
+    }
+
+    private static double _dot(double[] a, double[] b) {
+        return a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
+    }
+
+    /* Decode the sorted slices in parallel and stack them. */
+    private ImagePlus _read(String title, final List<Slice> slices)
+            throws IOException {
+        Slice first = slices.get(0);
+        for (Slice slice : slices) {
+            if (slice.rows != first.rows || slice.columns != first.columns) {
+                throw new IOException("DICOM series " + first.seriesUID
+                        + " mixes " + first.columns + "x" + first.rows
+                        + " and " + slice.columns + "x" + slice.rows
+                        + " slices (" + slice.file + ")");
+            }
+        }
+
+        final ImagePlus[] images = new ImagePlus[slices.size()];
+        // the first slice is opened alone so the dictionary is not loaded twice
+        images[0] = _decode(first.file);
+        ParallelStackConverter.forEachSlice(images.length - 1, _threads,
+                new ParallelStackConverter.SliceFunction() {
+                    public void apply(int index) {
+                        images[index + 1] = _decode(slices.get(index + 1).file);
+                    }
+                });
+
+        ImagePlus reference = images[0];
+        if (reference == null) {
+            throw new IOException("Could not decode " + first.file);
+        }
+        if (images.length == 1) {
+            // a single (possibly multi-frame) file is already a volume
+            return reference;
+        }
+
+        ImageStack stack = new ImageStack(reference.getWidth(),
+                reference.getHeight());
+        for (int i = 0; i < images.length; i++) {
+            ImagePlus image = images[i];
+            if (image == null || image.getStackSize() != 1
+                    || image.getBitDepth() != reference.getBitDepth()) {
+                throw new IOException("Could not decode "
+                        + slices.get(i).file + " as a slice of "
+                        + first.seriesUID);
+            }
+            stack.addSlice(slices.get(i).file.getName(),
+                    image.getProcessor().getPixels());
+        }
+
+        ImagePlus result = new ImagePlus(title, stack);
+        Calibration cal = reference.getCalibration().copy();
+        double depth = _spacing(slices);
+        if (depth > 0) {
+            cal.pixelDepth = depth;
+        }
+        result.setCalibration(cal);
+        result.setProperty("Info", reference.getProperty("Info"));
+
+        if (result.getType() == ImagePlus.GRAY16
+                || result.getType() == ImagePlus.GRAY32) {
+            double[] range = ParallelStackConverter.computeRange(stack,
+                    _threads);
+            ImageProcessor ip = result.getProcessor();
+            ip.setMinAndMax(range[0], range[1]);
+        }
+        return result;
+    }
+
+    private static ImagePlus _decode(File file) {
+        DICOM dicom = new DICOM();
+        dicom.open(file.getPath());
+        if (dicom.getWidth() == 0 || dicom.getProcessor() == null) {
+            return null;
+        }
+        return dicom;
+    }
+
+    /* Mean distance between slices along the normal, 0 if unknown. */
+    private static double _spacing(List<Slice> slices) {
+        Slice first = slices.get(0);
+        Slice last = slices.get(slices.size() - 1);
+        double[] normal = _normal(first.orientation);
+        if (normal == null || first.position == null
+                || last.position == null) {
+            return 0;
+        }
+        double length = Math.sqrt(_dot(normal, normal));
+        return Math.abs(_dot(last.position, normal)
+                - _dot(first.position, normal))
+                / length / (slices.size() - 1);
+    }
+
+    private String _series;
+
+    private int _threads = 0;
+}
@@ -1,16 +1,35 @@
 package org.display3d;
 
-import ij.IJ;
 import ij.ImagePlus;
-import ij.process.StackConverter;
+import ij.process.ByteProcessor;
+import customnode.CustomIndexedTriangleMesh;
 import ij3d.Content;
+import ij3d.ContentCreator;
 import ij3d.Image3DUniverse;
 
+import java.awt.GraphicsEnvironment;
+import java.io.File;
+import java.io.IOException;
+
+import javax.vecmath.Point3f;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
 import ptolemy.actor.TypedAtomicActor;
+import ptolemy.actor.TypedIOPort;
 import ptolemy.actor.parameters.FilePortParameter;
+import ptolemy.data.AWTImageToken;
+import ptolemy.data.ArrayToken;
 import ptolemy.data.BooleanToken;
+import ptolemy.data.DoubleToken;
+import ptolemy.data.IntToken;
+import ptolemy.data.ObjectToken;
 import ptolemy.data.StringToken;
+import ptolemy.data.Token;
+import ptolemy.data.expr.FileParameter;
 import ptolemy.data.expr.Parameter;
+import ptolemy.data.expr.StringParameter;
+import ptolemy.data.type.ArrayType;
 import ptolemy.data.type.BaseType;
 import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.IllegalActionException;
@@ -46,6 +65,160 @@ public class Display3d extends TypedAtomicActor {
 
     public Parameter displayAsVolume;
 
+    /*
+    For 4D NIfTI files (fMRI, DTI) the 0-based index of the 3D volume
+    to display. Only that volume is ever decoded.
+     */
+    public Parameter timepoint;
+
+    /*
+    Number of decoded slices a memory-mapped NIfTI/Analyze stack keeps
+    on the heap.
+     */
+    public Parameter sliceCacheSize;
+
+    /*
+    Number of threads used to decode and convert slices to 8-bit.
+    0 uses every core.
+     */
+    public Parameter threads;
+
+    /*
+    Check to render in software instead of opening Image3DUniverse
+    windows. The rendered frames are sent out of the output port, so
+    the actor can run in batch workflows with no display. When Java
+    runs headless and this is unchecked, nothing is shown or sent.
+     */
+    public Parameter headless;
+
+    /*
+    Height in pixels of the frames rendered in headless mode.
+     */
+    public Parameter imageSize;
+
+    /*
+    Rotation of the camera about the vertical axis, in degrees, for
+    volumes rendered in headless mode.
+     */
+    public Parameter viewAngle;
+
+    /*
+    Rendered frames (AWTImageTokens) in headless mode: one for the
+    volume and/or one for the orthoslices, in that order. Nothing is
+    sent when headless is unchecked.
+     */
+    public TypedIOPort output;
+
+    /*
+    Check to close the 3D viewer when the workflow finishes. Otherwise
+    the window stays up after the run and is reused by the next one.
+    Its contents and their textures are freed at the end of every run
+    either way.
+     */
+    public Parameter closeOnWrapup;
+
+    /*
+    Texture memory budget of the 3D viewer in MB. Large volumes are shown
+    from a downsampled pyramid: the coarsest level first, then finer
+    levels in the background up to the finest one within this budget.
+    0 means no limit.
+     */
+    public Parameter maxTextureMemory;
+
+    /*
+    Check to share decoded volumes through the process-wide volume
+    cache, so other Display3d actors and later runs do not decode the
+    same file again. The hit, miss and eviction counts of the cache are
+    logged when the workflow finishes.
+     */
+    public Parameter useVolumeCache;
+
+    /*
+    Memory limit of the shared volume cache in MB. The cache is shared
+    by all Display3d actors, the last one to fire sets the limit.
+     */
+    public Parameter volumeCacheSize;
+
+    /*
+    Check to also keep cached volumes in the Kepler cache directory,
+    so they survive restarting Kepler.
+     */
+    public Parameter spillVolumeCache;
+
+    /*
+    SeriesInstanceUID to show when fileOrURL is a directory of DICOM
+    files holding several series. Empty shows the series with the most
+    slices.
+     */
+    public StringParameter dicomSeries;
+
+    /*
+    A volume sent by an upstream actor, shown instead of fileOrURL
+    whenever a token arrives: an ObjectToken holding an ImagePlus, or an
+    array of IntMatrixTokens/DoubleMatrixTokens, one per slice. In a
+    firing without a token the last volume from the port stays shown.
+     */
+    public TypedIOPort volume;
+
+    /*
+    Voxel spacing along x, y and z of volumes that arrive on the volume
+    port as matrices.
+     */
+    public Parameter voxelSize;
+
+    /*
+    Check to show the isosurface of the volume, extracted with marching
+    cubes at isosurfaceThreshold.
+     */
+    public Parameter displayAsSurface;
+
+    /*
+    Gray value (1-255, after the conversion to 8 bits) at which the
+    isosurface is extracted; voxels at or above it are inside.
+     */
+    public Parameter isosurfaceThreshold;
+
+    /*
+    File to write the isosurface to, as binary STL if the name ends in
+    .stl and as Wavefront OBJ otherwise. Leave empty to not write one.
+     */
+    public FileParameter meshFile;
+
+    /*
+    The isosurface as an ObjectToken holding an org.display3d.TriangleMesh.
+     */
+    public TypedIOPort mesh;
+
+    /*
+    Check to record a 360 degree turntable of the volume on every
+    firing. The frames are rendered offscreen, starting at viewAngle,
+    and streamed to movieFile and/or the movie port one batch at a time,
+    so the movie is never held in memory.
+     */
+    public Parameter recordRotation;
+
+    /*
+    Number of frames in the turntable.
+     */
+    public Parameter rotationFrames;
+
+    /*
+    Frames per second of the AVI written to movieFile.
+     */
+    public Parameter frameRate;
+
+    /*
+    File to write the turntable to: an AVI if the name ends in .avi,
+    otherwise numbered PNG files (name_0001.png, ...), or frame_0001.png
+    etc. if it is a directory. Leave empty to not write one.
+     */
+    public FileParameter movieFile;
+
+    /*
+    The turntable frames as AWTImageTokens, one token per frame.
+     */
+    public TypedIOPort movie;
+
     //Constructor
     public Display3d(CompositeEntity container, String name)
             throws NameDuplicationException, IllegalActionException {
@@ -75,6 +248,102 @@ public class Display3d extends TypedAtomicActor {
         displayAsOrtho.setTypeEquals(BaseType.BOOLEAN);
         displayAsOrtho.setExpression("false");
 
+        timepoint = new Parameter(this, "timepoint");
+        timepoint.setTypeEquals(BaseType.INT);
+        timepoint.setExpression("0");
+
+        sliceCacheSize = new Parameter(this, "sliceCacheSize");
+        sliceCacheSize.setTypeEquals(BaseType.INT);
+        sliceCacheSize.setExpression("64");
+
+        threads = new Parameter(this, "threads");
+        threads.setTypeEquals(BaseType.INT);
+        threads.setExpression("0");
+
+        headless = new Parameter(this, "headless");
+        headless.setTypeEquals(BaseType.BOOLEAN);
+        headless.setExpression("false");
+
+        imageSize = new Parameter(this, "imageSize");
+        imageSize.setTypeEquals(BaseType.INT);
+        imageSize.setExpression("256");
+
+        viewAngle = new Parameter(this, "viewAngle");
+        viewAngle.setTypeEquals(BaseType.DOUBLE);
+        viewAngle.setExpression("0.0");
+
+        output = new TypedIOPort(this, "output", false, true);
+        output.setTypeEquals(BaseType.OBJECT);
+        // one frame for the volume and/or one for the orthoslices
+        Parameter outputRate = new Parameter(output, "tokenProductionRate");
+        outputRate.setExpression(
+                "headless ? (displayAsVolume && displayAsOrtho ? 2 : 1) : 0");
+
+        closeOnWrapup = new Parameter(this, "closeOnWrapup");
+        closeOnWrapup.setTypeEquals(BaseType.BOOLEAN);
+        closeOnWrapup.setExpression("false");
+
+        maxTextureMemory = new Parameter(this, "maxTextureMemory");
+        maxTextureMemory.setTypeEquals(BaseType.INT);
+        maxTextureMemory.setExpression("256");
+
+        useVolumeCache = new Parameter(this, "useVolumeCache");
+        useVolumeCache.setTypeEquals(BaseType.BOOLEAN);
+        useVolumeCache.setExpression("true");
+
+        volumeCacheSize = new Parameter(this, "volumeCacheSize");
+        volumeCacheSize.setTypeEquals(BaseType.INT);
+        volumeCacheSize.setExpression("512");
+
+        spillVolumeCache = new Parameter(this, "spillVolumeCache");
+        spillVolumeCache.setTypeEquals(BaseType.BOOLEAN);
+        spillVolumeCache.setExpression("false");
+
+        dicomSeries = new StringParameter(this, "dicomSeries");
+        dicomSeries.setExpression("");
+
+        volume = new TypedIOPort(this, "volume", true, false);
+        volume.setTypeAtMost(BaseType.GENERAL);
+
+        voxelSize = new Parameter(this, "voxelSize");
+        voxelSize.setTypeEquals(new ArrayType(BaseType.DOUBLE));
+        voxelSize.setExpression("{1.0, 1.0, 1.0}");
+
+        displayAsSurface = new Parameter(this, "displayAsSurface");
+        displayAsSurface.setTypeEquals(BaseType.BOOLEAN);
+        displayAsSurface.setExpression("false");
+
+        isosurfaceThreshold = new Parameter(this, "isosurfaceThreshold");
+        isosurfaceThreshold.setTypeEquals(BaseType.INT);
+        isosurfaceThreshold.setExpression("50");
+
+        meshFile = new FileParameter(this, "meshFile");
+        meshFile.setExpression("");
+
+        mesh = new TypedIOPort(this, "mesh", false, true);
+        mesh.setTypeEquals(BaseType.OBJECT);
+
+        recordRotation = new Parameter(this, "recordRotation");
+        recordRotation.setTypeEquals(BaseType.BOOLEAN);
+        recordRotation.setExpression("false");
+
+        rotationFrames = new Parameter(this, "rotationFrames");
+        rotationFrames.setTypeEquals(BaseType.INT);
+        rotationFrames.setExpression("36");
+
+        frameRate = new Parameter(this, "frameRate");
+        frameRate.setTypeEquals(BaseType.DOUBLE);
+        frameRate.setExpression("10.0");
+
+        movieFile = new FileParameter(this, "movieFile");
+        movieFile.setExpression("");
+
+        movie = new TypedIOPort(this, "movie", false, true);
+        movie.setTypeEquals(BaseType.OBJECT);
+        // tell SDF how many frames a firing sends
+        Parameter movieRate = new Parameter(movie, "tokenProductionRate");
+        movieRate.setExpression("recordRotation ? rotationFrames : 0");
+
     }
 
     public void fire() throws IllegalActionException {
@@ -97,32 +366,140 @@ public class Display3d extends TypedAtomicActor {
         _niftiFileType = ((BooleanToken) niftiFileType.getToken())
                 .booleanValue();
 
-        if(_niftiFileType){
-            _img = (ImagePlus)IJ.runPlugIn("Nifti_Reader", _path);
+        int frame = ((IntToken) timepoint.getToken()).intValue();
+        int cacheSlices = ((IntToken) sliceCacheSize.getToken()).intValue();
+        _threads = ((IntToken) threads.getToken()).intValue();
+        String series = dicomSeries.stringValue();
+
+        /*
+        Skip the reload when the same file (same path, modification time
+        and size) is asked for again with the same options.
+         */
+        boolean connected = volume.getWidth() > 0;
+        boolean fromPort = connected && volume.hasToken(0);
+        /*
+        When the volume port is connected but sent nothing this firing,
+        the volume shown last is kept if it came from the port or if
+        there is no fileOrURL to fall back to.
+         */
+        boolean noPath = _path.trim().length() == 0;
+        boolean keep = connected && !fromPort && _img != null
+                && (_loadedKey == null || noPath);
+        if (!fromPort && !keep && noPath) {
+            throw new IllegalActionException(this,
+                    "No volume arrived on the volume port and fileOrURL "
+                            + "is empty.");
         }
-        else{
-            _img = IJ.openImage(_path);
+        String loadKey = fromPort || keep ? _loadedKey : VolumeCache.keyFor(
+                _path, _niftiFileType, frame, series);
+        boolean reload = fromPort || (!keep && (_img == null
+                || loadKey == null || !loadKey.equals(_loadedKey)));
+
+        /*
+        A volume arriving on the volume port is shown instead of the file
+        and is never cached, every token is a new volume.
+         */
+        boolean decode = reload;
+        if (fromPort) {
+            Token token = volume.get(0);
+            ArrayToken size = (ArrayToken) voxelSize.getToken();
+            double[] spacing = new double[3];
+            for (int i = 0; i < spacing.length; i++) {
+                spacing[i] = i < size.length() ? ((DoubleToken) size
+                        .getElement(i)).doubleValue() : 1.0;
+            }
+            _loadedKey = null;
+            try {
+                _img = VolumeTokenConverter.toImage(token, spacing, _threads);
+            } catch (IllegalActionException e) {
+                throw new IllegalActionException(this, e,
+                        "Failed to read the volume token");
+            }
+            decode = false;
         }
 
-        //does grayscale converstion required by 3D_viewer
-        new StackConverter(_img).convertToGray8();
+        /*
+        Uncompressed NIfTI/Analyze files are memory-mapped and decoded
+        one slice at a time, DICOM directories are read as a series with
+        the headers and slices parsed in parallel, everything else is
+        opened by ImageJ. Either way the result is already converted to
+        gray8 for the 3D_viewer, with decoding and conversion spread over
+        the cores.
+         */
+        boolean useCache = ((BooleanToken) useVolumeCache.getToken())
+                .booleanValue() && loadKey != null;
+        if (decode && useCache) {
+            VolumeCache cache = VolumeCache.getInstance();
+            cache.setMaxBytes(((IntToken) volumeCacheSize.getToken())
+                    .intValue() * 1024L * 1024L);
+            cache.setSpillEnabled(((BooleanToken) spillVolumeCache
+                    .getToken()).booleanValue());
+            ImagePlus cached = cache.get(loadKey);
+            if (cached != null) {
+                _img = cached;
+                _loadedKey = loadKey;
+                decode = false;
+            }
+        }
+        if (decode) {
+            VolumeLoader loader = new VolumeLoader();
+            loader.setFrame(frame);
+            loader.setCacheSlices(cacheSlices);
+            loader.setThreads(_threads);
+            loader.setSeries(series);
+            try {
+                _img = loader.open(_path, _niftiFileType);
+            } catch (IOException e) {
+                _loadedKey = null;
+                throw new IllegalActionException(this, e,
+                        "Failed to open " + _path);
+            }
+            _loadedKey = loadKey;
+            if (useCache) {
+                VolumeCache.getInstance().put(loadKey, _img);
+            }
+        }
 
         _displayAsVolume = ((BooleanToken) displayAsVolume.getToken())
                 .booleanValue();
-        if(_displayAsVolume) {
-            _univVolume = new Image3DUniverse();
-            _univVolume.show();
+        _displayAsOrtho = ((BooleanToken) displayAsOrtho.getToken())
+                .booleanValue();
+        _displayAsSurface = ((BooleanToken) displayAsSurface.getToken())
+                .booleanValue();
 
-            _v = _univVolume.addVoltex(_img);
+        boolean meshChanged = _extractSurface(reload);
+
+        if (((BooleanToken) recordRotation.getToken()).booleanValue()) {
+            _recordRotation();
         }
 
-        _displayAsOrtho = ((BooleanToken) displayAsOrtho.getToken())
-                .booleanValue();
-        if(_displayAsOrtho){
-            _univOrtho = new Image3DUniverse();
-            _univOrtho.show();
+        _headless = ((BooleanToken) headless.getToken()).booleanValue();
+        if(_headless){
+            _renderHeadless();
+            return;
+        }
+        if (GraphicsEnvironment.isHeadless()) {
+            // no window can be opened, and the output rate is 0
+            return;
+        }
 
-            _o = _univOrtho.addOrthoslice(_img);
+        /*
+        One universe is kept per actor and reused across firings and
+        runs; it is only recreated if the user closed its window.
+         */
+        long budget = ((IntToken) maxTextureMemory.getToken()).intValue()
+                * 1024L * 1024L;
+        synchronized (_contentLock) {
+            if (_universe == null || _universe.getWindow() == null) {
+                _universe = new Image3DUniverse();
+                _universe.show();
+                _v = null;
+                _o = null;
+                _s = null;
+                _displayedLevel = -1;
+            }
+            _showProgressively(reload, budget);
+            _showSurface(meshChanged);
         }
 
         // Add the image as a volume rendering
@@ -134,9 +511,9 @@ public class Display3d extends TypedAtomicActor {
         voxels are thereby fully transparent, whereas white ones are fully opaque.
          */
         //Content c;
-        //c = _univVolume.addVoltex(_img);
+        //c = _universe.addVoltex(_img);
 
-        //c = _univVolume.addOrthoslice(_img);
+        //c = _universe.addOrthoslice(_img);
 
 
         // Display the image as orthslices
@@ -148,7 +525,7 @@ public class Display3d extends TypedAtomicActor {
         //c.displayAs(Content.MULTIORTHO);
 
         // Remove the Content from the universe
-        //_univVolume.removeContent(c.getName());
+        //_universe.removeContent(c.getName());
 
         /*
         Isosurfaces are surfaces which are generated here by applying the marching
@@ -158,8 +535,8 @@ public class Display3d extends TypedAtomicActor {
         This value, also called the threshold of the surface, is adjustable, as will
         be seen later.
          */
-        // Add an isosurface
-        //c = _univVolume.addMesh(_img);
+        // Add an isosurface (see displayAsSurface and _extractSurface())
+        //c = _universe.addMesh(_img);
 
 
          /*
@@ -167,23 +544,23 @@ public class Display3d extends TypedAtomicActor {
          a 3D representation of a 2D slide, where the 3rd dimension is formed by
          the image intensity
           */
-        //c = _univVolume.addSurfacePlot(_img);
+        //c = _universe.addSurfacePlot(_img);
 
         // remove all contents
-        //_univVolume.removeAllContents();
+        //_universe.removeAllContents();
         // close
-        //_univVolume.close();
+        //_universe.close();
 
         /*
-        //Create a movie
+        //Create a movie (see recordRotation, which records offscreen)
         // animate the universe
-        _univVolume.startAnimation();
+        _universe.startAnimation();
 
 
         // record a 360 degree rotation around the y-axis
-        ImagePlus movie = _univVolume.record360();
+        ImagePlus movie = _universe.record360();
         movie.show();
-        _univVolume.pauseAnimation();
+        _universe.pauseAnimation();
         */
 
 
@@ -191,6 +568,293 @@ public class Display3d extends TypedAtomicActor {
     }
 
 
+    /*
+    Remove the contents of the 3D viewer so their textures are freed,
+    and close it if asked to or if the user already closed its window.
+    A window left open is filled again by the next run.
+     */
+    public void wrapup() throws IllegalActionException {
+        super.wrapup();
+
+        if (((BooleanToken) useVolumeCache.getToken()).booleanValue()) {
+            String statistics = VolumeCache.getInstance().getStatistics();
+            _log.info(statistics);
+            if (_debugging) {
+                _debug(statistics);
+            }
+        }
+
+        boolean close = ((BooleanToken) closeOnWrapup.getToken())
+                .booleanValue();
+        synchronized (_contentLock) {
+            if (_universe != null) {
+                // stop any refinement still running for this universe
+                _generation++;
+                _universe.removeAllContents();
+                _v = null;
+                _o = null;
+                _s = null;
+                _displayedLevel = -1;
+                if (close || _universe.getWindow() == null) {
+                    if (_universe.getWindow() != null) {
+                        _universe.close();
+                    }
+                    _universe = null;
+                }
+            }
+            if (close) {
+                _img = null;
+                _pyramid = null;
+                _loadedKey = null;
+                _mesh = null;
+                _meshWrittenTo = null;
+                _renderer = null;
+                _rendererImage = null;
+            }
+        }
+    }
+
+    /*
+    Show the current image at a pyramid level right away, coarsest
+    first after a reload, and start a background thread that swaps in
+    finer levels up to the finest one whose textures fit in the budget.
+    A newer firing (or wrapup) bumps _generation, which stops an older
+    refinement before its next swap. Called with _contentLock held.
+     */
+    private void _showProgressively(boolean reload, long budget) {
+        final int generation = ++_generation;
+        if (reload || _pyramid == null) {
+            _pyramid = new VolumePyramid(_img, _threads);
+            _displayedLevel = -1;
+        }
+        final VolumePyramid pyramid = _pyramid;
+        final int target = pyramid.finestLevelWithin(budget);
+
+        int start = _displayedLevel < 0 ? pyramid.getLevelCount() - 1
+                : _displayedLevel;
+        if (start < target) {
+            // the budget shrank below what is shown
+            start = target;
+        }
+        _showLevel(pyramid.getLevel(start), start != _displayedLevel);
+        _displayedLevel = start;
+
+        if (start == target) {
+            return;
+        }
+        final int first = start - 1;
+        Thread refinement = new Thread(getFullName() + " refinement") {
+            public void run() {
+                for (int level = first; level >= target; level--) {
+                    ImagePlus image = pyramid.getLevel(level);
+                    synchronized (_contentLock) {
+                        if (generation != _generation || _universe == null
+                                || _universe.getWindow() == null) {
+                            return;
+                        }
+                        _showLevel(image, true);
+                        _displayedLevel = level;
+                    }
+                }
+            }
+        };
+        refinement.setDaemon(true);
+        refinement.start();
+    }
+
+    /*
+    Bring the volume and orthoslice contents in line with the display
+    options, replacing existing ones with the given image if swap is
+    true. Called with _contentLock held.
+     */
+    private void _showLevel(ImagePlus image, boolean swap) {
+        _v = _updateContent(_v, VOLUME_CONTENT, Content.VOLUME,
+                _displayAsVolume, swap, image);
+        _o = _updateContent(_o, ORTHO_CONTENT, Content.ORTHO,
+                _displayAsOrtho, swap, image);
+    }
+
+    /*
+    Make sure the named content in the universe shows the current image
+    when wanted and is gone otherwise. The old content is removed from
+    the universe before a new one is added so its textures can be freed.
+     */
+    private Content _updateContent(Content current, String name, int type,
+            boolean wanted, boolean reload, ImagePlus image) {
+        if (current != null && (!wanted || reload)) {
+            _universe.removeContent(name);
+            current = null;
+        }
+        if (wanted && current == null) {
+            // the pyramid level already has the resolution we want
+            current = _universe.addContent(ContentCreator.createContent(
+                    name, image, type, 1, 0, null,
+                    Content.getDefaultThreshold(image, type),
+                    new boolean[] { true, true, true }));
+        }
+        return current;
+    }
+
+    /*
+    Extract the isosurface when it is shown, written or sent, reusing the
+    last mesh if neither the image nor the threshold changed. The mesh
+    is sent out of the mesh port on every firing and written to
+    meshFile whenever it or the file changed. Returns true if a new mesh
+    was extracted.
+     */
+    private boolean _extractSurface(boolean reload)
+            throws IllegalActionException {
+        String file = meshFile.getExpression().trim();
+        boolean send = mesh.getWidth() > 0;
+        if (!_displayAsSurface && !send && file.length() == 0) {
+            return false;
+        }
+        int threshold = ((IntToken) isosurfaceThreshold.getToken())
+                .intValue();
+        if (threshold < 1 || threshold > 255) {
+            throw new IllegalActionException(this,
+                    "isosurfaceThreshold must be in 1-255, was " + threshold);
+        }
+        boolean changed = false;
+        if (reload || _mesh == null || threshold != _meshThreshold) {
+            _mesh = MarchingCubes.extract(_img, threshold, _threads);
+            _meshThreshold = threshold;
+            changed = true;
+        }
+        if (file.length() > 0) {
+            File out = meshFile.asFile();
+            try {
+                if (changed || !out.equals(_meshWrittenTo)) {
+                    _mesh.write(out);
+                    _meshWrittenTo = out;
+                }
+            } catch (IOException e) {
+                throw new IllegalActionException(this, e,
+                        "Failed to write the isosurface to " + out);
+            }
+        }
+        if (send) {
+            mesh.send(0, new ObjectToken(_mesh));
+        }
+        return changed;
+    }
+
+    /*
+    Show the isosurface in the universe when wanted, replacing the shown
+    one if a new mesh was extracted. Called with _contentLock held.
+     */
+    private void _showSurface(boolean changed) {
+        if (_s != null && (!_displayAsSurface || changed)) {
+            _universe.removeContent(SURFACE_CONTENT);
+            _s = null;
+        }
+        if (_displayAsSurface && _s == null) {
+            float[] coordinates = _mesh.getVertices();
+            Point3f[] vertices = new Point3f[_mesh.getVertexCount()];
+            for (int i = 0; i < vertices.length; i++) {
+                vertices[i] = new Point3f(coordinates[3 * i],
+                        coordinates[3 * i + 1], coordinates[3 * i + 2]);
+            }
+            _s = _universe.addCustomMesh(new CustomIndexedTriangleMesh(
+                    vertices, _mesh.getTriangles()), SURFACE_CONTENT);
+        }
+    }
+
+    /*
+    Record a turntable of the loaded image in software and stream its
+    frames to movieFile and the movie port.
+     */
+    private void _recordRotation() throws IllegalActionException {
+        int frames = ((IntToken) rotationFrames.getToken()).intValue();
+        int size = ((IntToken) imageSize.getToken()).intValue();
+        if (frames <= 0 || size <= 0) {
+            throw new IllegalActionException(this,
+                    "rotationFrames and imageSize must be positive, were "
+                            + frames + " and " + size);
+        }
+        double angle = ((DoubleToken) viewAngle.getToken()).doubleValue();
+        TurntableRecorder recorder = new TurntableRecorder(
+                _softwareRenderer(), frames, size, angle, _threads);
+
+        // Frames are sent as they are rendered for the file, or pulled
+        // below if there is no file, so each one is rendered once.
+        final IllegalActionException[] sendFailure =
+                new IllegalActionException[1];
+        if (movie.getWidth() > 0) {
+            recorder.setFrameListener(new TurntableRecorder.FrameListener() {
+                public void frameRecorded(int index, ByteProcessor frame) {
+                    if (sendFailure[0] != null) {
+                        return;
+                    }
+                    try {
+                        movie.send(0, new AWTImageToken(frame
+                                .getBufferedImage()));
+                    } catch (IllegalActionException e) {
+                        sendFailure[0] = e;
+                    }
+                }
+            });
+        }
+
+        String file = movieFile.getExpression().trim();
+        if (file.length() > 0) {
+            File out = movieFile.asFile();
+            try {
+                if (out.getName().toLowerCase().endsWith(".avi")) {
+                    recorder.writeAvi(out, ((DoubleToken) frameRate
+                            .getToken()).doubleValue());
+                } else {
+                    recorder.writeSequence(out);
+                }
+            } catch (IOException e) {
+                throw new IllegalActionException(this, e,
+                        "Failed to write the turntable to " + out);
+            }
+        }
+        recorder.listenToRemainingFrames();
+        if (sendFailure[0] != null) {
+            throw sendFailure[0];
+        }
+    }
+
+    /*
+    Return a software renderer for the loaded image, reusing the last
+    one while the image is the same.
+     */
+    private SoftwareVolumeRenderer _softwareRenderer() {
+        if (_renderer == null || _rendererImage != _img) {
+            _renderer = new SoftwareVolumeRenderer(_img, _threads);
+            _rendererImage = _img;
+        }
+        return _renderer;
+    }
+
+    /*
+    Render the loaded image in software and send the frames out of the
+    output port. Nothing is shown and no Java3D resources are used.
+     */
+    private void _renderHeadless() throws IllegalActionException {
+        int size = ((IntToken) imageSize.getToken()).intValue();
+        if (size <= 0) {
+            throw new IllegalActionException(this,
+                    "imageSize must be positive, was " + size);
+        }
+        double angle = ((DoubleToken) viewAngle.getToken()).doubleValue();
+
+        SoftwareVolumeRenderer renderer = _softwareRenderer();
+        // with neither box checked there is still something to look at
+        if (_displayAsVolume || !_displayAsOrtho) {
+            output.send(0, new AWTImageToken(
+                    renderer.renderVolume(angle, size)));
+        }
+        if (_displayAsOrtho) {
+            output.send(0, new AWTImageToken(
+                    renderer.renderOrthoslices(size)));
+        }
+    }
+
+    private static final Log _log = LogFactory.getLog(Display3d.class);
+
     private String _path;
 
     private boolean _niftiFileType;
@@ -199,14 +863,54 @@ public class Display3d extends TypedAtomicActor {
 
     private boolean _displayAsOrtho;
 
+    private boolean _displayAsSurface;
+
+    private boolean _headless;
+
+    private int _threads;
+
     private ImagePlus _img;
 
-    private Image3DUniverse _univVolume;
+    /* What _img was loaded from, see VolumeCache.keyFor(). */
+    private String _loadedKey;
 
-    private Image3DUniverse _univOrtho;
+    private Image3DUniverse _universe;
 
     private Content _v;
 
     private Content _o;
 
+    private Content _s;
+
+    private TriangleMesh _mesh;
+
+    private SoftwareVolumeRenderer _renderer;
+
+    /* The image _renderer renders. */
+    private ImagePlus _rendererImage;
+
+    /* Threshold _mesh was extracted at. */
+    private int _meshThreshold;
+
+    /* The file _mesh was last written to. */
+    private File _meshWrittenTo;
+
+    /* Guards the universe and its contents against the refinement
+    thread. */
+    private final Object _contentLock = new Object();
+
+    private VolumePyramid _pyramid;
+
+    /* Pyramid level shown in the universe, -1 if none. */
+    private int _displayedLevel = -1;
+
+    /* Bumped to stop a running refinement. */
+    private int _generation;
+
+    private static final String VOLUME_CONTENT = "volume";
+
+    private static final String ORTHO_CONTENT = "orthoslices";
+
+    private static final String SURFACE_CONTENT = "surface";
+
 }
@@ -0,0 +1,309 @@
+package org.display3d;
+
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A read-only, virtual 8-bit stack over one 3D frame of a memory-mapped
+ * NIfTI/Analyze file.
+ *
+ * The voxel payload is mapped in chunks of whole slices and each slice is
+ * decoded and scaled to gray8 only when it is asked for. Decoded slices
+ * are kept in a small LRU cache so that the heap used by the stack itself
+ * is bounded by the cache size rather than by the size of the file.
+ */
+public class MappedVolumeStack extends ImageStack {
+
+    /**
+     * Create a stack over one frame of the volume described by the header.
+     *
+     * @param header the parsed header of the volume.
+     * @param frame the 0-based index of the 3D frame to expose.
+     * @param cacheSlices the maximum number of decoded slices to keep.
+     * @param threads the number of threads used to scan the frame for its
+     * value range, 0 or less for all cores.
+     * @throws IOException if the voxel file cannot be opened or is too
+     * short for the header.
+     */
+    public MappedVolumeStack(NiftiVolumeHeader header, int frame,
+            int cacheSlices, int threads) throws IOException {
+        super(header.width, header.height);
+        if (frame < 0 || frame >= header.frames) {
+            throw new IOException("Frame " + frame + " out of range, file has "
+                    + header.frames + " frame(s).");
+        }
+        _header = header;
+        _sliceBytes = header.getSliceBytes();
+        _frameOffset = header.voxOffset + frame * header.getFrameBytes();
+        _chunkSlices = (int) Math.max(1,
+                Math.min(header.depth, CHUNK_BYTES / _sliceBytes));
+        _chunks = new MappedByteBuffer[(header.depth + _chunkSlices - 1)
+                / _chunkSlices];
+
+        final int capacity = Math.max(1, cacheSlices);
+        _cache = new LinkedHashMap<Integer, byte[]>(capacity + 1, 0.75f,
+                true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(
+                    Map.Entry<Integer, byte[]> eldest) {
+                return size() > capacity;
+            }
+        };
+
+        // Map the whole frame up front. The mappings stay valid after the
+        // file is closed, so no file handle outlives the constructor.
+        RandomAccessFile file = new RandomAccessFile(header.voxelFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            if (channel.size() < _frameOffset + header.getFrameBytes()) {
+                throw new IOException(header.voxelFile + " is shorter than "
+                        + "its header says.");
+            }
+            for (int c = 0; c < _chunks.length; c++) {
+                int first = c * _chunkSlices;
+                int count = Math.min(_chunkSlices, header.depth - first);
+                _chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        _frameOffset + first * _sliceBytes, count
+                                * _sliceBytes);
+            }
+        } finally {
+            file.close();
+        }
+
+        double[] range = header.getRawDisplayRange();
+        if (range == null) {
+            range = computeRange(threads);
+        }
+        setDisplayRange(range[0], range[1]);
+    }
+
+    /**
+     * Scan the mapped frame once and return its raw {min, max}. Slices
+     * are decoded in parallel and none of them is retained.
+     *
+     * @param threads the number of worker threads, 0 or less for all
+     * cores.
+     * @return the minimum and maximum raw voxel values of the frame.
+     */
+    public double[] computeRange(int threads) {
+        final double[] minima = new double[_header.depth];
+        final double[] maxima = new double[_header.depth];
+        ParallelStackConverter.forEachSlice(_header.depth, threads,
+                new ParallelStackConverter.SliceFunction() {
+                    public void apply(int z) {
+                        float[] values = new float[getWidth() * getHeight()];
+                        readSlice(z, values);
+                        float min = Float.POSITIVE_INFINITY;
+                        float max = Float.NEGATIVE_INFINITY;
+                        for (int i = 0; i < values.length; i++) {
+                            float v = values[i];
+                            if (v < min) {
+                                min = v;
+                            }
+                            if (v > max) {
+                                max = v;
+                            }
+                        }
+                        minima[z] = min;
+                        maxima[z] = max;
+                    }
+                });
+        return ParallelStackConverter.reduceRange(minima, maxima);
+    }
+
+    /** Set the raw value range that is mapped onto 0..255. Clears
+     *  the slice cache.
+     */
+    public void setDisplayRange(double min, double max) {
+        synchronized (_cache) {
+            _min = min;
+            _max = max;
+            _cache.clear();
+        }
+    }
+
+    /** Return the raw value mapped to 0. */
+    public double getDisplayMin() {
+        return _min;
+    }
+
+    /** Return the raw value mapped to 255. */
+    public double getDisplayMax() {
+        return _max;
+    }
+
+    public int getSize() {
+        return _header.depth;
+    }
+
+    public int getBitDepth() {
+        return 8;
+    }
+
+    public boolean isVirtual() {
+        return true;
+    }
+
+    public String getSliceLabel(int n) {
+        return null;
+    }
+
+    public void setSliceLabel(String label, int n) {
+    }
+
+    public void setPixels(Object pixels, int n) {
+        throw new UnsupportedOperationException("MappedVolumeStack is "
+                + "read-only");
+    }
+
+    public void deleteSlice(int n) {
+        throw new UnsupportedOperationException("MappedVolumeStack is "
+                + "read-only");
+    }
+
+    public Object[] getImageArray() {
+        return null;
+    }
+
+    /** Return the gray8 pixels of slice n (1-based), decoding it from the
+     *  mapped file if it is not cached.
+     */
+    public Object getPixels(int n) {
+        if (n < 1 || n > getSize()) {
+            throw new IllegalArgumentException("Slice " + n
+                    + " out of range 1-" + getSize());
+        }
+        Integer key = Integer.valueOf(n);
+        double min;
+        double max;
+        synchronized (_cache) {
+            byte[] cached = _cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            min = _min;
+            max = _max;
+        }
+
+        float[] values = new float[getWidth() * getHeight()];
+        readSlice(n - 1, values);
+        byte[] pixels = toGray8(values, min, max,
+                _header.isFloatingPoint());
+
+        synchronized (_cache) {
+            if (min == _min && max == _max) {
+                _cache.put(key, pixels);
+            }
+        }
+        return pixels;
+    }
+
+    public ImageProcessor getProcessor(int n) {
+        return new ByteProcessor(getWidth(), getHeight(),
+                (byte[]) getPixels(n), getColorModel());
+    }
+
+    /**
+     * Scale raw values to gray8 the way ImageJ's TypeConverter does for
+     * 16-bit (integer data) and 32-bit (floating point data) images.
+     */
+    static byte[] toGray8(float[] values, double min, double max,
+            boolean floatingPoint) {
+        byte[] pixels = new byte[values.length];
+        if (floatingPoint) {
+            double scale = max > min ? 255.0 / (max - min) : 1.0;
+            for (int i = 0; i < values.length; i++) {
+                double v = (values[i] - min) * scale + 0.5;
+                if (v < 0) {
+                    v = 0;
+                }
+                if (v > 255) {
+                    v = 255;
+                }
+                pixels[i] = (byte) (int) v;
+            }
+        } else {
+            double scale = 256.0 / (max - min + 1);
+            for (int i = 0; i < values.length; i++) {
+                double v = values[i] - min;
+                if (v < 0) {
+                    v = 0;
+                }
+                int g = (int) (v * scale + 0.5);
+                if (g > 255) {
+                    g = 255;
+                }
+                pixels[i] = (byte) g;
+            }
+        }
+        return pixels;
+    }
+
+    /** Decode the raw values of slice z (0-based) into values. */
+    void readSlice(int z, float[] values) {
+        int chunk = z / _chunkSlices;
+        ByteBuffer buf = _chunks[chunk].duplicate();
+        buf.order(_header.byteOrder);
+        buf.position((int) ((z - chunk * _chunkSlices) * _sliceBytes));
+
+        int width = getWidth();
+        int height = getHeight();
+        for (int y = 0; y < height; y++) {
+            // Analyze files are stored bottom-up, NIfTI top-down.
+            int row = (_header.isNifti ? y : height - 1 - y) * width;
+            for (int x = 0; x < width; x++) {
+                values[row + x] = _readVoxel(buf);
+            }
+        }
+    }
+
+    private float _readVoxel(ByteBuffer buf) {
+        switch (_header.datatype) {
+        case NiftiVolumeHeader.DT_UINT8:
+            return buf.get() & 0xff;
+        case NiftiVolumeHeader.DT_INT8:
+            return buf.get();
+        case NiftiVolumeHeader.DT_INT16:
+            return buf.getShort();
+        case NiftiVolumeHeader.DT_UINT16:
+            return buf.getShort() & 0xffff;
+        case NiftiVolumeHeader.DT_INT32:
+            return buf.getInt();
+        case NiftiVolumeHeader.DT_UINT32:
+            return buf.getInt() & 0xffffffffL;
+        case NiftiVolumeHeader.DT_FLOAT32:
+            return buf.getFloat();
+        default:
+            return (float) buf.getDouble();
+        }
+    }
+
+    /** Upper bound on the size of a single mapping. */
+    private static final long CHUNK_BYTES = 256L * 1024 * 1024;
+
+    private final NiftiVolumeHeader _header;
+
+    private final long _sliceBytes;
+
+    private final long _frameOffset;
+
+    private final int _chunkSlices;
+
+    private final MappedByteBuffer[] _chunks;
+
+    private final LinkedHashMap<Integer, byte[]> _cache;
+
+    private double _min;
+
+    private double _max;
+}
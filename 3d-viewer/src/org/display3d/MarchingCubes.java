@@ -0,0 +1,448 @@
+package org.display3d;
+
+import ij.ImagePlus;
+import ij.measure.Calibration;
+
+import java.util.Arrays;
+
+/**
+ * Slab-parallel marching cubes isosurface extraction from a gray8
+ * volume.
+ *
+ * The volume is cut along z into slabs of {@link #SLAB_LAYERS} cube
+ * layers, each triangulated by its own fork/join task. Vertices are
+ * identified by the cube edge they lie on and deduplicated within a slab
+ * with an open-addressing long-to-int hash map, so no vertex is boxed.
+ * A vertex on the plane between two slabs is owned by the upper slab;
+ * the lower one looks its index up when the slabs are stitched together,
+ * which is done in parallel as well.
+ *
+ * Voxels outside the volume count as 0, so surfaces touching the border
+ * are closed as long as the threshold is above 0. Voxels at or above the
+ * threshold are inside; triangles are counter-clockwise seen from the
+ * outside. Coordinates are in the calibrated units of the image, voxel
+ * (x, y, z) being at (x * pixelWidth, y * pixelHeight, z * pixelDepth).
+ *
+ * Instead of the usual hand-written 256 case table, the triangles of
+ * every case are derived once from the cube faces: on each face the
+ * isoline runs from the edge where a run of inside corners starts to the
+ * edge where it ends (diagonal inside corners are kept apart), these
+ * segments are chained into loops and each loop is fanned into
+ * triangles. Neighbouring cubes see the same corners on a shared face,
+ * so the surface has no cracks.
+ */
+public class MarchingCubes {
+
+    private MarchingCubes() {
+    }
+
+    /**
+     * Extract the isosurface of a gray8 image.
+     *
+     * @param image the gray8 image or stack.
+     * @param threshold the iso value, 1-255; voxels at or above it are
+     * inside.
+     * @param threads the number of threads, 0 or less for all cores.
+     * @return the mesh.
+     */
+    public static TriangleMesh extract(ImagePlus image, int threshold,
+            int threads) {
+        if (image.getType() != ImagePlus.GRAY8) {
+            throw new IllegalArgumentException(
+                    "MarchingCubes needs a gray8 image.");
+        }
+        if (threshold < 1 || threshold > 255) {
+            throw new IllegalArgumentException("Threshold " + threshold
+                    + " is not in 1-255.");
+        }
+        Object[] pixels = ParallelStackConverter.fetchSlices(
+                image.getStack(), threads);
+        byte[][] slices = new byte[pixels.length][];
+        for (int z = 0; z < slices.length; z++) {
+            slices[z] = (byte[]) pixels[z];
+        }
+        Calibration cal = image.getCalibration();
+        return extract(slices, image.getWidth(), image.getHeight(),
+                threshold, new float[] {
+                        (float) (cal.pixelWidth > 0 ? cal.pixelWidth : 1),
+                        (float) (cal.pixelHeight > 0 ? cal.pixelHeight : 1),
+                        (float) (cal.pixelDepth > 0 ? cal.pixelDepth : 1) },
+                threads);
+    }
+
+    /**
+     * Extract the isosurface of a volume given as gray8 slices.
+     *
+     * @param slices the slices, each width * height bytes.
+     * @param width the width of the volume.
+     * @param height the height of the volume.
+     * @param threshold the iso value, 1-255.
+     * @param spacing the voxel size along x, y and z.
+     * @param threads the number of threads, 0 or less for all cores.
+     * @return the mesh.
+     */
+    public static TriangleMesh extract(final byte[][] slices,
+            final int width, final int height, final int threshold,
+            final float[] spacing, int threads) {
+        // cube layers run from z = -1 to depth - 1, padding with zeros
+        int layers = slices.length + 1;
+        final int count = (layers + SLAB_LAYERS - 1) / SLAB_LAYERS;
+        final Slab[] slabs = new Slab[count];
+        ParallelStackConverter.forEachSlice(count, threads,
+                new ParallelStackConverter.SliceFunction() {
+                    public void apply(int s) {
+                        int z0 = s * SLAB_LAYERS - 1;
+                        int z1 = Math.min(z0 + SLAB_LAYERS, slices.length);
+                        slabs[s] = new Slab(slices, width, height, z0, z1,
+                                threshold, spacing);
+                        slabs[s].triangulate();
+                    }
+                });
+
+        // global numbering: owned vertices in slab order
+        final int[] vertexOffsets = new int[count + 1];
+        final int[] triangleOffsets = new int[count + 1];
+        for (int s = 0; s < count; s++) {
+            vertexOffsets[s + 1] = vertexOffsets[s] + slabs[s].owned;
+            triangleOffsets[s + 1] = triangleOffsets[s]
+                    + slabs[s].triangleCount;
+        }
+        ParallelStackConverter.forEachSlice(count, threads,
+                new ParallelStackConverter.SliceFunction() {
+                    public void apply(int s) {
+                        slabs[s].numberOwned(vertexOffsets[s]);
+                    }
+                });
+        ParallelStackConverter.forEachSlice(count, threads,
+                new ParallelStackConverter.SliceFunction() {
+                    public void apply(int s) {
+                        slabs[s].resolveShared(s + 1 < count ? slabs[s + 1]
+                                : null);
+                    }
+                });
+
+        final float[] vertices = new float[3 * vertexOffsets[count]];
+        final int[] triangles = new int[3 * triangleOffsets[count]];
+        ParallelStackConverter.forEachSlice(count, threads,
+                new ParallelStackConverter.SliceFunction() {
+                    public void apply(int s) {
+                        slabs[s].copyTo(vertices, triangles,
+                                3 * triangleOffsets[s]);
+                        slabs[s] = null;
+                    }
+                });
+        return new TriangleMesh(vertices, triangles);
+    }
+
+    /** The number of cube layers triangulated by one task. */
+    public static final int SLAB_LAYERS = 8;
+
+    /* The two corners of each edge, lower corner first; edges 0-3 run
+     * along x, 4-7 along y and 8-11 along z. Corner i is at
+     * (i & 1, (i >> 1) & 1, (i >> 2) & 1).
+     */
+    private static final int[][] EDGE_CORNERS = { { 0, 1 }, { 2, 3 },
+            { 4, 5 }, { 6, 7 }, { 0, 2 }, { 1, 3 }, { 4, 6 }, { 5, 7 },
+            { 0, 4 }, { 1, 5 }, { 2, 6 }, { 3, 7 } };
+
+    /* The corners of each face, counter-clockwise seen from outside. */
+    private static final int[][] FACES = { { 0, 2, 3, 1 }, { 4, 5, 7, 6 },
+            { 0, 1, 5, 4 }, { 2, 6, 7, 3 }, { 0, 4, 6, 2 }, { 1, 3, 7, 5 } };
+
+    /* For each of the 256 cases, three edges per triangle. */
+    private static final int[][] TRIANGLES = new int[256][];
+
+    static {
+        int[][] edgeOf = new int[8][8];
+        for (int e = 0; e < EDGE_CORNERS.length; e++) {
+            edgeOf[EDGE_CORNERS[e][0]][EDGE_CORNERS[e][1]] = e;
+            edgeOf[EDGE_CORNERS[e][1]][EDGE_CORNERS[e][0]] = e;
+        }
+        for (int config = 0; config < 256; config++) {
+            // next[e] is the edge the isoline goes to after edge e
+            int[] next = new int[12];
+            Arrays.fill(next, -1);
+            for (int[] face : FACES) {
+                for (int k = 0; k < 4; k++) {
+                    int previous = face[(k + 3) % 4];
+                    if (!_inside(config, face[k]) || _inside(config, previous)) {
+                        continue;
+                    }
+                    int m = k;
+                    while (_inside(config, face[(m + 1) % 4])) {
+                        m = (m + 1) % 4;
+                    }
+                    next[edgeOf[previous][face[k]]] =
+                            edgeOf[face[m]][face[(m + 1) % 4]];
+                }
+            }
+            int[] triangles = new int[36];
+            int n = 0;
+            boolean[] done = new boolean[12];
+            int[] loop = new int[12];
+            for (int start = 0; start < 12; start++) {
+                if (next[start] < 0 || done[start]) {
+                    continue;
+                }
+                int length = 0;
+                for (int e = start; !done[e]; e = next[e]) {
+                    done[e] = true;
+                    loop[length++] = e;
+                }
+                for (int i = 1; i + 1 < length; i++) {
+                    triangles[n++] = loop[0];
+                    triangles[n++] = loop[i];
+                    triangles[n++] = loop[i + 1];
+                }
+            }
+            TRIANGLES[config] = Arrays.copyOf(triangles, n);
+        }
+    }
+
+    private static boolean _inside(int config, int corner) {
+        return (config & (1 << corner)) != 0;
+    }
+
+    /** The cube layers [z0, z1) of the volume and the mesh they make. */
+    private static class Slab {
+        Slab(byte[][] slices, int width, int height, int z0, int z1,
+                int threshold, float[] spacing) {
+            _slices = slices;
+            _width = width;
+            _height = height;
+            _z0 = z0;
+            _z1 = z1;
+            _threshold = threshold;
+            _spacing = spacing;
+            _planeSize = (long) (width + 2) * (height + 2);
+        }
+
+        /* March over every cube of the slab. */
+        void triangulate() {
+            int[] values = new int[8];
+            int[] cornerIndex = new int[8];
+            for (int z = _z0; z < _z1; z++) {
+                for (int y = -1; y < _height; y++) {
+                    for (int x = -1; x < _width; x++) {
+                        int config = 0;
+                        for (int c = 0; c < 8; c++) {
+                            values[c] = _value(x + (c & 1),
+                                    y + ((c >> 1) & 1), z + ((c >> 2) & 1));
+                            if (values[c] >= _threshold) {
+                                config |= 1 << c;
+                            }
+                        }
+                        int[] edges = TRIANGLES[config];
+                        if (edges.length == 0) {
+                            continue;
+                        }
+                        for (int i = 0; i < edges.length; i++) {
+                            cornerIndex[i % 3] = _vertex(x, y, z, edges[i],
+                                    values);
+                            if (i % 3 == 2) {
+                                _addTriangle(cornerIndex[0], cornerIndex[1],
+                                        cornerIndex[2]);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        /* Give the owned vertices their global numbers. */
+        void numberOwned(int offset) {
+            _global = new int[_vertexCount];
+            for (int i = 0; i < _vertexCount; i++) {
+                _global[i] = _shared(_keys[i]) ? -1 : offset++;
+            }
+        }
+
+        /* Take the global numbers of the vertices on the top plane from
+         * the slab above, which owns them.
+         */
+        void resolveShared(Slab above) {
+            for (int i = 0; i < _vertexCount; i++) {
+                if (_global[i] < 0) {
+                    _global[i] = above._global[above._map.get(_keys[i])];
+                }
+            }
+        }
+
+        void copyTo(float[] vertices, int[] triangles, int triangleOffset) {
+            for (int i = 0; i < _vertexCount; i++) {
+                if (!_shared(_keys[i])) {
+                    System.arraycopy(_coordinates, 3 * i, vertices,
+                            3 * _global[i], 3);
+                }
+            }
+            for (int i = 0; i < 3 * triangleCount; i++) {
+                triangles[triangleOffset + i] = _global[_triangles[i]];
+            }
+        }
+
+        int owned;
+
+        int triangleCount;
+
+        private int _value(int x, int y, int z) {
+            if (x < 0 || y < 0 || z < 0 || x >= _width || y >= _height
+                    || z >= _slices.length) {
+                return 0;
+            }
+            return _slices[z][y * _width + x] & 0xff;
+        }
+
+        /* True if the edge lies in the top plane of the slab and so
+         * belongs to the slab above.
+         */
+        private boolean _shared(long key) {
+            return key % 3 != 2 && key / 3 / _planeSize - 1 == _z1;
+        }
+
+        /* Return the local index of the vertex on an edge of the cube
+         * at (x, y, z), adding it if it is new.
+         */
+        private int _vertex(int x, int y, int z, int edge, int[] values) {
+            int a = EDGE_CORNERS[edge][0];
+            int axis = edge / 4;
+            int lx = x + (a & 1);
+            int ly = y + ((a >> 1) & 1);
+            int lz = z + ((a >> 2) & 1);
+            long key = (((long) (lz + 1) * (_height + 2) + (ly + 1))
+                    * (_width + 2) + (lx + 1)) * 3 + axis;
+            int index = _map.get(key);
+            if (index >= 0) {
+                return index;
+            }
+
+            int va = values[a];
+            int vb = values[EDGE_CORNERS[edge][1]];
+            float t = (float) (_threshold - va) / (vb - va);
+            float px = lx + (axis == 0 ? t : 0);
+            float py = ly + (axis == 1 ? t : 0);
+            float pz = lz + (axis == 2 ? t : 0);
+
+            index = _vertexCount++;
+            if (3 * _vertexCount > _coordinates.length) {
+                _coordinates = Arrays.copyOf(_coordinates,
+                        2 * _coordinates.length);
+                _keys = Arrays.copyOf(_keys, 2 * _keys.length);
+            }
+            _coordinates[3 * index] = px * _spacing[0];
+            _coordinates[3 * index + 1] = py * _spacing[1];
+            _coordinates[3 * index + 2] = pz * _spacing[2];
+            _keys[index] = key;
+            _map.put(key, index);
+            if (!_shared(key)) {
+                owned++;
+            }
+            return index;
+        }
+
+        private void _addTriangle(int a, int b, int c) {
+            if (3 * triangleCount + 3 > _triangles.length) {
+                _triangles = Arrays.copyOf(_triangles,
+                        2 * _triangles.length);
+            }
+            _triangles[3 * triangleCount] = a;
+            _triangles[3 * triangleCount + 1] = b;
+            _triangles[3 * triangleCount + 2] = c;
+            triangleCount++;
+        }
+
+        private final byte[][] _slices;
+
+        private final int _width;
+
+        private final int _height;
+
+        private final int _z0;
+
+        private final int _z1;
+
+        private final int _threshold;
+
+        private final float[] _spacing;
+
+        /* The number of corners in one padded z plane. */
+        private final long _planeSize;
+
+        private final LongIntMap _map = new LongIntMap();
+
+        private float[] _coordinates = new float[3 * 1024];
+
+        private long[] _keys = new long[1024];
+
+        private int _vertexCount;
+
+        private int[] _triangles = new int[3 * 1024];
+
+        private int[] _global;
+    }
+
+    /** An open-addressing hash map from non-negative longs to ints. */
+    static class LongIntMap {
+        /* Return the value for the key, or -1 if there is none. */
+        int get(long key) {
+            int mask = _keys.length - 1;
+            for (int i = _slot(key, mask);; i = (i + 1) & mask) {
+                long k = _keys[i];
+                if (k == key) {
+                    return _values[i];
+                }
+                if (k == EMPTY) {
+                    return -1;
+                }
+            }
+        }
+
+        void put(long key, int value) {
+            if (2 * (_size + 1) > _keys.length) {
+                _grow();
+            }
+            int mask = _keys.length - 1;
+            int i = _slot(key, mask);
+            while (_keys[i] != EMPTY && _keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (_keys[i] == EMPTY) {
+                _size++;
+            }
+            _keys[i] = key;
+            _values[i] = value;
+        }
+
+        private void _grow() {
+            long[] keys = _keys;
+            int[] values = _values;
+            _keys = new long[2 * keys.length];
+            _values = new int[2 * keys.length];
+            Arrays.fill(_keys, EMPTY);
+            _size = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != EMPTY) {
+                    put(keys[i], values[i]);
+                }
+            }
+        }
+
+        private static int _slot(long key, int mask) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+        private static final long EMPTY = -1L;
+
+        private long[] _keys = _empty(1024);
+
+        private int[] _values = new int[1024];
+
+        private int _size;
+
+        private static long[] _empty(int length) {
+            long[] keys = new long[length];
+            Arrays.fill(keys, EMPTY);
+            return keys;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package org.display3d;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The fields of a NIfTI-1 (or Analyze 7.5) header that are needed to
+ * locate and decode the voxel payload of a volume without going through
+ * the Nifti_Reader plugin.
+ *
+ * Only uncompressed files can be described by this class; gzipped
+ * volumes are left to the plugin.
+ */
+public class NiftiVolumeHeader {
+
+    /** NIfTI datatype codes for the scalar types we can decode. */
+    public static final int DT_UINT8 = 2;
+    public static final int DT_INT16 = 4;
+    public static final int DT_INT32 = 8;
+    public static final int DT_FLOAT32 = 16;
+    public static final int DT_FLOAT64 = 64;
+    public static final int DT_INT8 = 256;
+    public static final int DT_UINT16 = 512;
+    public static final int DT_UINT32 = 768;
+
+    /** Size of the fixed part of a NIfTI-1/Analyze header. */
+    public static final int HEADER_SIZE = 348;
+
+    private NiftiVolumeHeader() {
+    }
+
+    /**
+     * Read the header belonging to the given file. For a .hdr/.img pair
+     * either name may be passed in; the voxel file is resolved from it.
+     *
+     * @param path the .nii, .hdr or .img file.
+     * @return the parsed header.
+     * @throws IOException if the file cannot be read or is not a
+     * NIfTI-1/Analyze file with a supported scalar datatype.
+     */
+    public static NiftiVolumeHeader read(String path) throws IOException {
+        File file = new File(path);
+        String name = file.getName();
+        String lower = name.toLowerCase();
+        if (lower.endsWith(".gz")) {
+            throw new IOException("Compressed volumes cannot be mapped: "
+                    + path);
+        }
+
+        File headerFile = file;
+        File voxelFile = file;
+        if (lower.endsWith(".hdr") || lower.endsWith(".img")) {
+            String base = name.substring(0, name.length() - 4);
+            boolean upper = Character.isUpperCase(name.charAt(name
+                    .length() - 1));
+            headerFile = new File(file.getParentFile(), base
+                    + (upper ? ".HDR" : ".hdr"));
+            voxelFile = new File(file.getParentFile(), base
+                    + (upper ? ".IMG" : ".img"));
+        }
+
+        byte[] raw = new byte[HEADER_SIZE];
+        InputStream in = new FileInputStream(headerFile);
+        try {
+            int off = 0;
+            while (off < raw.length) {
+                int n = in.read(raw, off, raw.length - off);
+                if (n < 0) {
+                    throw new IOException("Truncated header: " + headerFile);
+                }
+                off += n;
+            }
+        } finally {
+            in.close();
+        }
+
+        ByteBuffer buf = ByteBuffer.wrap(raw).order(ByteOrder.BIG_ENDIAN);
+        if (buf.getInt(0) != HEADER_SIZE) {
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            if (buf.getInt(0) != HEADER_SIZE) {
+                throw new IOException("Not a NIfTI-1/Analyze header: "
+                        + headerFile);
+            }
+        }
+
+        NiftiVolumeHeader h = new NiftiVolumeHeader();
+        h.voxelFile = voxelFile;
+        h.byteOrder = buf.order();
+
+        short[] dim = new short[8];
+        for (int i = 0; i < 8; i++) {
+            dim[i] = buf.getShort(40 + 2 * i);
+        }
+        int rank = Math.max(1, Math.min(7, dim[0]));
+        h.width = Math.max(1, dim[1]);
+        h.height = rank >= 2 ? Math.max(1, dim[2]) : 1;
+        h.depth = rank >= 3 ? Math.max(1, dim[3]) : 1;
+        int frames = 1;
+        for (int i = 4; i <= rank; i++) {
+            frames *= Math.max(1, dim[i]);
+        }
+        h.frames = frames;
+
+        h.datatype = buf.getShort(70);
+        h.bytesPerVoxel = bytesPerVoxel(h.datatype);
+        if (h.bytesPerVoxel == 0) {
+            throw new IOException("Unsupported NIfTI datatype "
+                    + h.datatype + " in " + headerFile);
+        }
+
+        h.pixelWidth = Math.abs(buf.getFloat(76 + 4));
+        h.pixelHeight = Math.abs(buf.getFloat(76 + 8));
+        h.pixelDepth = Math.abs(buf.getFloat(76 + 12));
+
+        h.sclSlope = buf.getFloat(112);
+        h.sclInter = buf.getFloat(116);
+        h.calMax = buf.getFloat(124);
+        h.calMin = buf.getFloat(128);
+
+        String magic = new String(raw, 344, 3, "US-ASCII");
+        h.isNifti = magic.equals("n+1") || magic.equals("ni1");
+        h.voxOffset = (long) buf.getFloat(108);
+        if (headerFile.equals(voxelFile) && h.voxOffset < HEADER_SIZE) {
+            // single file without a valid vox_offset: data follows the
+            // header and the 4 byte extension flag.
+            h.voxOffset = HEADER_SIZE + 4;
+        }
+        return h;
+    }
+
+    /** Return true if the given path looks like an uncompressed
+     *  NIfTI-1 or Analyze volume that {@link #read(String)} can handle.
+     */
+    public static boolean isMappable(String path) {
+        String lower = path.toLowerCase();
+        return lower.endsWith(".nii") || lower.endsWith(".hdr")
+                || lower.endsWith(".img");
+    }
+
+    /** Number of bytes in one z slice of one frame. */
+    public long getSliceBytes() {
+        return (long) width * height * bytesPerVoxel;
+    }
+
+    /** Number of bytes in one 3D frame. */
+    public long getFrameBytes() {
+        return getSliceBytes() * depth;
+    }
+
+    /**
+     * Return the raw voxel values that cal_min and cal_max stand for, as
+     * {min, max}, or null if the header has no display range. Like
+     * Nifti_Reader, NIfTI cal_min and cal_max are taken to be in scaled
+     * units (scl_slope * raw + scl_inter, a slope of 0 meaning 1) and
+     * mapped back to raw values, and the maximum of integer data is
+     * lowered by one, as that reader does before setting the range.
+     */
+    public double[] getRawDisplayRange() {
+        if (!(calMax > calMin)) {
+            return null;
+        }
+        double min = calMin;
+        double max = calMax;
+        if (isNifti) {
+            double slope = sclSlope == 0 ? 1 : sclSlope;
+            min = (calMin - sclInter) / slope;
+            max = (calMax - sclInter) / slope;
+            if (slope < 0) {
+                double t = min;
+                min = max;
+                max = t;
+            }
+        }
+        if (!isFloatingPoint()) {
+            max -= 1.0;
+        }
+        return new double[] { min, max };
+    }
+
+    /** True for the floating point datatypes. */
+    public boolean isFloatingPoint() {
+        return datatype == DT_FLOAT32 || datatype == DT_FLOAT64;
+    }
+
+    private static int bytesPerVoxel(int datatype) {
+        switch (datatype) {
+        case DT_UINT8:
+        case DT_INT8:
+            return 1;
+        case DT_INT16:
+        case DT_UINT16:
+            return 2;
+        case DT_INT32:
+        case DT_UINT32:
+        case DT_FLOAT32:
+            return 4;
+        case DT_FLOAT64:
+            return 8;
+        default:
+            return 0;
+        }
+    }
+
+    /** The file holding the voxel data (same as the header for .nii). */
+    public File voxelFile;
+
+    /** Byte offset of the first voxel in {@link #voxelFile}. */
+    public long voxOffset;
+
+    public ByteOrder byteOrder;
+
+    public int width;
+
+    public int height;
+
+    public int depth;
+
+    /** Product of dim[4..7], i.e. the number of 3D volumes in the file. */
+    public int frames;
+
+    public int datatype;
+
+    public int bytesPerVoxel;
+
+    public double pixelWidth;
+
+    public double pixelHeight;
+
+    public double pixelDepth;
+
+    public float sclSlope;
+
+    public float sclInter;
+
+    public float calMin;
+
+    public float calMax;
+
+    /** False for plain Analyze 7.5 files, which are stored bottom-up. */
+    public boolean isNifti;
+}
@@ -0,0 +1,218 @@
+package org.display3d;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageConverter;
+import ij.process.ImageProcessor;
+import ij.process.StackConverter;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Slice-parallel versions of the stack operations in the Display3d load
+ * pipeline, run on a fork/join pool.
+ *
+ * Every slice is processed exactly the way the serial ImageJ code
+ * processes it, only on several cores at once, so the results are
+ * identical to the serial path. Slices are the unit of work; a stack is
+ * split in halves until each task holds a single slice.
+ */
+public class ParallelStackConverter {
+
+    private ParallelStackConverter() {
+    }
+
+    /** Work to do on one slice of a stack. */
+    public interface SliceFunction {
+        /**
+         * Process one slice.
+         *
+         * @param index the 0-based slice index.
+         */
+        void apply(int index);
+    }
+
+    /**
+     * Run the function on every slice index in [0, count).
+     *
+     * @param count the number of slices.
+     * @param threads the number of worker threads; 0 or less shares one
+     * pool with as many threads as there are cores.
+     * @param function the per-slice work.
+     */
+    public static void forEachSlice(int count, int threads,
+            SliceFunction function) {
+        if (count <= 0) {
+            return;
+        }
+        if (threads == 1 || count == 1) {
+            for (int i = 0; i < count; i++) {
+                function.apply(i);
+            }
+            return;
+        }
+        SliceRange task = new SliceRange(function, 0, count);
+        if (threads <= 0) {
+            _sharedPool().invoke(task);
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.invoke(task);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Convert a 16- or 32-bit stack to gray8 in place, with the same
+     * result as <code>new StackConverter(imp).convertToGray8()</code>.
+     *
+     * Each slice gets the display range of the current slice and is
+     * converted with ImageProcessor.convertToByte(), honouring the global
+     * "scale when converting" option. Anything the parallel path does not
+     * cover (RGB, composite and virtual stacks, color LUTs, single images)
+     * is handed to ImageJ's serial converter.
+     *
+     * @param imp the image to convert.
+     * @param threads the number of worker threads, see
+     * {@link #forEachSlice(int, int, SliceFunction)}.
+     */
+    public static void convertToGray8(ImagePlus imp, int threads) {
+        int type = imp.getType();
+        if (type == ImagePlus.GRAY8) {
+            return;
+        }
+        final ImageStack stack = imp.getStack();
+        ImageProcessor current = imp.getProcessor();
+        if ((type != ImagePlus.GRAY16 && type != ImagePlus.GRAY32)
+                || stack.isVirtual() || imp.isComposite()
+                || current.isColorLut() || stack.getSize() < 2) {
+            new StackConverter(imp).convertToGray8();
+            return;
+        }
+
+        final int currentSlice = imp.getCurrentSlice();
+        final double min = current.getMin();
+        final double max = current.getMax();
+        final boolean doScaling = ImageConverter.getDoScaling();
+        int size = stack.getSize();
+        final Object[] converted = new Object[size];
+
+        forEachSlice(size, threads, new SliceFunction() {
+            public void apply(int index) {
+                ImageProcessor ip = stack.getProcessor(index + 1);
+                ip.setMinAndMax(min, max);
+                converted[index] = ip.convertToByte(doScaling).getPixels();
+            }
+        });
+
+        ImageStack result = new ImageStack(stack.getWidth(),
+                stack.getHeight());
+        for (int i = 0; i < size; i++) {
+            result.addSlice(stack.getSliceLabel(i + 1), converted[i]);
+        }
+        imp.setStack(null, result);
+        imp.setCalibration(imp.getCalibration());
+        imp.setSlice(currentSlice);
+    }
+
+    /**
+     * Return the {min, max} over all pixels of a stack, computed in one
+     * slice-parallel pass.
+     *
+     * @param stack the stack.
+     * @param threads the number of worker threads, see
+     * {@link #forEachSlice(int, int, SliceFunction)}.
+     * @return the minimum and maximum pixel value.
+     */
+    public static double[] computeRange(final ImageStack stack, int threads) {
+        int size = stack.getSize();
+        final double[] minima = new double[size];
+        final double[] maxima = new double[size];
+        forEachSlice(size, threads, new SliceFunction() {
+            public void apply(int index) {
+                ImageProcessor ip = stack.getProcessor(index + 1);
+                ip.resetMinAndMax();
+                minima[index] = ip.getMin();
+                maxima[index] = ip.getMax();
+            }
+        });
+        return reduceRange(minima, maxima);
+    }
+
+    /**
+     * Fetch the pixels of every slice, decoding virtual stacks on several
+     * threads at once.
+     *
+     * @param stack the stack.
+     * @param threads the number of worker threads, see
+     * {@link #forEachSlice(int, int, SliceFunction)}.
+     * @return the pixel arrays, indexed from 0.
+     */
+    public static Object[] fetchSlices(final ImageStack stack, int threads) {
+        final Object[] slices = new Object[stack.getSize()];
+        forEachSlice(slices.length, stack.isVirtual() ? threads : 1,
+                new SliceFunction() {
+                    public void apply(int index) {
+                        slices[index] = stack.getPixels(index + 1);
+                    }
+                });
+        return slices;
+    }
+
+    /** Combine per-slice minima and maxima in slice order. */
+    static double[] reduceRange(double[] minima, double[] maxima) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < minima.length; i++) {
+            if (minima[i] < min) {
+                min = minima[i];
+            }
+            if (maxima[i] > max) {
+                max = maxima[i];
+            }
+        }
+        if (min > max) {
+            min = max = 0;
+        }
+        return new double[] { min, max };
+    }
+
+    private static synchronized ForkJoinPool _sharedPool() {
+        if (_pool == null) {
+            _pool = new ForkJoinPool();
+        }
+        return _pool;
+    }
+
+    /** Splits [from, to) in halves down to single slices. */
+    private static class SliceRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        SliceRange(SliceFunction function, int from, int to) {
+            _function = function;
+            _from = from;
+            _to = to;
+        }
+
+        protected void compute() {
+            if (_to - _from == 1) {
+                _function.apply(_from);
+                return;
+            }
+            int middle = (_from + _to) >>> 1;
+            invokeAll(new SliceRange(_function, _from, middle),
+                    new SliceRange(_function, middle, _to));
+        }
+
+        private final SliceFunction _function;
+
+        private final int _from;
+
+        private final int _to;
+    }
+
+    private static ForkJoinPool _pool;
+}
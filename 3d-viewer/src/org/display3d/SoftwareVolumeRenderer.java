@@ -0,0 +1,224 @@
+package org.display3d;
+
+import ij.ImagePlus;
+import ij.measure.Calibration;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Renders a gray8 volume into plain BufferedImages without Java3D, so
+ * that Display3d can run where there is no display (batch and cluster
+ * workflows).
+ *
+ * Volumes are drawn as a maximum intensity projection seen from a
+ * camera that rotates about the vertical (y) axis; orthoslices are the
+ * three central XY, XZ and YZ planes placed side by side. Voxel spacing
+ * from the image calibration is honoured in both cases. A renderer holds
+ * only references to the slices of its image and can be used from
+ * several threads at once.
+ */
+public class SoftwareVolumeRenderer {
+
+    /**
+     * Create a renderer for the given 8-bit image.
+     *
+     * @param img a gray8 image or stack.
+     */
+    public SoftwareVolumeRenderer(ImagePlus img) {
+        this(img, 0);
+    }
+
+    /**
+     * Create a renderer for the given 8-bit image, decoding the slices of
+     * a virtual stack with the given number of threads.
+     *
+     * @param img a gray8 image or stack.
+     * @param threads the number of threads, 0 or less for all cores.
+     */
+    public SoftwareVolumeRenderer(ImagePlus img, int threads) {
+        if (img.getType() != ImagePlus.GRAY8) {
+            throw new IllegalArgumentException(
+                    "SoftwareVolumeRenderer needs a gray8 image.");
+        }
+        _width = img.getWidth();
+        _height = img.getHeight();
+        _depth = img.getStackSize();
+
+        Object[] pixels = ParallelStackConverter.fetchSlices(img.getStack(),
+                threads);
+        _slices = new byte[_depth][];
+        for (int z = 0; z < _depth; z++) {
+            _slices[z] = (byte[]) pixels[z];
+        }
+
+        Calibration cal = img.getCalibration();
+        _sx = cal.pixelWidth > 0 ? cal.pixelWidth : 1.0;
+        _sy = cal.pixelHeight > 0 ? cal.pixelHeight : 1.0;
+        _sz = cal.pixelDepth > 0 ? cal.pixelDepth : 1.0;
+    }
+
+    /**
+     * Render a maximum intensity projection of the volume.
+     *
+     * @param angle rotation of the camera about the y axis in degrees;
+     * 0 looks down the z axis.
+     * @param size the width and height of the returned image in pixels.
+     * @return the rendered frame.
+     */
+    public BufferedImage renderVolume(double angle, int size) {
+        return renderVolumeProcessor(angle, size).getBufferedImage();
+    }
+
+    /**
+     * Same as {@link #renderVolume(double, int)} but returns the ImageJ
+     * processor so frames can be collected into a stack.
+     */
+    public ByteProcessor renderVolumeProcessor(double angle, int size) {
+        double a = Math.toRadians(angle);
+        double cos = Math.cos(a);
+        double sin = Math.sin(a);
+
+        // physical extent of the box and its centre
+        double ex = _width * _sx;
+        double ey = _height * _sy;
+        double ez = _depth * _sz;
+        double cx = ex / 2;
+        double cy = ey / 2;
+        double cz = ez / 2;
+
+        // the view has to fit the box whatever the angle
+        double extent = Math.max(Math.sqrt(ex * ex + ez * ez), ey);
+        double pixel = extent / size;
+        double step = Math.min(_sx, Math.min(_sy, _sz));
+
+        // camera frame: rays travel along dir, image columns along right
+        double dirX = sin;
+        double dirZ = cos;
+        double rightX = cos;
+        double rightZ = -sin;
+
+        byte[] out = new byte[size * size];
+        for (int v = 0; v < size; v++) {
+            double py = cy + (v + 0.5 - size / 2.0) * pixel;
+            if (py < 0 || py >= ey) {
+                continue;
+            }
+            int y = (int) (py / _sy);
+            int row = y * _width;
+            for (int u = 0; u < size; u++) {
+                double offset = (u + 0.5 - size / 2.0) * pixel;
+                double ox = cx + offset * rightX;
+                double oz = cz + offset * rightZ;
+
+                // clip the ray (ox, oz) + t * (dirX, dirZ) against the box
+                double t0 = -extent;
+                double t1 = extent;
+                if (Math.abs(dirX) > 1e-12) {
+                    double ta = (0 - ox) / dirX;
+                    double tb = (ex - ox) / dirX;
+                    t0 = Math.max(t0, Math.min(ta, tb));
+                    t1 = Math.min(t1, Math.max(ta, tb));
+                } else if (ox < 0 || ox >= ex) {
+                    continue;
+                }
+                if (Math.abs(dirZ) > 1e-12) {
+                    double ta = (0 - oz) / dirZ;
+                    double tb = (ez - oz) / dirZ;
+                    t0 = Math.max(t0, Math.min(ta, tb));
+                    t1 = Math.min(t1, Math.max(ta, tb));
+                } else if (oz < 0 || oz >= ez) {
+                    continue;
+                }
+
+                int max = 0;
+                for (double t = t0; t < t1 && max < 255; t += step) {
+                    int x = (int) ((ox + t * dirX) / _sx);
+                    int z = (int) ((oz + t * dirZ) / _sz);
+                    if (x < 0 || x >= _width || z < 0 || z >= _depth) {
+                        continue;
+                    }
+                    int g = _slices[z][row + x] & 0xff;
+                    if (g > max) {
+                        max = g;
+                    }
+                }
+                out[v * size + u] = (byte) max;
+            }
+        }
+        return new ByteProcessor(size, size, out, null);
+    }
+
+    /**
+     * Render the three central orthoslices (XY, XZ and YZ) next to each
+     * other, each scaled to the given height with the correct aspect
+     * ratio.
+     *
+     * @param size the height of the returned image in pixels.
+     * @return the rendered frame.
+     */
+    public BufferedImage renderOrthoslices(int size) {
+        int xc = _width / 2;
+        int yc = _height / 2;
+        int zc = _depth / 2;
+
+        ByteProcessor xy = new ByteProcessor(_width, _height,
+                _slices[zc].clone(), null);
+
+        byte[] xzPixels = new byte[_width * _depth];
+        for (int z = 0; z < _depth; z++) {
+            System.arraycopy(_slices[z], yc * _width, xzPixels, z * _width,
+                    _width);
+        }
+        ByteProcessor xz = new ByteProcessor(_width, _depth, xzPixels, null);
+
+        byte[] yzPixels = new byte[_depth * _height];
+        for (int z = 0; z < _depth; z++) {
+            for (int y = 0; y < _height; y++) {
+                yzPixels[y * _depth + z] = _slices[z][y * _width + xc];
+            }
+        }
+        ByteProcessor yz = new ByteProcessor(_depth, _height, yzPixels, null);
+
+        ImageProcessor[] views = new ImageProcessor[] {
+                _scale(xy, _width * _sx, _height * _sy, size),
+                _scale(xz, _width * _sx, _depth * _sz, size),
+                _scale(yz, _depth * _sz, _height * _sy, size) };
+
+        int total = 0;
+        for (int i = 0; i < views.length; i++) {
+            total += views[i].getWidth();
+        }
+        ByteProcessor out = new ByteProcessor(total, size);
+        int x = 0;
+        for (int i = 0; i < views.length; i++) {
+            out.insert(views[i], x, 0);
+            x += views[i].getWidth();
+        }
+        return out.getBufferedImage();
+    }
+
+    private ImageProcessor _scale(ImageProcessor ip, double physicalWidth,
+            double physicalHeight, int size) {
+        int width = (int) Math.max(1,
+                Math.round(size * physicalWidth / physicalHeight));
+        ip.setInterpolationMethod(ImageProcessor.BILINEAR);
+        return ip.resize(width, size);
+    }
+
+    private final int _width;
+
+    private final int _height;
+
+    private final int _depth;
+
+    private final byte[][] _slices;
+
+    /** Voxel spacing along x, y and z. */
+    private final double _sx;
+
+    private final double _sy;
+
+    private final double _sz;
+}
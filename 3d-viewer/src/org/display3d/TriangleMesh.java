@@ -0,0 +1,160 @@
+package org.display3d;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * An indexed triangle mesh, as extracted by {@link MarchingCubes}.
+ *
+ * Vertices are stored as packed x, y, z floats and triangles as packed
+ * vertex indices, counter-clockwise seen from outside the surface.
+ * Meshes can be written as Wavefront OBJ or binary STL files.
+ */
+public class TriangleMesh {
+
+    /**
+     * Create a mesh from packed arrays; the arrays are not copied.
+     *
+     * @param vertices x, y, z of every vertex.
+     * @param triangles three vertex indices per triangle.
+     */
+    public TriangleMesh(float[] vertices, int[] triangles) {
+        _vertices = vertices;
+        _triangles = triangles;
+    }
+
+    /** Return the packed x, y, z vertex coordinates; do not modify. */
+    public float[] getVertices() {
+        return _vertices;
+    }
+
+    /** Return the packed triangle vertex indices; do not modify. */
+    public int[] getTriangles() {
+        return _triangles;
+    }
+
+    /** Return the number of vertices. */
+    public int getVertexCount() {
+        return _vertices.length / 3;
+    }
+
+    /** Return the number of triangles. */
+    public int getTriangleCount() {
+        return _triangles.length / 3;
+    }
+
+    /**
+     * Write the mesh to a file, as binary STL if its name ends with
+     * ".stl" and as Wavefront OBJ otherwise.
+     *
+     * @param file the file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public void write(File file) throws IOException {
+        if (file.getName().toLowerCase().endsWith(".stl")) {
+            writeStl(file);
+        } else {
+            writeObj(file);
+        }
+    }
+
+    /**
+     * Write the mesh as a Wavefront OBJ file, with shared vertices.
+     *
+     * @param file the file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public void writeObj(File file) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), "US-ASCII"), 1 << 16);
+        try {
+            out.write("# " + getVertexCount() + " vertices, "
+                    + getTriangleCount() + " triangles\n");
+            StringBuilder line = new StringBuilder(64);
+            for (int i = 0; i < _vertices.length; i += 3) {
+                line.setLength(0);
+                line.append("v ").append(_vertices[i]).append(' ')
+                        .append(_vertices[i + 1]).append(' ')
+                        .append(_vertices[i + 2]).append('\n');
+                out.write(line.toString());
+            }
+            for (int i = 0; i < _triangles.length; i += 3) {
+                line.setLength(0);
+                // OBJ indices start at 1
+                line.append("f ").append(_triangles[i] + 1).append(' ')
+                        .append(_triangles[i + 1] + 1).append(' ')
+                        .append(_triangles[i + 2] + 1).append('\n');
+                out.write(line.toString());
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Write the mesh as a binary STL file, with one facet normal per
+     * triangle.
+     *
+     * @param file the file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public void writeStl(File file) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(
+                file), 1 << 16);
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(84).order(
+                    ByteOrder.LITTLE_ENDIAN);
+            byte[] header = ("binary STL, " + getTriangleCount()
+                    + " triangles").getBytes("US-ASCII");
+            buffer.put(header, 0, Math.min(header.length, 80));
+            buffer.position(80);
+            buffer.putInt(getTriangleCount());
+            out.write(buffer.array());
+
+            ByteBuffer facet = ByteBuffer.allocate(50).order(
+                    ByteOrder.LITTLE_ENDIAN);
+            for (int t = 0; t < _triangles.length; t += 3) {
+                int a = 3 * _triangles[t];
+                int b = 3 * _triangles[t + 1];
+                int c = 3 * _triangles[t + 2];
+                float ux = _vertices[b] - _vertices[a];
+                float uy = _vertices[b + 1] - _vertices[a + 1];
+                float uz = _vertices[b + 2] - _vertices[a + 2];
+                float vx = _vertices[c] - _vertices[a];
+                float vy = _vertices[c + 1] - _vertices[a + 1];
+                float vz = _vertices[c + 2] - _vertices[a + 2];
+                float nx = uy * vz - uz * vy;
+                float ny = uz * vx - ux * vz;
+                float nz = ux * vy - uy * vx;
+                float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+                if (length > 0) {
+                    nx /= length;
+                    ny /= length;
+                    nz /= length;
+                }
+                facet.clear();
+                facet.putFloat(nx).putFloat(ny).putFloat(nz);
+                for (int v : new int[] { a, b, c }) {
+                    facet.putFloat(_vertices[v]).putFloat(_vertices[v + 1])
+                            .putFloat(_vertices[v + 2]);
+                }
+                facet.putShort((short) 0);
+                out.write(facet.array());
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private final float[] _vertices;
+
+    private final int[] _triangles;
+}
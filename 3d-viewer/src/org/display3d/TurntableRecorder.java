@@ -0,0 +1,258 @@
+package org.display3d;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.plugin.filter.AVI_Writer;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Records a 360 degree turntable of a volume with a
+ * {@link SoftwareVolumeRenderer}, without a display and without holding
+ * the movie in memory.
+ *
+ * Frame i shows the volume rotated by startAngle + 360 * i / frames
+ * degrees about the vertical axis. Frames are rendered on demand, a batch
+ * of one frame per thread at a time, and only the current batch is kept.
+ * The frames can be pulled one by one, written as an AVI (through a
+ * virtual stack that ImageJ's AVI writer reads frame by frame) or
+ * written as a numbered PNG sequence. A {@link FrameListener} sees every
+ * frame once while the frames are pulled or written, so a movie can be
+ * written and the frames used elsewhere without rendering them twice.
+ */
+public class TurntableRecorder {
+
+    /**
+     * Create a recorder.
+     *
+     * @param renderer the renderer of the volume.
+     * @param frames the number of frames in a full turn.
+     * @param size the width and height of the frames in pixels.
+     * @param startAngle the angle of the first frame in degrees.
+     * @param threads the number of frames rendered at once, 0 or less for
+     * one per core.
+     */
+    public TurntableRecorder(SoftwareVolumeRenderer renderer, int frames,
+            int size, double startAngle, int threads) {
+        if (frames <= 0 || size <= 0) {
+            throw new IllegalArgumentException("A turntable needs a "
+                    + "positive number of frames and size, got " + frames
+                    + " frames of " + size + " pixels.");
+        }
+        _renderer = renderer;
+        _frames = frames;
+        _size = size;
+        _startAngle = startAngle;
+        _threads = threads;
+        _batchSize = threads > 0 ? threads : Runtime.getRuntime()
+                .availableProcessors();
+    }
+
+    /** Return the number of frames. */
+    public int getFrameCount() {
+        return _frames;
+    }
+
+    /**
+     * Return a frame, rendering it and the next frames of its batch if
+     * it is not in the current batch.
+     *
+     * @param index the 0-based frame index.
+     * @return the frame; do not modify it.
+     */
+    public synchronized ByteProcessor getFrame(int index) {
+        if (index < 0 || index >= _frames) {
+            throw new IllegalArgumentException("Frame " + index
+                    + " out of range 0-" + (_frames - 1));
+        }
+        if (_batch == null || index < _batchStart
+                || index >= _batchStart + _batch.length) {
+            final int start = index;
+            final ByteProcessor[] batch = new ByteProcessor[Math.min(
+                    _batchSize, _frames - index)];
+            // drop the old batch before rendering the new one
+            _batch = null;
+            ParallelStackConverter.forEachSlice(batch.length, _threads,
+                    new ParallelStackConverter.SliceFunction() {
+                        public void apply(int i) {
+                            batch[i] = _renderer.renderVolumeProcessor(
+                                    getAngle(start + i), _size);
+                        }
+                    });
+            _batch = batch;
+            _batchStart = start;
+        }
+        ByteProcessor frame = _batch[index - _batchStart];
+        if (_listener != null && index == _nextListenedFrame) {
+            _nextListenedFrame++;
+            _listener.frameRecorded(index, frame);
+        }
+        return frame;
+    }
+
+    /**
+     * Hand the frames the listener has not seen yet to it, in order. Only
+     * frames that were skipped when the frames were pulled are rendered.
+     */
+    public synchronized void listenToRemainingFrames() {
+        while (_listener != null && _nextListenedFrame < _frames) {
+            getFrame(_nextListenedFrame);
+        }
+    }
+
+    /**
+     * Set the listener that is given each frame the first time frames
+     * are pulled up to it, in order, starting with frame 0.
+     *
+     * @param listener the listener, or null for none.
+     */
+    public synchronized void setFrameListener(FrameListener listener) {
+        _listener = listener;
+        _nextListenedFrame = 0;
+    }
+
+    /** Return the view angle of a frame in degrees. */
+    public double getAngle(int index) {
+        return _startAngle + 360.0 * index / _frames;
+    }
+
+    /**
+     * Return a virtual stack whose slices are the frames, rendered when
+     * they are asked for.
+     */
+    public ImageStack getStack() {
+        return new FrameStack();
+    }
+
+    /**
+     * Write the turntable as a JPEG compressed AVI.
+     *
+     * @param file the file to write.
+     * @param frameRate the frames per second.
+     * @throws IOException if the file cannot be written.
+     */
+    public void writeAvi(File file, double frameRate) throws IOException {
+        ImagePlus movie = new ImagePlus(file.getName(), getStack());
+        movie.getCalibration().fps = frameRate;
+        new AVI_Writer().writeImage(movie, file.getPath(),
+                AVI_Writer.JPEG_COMPRESSION, 90);
+    }
+
+    /**
+     * Write the turntable as PNG files named after the given file with a
+     * 4 digit frame number, e.g. turntable.png gives turntable_0001.png,
+     * turntable_0002.png and so on. If the file is a directory the frames
+     * are written into it as frame_0001.png etc.
+     *
+     * @param file a directory or the name pattern of the frames.
+     * @throws IOException if a frame cannot be written.
+     */
+    public void writeSequence(File file) throws IOException {
+        File directory;
+        String prefix;
+        if (file.isDirectory()) {
+            directory = file;
+            prefix = "frame";
+        } else {
+            directory = file.getAbsoluteFile().getParentFile();
+            prefix = file.getName();
+            if (prefix.toLowerCase().endsWith(".png")) {
+                prefix = prefix.substring(0, prefix.length() - 4);
+            }
+        }
+        for (int i = 0; i < _frames; i++) {
+            File frame = new File(directory, String.format("%s_%04d.png",
+                    prefix, i + 1));
+            if (!ImageIO.write(getFrame(i).getBufferedImage(), "png", frame)) {
+                throw new IOException("No PNG writer for " + frame);
+            }
+        }
+    }
+
+    /** Is given the frames of a turntable as they are recorded. */
+    public interface FrameListener {
+        /**
+         * Called once for each frame, in order, on the thread that pulled
+         * the frame.
+         *
+         * @param index the 0-based frame index.
+         * @param frame the frame; do not modify it.
+         */
+        void frameRecorded(int index, ByteProcessor frame);
+    }
+
+    /** The frames as a read-only virtual stack. */
+    private class FrameStack extends ImageStack {
+        FrameStack() {
+            super(_size, _size);
+        }
+
+        public int getSize() {
+            return _frames;
+        }
+
+        public int getBitDepth() {
+            return 8;
+        }
+
+        public Object getPixels(int n) {
+            return getProcessor(n).getPixels();
+        }
+
+        public ImageProcessor getProcessor(int n) {
+            return getFrame(n - 1);
+        }
+
+        public String getSliceLabel(int n) {
+            return String.format("%.1f deg", getAngle(n - 1));
+        }
+
+        public void setSliceLabel(String label, int n) {
+        }
+
+        public void setPixels(Object pixels, int n) {
+            throw new UnsupportedOperationException("A turntable is "
+                    + "read-only");
+        }
+
+        public void deleteSlice(int n) {
+            throw new UnsupportedOperationException("A turntable is "
+                    + "read-only");
+        }
+
+        public Object[] getImageArray() {
+            return null;
+        }
+
+        public boolean isVirtual() {
+            return true;
+        }
+    }
+
+    private final SoftwareVolumeRenderer _renderer;
+
+    private final int _frames;
+
+    private final int _size;
+
+    private final double _startAngle;
+
+    private final int _threads;
+
+    private final int _batchSize;
+
+    /* The frames rendered last, starting at _batchStart. */
+    private ByteProcessor[] _batch;
+
+    private int _batchStart;
+
+    private FrameListener _listener;
+
+    /* The frame the listener is given next. */
+    private int _nextListenedFrame;
+}
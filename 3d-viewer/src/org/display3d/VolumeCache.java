@@ -0,0 +1,472 @@
+package org.display3d;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.kepler.util.DotKeplerManager;
+
+/**
+ * A process-wide cache of decoded, gray8-converted volumes shared by all
+ * Display3d actors, so that the same DICOM/NIfTI series is decoded only
+ * once per process, and with the disk spill enabled, only once across
+ * workflow runs.
+ *
+ * Entries are keyed by {@link #keyFor(String, boolean, int, String)}:
+ * the absolute path, modification time and size of the file plus the load
+ * options. The in-memory part is an LRU bounded by the number of voxel
+ * bytes of the stacks it holds. The stacks themselves are kept, so a
+ * memory-mapped stack stays virtual and is decoded slice by slice as
+ * before. When spilling is enabled every new entry is also written, in
+ * the background, to the display3d directory of the Kepler cache, which
+ * is itself pruned oldest-first to a size limit.
+ *
+ * A cached stack is shared between all images handed out for its entry
+ * and must not be modified.
+ */
+public class VolumeCache {
+
+    private VolumeCache() {
+    }
+
+    /** Return the cache shared by the whole process. */
+    public static synchronized VolumeCache getInstance() {
+        if (_instance == null) {
+            _instance = new VolumeCache();
+        }
+        return _instance;
+    }
+
+    /**
+     * Return the cache key for a file loaded with the given options, or
+     * null if the path is not a local file or directory and so cannot be
+     * cached. A directory is identified by the newest modification time
+     * and the number of the files in it, so that replacing a file of a
+     * DICOM series in place also changes the key.
+     *
+     * @param path the file or directory.
+     * @param nifti the niftiFileType option.
+     * @param frame the 0-based 3D frame.
+     * @param series the DICOM series option, may be null.
+     * @return the key.
+     */
+    public static String keyFor(String path, boolean nifti, int frame,
+            String series) {
+        File file = new File(path);
+        if (!file.exists()) {
+            return null;
+        }
+        long modified = file.lastModified();
+        long length = file.length();
+        if (file.isDirectory()) {
+            File[] files = file.listFiles();
+            if (files == null) {
+                return null;
+            }
+            length = files.length;
+            for (File child : files) {
+                modified = Math.max(modified, child.lastModified());
+            }
+        }
+        String key = file.getAbsolutePath() + "|" + modified + "|" + length
+                + "|" + nifti + "|" + frame;
+        if (series != null && series.length() > 0) {
+            key += "|" + series;
+        }
+        return key;
+    }
+
+    /**
+     * Return a gray8 image for the key, from memory or from the disk
+     * spill, or null if it is not cached.
+     *
+     * @param key the key, see
+     * {@link #keyFor(String, boolean, int, String)}.
+     * @return a new ImagePlus sharing the cached stack, or null.
+     */
+    public ImagePlus get(String key) {
+        Entry entry;
+        File spillDirectory;
+        synchronized (this) {
+            entry = _entries.get(key);
+            if (entry != null) {
+                _hits++;
+                return entry.toImage();
+            }
+            spillDirectory = _spillDirectory;
+        }
+
+        if (spillDirectory != null) {
+            File file = _spillFile(spillDirectory, key);
+            if (file.isFile()) {
+                try {
+                    entry = _readSpill(file);
+                } catch (IOException e) {
+                    file.delete();
+                    entry = null;
+                }
+            }
+        }
+
+        synchronized (this) {
+            if (entry == null) {
+                _misses++;
+                return null;
+            }
+            _diskHits++;
+            if (entry.bytes <= _maxBytes) {
+                _store(key, entry);
+            }
+            return entry.toImage();
+        }
+    }
+
+    /**
+     * Add a gray8 image to the cache. Its stack is kept as it is, nothing
+     * is decoded here. An image with more voxel bytes than the memory
+     * limit is not kept in memory, only written to the disk spill if that
+     * is enabled.
+     *
+     * @param key the key, see
+     * {@link #keyFor(String, boolean, int, String)}.
+     * @param image the gray8 image.
+     */
+    public void put(final String key, ImagePlus image) {
+        if (key == null || image.getType() != ImagePlus.GRAY8) {
+            return;
+        }
+        final Entry entry = new Entry(image.getTitle(), image.getStack(),
+                image.getCalibration().copy());
+
+        final File spillDirectory;
+        synchronized (this) {
+            if (entry.bytes <= _maxBytes) {
+                _store(key, entry);
+            }
+            spillDirectory = _spillDirectory;
+        }
+        if (spillDirectory != null) {
+            _spiller().execute(new Runnable() {
+                public void run() {
+                    _writeSpill(spillDirectory, key, entry);
+                }
+            });
+        }
+    }
+
+    /** Drop every entry held in memory. The disk spill is kept. */
+    public synchronized void clear() {
+        _entries.clear();
+        _sizeBytes = 0;
+    }
+
+    /**
+     * Set the number of voxel bytes kept in memory, evicting the least
+     * recently used entries if needed.
+     *
+     * @param maxBytes the limit in bytes; 0 disables the in-memory part.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        _maxBytes = Math.max(0, maxBytes);
+        _evict();
+    }
+
+    /**
+     * Enable or disable spilling entries to
+     * <code>&lt;Kepler cache&gt;/display3d</code>.
+     *
+     * @param spill true to write entries to disk and read them back.
+     */
+    public synchronized void setSpillEnabled(boolean spill) {
+        if (spill && _spillDirectory == null) {
+            _spillDirectory = new File(DotKeplerManager.getInstance()
+                    .getCacheDir(SPILL_DIRECTORY_NAME));
+        } else if (!spill) {
+            _spillDirectory = null;
+        }
+    }
+
+    /** Set the size the disk spill is pruned to, in bytes. */
+    public synchronized void setMaxDiskBytes(long maxDiskBytes) {
+        _maxDiskBytes = maxDiskBytes;
+    }
+
+    /** Number of lookups answered from memory. */
+    public synchronized long getHits() {
+        return _hits;
+    }
+
+    /** Number of lookups answered from the disk spill. */
+    public synchronized long getDiskHits() {
+        return _diskHits;
+    }
+
+    /** Number of lookups that found nothing. */
+    public synchronized long getMisses() {
+        return _misses;
+    }
+
+    /** Number of entries evicted from memory. */
+    public synchronized long getEvictions() {
+        return _evictions;
+    }
+
+    /** Number of entries held in memory. */
+    public synchronized int getEntryCount() {
+        return _entries.size();
+    }
+
+    /** Number of voxel bytes held in memory. */
+    public synchronized long getSizeBytes() {
+        return _sizeBytes;
+    }
+
+    /** Return a one line summary of the statistics. */
+    public synchronized String getStatistics() {
+        return "VolumeCache: " + _entries.size() + " volume(s), "
+                + (_sizeBytes >> 20) + " of " + (_maxBytes >> 20)
+                + " MB, " + _hits + " hit(s), " + _diskHits
+                + " disk hit(s), " + _misses + " miss(es), " + _evictions
+                + " eviction(s)";
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private methods                   ////
+
+    /** Add an entry and evict down to the limit. Called with the
+     *  monitor held.
+     */
+    private void _store(String key, Entry entry) {
+        Entry old = _entries.put(key, entry);
+        if (old != null) {
+            _sizeBytes -= old.bytes;
+        }
+        _sizeBytes += entry.bytes;
+        _evict();
+    }
+
+    private void _evict() {
+        Iterator<Map.Entry<String, Entry>> iterator = _entries.entrySet()
+                .iterator();
+        while (_sizeBytes > _maxBytes && iterator.hasNext()) {
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            _sizeBytes -= eldest.bytes;
+            _evictions++;
+        }
+    }
+
+    private static File _spillFile(File directory, String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(key.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < hash.length; i++) {
+                name.append(Integer.toHexString((hash[i] & 0xff) | 0x100)
+                        .substring(1));
+            }
+            return new File(directory, name.append(".vol").toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Entry _readSpill(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), 1 << 16));
+        try {
+            if (in.readInt() != SPILL_MAGIC) {
+                throw new IOException("Not a volume cache file: " + file);
+            }
+            String title = in.readUTF();
+            int width = in.readInt();
+            int height = in.readInt();
+            int depth = in.readInt();
+            Calibration cal = new Calibration();
+            cal.pixelWidth = in.readDouble();
+            cal.pixelHeight = in.readDouble();
+            cal.pixelDepth = in.readDouble();
+            cal.setUnit(in.readUTF());
+            ImageStack stack = new ImageStack(width, height);
+            for (int z = 0; z < depth; z++) {
+                byte[] slice = new byte[width * height];
+                in.readFully(slice);
+                stack.addSlice(null, slice);
+            }
+            // keep recently used files at the end when pruning
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry(title, stack, cal);
+        } finally {
+            in.close();
+        }
+    }
+
+    private void _writeSpill(File directory, String key, Entry entry) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+        File file = _spillFile(directory, key);
+        File partial = new File(file.getPath() + ".part");
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(partial),
+                            1 << 16));
+            try {
+                out.writeInt(SPILL_MAGIC);
+                ImageStack stack = entry.stack;
+                out.writeUTF(entry.title);
+                out.writeInt(stack.getWidth());
+                out.writeInt(stack.getHeight());
+                out.writeInt(stack.getSize());
+                out.writeDouble(entry.calibration.pixelWidth);
+                out.writeDouble(entry.calibration.pixelHeight);
+                out.writeDouble(entry.calibration.pixelDepth);
+                out.writeUTF(entry.calibration.getUnit());
+                // a virtual stack decodes each slice here, in the background
+                for (int z = 1; z <= stack.getSize(); z++) {
+                    out.write((byte[]) stack.getPixels(z));
+                }
+            } finally {
+                out.close();
+            }
+            if (!partial.renameTo(file)) {
+                partial.delete();
+            }
+        } catch (IOException e) {
+            // the spill is only an optimization
+            partial.delete();
+            return;
+        }
+        _pruneSpill(directory);
+    }
+
+    /** Delete the oldest spill files until the directory fits. */
+    private void _pruneSpill(File directory) {
+        long maxDiskBytes;
+        synchronized (this) {
+            maxDiskBytes = _maxDiskBytes;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> volumes = new ArrayList<File>();
+        long total = 0;
+        for (int i = 0; i < files.length; i++) {
+            if (files[i].getName().endsWith(".vol")) {
+                volumes.add(files[i]);
+                total += files[i].length();
+            }
+        }
+        File[] sorted = volumes.toArray(new File[volumes.size()]);
+        Arrays.sort(sorted, new Comparator<File>() {
+            public int compare(File a, File b) {
+                long d = a.lastModified() - b.lastModified();
+                return d < 0 ? -1 : (d > 0 ? 1 : 0);
+            }
+        });
+        for (int i = 0; i < sorted.length && total > maxDiskBytes; i++) {
+            long length = sorted[i].length();
+            if (sorted[i].delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    private static synchronized ExecutorService _spiller() {
+        if (_spillExecutor == null) {
+            _spillExecutor = Executors
+                    .newSingleThreadExecutor(new ThreadFactory() {
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable,
+                                    "Display3d volume cache spill");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return _spillExecutor;
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         inner classes                     ////
+
+    /** A gray8 volume. The stack is never modified. */
+    private static class Entry {
+        Entry(String title, ImageStack stack, Calibration calibration) {
+            this.title = title;
+            this.stack = stack;
+            this.calibration = calibration;
+            this.bytes = (long) stack.getWidth() * stack.getHeight()
+                    * stack.getSize();
+        }
+
+        ImagePlus toImage() {
+            ImagePlus image = new ImagePlus(title, stack);
+            image.setCalibration(calibration.copy());
+            return image;
+        }
+
+        final String title;
+
+        final ImageStack stack;
+
+        final Calibration calibration;
+
+        final long bytes;
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+
+    private static final int SPILL_MAGIC = 0x44334456;
+
+    private static final String SPILL_DIRECTORY_NAME = "display3d";
+
+    private static VolumeCache _instance;
+
+    private static ExecutorService _spillExecutor;
+
+    /** Access ordered, so iteration starts at the least recently used. */
+    private final LinkedHashMap<String, Entry> _entries = new LinkedHashMap<String, Entry>(
+            16, 0.75f, true);
+
+    private long _maxBytes = 512L * 1024 * 1024;
+
+    private long _maxDiskBytes = 4L * 1024 * 1024 * 1024;
+
+    private long _sizeBytes;
+
+    private File _spillDirectory;
+
+    private long _hits;
+
+    private long _diskHits;
+
+    private long _misses;
+
+    private long _evictions;
+}
@@ -0,0 +1,127 @@
+package org.display3d;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.measure.Calibration;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Turns a path into the 8-bit ImagePlus that the 3D viewer needs.
+ *
+ * Uncompressed NIfTI-1/Analyze volumes are memory-mapped and exposed
+ * through a {@link MappedVolumeStack}, so only one frame is ever decoded
+ * and only slice by slice. Everything else goes through ImageJ (or the
+ * Nifti_Reader plugin for gzipped NIfTI) and is converted to gray8
+ * afterwards, one slice per core. Directories of DICOM files are read
+ * as a series by {@link DicomSeriesReader}.
+ */
+public class VolumeLoader {
+
+    /** Create a loader for frame 0 that uses all cores. */
+    public VolumeLoader() {
+    }
+
+    /**
+     * Open the volume at the given path as a gray8 image.
+     *
+     * @param path the file (or directory) to open.
+     * @param nifti true if the file should be treated as NIfTI even when
+     * it cannot be streamed.
+     * @return the gray8 image.
+     * @throws IOException if the file cannot be opened.
+     */
+    public ImagePlus open(String path, boolean nifti) throws IOException {
+        ImagePlus img = null;
+        if (new File(path).isDirectory()) {
+            DicomSeriesReader reader = new DicomSeriesReader();
+            reader.setSeries(_series);
+            reader.setThreads(_threads);
+            // null when there is no DICOM file, ImageJ then opens the
+            // directory as an image sequence
+            img = reader.open(path);
+        } else if (NiftiVolumeHeader.isMappable(path)) {
+            try {
+                img = openMapped(path);
+            } catch (IOException e) {
+                // Not something we can map (e.g. an .img that is not
+                // Analyze, or an unsupported datatype), let ImageJ try.
+                img = null;
+            }
+        }
+        if (img == null) {
+            if (nifti) {
+                img = (ImagePlus) IJ.runPlugIn("Nifti_Reader", path);
+            } else {
+                img = IJ.openImage(path);
+            }
+        }
+        if (img == null) {
+            throw new IOException("Could not open " + path);
+        }
+
+        //does grayscale converstion required by 3D_viewer
+        ParallelStackConverter.convertToGray8(img, _threads);
+        return img;
+    }
+
+    /**
+     * Open one frame of an uncompressed NIfTI/Analyze file as a virtual,
+     * memory-mapped gray8 stack.
+     *
+     * @param path the .nii, .hdr or .img file.
+     * @return the image.
+     * @throws IOException if the file cannot be mapped.
+     */
+    public ImagePlus openMapped(String path) throws IOException {
+        NiftiVolumeHeader header = NiftiVolumeHeader.read(path);
+        MappedVolumeStack stack = new MappedVolumeStack(header, _frame,
+                _cacheSlices, _threads);
+
+        ImagePlus img = new ImagePlus(new File(path).getName(), stack);
+        Calibration cal = img.getCalibration();
+        if (header.pixelWidth > 0 && header.pixelHeight > 0
+                && header.pixelDepth > 0) {
+            cal.pixelWidth = header.pixelWidth;
+            cal.pixelHeight = header.pixelHeight;
+            cal.pixelDepth = header.pixelDepth;
+            cal.setUnit("mm");
+        }
+        return img;
+    }
+
+    /** Set the 0-based 3D frame to show for 4D volumes; only used when
+     *  the file is memory-mapped.
+     */
+    public void setFrame(int frame) {
+        _frame = frame;
+    }
+
+    /** Set the number of decoded slices a memory-mapped stack keeps. */
+    public void setCacheSlices(int cacheSlices) {
+        _cacheSlices = cacheSlices;
+    }
+
+    /** Set the SeriesInstanceUID to open from a DICOM directory, null or
+     *  empty for the series with the most slices.
+     */
+    public void setSeries(String series) {
+        _series = series;
+    }
+
+    /** Set the number of threads used to decode and convert slices,
+     *  0 or less for all cores.
+     */
+    public void setThreads(int threads) {
+        _threads = threads;
+    }
+
+    private int _frame = 0;
+
+    private int _cacheSlices = 64;
+
+    private String _series;
+
+    private int _threads = 0;
+}
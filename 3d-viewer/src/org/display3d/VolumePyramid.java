@@ -0,0 +1,185 @@
+package org.display3d;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+
+/**
+ * A multi-resolution pyramid over a gray8 volume. Level 0 is the volume
+ * itself; every further level halves each dimension by averaging 2x2x2
+ * blocks of the level below, until the largest dimension is at most
+ * {@link #COARSEST_SIZE} voxels.
+ *
+ * Levels are built on demand, from the finest level that already exists,
+ * with one output slice per fork/join task. This lets Display3d show a
+ * coarse volume right away and refine it in the background, up to the
+ * finest level whose textures fit in a memory budget.
+ */
+public class VolumePyramid {
+
+    /**
+     * Create a pyramid over the given image. Only level 0 exists until
+     * {@link #getLevel(int)} is called.
+     *
+     * @param image the full resolution gray8 image.
+     * @param threads the number of threads used to build levels, 0 or
+     * less for all cores.
+     */
+    public VolumePyramid(ImagePlus image, int threads) {
+        _threads = threads;
+        int levels = 1;
+        int w = image.getWidth();
+        int h = image.getHeight();
+        int d = image.getStackSize();
+        while (Math.max(w, Math.max(h, d)) > COARSEST_SIZE) {
+            w = _half(w);
+            h = _half(h);
+            d = _half(d);
+            levels++;
+        }
+        _levels = new ImagePlus[levels];
+        _levels[0] = image;
+    }
+
+    /** Return the number of levels, including the full resolution one. */
+    public int getLevelCount() {
+        return _levels.length;
+    }
+
+    /**
+     * Return the given level, building it and any missing level between
+     * it and the full resolution first.
+     *
+     * @param level the level, 0 being the full resolution.
+     * @return the downsampled image.
+     */
+    public synchronized ImagePlus getLevel(int level) {
+        if (level < 0 || level >= _levels.length) {
+            throw new IllegalArgumentException("Level " + level
+                    + " out of range 0-" + (_levels.length - 1));
+        }
+        int built = level;
+        while (_levels[built] == null) {
+            built--;
+        }
+        for (int l = built + 1; l <= level; l++) {
+            _levels[l] = _downsample(_levels[l - 1], l);
+        }
+        return _levels[level];
+    }
+
+    /**
+     * Return the finest level whose estimated texture memory is within
+     * the given budget, or the coarsest level if none is.
+     *
+     * @param maxBytes the budget in bytes; 0 or less means no limit.
+     * @return the level index.
+     */
+    public int finestLevelWithin(long maxBytes) {
+        if (maxBytes <= 0) {
+            return 0;
+        }
+        ImagePlus full = _levels[0];
+        int w = full.getWidth();
+        int h = full.getHeight();
+        int d = full.getStackSize();
+        for (int level = 0; level < _levels.length; level++) {
+            if (textureBytes(w, h, d) <= maxBytes) {
+                return level;
+            }
+            w = _half(w);
+            h = _half(h);
+            d = _half(d);
+        }
+        return _levels.length - 1;
+    }
+
+    /**
+     * Estimate the texture memory the 3D viewer needs to render a gray8
+     * volume of the given size. The viewer keeps one stack of 2D textures
+     * per axis, each padded to powers of two.
+     *
+     * @return the estimated size in bytes.
+     */
+    public static long textureBytes(int width, int height, int depth) {
+        long x = _powerOfTwo(width);
+        long y = _powerOfTwo(height);
+        long z = _powerOfTwo(depth);
+        return depth * x * y + height * x * z + width * y * z;
+    }
+
+    private ImagePlus _downsample(ImagePlus source, int level) {
+        final int sw = source.getWidth();
+        final int sh = source.getHeight();
+        final int sd = source.getStackSize();
+        final int w = _half(sw);
+        final int h = _half(sh);
+        int d = _half(sd);
+
+        final Object[] in = ParallelStackConverter.fetchSlices(
+                source.getStack(), _threads);
+        final byte[][] out = new byte[d][];
+
+        ParallelStackConverter.forEachSlice(d, _threads,
+                new ParallelStackConverter.SliceFunction() {
+                    public void apply(int z) {
+                        byte[] slice = new byte[w * h];
+                        int z0 = 2 * z;
+                        int z1 = Math.min(z0 + 1, sd - 1);
+                        for (int y = 0; y < h; y++) {
+                            int y0 = 2 * y;
+                            int y1 = Math.min(y0 + 1, sh - 1);
+                            for (int x = 0; x < w; x++) {
+                                int x0 = 2 * x;
+                                int x1 = Math.min(x0 + 1, sw - 1);
+                                int sum = 0;
+                                int n = 0;
+                                for (int zz = z0; zz <= z1; zz++) {
+                                    byte[] s = (byte[]) in[zz];
+                                    for (int yy = y0; yy <= y1; yy++) {
+                                        for (int xx = x0; xx <= x1; xx++) {
+                                            sum += s[yy * sw + xx] & 0xff;
+                                            n++;
+                                        }
+                                    }
+                                }
+                                slice[y * w + x] = (byte) ((sum + n / 2) / n);
+                            }
+                        }
+                        out[z] = slice;
+                    }
+                });
+
+        ImageStack stack = new ImageStack(w, h);
+        for (int z = 0; z < d; z++) {
+            stack.addSlice(null, out[z]);
+        }
+        ImagePlus result = new ImagePlus(source.getTitle() + " (level "
+                + level + ")", stack);
+        Calibration cal = source.getCalibration().copy();
+        cal.pixelWidth *= (double) sw / w;
+        cal.pixelHeight *= (double) sh / h;
+        cal.pixelDepth *= (double) sd / d;
+        result.setCalibration(cal);
+        return result;
+    }
+
+    private static int _half(int n) {
+        return Math.max(1, (n + 1) / 2);
+    }
+
+    private static long _powerOfTwo(int n) {
+        long p = 1;
+        while (p < n) {
+            p <<= 1;
+        }
+        return p;
+    }
+
+    /** Levels stop once the largest dimension is this small. */
+    public static final int COARSEST_SIZE = 64;
+
+    private final ImagePlus[] _levels;
+
+    private final int _threads;
+}
@@ -0,0 +1,186 @@
+package org.display3d;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+
+import ptolemy.data.ArrayToken;
+import ptolemy.data.IntMatrixToken;
+import ptolemy.data.MatrixToken;
+import ptolemy.data.ObjectToken;
+import ptolemy.data.Token;
+import ptolemy.kernel.util.IllegalActionException;
+
+/**
+ * Turns a volume arriving on a port into the gray8 ImagePlus that the 3D
+ * viewer needs, so upstream actors do not have to write a file first.
+ *
+ * Two kinds of token are understood:
+ * <ul>
+ * <li>an ObjectToken holding an ImagePlus, as sent by ImageJ based
+ * actors; the image is used as it is when it already is gray8 and
+ * converted on a copy otherwise, so the sender's image is never
+ * modified;</li>
+ * <li>an ArrayToken of MatrixTokens (IntMatrixToken, DoubleMatrixToken or
+ * any matrix that converts to doubles), one per slice, rows being y and
+ * columns x.</li>
+ * </ul>
+ * Slices are copied and converted on a fork/join pool, one task per
+ * slice, and scaled to 8 bits over the range of the whole volume the
+ * way ImageJ scales 16-bit (integer matrices) or 32-bit images.
+ */
+public class VolumeTokenConverter {
+
+    private VolumeTokenConverter() {
+    }
+
+    /**
+     * Convert a volume token to a gray8 image.
+     *
+     * @param token the ObjectToken or array of matrices.
+     * @param voxelSize the voxel spacing along x, y and z for volumes sent
+     * as matrices, or null for 1; images keep their own calibration.
+     * @param threads the number of threads, 0 or less for all cores.
+     * @return the gray8 image.
+     * @throws IllegalActionException if the token does not hold a volume.
+     */
+    public static ImagePlus toImage(Token token, double[] voxelSize,
+            int threads) throws IllegalActionException {
+        if (token instanceof ObjectToken) {
+            Object value = ((ObjectToken) token).getValue();
+            if (!(value instanceof ImagePlus)) {
+                throw new IllegalActionException("Expected an ImagePlus, got "
+                        + (value == null ? "null" : value.getClass().getName()));
+            }
+            ImagePlus image = (ImagePlus) value;
+            if (image.getType() != ImagePlus.GRAY8) {
+                image = image.duplicate();
+                ParallelStackConverter.convertToGray8(image, threads);
+            }
+            return image;
+        }
+        if (token instanceof ArrayToken) {
+            return _fromMatrices((ArrayToken) token, voxelSize, threads);
+        }
+        throw new IllegalActionException("Expected an ImagePlus ObjectToken "
+                + "or an array of matrices, got " + token.getType());
+    }
+
+    private static ImagePlus _fromMatrices(ArrayToken array,
+            double[] voxelSize, int threads) throws IllegalActionException {
+        int depth = array.length();
+        if (depth == 0) {
+            throw new IllegalActionException("The volume has no slices.");
+        }
+        final MatrixToken[] matrices = new MatrixToken[depth];
+        for (int z = 0; z < depth; z++) {
+            Token element = array.getElement(z);
+            if (!(element instanceof MatrixToken)) {
+                throw new IllegalActionException("Slice " + z
+                        + " is not a matrix but " + element.getType());
+            }
+            matrices[z] = (MatrixToken) element;
+        }
+        final int width = matrices[0].getColumnCount();
+        final int height = matrices[0].getRowCount();
+        boolean integer = true;
+        for (int z = 0; z < depth; z++) {
+            integer &= matrices[z] instanceof IntMatrixToken;
+            if (matrices[z].getColumnCount() != width
+                    || matrices[z].getRowCount() != height) {
+                throw new IllegalActionException("Slice " + z + " is "
+                        + matrices[z].getColumnCount() + "x"
+                        + matrices[z].getRowCount() + ", slice 0 is "
+                        + width + "x" + height);
+            }
+        }
+
+        // copy every slice into a float array, keeping its own range
+        final float[][] slices = new float[depth][];
+        final double[] minima = new double[depth];
+        final double[] maxima = new double[depth];
+        final IllegalActionException[] failure = new IllegalActionException[1];
+        ParallelStackConverter.forEachSlice(depth, threads,
+                new ParallelStackConverter.SliceFunction() {
+                    public void apply(int z) {
+                        try {
+                            slices[z] = _toFloats(matrices[z], width, height);
+                        } catch (IllegalActionException e) {
+                            synchronized (failure) {
+                                failure[0] = e;
+                            }
+                            return;
+                        }
+                        float min = Float.POSITIVE_INFINITY;
+                        float max = Float.NEGATIVE_INFINITY;
+                        for (float value : slices[z]) {
+                            if (value < min) {
+                                min = value;
+                            }
+                            if (value > max) {
+                                max = value;
+                            }
+                        }
+                        minima[z] = min;
+                        maxima[z] = max;
+                    }
+                });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        double[] range = ParallelStackConverter.reduceRange(minima, maxima);
+        final float min = (float) range[0];
+        final float max = (float) range[1];
+        // integer data is scaled like 16-bit images, the rest like 32-bit
+        final boolean floatingPoint = !integer;
+
+        final byte[][] gray = new byte[depth][];
+        ParallelStackConverter.forEachSlice(depth, threads,
+                new ParallelStackConverter.SliceFunction() {
+                    public void apply(int z) {
+                        gray[z] = MappedVolumeStack.toGray8(slices[z], min,
+                                max, floatingPoint);
+                        slices[z] = null;
+                    }
+                });
+
+        ImageStack stack = new ImageStack(width, height);
+        for (int z = 0; z < depth; z++) {
+            stack.addSlice(null, gray[z]);
+        }
+        ImagePlus image = new ImagePlus("volume", stack);
+        if (voxelSize != null) {
+            Calibration cal = image.getCalibration();
+            cal.pixelWidth = voxelSize[0];
+            cal.pixelHeight = voxelSize[1];
+            cal.pixelDepth = voxelSize[2];
+        }
+        return image;
+    }
+
+    /* Copy a matrix row by row into a float array of width * height. */
+    private static float[] _toFloats(MatrixToken matrix, int width, int height)
+            throws IllegalActionException {
+        float[] pixels = new float[width * height];
+        if (matrix instanceof IntMatrixToken) {
+            int[][] values = ((IntMatrixToken) matrix).intMatrix();
+            for (int y = 0; y < height; y++) {
+                int[] row = values[y];
+                int offset = y * width;
+                for (int x = 0; x < width; x++) {
+                    pixels[offset + x] = row[x];
+                }
+            }
+        } else {
+            double[][] values = matrix.doubleMatrix();
+            for (int y = 0; y < height; y++) {
+                double[] row = values[y];
+                int offset = y * width;
+                for (int x = 0; x < width; x++) {
+                    pixels[offset + x] = (float) row[x];
+                }
+            }
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,123 @@
+package org.display3d;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Checks that the display range of a memory-mapped NIfTI volume takes
+ * scl_slope and scl_inter into account the way Nifti_Reader does.
+ */
+public class NiftiVolumeHeaderTest extends TestCase {
+
+    public NiftiVolumeHeaderTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Create a suite of tests to be run together
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new NiftiVolumeHeaderTest("testScaledIntegerRange"));
+        suite.addTest(new NiftiVolumeHeaderTest("testScaledFloatRange"));
+        suite.addTest(new NiftiVolumeHeaderTest("testNoCalibration"));
+        return suite;
+    }
+
+    /**
+     * uint8 data with slope 2 and intercept 10: cal 10..210 is raw 0..100,
+     * and integer data has its maximum lowered by one.
+     */
+    public void testScaledIntegerRange() throws IOException {
+        File file = writeNifti(NiftiVolumeHeader.DT_UINT8, 2f, 10f, 10f, 210f);
+        NiftiVolumeHeader header = NiftiVolumeHeader.read(file.getPath());
+        double[] range = header.getRawDisplayRange();
+        assertEquals(0.0, range[0], 1e-9);
+        assertEquals(99.0, range[1], 1e-9);
+
+        MappedVolumeStack stack = new MappedVolumeStack(header, 0, 2, 1);
+        assertEquals(0.0, stack.getDisplayMin(), 1e-9);
+        assertEquals(99.0, stack.getDisplayMax(), 1e-9);
+        byte[] pixels = (byte[]) stack.getPixels(1);
+        // raw 0, 50 and 100 of the first row
+        assertEquals(0, pixels[0] & 0xff);
+        assertEquals(128, pixels[1] & 0xff);
+        assertEquals(255, pixels[2] & 0xff);
+    }
+
+    /** A negative slope swaps the ends of the range; floats keep the max. */
+    public void testScaledFloatRange() throws IOException {
+        File file = writeNifti(NiftiVolumeHeader.DT_FLOAT32, -0.5f, 1f, -4f,
+                1f);
+        double[] range = NiftiVolumeHeader.read(file.getPath())
+                .getRawDisplayRange();
+        assertEquals(0.0, range[0], 1e-9);
+        assertEquals(10.0, range[1], 1e-9);
+    }
+
+    /** Without cal_min/cal_max the range is scanned from the data. */
+    public void testNoCalibration() throws IOException {
+        File file = writeNifti(NiftiVolumeHeader.DT_UINT8, 2f, 10f, 0f, 0f);
+        NiftiVolumeHeader header = NiftiVolumeHeader.read(file.getPath());
+        assertNull(header.getRawDisplayRange());
+        MappedVolumeStack stack = new MappedVolumeStack(header, 0, 2, 1);
+        assertEquals(0.0, stack.getDisplayMin(), 1e-9);
+        assertEquals(100.0, stack.getDisplayMax(), 1e-9);
+    }
+
+    /**
+     * Write a 3x2x2 single file NIfTI volume whose raw values are 0, 50,
+     * 100, 0, 50, 100, ... and return it.
+     */
+    private static File writeNifti(int datatype, float slope, float inter,
+            float calMin, float calMax) throws IOException {
+        int voxels = 3 * 2 * 2;
+        int bytesPerVoxel = datatype == NiftiVolumeHeader.DT_FLOAT32 ? 4 : 1;
+        ByteBuffer buf = ByteBuffer.allocate(352 + voxels * bytesPerVoxel)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(0, NiftiVolumeHeader.HEADER_SIZE);
+        short[] dim = { 3, 3, 2, 2, 1, 1, 1, 1 };
+        for (int i = 0; i < dim.length; i++) {
+            buf.putShort(40 + 2 * i, dim[i]);
+        }
+        buf.putShort(70, (short) datatype);
+        buf.putShort(72, (short) (8 * bytesPerVoxel));
+        for (int i = 1; i <= 3; i++) {
+            buf.putFloat(76 + 4 * i, 1f);
+        }
+        buf.putFloat(108, 352f);
+        buf.putFloat(112, slope);
+        buf.putFloat(116, inter);
+        buf.putFloat(124, calMax);
+        buf.putFloat(128, calMin);
+        buf.put(344, (byte) 'n');
+        buf.put(345, (byte) '+');
+        buf.put(346, (byte) '1');
+        buf.position(352);
+        for (int i = 0; i < voxels; i++) {
+            int value = 50 * (i % 3);
+            if (bytesPerVoxel == 4) {
+                buf.putFloat(value);
+            } else {
+                buf.put((byte) value);
+            }
+        }
+
+        File file = File.createTempFile("niftiTest", ".nii");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(buf.array());
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,105 @@
+package org.display3d;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Checks that a turntable written to a file and given to a listener is
+ * rendered only once, and that the listener sees every frame in order.
+ */
+public class TurntableRecorderTest extends TestCase {
+
+    public TurntableRecorderTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Create a suite of tests to be run together
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new TurntableRecorderTest("testWriteAndListen"));
+        suite.addTest(new TurntableRecorderTest("testListenOnly"));
+        return suite;
+    }
+
+    public void testWriteAndListen() throws Exception {
+        CountingRenderer renderer = new CountingRenderer();
+        TurntableRecorder recorder = new TurntableRecorder(renderer, 6, 16,
+                0, 2);
+        Listener listener = new Listener();
+        recorder.setFrameListener(listener);
+
+        File directory = File.createTempFile("turntable", "");
+        directory.delete();
+        directory.mkdir();
+        try {
+            recorder.writeSequence(directory);
+            recorder.listenToRemainingFrames();
+        } finally {
+            for (File frame : directory.listFiles()) {
+                frame.delete();
+            }
+            directory.delete();
+        }
+
+        assertEquals(6, renderer.renders);
+        assertEquals("[0, 1, 2, 3, 4, 5]", listener.indices.toString());
+    }
+
+    /** Without a file the remaining frames are pulled for the listener. */
+    public void testListenOnly() {
+        CountingRenderer renderer = new CountingRenderer();
+        TurntableRecorder recorder = new TurntableRecorder(renderer, 5, 16,
+                0, 2);
+        Listener listener = new Listener();
+        recorder.setFrameListener(listener);
+        recorder.listenToRemainingFrames();
+
+        assertEquals(5, renderer.renders);
+        assertEquals("[0, 1, 2, 3, 4]", listener.indices.toString());
+    }
+
+    private static ImagePlus volume() {
+        ImageStack stack = new ImageStack(8, 8);
+        for (int z = 0; z < 8; z++) {
+            byte[] pixels = new byte[64];
+            pixels[z * 8 + z] = (byte) 200;
+            stack.addSlice(null, pixels);
+        }
+        return new ImagePlus("volume", stack);
+    }
+
+    private static class CountingRenderer extends SoftwareVolumeRenderer {
+        CountingRenderer() {
+            super(volume(), 1);
+        }
+
+        public ByteProcessor renderVolumeProcessor(double angle, int size) {
+            synchronized (this) {
+                renders++;
+            }
+            return super.renderVolumeProcessor(angle, size);
+        }
+
+        int renders;
+    }
+
+    private static class Listener implements
+            TurntableRecorder.FrameListener {
+        public void frameRecorded(int index, ByteProcessor frame) {
+            indices.add(index);
+        }
+
+        List<Integer> indices = new ArrayList<Integer>();
+    }
+}
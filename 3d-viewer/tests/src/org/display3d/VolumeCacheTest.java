@@ -0,0 +1,129 @@
+package org.display3d;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Checks that the volume cache keeps stacks without decoding them, that
+ * it respects its memory limit and that it counts hits, misses and
+ * evictions.
+ */
+public class VolumeCacheTest extends TestCase {
+
+    VolumeCache cache;
+
+    public VolumeCacheTest(String name) {
+        super(name);
+    }
+
+    public void setUp() {
+        cache = VolumeCache.getInstance();
+        cache.clear();
+        cache.setSpillEnabled(false);
+        cache.setMaxBytes(1000);
+    }
+
+    public void tearDown() {
+        cache.clear();
+        cache.setMaxBytes(512L * 1024 * 1024);
+    }
+
+    /**
+     * Create a suite of tests to be run together
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new VolumeCacheTest("testStackIsShared"));
+        suite.addTest(new VolumeCacheTest("testOversizedIsNotDecoded"));
+        suite.addTest(new VolumeCacheTest("testEviction"));
+        return suite;
+    }
+
+    /** The cached stack is handed out as is and put decodes nothing. */
+    public void testStackIsShared() {
+        CountingStack stack = new CountingStack(10, 10, 5);
+        ImagePlus original = new ImagePlus("a", stack);
+        int decoded = stack.decoded;
+        long misses = cache.getMisses();
+        long hits = cache.getHits();
+
+        assertNull(cache.get("a"));
+        cache.put("a", original);
+        assertEquals(decoded, stack.decoded);
+        ImagePlus image = cache.get("a");
+
+        assertSame(stack, image.getStack());
+        assertEquals(misses + 1, cache.getMisses());
+        assertEquals(hits + 1, cache.getHits());
+        assertEquals(500, cache.getSizeBytes());
+    }
+
+    /** A volume above the limit is neither decoded nor kept. */
+    public void testOversizedIsNotDecoded() {
+        CountingStack stack = new CountingStack(10, 10, 20);
+        ImagePlus image = new ImagePlus("big", stack);
+        int decoded = stack.decoded;
+        long evictions = cache.getEvictions();
+
+        cache.put("big", image);
+
+        assertEquals(decoded, stack.decoded);
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(evictions, cache.getEvictions());
+        assertNull(cache.get("big"));
+    }
+
+    /** The least recently used volume goes first. */
+    public void testEviction() {
+        long evictions = cache.getEvictions();
+        cache.put("a", new ImagePlus("a", new CountingStack(10, 10, 4)));
+        cache.put("b", new ImagePlus("b", new CountingStack(10, 10, 4)));
+        assertNotNull(cache.get("a"));
+        cache.put("c", new ImagePlus("c", new CountingStack(10, 10, 4)));
+
+        assertEquals(evictions + 1, cache.getEvictions());
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    /** A virtual gray8 stack that counts the slices it decodes. */
+    private static class CountingStack extends ImageStack {
+        CountingStack(int width, int height, int depth) {
+            super(width, height);
+            _depth = depth;
+        }
+
+        public int getSize() {
+            return _depth;
+        }
+
+        public int getBitDepth() {
+            return 8;
+        }
+
+        public boolean isVirtual() {
+            return true;
+        }
+
+        public Object getPixels(int n) {
+            decoded++;
+            return new byte[getWidth() * getHeight()];
+        }
+
+        public ImageProcessor getProcessor(int n) {
+            return new ByteProcessor(getWidth(), getHeight(),
+                    (byte[]) getPixels(n), null);
+        }
+
+        int decoded;
+
+        private final int _depth;
+    }
+}
@@ -39,10 +39,16 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Map.Entry;
 import java.util.Vector;
 import java.util.regex.Matcher;
@@ -64,6 +70,8 @@ import org.kepler.moml.KeplerActorMetadata;
 import org.kepler.moml.KeplerMetadataExtractor;
 import org.kepler.objectmanager.cache.ActorCacheObject;
 import org.kepler.objectmanager.cache.CacheContent;
+import org.kepler.objectmanager.cache.CacheManager;
+import org.kepler.objectmanager.cache.CacheObjectInterface;
 import org.kepler.objectmanager.cache.LocalRepositoryManager;
 import org.kepler.objectmanager.cache.LocalRepositoryManager.LocalRepository;
 import org.kepler.objectmanager.lsid.KeplerLSID;
@@ -71,6 +79,7 @@ import org.kepler.sms.NamedOntClass;
 import org.kepler.sms.NamedOntModel;
 import org.kepler.sms.OntologyCatalog;
 import org.kepler.util.DotKeplerManager;
+import org.kepler.util.sql.BatchUpdate;
 
 
 /**
@@ -93,6 +102,13 @@ import org.kepler.util.DotKeplerManager;
  * location of that KAR on disk stored as an attribute of the library index
  * item.
  * 
+ * The LFT and RGT values are spaced apart (see ORDER_GAP) rather than
+ * consecutive, so that an item can be inserted between its siblings and a
+ * subtree can be deleted without renumbering the rest of the table. When
+ * there is no room left between two values only the smallest enclosing
+ * subtree with enough room is respaced. update() uses this to bring the
+ * index up to date with the KARs that changed instead of rebuilding it.
+ * 
  * @author Aaron Schultz
  */
 public class LibIndex {
@@ -166,7 +182,14 @@ public class LibIndex {
 	private PreparedStatement _getLIIDForNullParentAndNamePrepStmt;
 	private PreparedStatement _getRangeForLIIDPrepStmt;
 	private PreparedStatement _getLIIDForParentPrepStmt;
-	private PreparedStatement _getLftRgtSumPrepStmt;
+	private PreparedStatement _getLIIDForParentByLftPrepStmt;
+	private PreparedStatement _getPreorderPrepStmt;
+	private PreparedStatement _getAncestorRangesPrepStmt;
+	private PreparedStatement _getChildPagePrepStmt;
+	private PreparedStatement _getRootPagePrepStmt;
+	private PreparedStatement _countDescendantsPrepStmt;
+	private PreparedStatement _countChildrenPrepStmt;
+	private PreparedStatement _getLsidsInRangePrepStmt;
 	private PreparedStatement _getLIIDRootsPrepStmt;
 	private PreparedStatement _deleteLIIDFromLibraryAttributesPrepStmt;
 	private PreparedStatement _insertIntoLibraryAttributesPrepStmt;
@@ -178,6 +201,18 @@ public class LibIndex {
 	/** Level for root objects in the tree. */
 	private static final int ROOT_LEVEL = 1;
 
+	/**
+	 * The distance between consecutive LFT and RGT values when the whole
+	 * table is numbered, e.g. by rebuild().
+	 */
+	private static final int ORDER_GAP = 1024;
+
+	/**
+	 * The smallest distance between consecutive values when a subtree is
+	 * respaced to make room for an insert.
+	 */
+	private static final int MIN_ORDER_GAP = 4;
+
 	/** Root item for Demos */
 	private LibItem _demosFolderItem;
 	
@@ -198,6 +233,15 @@ public class LibIndex {
 	 */
 	private boolean _orderedInsert;
 
+	/**
+	 * True while rebuild() or update() is running. The changes are then
+	 * committed once at the end instead of after every insert.
+	 */
+	private boolean _rebuilding;
+
+	/** The number of preorder updates added to _updateOrderPrepStmt's batch. */
+	private int _pendingOrderUpdates;
+
 	/**
 	 * A constructor that is given a connection to the database.
 	 * 
@@ -304,8 +348,33 @@ public class LibIndex {
 		    _getLIIDForParentPrepStmt = _conn.prepareStatement("SELECT liid FROM "
 		            + LIBRARY_INDEX_TABLE_NAME + " WHERE parent = ? ORDER BY TYPE,NAME");
 
-		    _getLftRgtSumPrepStmt = _conn.prepareStatement("select (sum(LFT) + sum(RGT)) FROM "
-		            + LIBRARY_INDEX_TABLE_NAME);
+		    _getLIIDForParentByLftPrepStmt = _conn.prepareStatement("SELECT LIID FROM "
+		            + LIBRARY_INDEX_TABLE_NAME + " WHERE PARENT = ? ORDER BY LFT");
+
+		    _getPreorderPrepStmt = _conn.prepareStatement("SELECT LIID,PARENT,LFT,RGT FROM "
+		            + LIBRARY_INDEX_TABLE_NAME + " ORDER BY LFT");
+
+		    _getAncestorRangesPrepStmt = _conn.prepareStatement("SELECT LIID,LFT,RGT FROM "
+		            + LIBRARY_INDEX_TABLE_NAME + " WHERE LFT <= ? AND RGT >= ? "
+		            + "ORDER BY LEVEL DESC");
+
+		    _getChildPagePrepStmt = _conn.prepareStatement("SELECT LIID,LFT FROM "
+		            + LIBRARY_INDEX_TABLE_NAME + " WHERE PARENT = ? AND LFT > ? "
+		            + "ORDER BY LFT");
+
+		    _getRootPagePrepStmt = _conn.prepareStatement("SELECT LIID,LFT FROM "
+		            + LIBRARY_INDEX_TABLE_NAME + " WHERE PARENT IS NULL AND LFT > ? "
+		            + "ORDER BY LFT");
+
+		    _countDescendantsPrepStmt = _conn.prepareStatement("SELECT count(LIID) FROM "
+		            + LIBRARY_INDEX_TABLE_NAME + " WHERE LFT > ? AND RGT < ?");
+
+		    _countChildrenPrepStmt = _conn.prepareStatement("SELECT count(LIID) FROM "
+		            + LIBRARY_INDEX_TABLE_NAME + " WHERE PARENT = ?");
+
+		    _getLsidsInRangePrepStmt = _conn.prepareStatement("SELECT DISTINCT L.LSID FROM "
+		            + LIBRARY_LSIDS_TABLE_NAME + " L, " + LIBRARY_INDEX_TABLE_NAME
+		            + " I WHERE L.LIID = I.LIID AND I.LFT >= ? AND I.RGT <= ?");
 		    
 		    _getLIIDRootsPrepStmt = _conn.prepareStatement("SELECT LIID FROM "
 		            + LIBRARY_INDEX_TABLE_NAME + " WHERE LEVEL = 1 ORDER BY TYPE,NAME");
@@ -350,7 +419,7 @@ public class LibIndex {
 			_stmt.execute(resetAutoInc);
 
 			getSearcher().clear();
-			_stmt.getConnection().commit();
+			commit();
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
@@ -364,9 +433,19 @@ public class LibIndex {
 	 */
 	public void rebuild() {
 		log.info("Building LibIndex...");
+
+		boolean autoCommit = true;
+		try {
+			autoCommit = _conn.getAutoCommit();
+			_conn.setAutoCommit(false);
+			_rebuilding = true;
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
 		clear();
 
 		setOrderedInsert(false);
+		getSearcher().beginBatch();
 		try {
 
 			KARCacheManager kcm = KARCacheManager.getInstance();
@@ -400,13 +479,263 @@ public class LibIndex {
 			// created and ordered to finish up indexing the items
 			// for the search
 			finishSearchIndexing();
+			getSearcher().executeBatch();
 
+			_conn.commit();
 		} catch (SQLException e) {
 			e.printStackTrace();
+			try {
+				_conn.rollback();
+			} catch (SQLException e1) {
+				e1.printStackTrace();
+			}
+		} finally {
+			_rebuilding = false;
+			try {
+				// drops the queue if building failed before executeBatch
+				getSearcher().executeBatch();
+				_conn.setAutoCommit(autoCommit);
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
 		}
 		setOrderedInsert(true);
 	}
 
+	/**
+	 * Bring the index up to date with the cache after some KAR files were
+	 * added to, changed in or removed from it. The items of each file are
+	 * removed, along with the ontology items of the LSIDs that are no longer
+	 * cached, and the items of the files still cached are added again. The
+	 * rest of the index is left alone.
+	 * 
+	 * @param karFiles
+	 *            the KAR files, e.g. from
+	 *            KARCacheManager.getChangedKARFiles().
+	 * @return true if the index was updated, false if the changes were rolled
+	 *         back after an error, in which case it should be rebuilt.
+	 */
+	public boolean update(Collection<File> karFiles) {
+		log.info("Updating LibIndex for " + karFiles.size() + " KAR files...");
+
+		boolean autoCommit = true;
+		boolean success = false;
+		try {
+			autoCommit = _conn.getAutoCommit();
+			_conn.setAutoCommit(false);
+			_rebuilding = true;
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+
+		setOrderedInsert(true);
+		getSearcher().beginBatch();
+		try {
+			findDemosFolder();
+
+			// remove the items of the files
+			Set<KeplerLSID> removedLsids = new HashSet<KeplerLSID>();
+			for (File karFile : karFiles) {
+				for (Integer liid : getLiidsForKar(karFile)) {
+					LibItem li = _libraryManager.getPopulatedLibItem(liid);
+					if (li == null) {
+						continue;
+					}
+					removedLsids.addAll(getLsidsUnder(li));
+					if (!removeItem(li)) {
+						throw new SQLException("Unable to remove " + karFile);
+					}
+					removeEmptyFolders(li.getParent());
+				}
+			}
+
+			// and the ontology items of the objects that are gone
+			CacheManager cache = CacheManager.getInstance();
+			for (KeplerLSID lsid : removedLsids) {
+				if (!cache.isContained(lsid)) {
+					removeItemsByLsid(lsid);
+				}
+			}
+
+			// add the files that are still cached
+			KARCacheManager kcm = KARCacheManager.getInstance();
+			Set<File> files = new HashSet<File>(karFiles);
+			for (File karFile : files) {
+				for (KARCacheContent content : kcm.getKARCacheContents(karFile)) {
+					assureOntologyComponent(content);
+					assureKarEntry(content);
+				}
+			}
+			for (KARCacheError error : kcm.getKARCacheErrors()) {
+				if (files.contains(error.getFile())) {
+					assureKarError(error);
+				}
+			}
+
+			getSearcher().executeBatch();
+			_conn.commit();
+			success = true;
+		} catch (Exception e) {
+			log.error("Unable to update the LibIndex", e);
+			try {
+				_conn.rollback();
+			} catch (SQLException e1) {
+				e1.printStackTrace();
+			}
+			_demosFolderItem = null;
+		} finally {
+			_rebuilding = false;
+			try {
+				// drops the queue if updating failed before executeBatch
+				getSearcher().executeBatch();
+				_conn.setAutoCommit(autoCommit);
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+		return success;
+	}
+
+	/**
+	 * Set _demosFolderItem to the Demos folder of the index, if there is
+	 * one, so that assureDemoFolder() adds to it instead of creating another.
+	 * 
+	 * @throws SQLException
+	 */
+	private void findDemosFolder() throws SQLException {
+		if (_demosFolderItem != null) {
+			return;
+		}
+		_getLIIDForNullParentAndNamePrepStmt.setString(1, "Demos");
+		ResultSet rs = null;
+		try {
+			rs = _getLIIDForNullParentAndNamePrepStmt.executeQuery();
+			if (rs.next()) {
+				_demosFolderItem = _libraryManager.getPopulatedLibItem(rs
+						.getInt(1));
+			}
+		} finally {
+			if (rs != null) {
+				rs.close();
+			}
+		}
+	}
+
+	/**
+	 * Return the LIIDs of the items of a KAR file, i.e. the KAR or KAR error
+	 * item and its copy in the Demos folder, if any.
+	 * 
+	 * @param karFile
+	 * @return
+	 * @throws SQLException
+	 */
+	private List<Integer> getLiidsForKar(File karFile) throws SQLException {
+		List<Integer> liids = new ArrayList<Integer>();
+		_getLIIDForKarPrepStmt.setString(1, karFile.toString());
+		ResultSet rs = null;
+		try {
+			rs = _getLIIDForKarPrepStmt.executeQuery();
+			while (rs.next()) {
+				liids.add(Integer.valueOf(rs.getInt(1)));
+			}
+		} finally {
+			if (rs != null) {
+				rs.close();
+			}
+		}
+		return liids;
+	}
+
+	/**
+	 * Return the LSIDs of an item and of all the items under it.
+	 * 
+	 * @param li
+	 * @return
+	 * @throws SQLException
+	 */
+	private Set<KeplerLSID> getLsidsUnder(LibItem li) throws SQLException {
+		Set<KeplerLSID> lsids = new HashSet<KeplerLSID>();
+		_getLsidsInRangePrepStmt.setInt(1, li.getLeft());
+		_getLsidsInRangePrepStmt.setInt(2, li.getRight());
+		ResultSet rs = null;
+		try {
+			rs = _getLsidsInRangePrepStmt.executeQuery();
+			while (rs.next()) {
+				try {
+					lsids.add(new KeplerLSID(rs.getString(1)));
+				} catch (Exception e) {
+					log.warn("Bad LSID in " + LIBRARY_LSIDS_TABLE_NAME + ": "
+							+ rs.getString(1));
+				}
+			}
+		} finally {
+			if (rs != null) {
+				rs.close();
+			}
+		}
+		return lsids;
+	}
+
+	/**
+	 * Remove a folder or local repository item, and then its parent, and so
+	 * on, for as long as they have no children left. rebuild() only creates
+	 * these items for the KARs and XML files under them.
+	 * 
+	 * @param liid
+	 *            the LIID of the folder, or null.
+	 * @throws SQLException
+	 */
+	private void removeEmptyFolders(Integer liid) throws SQLException {
+		while (liid != null) {
+			LibItem folder = _libraryManager.getPopulatedLibItem(liid);
+			if (folder == null
+					|| (folder.getType() != TYPE_FOLDER && folder.getType() != TYPE_LOCALREPO)
+					|| countChildren(liid) > 0) {
+				return;
+			}
+			if (!removeItem(folder)) {
+				throw new SQLException("Unable to remove " + folder.getName());
+			}
+			if (_demosFolderItem != null
+					&& _demosFolderItem.getLiid() == folder.getLiid()) {
+				_demosFolderItem = null;
+			}
+			liid = folder.getParent();
+		}
+	}
+
+	/**
+	 * Count the children of an item.
+	 * 
+	 * @param liid
+	 * @return
+	 * @throws SQLException
+	 */
+	private int countChildren(int liid) throws SQLException {
+		_countChildrenPrepStmt.setInt(1, liid);
+		ResultSet rs = null;
+		try {
+			rs = _countChildrenPrepStmt.executeQuery();
+			return rs.next() ? rs.getInt(1) : 0;
+		} finally {
+			if (rs != null) {
+				rs.close();
+			}
+		}
+	}
+
+	/**
+	 * Commit the changes, unless rebuild() or update() is running, which
+	 * commit once when they are done.
+	 * 
+	 * @throws SQLException
+	 */
+	private void commit() throws SQLException {
+		if (!_rebuilding) {
+			_conn.commit();
+		}
+	}
+
 	/**
 	 * Select all of the existing LibItems from the Library Index and insert all
 	 * of their parent items into the Search Index.
@@ -438,7 +767,7 @@ public class LibIndex {
 
 			_updateLsidPrepStmt.executeUpdate();
 			_updateLsidPrepStmt.clearParameters();
-			_conn.commit();
+			commit();
 		} catch (SQLException sqle) {
 			throw sqle;
 		}
@@ -485,17 +814,11 @@ public class LibIndex {
 		// children of the LIID we're removing which is a little slower
 		// performance wise but still should work fine
 
-		String updateLFT = "UPDATE " + LibIndex.LIBRARY_INDEX_TABLE_NAME
-				+ " SET LFT = LFT - " + (li.getRight() - li.getLeft() + 1)
-				+ " WHERE LFT > " + li.getLeft();
-		String updateRGT = "UPDATE " + LibIndex.LIBRARY_INDEX_TABLE_NAME
-				+ " SET RGT = RGT - " + (li.getRight() - li.getLeft() + 1)
-				+ " WHERE RGT > " + li.getLeft();
+		// the values of the other rows are left as they are; the removed
+		// range becomes a gap that later inserts can use
 		try {
 			_stmt.executeUpdate(delete);
-			_stmt.executeUpdate(updateLFT);
-			_stmt.executeUpdate(updateRGT);
-			_stmt.getConnection().commit();
+			commit();
 		} catch (Exception e) {
 			try {
 				_stmt.getConnection().rollback();
@@ -585,8 +908,8 @@ public class LibIndex {
 							// so let's remove this LIID if it is a leaf
 							LibItem li = _libraryManager.getPopulatedLibItem(liid);
 							// double check that this is a leaf node
-							if ((li.getRight() - li.getLeft()) == 1) {
-								li.delete(_stmt);
+							if (countChildren(li.getLiid()) == 0) {
+								removeItem(li);
 								liidsThatGotRemoved.add(li.getLiid());
 							} else {
 								// theoretically we never run into this BUT
@@ -614,7 +937,7 @@ public class LibIndex {
 				}
 			}
 		}
-		_stmt.getConnection().commit();
+		commit();
 		return liidsThatGotRemoved;
 	}
 
@@ -685,6 +1008,19 @@ public class LibIndex {
 	
 	private static Map<KeplerLSID, Map<String, String>> cachedItemAttributes = new HashMap<KeplerLSID, Map<String, String>>();
 
+	/**
+	 * The text indexed for the actors read most recently, by LSID. The
+	 * ontology items and the KAR entry of an actor are added one after the
+	 * other, so only a few are kept.
+	 */
+	private Map<KeplerLSID, Map<Integer, String>> _recentActorText = new LinkedHashMap<KeplerLSID, Map<Integer, String>>(
+			16, 0.75f, true) {
+		protected boolean removeEldestEntry(
+				Map.Entry<KeplerLSID, Map<Integer, String>> eldest) {
+			return size() > 16;
+		}
+	};
+
 	private void transferAttributes(LibItem li, KARCacheContent content) {
 
 		if (cachedItemAttributes.containsKey(li.getLsid())) {
@@ -714,6 +1050,11 @@ public class LibIndex {
 			return;
 		}
 
+		if (li.getLsid() != null) {
+			_recentActorText.put(li.getLsid(), LibTermIndex.getActorText(aco
+					.getActorString()));
+		}
+
 		Map<String, String> attributes = new HashMap<String, String>();
 		for (String attributeName : aco.getAttributeNames()) {
 			String attributeValue = aco.getAttribute(attributeName);
@@ -930,6 +1271,102 @@ public class LibIndex {
 		return pathItems;
 	}
 
+	/**
+	 * Return a page of the children of the given item, in tree order. Pages
+	 * are keyed by the LFT value of the last child of the previous page, so
+	 * each page is one short range scan no matter how far into the children
+	 * it starts.
+	 * 
+	 * @param parent
+	 *            the LIID of the parent, or null for the items at the top of
+	 *            the tree
+	 * @param afterLeft
+	 *            the LFT value of the last child of the previous page, or -1
+	 *            for the first page
+	 * @param max
+	 *            the largest number of children to return
+	 * @return the children, with their attributes and LSIDs
+	 * @throws SQLException
+	 */
+	public Vector<LibItem> getChildItems(Integer parent, int afterLeft,
+			int max) throws SQLException {
+		Vector<LibItem> items = new Vector<LibItem>();
+		PreparedStatement stmt;
+		if (parent == null) {
+			stmt = _getRootPagePrepStmt;
+			stmt.setInt(1, afterLeft);
+		} else {
+			stmt = _getChildPagePrepStmt;
+			stmt.setInt(1, parent.intValue());
+			stmt.setInt(2, afterLeft);
+		}
+		stmt.setMaxRows(max);
+		ResultSet rs = null;
+		try {
+			rs = stmt.executeQuery();
+			if (rs == null)
+				throw new SQLException("Query Failed: " + stmt);
+			while (rs.next()) {
+				items.add(_libraryManager.getPopulatedLibItem(rs.getInt(1)));
+			}
+		} finally {
+			if (rs != null) {
+				rs.close();
+			}
+			stmt.setMaxRows(0);
+		}
+		return items;
+	}
+
+	/**
+	 * Return the LIIDs of the given items and of all the items above them.
+	 * 
+	 * @param liids
+	 * @return
+	 * @throws SQLException
+	 */
+	public Set<Integer> getAncestorLiids(Collection<Integer> liids)
+			throws SQLException {
+		Set<Integer> ancestors = new HashSet<Integer>();
+		for (Integer liid : liids) {
+			if (ancestors.contains(liid)) {
+				continue;
+			}
+			int left;
+			int right;
+			_getRangeForLIIDPrepStmt.setInt(1, liid.intValue());
+			ResultSet rs = null;
+			try {
+				rs = _getRangeForLIIDPrepStmt.executeQuery();
+				if (rs == null || !rs.next())
+					continue;
+				left = rs.getInt(1);
+				right = rs.getInt(2);
+			} finally {
+				if (rs != null) {
+					rs.close();
+				}
+			}
+			_getAncestorRangesPrepStmt.setInt(1, left);
+			_getAncestorRangesPrepStmt.setInt(2, right);
+			rs = null;
+			try {
+				rs = _getAncestorRangesPrepStmt.executeQuery();
+				if (rs == null)
+					throw new SQLException("Query Failed: "
+							+ _getAncestorRangesPrepStmt);
+				while (rs.next()) {
+					ancestors.add(new Integer(rs.getInt(1)));
+				}
+			} finally {
+				if (rs != null) {
+					rs.close();
+				}
+			}
+		}
+		return ancestors;
+	}
+
 	/**
 	 * Get all of the items.
 	 * 
@@ -1086,11 +1523,12 @@ public class LibIndex {
 	/**
 	 * Insert this LibItem into the table, make sure it doesn't already
 	 * exist.  If it does try to add the LSID to the LIBRARY_LSIDS table.
+	 * This is package private so that the tests can build trees.
 	 * 
 	 * @param li
 	 * @throws SQLException
 	 */
-	private void insert(LibItem li) throws SQLException {
+	void insert(LibItem li) throws SQLException {
 		if (isDebugging)
 			log.debug("insert(" + li.getName() + ")");
 		
@@ -1112,12 +1550,21 @@ public class LibIndex {
 	        String insert = "INSERT INTO " + LibIndex.LIBRARY_INDEX_TABLE_NAME
 	                + " (PARENT,LFT,RGT,LEVEL,LSID,TYPE,NAME) values (";
 
-	        int index = getAlphabeticInsertIndex(li);
-	        if (index < 0)
+	        long[] gap = getAlphabeticInsertGap(li);
+	        if (gap == null)
 	            return;
+	        if (gap[1] - gap[0] < 3) {
+	            // no two free values between the neighbors
+	            makeRoom(li.getParent());
+	            gap = getAlphabeticInsertGap(li);
+	            if (gap == null || gap[1] - gap[0] < 3)
+	                throw new SQLException("No room to insert " + li.getName());
+	        }
 
-	        li.setLeft(index);
-	        li.setRight(index + 1);
+	        // take the middle third, leaving room on both sides and inside
+	        long third = (gap[1] - gap[0]) / 3;
+	        li.setLeft((int) (gap[0] + third));
+	        li.setRight((int) (gap[0] + 2 * third));
 
 	        if (li.getParent() == null) {
 	            insert += "NULL"; // parent
@@ -1138,17 +1585,10 @@ public class LibIndex {
 	        insert += ",'" + li.getName() + "'"; // name
 	        insert += ")";
 
-	        String updateLeft = "UPDATE " + LibIndex.LIBRARY_INDEX_TABLE_NAME
-	                + " SET LFT = LFT + 2 WHERE LFT >= " + li.getLeft();
-	        String updateRight = "UPDATE " + LibIndex.LIBRARY_INDEX_TABLE_NAME
-	                + " SET RGT = RGT + 2 WHERE RGT >= " + li.getLeft();
-
 	        if (isDebugging) {
-	            log.debug("\n" + updateLeft + "\n" + updateRight + "\n" + insert);
+	            log.debug(insert);
 	        }
 
-	        _stmt.executeUpdate(updateLeft);
-	        _stmt.executeUpdate(updateRight);
 	        _stmt.executeUpdate(insert);
 
 	        // find out the auto assigned liid
@@ -1178,7 +1618,7 @@ public class LibIndex {
 	        
 	        LibraryManager.getInstance().getIndex().addToSearchIndex(li);
 
-	        _stmt.getConnection().commit();
+	        commit();
 		}
 	}
 	
@@ -1190,7 +1630,7 @@ public class LibIndex {
 	    
         if (isDebugging) log.debug(_deleteLIIDFromLibraryAttributesPrepStmt);
         _deleteLIIDFromLibraryAttributesPrepStmt.executeUpdate();
-        _stmt.getConnection().commit();
+        commit();
 
         for(Entry<String, String> entry : li.getAttributes().entrySet()) {
             final String attName = entry.getKey();
@@ -1201,127 +1641,209 @@ public class LibIndex {
             if (isDebugging) log.debug(_insertIntoLibraryAttributesPrepStmt);
             _insertIntoLibraryAttributesPrepStmt.executeUpdate();
         }
-        _stmt.getConnection().commit();
+        commit();
     }
 	
 	/**
-     * Figure out what the LEFT integer should be for a new row that is to be
-     * inserted in alphabetical order for the current getParent() value. Or for
-     * Level 1 if getParent() == null
+     * Figure out between which LFT and RGT values a new row is to be inserted
+     * in alphabetical order for the current getParent() value, or for Level 1
+     * if getParent() == null. The row goes after the sibling with the
+     * greatest name less than its own, or first, and its values must be
+     * strictly between the two returned values. The level of the item is set.
      * 
-     * @param stmt
-     * @return
+     * @param li
+     * @return the values, or null if the item need not be inserted since a
+     *         sibling has the same name; its LSID is then added to the
+     *         sibling.
      * @throws SQLException
      */
-    private int getAlphabeticInsertIndex(LibItem li) throws SQLException {
-        int insertIndex = -1;
-
+    private long[] getAlphabeticInsertGap(LibItem li) throws SQLException {
+        long low;
+        long high;
         int parentLevel = 0;
-        String query = "select LIID,RGT,LEVEL,LSID,NAME from "
+        if (li.getParent() == null) {
+            low = 0;
+            high = Integer.MAX_VALUE;
+        } else {
+            String parentQuery = "SELECT LFT,RGT,LEVEL from "
+                    + LibIndex.LIBRARY_INDEX_TABLE_NAME + " WHERE LIID = "
+                    + li.getParent();
+            if (isDebugging) {
+                log.debug(parentQuery);
+            }
+            ResultSet parentResult = null;
+            try {
+                parentResult = _stmt.executeQuery(parentQuery);
+                if (!parentResult.next()) {
+                    throw new SQLException("Parent " + li.getParent()
+                            + " of " + li.getName() + " not found");
+                }
+                low = parentResult.getInt(1);
+                high = parentResult.getInt(2);
+                parentLevel = parentResult.getInt(3);
+            } finally {
+                if (parentResult != null) {
+                    parentResult.close();
+                }
+            }
+        }
+
+        String query = "select LIID,LFT,RGT,LSID,NAME from "
                 + LibIndex.LIBRARY_INDEX_TABLE_NAME;
         if (li.getParent() == null) {
             query += " where LEVEL = 1";
         } else {
             query += " where PARENT = " + li.getParent();
         }
-        query += " order by NAME ";
         if (isDebugging) {
             log.debug(query);
         }
+        List<Integer> siblingLefts = new ArrayList<Integer>();
+        String previousName = null;
         ResultSet rs = null;
-        int cnt = 0;
         try {
-        	rs = _stmt.executeQuery(query);
-	        if (rs == null)
-	            log.error("Query Failed: " + query);
-	        int prevRight = -1;
-	        while (rs.next()) {
-	            int liid = rs.getInt(1); // LIID
-	            int r = rs.getInt(2); // RGT
-	            parentLevel = rs.getInt(3) - 1; // LEVEL
-	            String lsid = rs.getString(4); // LSID
-	            String n = rs.getString(5); // NAME
-	
-	            int comparison = n.compareToIgnoreCase(li.getName());
-	            if (comparison == 0) {
-	                log.debug(lsid);
-	                log.debug(li.getLsid());
-	                if (lsid.equals(li.getLsid())) {
-	                    log.debug("LSID matches");
-	                    throw new SQLException(li.getName()
-	                            + " already exists as child of parent "
-	                            + li.getParent());
-	                } else {
-	                    log.debug("LSID does not match");
-	                    try {
-	                        // Add the lsid to the Library_lsids table
-	                        insertLiidLsid(liid, li.getLsid());
-	                        return -1;
-	                    } catch (SQLException sqle) {
-	                        throw new SQLException("bummer");
-	                    }
-	                }
-	            }
-	            if (comparison > 0) {
-	                // we want to insert before this item
-	                if (cnt == 0) {
-	                    // this is the first child
-	                    // use the parents' left index
-	                    break;
-	                } else {
-	                    // use the right index of the previous row plus 1
-	                    insertIndex = prevRight + 1;
-	                }
-	            }
-	            if (comparison < 0) {
-	                // Go on to the next child, unless there is no next child
-	                // for that case we'll set this to be the current right plus 1
-	                // every pass through the loop
-	                insertIndex = r + 1;
-	            }
-	            prevRight = r;
-	            cnt++;
-	        }
+            rs = _stmt.executeQuery(query);
+            while (rs.next()) {
+                int liid = rs.getInt(1); // LIID
+                int l = rs.getInt(2); // LFT
+                int r = rs.getInt(3); // RGT
+                String lsid = rs.getString(4); // LSID
+                String n = rs.getString(5); // NAME
+                siblingLefts.add(Integer.valueOf(l));
+
+                int comparison = n.compareToIgnoreCase(li.getName());
+                if (comparison == 0) {
+                    log.debug(lsid);
+                    log.debug(li.getLsid());
+                    if (lsid.equals(li.getLsid())) {
+                        log.debug("LSID matches");
+                        throw new SQLException(li.getName()
+                                + " already exists as child of parent "
+                                + li.getParent());
+                    } else {
+                        log.debug("LSID does not match");
+                        try {
+                            // Add the lsid to the Library_lsids table
+                            insertLiidLsid(liid, li.getLsid());
+                            return null;
+                        } catch (SQLException sqle) {
+                            throw new SQLException("bummer");
+                        }
+                    }
+                }
+                if (comparison < 0
+                        && (previousName == null || n
+                                .compareToIgnoreCase(previousName) > 0)) {
+                    // the closest sibling so far that goes before this item
+                    previousName = n;
+                    low = r;
+                }
+            }
         } finally {
-        	if(rs != null) {
+            if (rs != null) {
                 rs.close();
-        	}
+            }
         }
-        
-        if (cnt == 0) {
-            if (isDebugging)
-                log.debug("No children found for parent " + li.getParent());
-            // Or we're inserting at the top of the list
-            if (li.getParent() == null) {
-                // we're inserting at the very beginning
-                insertIndex = 0;
-            } else {
-                String parentQuery = "SELECT LFT,LEVEL from "
-                        + LibIndex.LIBRARY_INDEX_TABLE_NAME + " WHERE LIID = "
-                        + li.getParent();
-                if (isDebugging) {
-                    log.debug(parentQuery);
+
+        // up to the next sibling, which is not always the next by name
+        // since rebuild() orders siblings by type first
+        for (Integer l : siblingLefts) {
+            if (l.intValue() > low && l.intValue() < high) {
+                high = l.intValue();
+            }
+        }
+        // do not use more of a wide gap than a rebuild would
+        high = Math.min(high, low + 3L * ORDER_GAP);
+
+        li.setLevel(parentLevel + 1);
+        if (isDebugging)
+            log.debug("return: " + low + " " + high);
+        return new long[] { low, high };
+    }
+
+    /**
+     * Make room for a new child of an item by respacing the smallest subtree
+     * around it that is wide enough to hold one more item with MIN_ORDER_GAP
+     * between values. If there is none, the whole table is renumbered.
+     * 
+     * @param parent
+     *            the LIID of the item, or null for a new root item.
+     * @throws SQLException
+     */
+    private void makeRoom(Integer parent) throws SQLException {
+        if (parent != null) {
+            int[] range = null;
+            _getRangeForLIIDPrepStmt.setInt(1, parent.intValue());
+            ResultSet rs = null;
+            try {
+                rs = _getRangeForLIIDPrepStmt.executeQuery();
+                if (rs.next()) {
+                    range = new int[] { rs.getInt(1), rs.getInt(2) };
+                }
+            } finally {
+                if (rs != null) {
+                    rs.close();
                 }
-                ResultSet parentResult = null;
+            }
+
+            if (range != null) {
+                // the item and its ancestors, closest first
+                List<int[]> ancestors = new ArrayList<int[]>();
+                _getAncestorRangesPrepStmt.setInt(1, range[0]);
+                _getAncestorRangesPrepStmt.setInt(2, range[1]);
                 try {
-                	parentResult = _stmt.executeQuery(parentQuery);
-	                if (parentResult == null)
-	                    log.error("Query Failed: " + parentQuery);
-	                if (parentResult.next()) {
-	                    insertIndex = parentResult.getInt(1) + 1;
-	                    parentLevel = parentResult.getInt(2);
-	                }
+                    rs = _getAncestorRangesPrepStmt.executeQuery();
+                    while (rs.next()) {
+                        ancestors.add(new int[] { rs.getInt(1), rs.getInt(2),
+                                rs.getInt(3) });
+                    }
                 } finally {
-                	if(parentResult != null) {
-                		parentResult.close();
-                	}
+                    if (rs != null) {
+                        rs.close();
+                    }
+                }
+
+                for (int[] ancestor : ancestors) {
+                    long items = countDescendants(ancestor[1], ancestor[2]) + 1;
+                    long gap = ((long) ancestor[2] - ancestor[1])
+                            / (2 * items + 1);
+                    if (gap >= MIN_ORDER_GAP) {
+                        if (isDebugging)
+                            log.debug("respacing " + ancestor[0] + " by " + gap);
+                        int left = ancestor[1] + (int) gap;
+                        for (Integer child : getChildren(
+                                _getLIIDForParentByLftPrepStmt, ancestor[0])) {
+                            left = refreshPreorderValues(child.intValue(), left,
+                                    (int) gap, _getLIIDForParentByLftPrepStmt);
+                        }
+                        executeOrderUpdates();
+                        return;
+                    }
                 }
             }
         }
-        if (isDebugging)
-            log.debug("return: " + insertIndex);
-        li.setLevel(parentLevel + 1);
-        return insertIndex;
+
+        log.info("Renumbering the LibIndex");
+        refreshPreorderValues();
+    }
+
+    /**
+     * Count the items strictly between two values, i.e. under an item.
+     * 
+     * @throws SQLException
+     */
+    private int countDescendants(int left, int right) throws SQLException {
+        _countDescendantsPrepStmt.setInt(1, left);
+        _countDescendantsPrepStmt.setInt(2, right);
+        ResultSet rs = null;
+        try {
+            rs = _countDescendantsPrepStmt.executeQuery();
+            return rs.next() ? rs.getInt(1) : 0;
+        } finally {
+            if (rs != null) {
+                rs.close();
+            }
+        }
     }
 
 
@@ -1455,7 +1977,7 @@ public class LibIndex {
 			addToSearchIndex(li);
 		}
 
-		_stmt.getConnection().commit();
+		commit();
 	}
 
 	   /**
@@ -1495,7 +2017,7 @@ public class LibIndex {
         		rs.close();
         	}
         }
-        _stmt.getConnection().commit();
+        commit();
     }
 
 	/**
@@ -1515,6 +2037,16 @@ public class LibIndex {
 					.getName());
 		}
 
+		// Add the documentation, ports and semantic types of an actor
+		if (li.getType() == TYPE_COMPONENT && li.getLsid() != null
+				&& li.getAttributeValue(ATT_CLASSNAME) != null) {
+			Map<Integer, String> text = getActorText(li.getLsid());
+			for (Map.Entry<Integer, String> entry : text.entrySet()) {
+				_searcher.insertText(entry.getKey().intValue(), li.getLiid(),
+						entry.getValue());
+			}
+		}
+
 		// We can only get the path to this LibItem if it has been inserted AND
 		// ordered
 		if (isOrderedInsert()) {
@@ -1522,6 +2054,33 @@ public class LibIndex {
 		}
 	}
 
+	/**
+	 * Return the text of the actor with the given LSID that is indexed besides
+	 * its name, reading it from the cache if it was not read recently.
+	 * 
+	 * @param lsid
+	 * @return
+	 */
+	private Map<Integer, String> getActorText(KeplerLSID lsid) {
+		Map<Integer, String> text = _recentActorText.get(lsid);
+		if (text == null) {
+			text = new HashMap<Integer, String>();
+			try {
+				CacheObjectInterface co = CacheManager.getInstance().getObject(
+						lsid);
+				if (co instanceof ActorCacheObject) {
+					text = LibTermIndex.getActorText(((ActorCacheObject) co)
+							.getActorString());
+				}
+			} catch (Exception e) {
+				log.warn("Unable to read " + lsid + " for the search index: "
+						+ e.getMessage());
+			}
+			_recentActorText.put(lsid, text);
+		}
+		return text;
+	}
+
 	/**
 	 * Add all of the parent LibItems to the search index for the given LibItem.
 	 * 
@@ -1561,59 +2120,83 @@ public class LibIndex {
 	}
 
 	/**
-	 * Sum the LFT and RGT columns and verify they are continuous integers from
-	 * 1 to (countItems()*2). This function should always return true after
-	 * finishing sql transactions for insert, update, or delete.
+	 * Verify that the LFT and RGT columns nest the rows the same way the
+	 * PARENT column does: every row is strictly inside its parent, and
+	 * siblings do not overlap. The values need not be consecutive. This
+	 * function should always return true after finishing sql transactions
+	 * for insert, update, or delete.
 	 * 
-	 * @return true if the LFT and RGT columns of the table add up
+	 * @return true if the LFT and RGT columns of the table are consistent
 	 * @throws SQLException
 	 */
 	public boolean verifyPreorderValues() throws SQLException {
 		if (isDebugging)
-			log.debug(_getLftRgtSumPrepStmt);
+			log.debug(_getPreorderPrepStmt);
+		// the LIIDs and RGT values of the rows enclosing the current one
+		List<int[]> open = new ArrayList<int[]>();
+		int previousLeft = Integer.MIN_VALUE;
 		ResultSet rs = null;
 		try {
-			rs = _getLftRgtSumPrepStmt.executeQuery();
+			rs = _getPreorderPrepStmt.executeQuery();
 			if (rs == null)
-				throw new SQLException("Query Failed: " + _getLftRgtSumPrepStmt);
-			if (rs.next()) {
-				int sumLR = rs.getInt(1);
-				int cnt = countItems() * 2;
-				int sumCnt = (cnt * (cnt + 1)) / 2;
-				if (isDebugging)
-					log.debug(sumLR + " " + sumCnt);
-				if (sumLR == sumCnt) {
-					return true;
+				throw new SQLException("Query Failed: " + _getPreorderPrepStmt);
+			while (rs.next()) {
+				int liid = rs.getInt(1);
+				int parent = rs.getInt(2);
+				boolean isRoot = rs.wasNull();
+				int left = rs.getInt(3);
+				int right = rs.getInt(4);
+				if (left >= right || left == previousLeft) {
+					if (isDebugging)
+						log.debug("bad range for " + liid);
+					return false;
+				}
+				previousLeft = left;
+
+				while (!open.isEmpty() && open.get(open.size() - 1)[1] < left) {
+					open.remove(open.size() - 1);
+				}
+				if (open.isEmpty()) {
+					if (!isRoot) {
+						if (isDebugging)
+							log.debug(liid + " is outside of its parent");
+						return false;
+					}
+				} else {
+					int[] enclosing = open.get(open.size() - 1);
+					if (isRoot || enclosing[0] != parent || enclosing[1] <= right) {
+						if (isDebugging)
+							log.debug(liid + " is not nested in its parent");
+						return false;
+					}
 				}
+				open.add(new int[] { liid, right });
 			}
 		} finally {
 			if(rs != null) {
 				rs.close();
 			}
 		}
-		return false;
+		return true;
 	}
 
 	/**
 	 * Refresh the lft and rgt PTT values based on the parent information and
-	 * ordering by name.
+	 * ordering by name, ORDER_GAP apart, or less if the table is too large.
 	 */
 	private void refreshPreorderValues() {
 		try {
-			int left = 1;
-			ResultSet rs = null;
+			long count = countItems();
+			int gap = (int) Math.max(MIN_ORDER_GAP, Math.min(ORDER_GAP,
+					Integer.MAX_VALUE / (4 * (count + 1))));
+			int left = gap;
 			try {
-					rs = _getLIIDRootsPrepStmt.executeQuery();
-				if (rs == null)
-					throw new SQLException("Query Failed: " + _getLIIDRootsPrepStmt);
-				while (rs.next()) {
-					int liid = rs.getInt(1);
-					left = refreshPreorderValues(liid, left);
+				for (Integer liid : getChildren(_getLIIDRootsPrepStmt, null)) {
+					left = refreshPreorderValues(liid.intValue(), left, gap,
+							_getLIIDForParentPrepStmt);
 				}
 			} finally {
-				if(rs != null) {
-					rs.close();
-				}
+				executeOrderUpdates();
 			}
 		} catch (SQLException sqle) {
 			sqle.printStackTrace();
@@ -1626,36 +2209,78 @@ public class LibIndex {
 	 * 
 	 * @param parent
 	 * @param left
+	 * @param gap
+	 *            the distance between consecutive values.
+	 * @param childQuery
+	 *            the query of the children of an LIID, in the order to give
+	 *            them.
 	 * @return
 	 * @throws SQLException
 	 */
-	private int refreshPreorderValues(int parent, int left) throws SQLException {
-		int right = left + 1;
+	private int refreshPreorderValues(int parent, int left, int gap,
+			PreparedStatement childQuery) throws SQLException {
+		int right = left + gap;
 
 		// get all children of this node
-		_getLIIDForParentPrepStmt.setInt(1, parent);
+		for (Integer child : getChildren(childQuery, Integer.valueOf(parent))) {
+			right = refreshPreorderValues(child.intValue(), right, gap,
+					childQuery);
+		}
+
+		// UPDATE LIBRARY_INDEX SET LFT=?, RGT=? WHERE LIID=?
+		// the updates are sent in batches; the traversal only reads PARENT
+		_updateOrderPrepStmt.clearParameters();
+		_updateOrderPrepStmt.setInt(1, left);
+		_updateOrderPrepStmt.setInt(2, right);
+		_updateOrderPrepStmt.setInt(3, parent);
+		_updateOrderPrepStmt.addBatch();
+		if (++_pendingOrderUpdates >= BatchUpdate.BATCH_SIZE) {
+			executeOrderUpdates();
+		}
+
+		// return the right value of this node + the gap
+		return right + gap;
+	}
+
+	/**
+	 * Return the LIIDs selected by a query of children.
+	 * 
+	 * @param childQuery
+	 * @param parent
+	 *            the parameter of the query, or null if it has none.
+	 * @return
+	 * @throws SQLException
+	 */
+	private List<Integer> getChildren(PreparedStatement childQuery,
+			Integer parent) throws SQLException {
+		List<Integer> children = new ArrayList<Integer>();
+		if (parent != null) {
+			childQuery.setInt(1, parent.intValue());
+		}
 		ResultSet rs = null;
 		try {
-			rs = _getLIIDForParentPrepStmt.executeQuery();
+			rs = childQuery.executeQuery();
 			while (rs.next()) {
-				int p = rs.getInt(1);
-				right = refreshPreorderValues(p, right);
+				children.add(Integer.valueOf(rs.getInt(1)));
 			}
 		} finally {
 			if(rs != null) {
 				rs.close();
 			}
 		}
+		return children;
+	}
 
-		// UPDATE LIBRARY_INDEX SET LFT=?, RGT=? WHERE LIID=?
-		_updateOrderPrepStmt.clearParameters();
-		_updateOrderPrepStmt.setInt(1, left);
-		_updateOrderPrepStmt.setInt(2, right);
-		_updateOrderPrepStmt.setInt(3, parent);
-		_updateOrderPrepStmt.executeUpdate();
-
-		// return the right value of this node + 1
-		return right + 1;
+	/**
+	 * Send the batched preorder updates to the database.
+	 * 
+	 * @throws SQLException
+	 */
+	private void executeOrderUpdates() throws SQLException {
+		if (_pendingOrderUpdates > 0) {
+			_pendingOrderUpdates = 0;
+			_updateOrderPrepStmt.executeBatch();
+		}
 	}
 
 	/**
@@ -153,8 +153,8 @@ public class LibItem {
 
 	/**
 	 * Delete this populated LibItem from the Library_Index table. This will
-	 * also delete all the children and update the LFT and RGT indexes of all
-	 * the other items in the table.
+	 * also delete all the children. The LFT and RGT values of the other items
+	 * in the table are not changed; LibIndex leaves gaps between them.
 	 * 
 	 * @param stmt
 	 * @throws SQLException
@@ -188,25 +188,13 @@ public class LibItem {
 			}
 		}
 
-		// The number of rows to be deleted
-		int delCount = getRight() - getLeft();
-
 		String delete = "delete from " + LibIndex.LIBRARY_INDEX_TABLE_NAME
 				+ " WHERE LFT >= " + getLeft() + " AND RGT <= " + getRight();
 
-		String updateLeft = "UPDATE " + LibIndex.LIBRARY_INDEX_TABLE_NAME
-				+ " SET LFT = LFT - " + (delCount + 1) + " WHERE LFT >= "
-				+ getLeft();
-		String updateRight = "UPDATE " + LibIndex.LIBRARY_INDEX_TABLE_NAME
-				+ " SET RGT = RGT - " + (delCount + 1) + " WHERE RGT >= "
-				+ getLeft();
-
 		if (isDebugging) {
-			log.debug("\n" + delete + "\n" + updateLeft + "\n" + updateRight);
+			log.debug(delete);
 		}
 
-		stmt.executeUpdate(updateLeft);
-		stmt.executeUpdate(updateRight);
 		stmt.executeUpdate(delete);
 		stmt.getConnection().commit();
 
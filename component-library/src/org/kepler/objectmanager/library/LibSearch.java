@@ -34,10 +34,15 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.Vector;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.kepler.util.sql.BatchUpdate;
 import org.kepler.util.sql.DatabaseFactory;
 
 public class LibSearch {
@@ -60,12 +65,32 @@ public class LibSearch {
 	public static final int TYPE_FOLDERNAME = 5;
 	public static final int TYPE_KARNAME = 6;
 	public static final int TYPE_LOCALREPO = 7;
+	/**
+	 * Types of text that are only kept in the LibTermIndex, not as search
+	 * strings.
+	 */
+	public static final int TYPE_DOCUMENTATION = 8;
+	public static final int TYPE_PORT = 9;
+	public static final int TYPE_SEMANTICTYPE = 10;
 
 	private Connection _conn;
 	private Statement _stmt;
 	private PreparedStatement _insertPrepStmt;
 	private PreparedStatement _deletePrepStmt;
 	private PreparedStatement _deleteAllPrepStmt;
+	private PreparedStatement _batchInsertPrepStmt;
+
+	/** The words of the search strings and of the other text of the items. */
+	private LibTermIndex _terms;
+
+	/**
+	 * Rows queued by insertRow between beginBatch and executeBatch, null when
+	 * not batching.
+	 */
+	private List<Object[]> _batchRows;
+
+	/** The LIID and search string of every row queued since beginBatch. */
+	private Set<String> _batchKeys;
 
 	/**
 	 * A constructor that creates a new connection to the database.
@@ -115,10 +140,21 @@ public class LibSearch {
 					+ LIB_SEARCH_TABLE_NAME + " where liid = ?");
 			_deleteAllPrepStmt = _conn.prepareStatement("delete from "
 					+ LIB_SEARCH_TABLE_NAME);
+			_batchInsertPrepStmt = _conn.prepareStatement("insert into "
+					+ LIB_SEARCH_TABLE_NAME
+					+ " (type, liid, searchstring) values ( ?, ?, ? )");
 
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
+		_terms = new LibTermIndex(conn);
+	}
+
+	/**
+	 * Return the inverted index of the words of the items.
+	 */
+	public LibTermIndex getTermIndex() {
+		return _terms;
 	}
 
 	/**
@@ -148,12 +184,28 @@ public class LibSearch {
 
 	/**
 	 * Return all LIID values that match the given string and search types.
+	 * The LibTermIndex is used, which matches the start of each word of the
+	 * value and ranks the items, unless it has not been built yet or the
+	 * value has no words it indexes; then any search string that contains
+	 * the value matches.
 	 * 
 	 * @param value
 	 * @param types
-	 * @return Vector<Integer> that are the Library Index IDs that match
+	 * @return Vector<Integer> that are the Library Index IDs that match, best
+	 *         first
 	 */
 	public Vector<Integer> search(String value, Vector<Integer> types) {
+		try {
+			if (!_terms.isEmpty()) {
+				Vector<Integer> liids = _terms.search(value, types);
+				if (liids != null) {
+					return liids;
+				}
+			}
+		} catch (SQLException sqle) {
+			log.warn("Unable to search the term index: " + sqle.getMessage());
+		}
+
 		Vector<Integer> liids = new Vector<Integer>();
 		try {
 			String query = "SELECT liid FROM " + LIB_SEARCH_TABLE_NAME
@@ -188,12 +240,40 @@ public class LibSearch {
 	 */
 	public void clear() throws SQLException {
 		_deleteAllPrepStmt.executeUpdate();
+		_terms.clear();
 
 		String resetAutoInc = "ALTER TABLE " + LIB_SEARCH_TABLE_NAME
 				+ " ALTER COLUMN SID RESTART WITH 1";
 		_stmt.execute(resetAutoInc);
 	}
 
+	/**
+	 * Queue the rows of following insertRow calls and send them to the
+	 * database in JDBC batches, until executeBatch is called. Meant for
+	 * filling an empty table, since rows already in the table are only
+	 * skipped by the database when a batch is sent.
+	 */
+	public void beginBatch() {
+		_batchRows = new ArrayList<Object[]>();
+		_batchKeys = new HashSet<String>();
+		_terms.beginBatch();
+	}
+
+	/**
+	 * Insert the rows queued since beginBatch and stop batching.
+	 * 
+	 * @throws SQLException
+	 */
+	public void executeBatch() throws SQLException {
+		List<Object[]> rows = _batchRows;
+		_batchRows = null;
+		_batchKeys = null;
+		if (rows != null && !rows.isEmpty()) {
+			BatchUpdate.execute(_batchInsertPrepStmt, rows);
+		}
+		_terms.executeBatch();
+	}
+
 	/**
 	 * Remove all of the entries from the table that match the given KeplerLSID.
 	 * 
@@ -204,6 +284,7 @@ public class LibSearch {
 		_deletePrepStmt.setInt(1, liid);
 		_deletePrepStmt.executeUpdate();
 		_deletePrepStmt.clearParameters();
+		_terms.remove(liid);
 	}
 
 	/**
@@ -243,6 +324,21 @@ public class LibSearch {
 			log.debug("insertRow(" + type + "," + liid + "," + searchString
 					+ ")");
 
+		_terms.add(type, liid, searchString);
+
+		if (_batchRows != null) {
+			String lowerCase = searchString.toLowerCase();
+			// skip duplicates here rather than have them fail the batch
+			if (_batchKeys.add(liid + "\n" + lowerCase)) {
+				_batchRows.add(new Object[] { type, liid, lowerCase });
+				if (_batchRows.size() >= BatchUpdate.BATCH_SIZE) {
+					BatchUpdate.execute(_batchInsertPrepStmt, _batchRows);
+					_batchRows.clear();
+				}
+			}
+			return;
+		}
+
 		_insertPrepStmt.setNull(1, java.sql.Types.INTEGER);
 		_insertPrepStmt.setInt(2, type);
 		_insertPrepStmt.setInt(3, liid);
@@ -264,4 +360,19 @@ public class LibSearch {
 		}
 
 	}
+
+	/**
+	 * Add text of an item that is searched by its words only, e.g. its
+	 * documentation, to the LibTermIndex.
+	 * 
+	 * @param type
+	 *            one of TYPE_DOCUMENTATION, TYPE_PORT or TYPE_SEMANTICTYPE
+	 * @param liid
+	 * @param text
+	 * @throws SQLException
+	 */
+	public void insertText(int type, int liid, String text)
+			throws SQLException {
+		_terms.add(type, liid, text);
+	}
 }
@@ -142,9 +142,12 @@ public class LibSearchConfiguration implements Serializable {
 	}
 	
 	private void setDefaults() {
-		_searchTypes = new Vector<Integer>(2);
+		_searchTypes = new Vector<Integer>(5);
 		_searchTypes.add(new Integer(LibSearch.TYPE_NAME));
 		_searchTypes.add(new Integer(LibSearch.TYPE_ONTCLASSNAME));
+		_searchTypes.add(new Integer(LibSearch.TYPE_DOCUMENTATION));
+		_searchTypes.add(new Integer(LibSearch.TYPE_PORT));
+		_searchTypes.add(new Integer(LibSearch.TYPE_SEMANTICTYPE));
 	}
 
 	public void serializeToDisk() {
@@ -0,0 +1,555 @@
+/*
+ * Copyright (c) 2010 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * '$Author$'
+ * '$Date$'
+ * '$Revision$'
+ *
+ * Permission is hereby granted, without written agreement and without
+ * license or royalty fees, to use, copy, modify, and distribute this
+ * software and its documentation for any purpose, provided that the above
+ * copyright notice and the following two paragraphs appear in all copies
+ * of this software.
+ *
+ * IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ * FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ * THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ * PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ * CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ * ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ */
+
+package org.kepler.objectmanager.library;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.kepler.util.sql.BatchUpdate;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * An inverted index of the words of the library items, kept in the
+ * LIBRARY_TERMS table. Each row holds a word, the LIID of an item it was
+ * found in, the LibSearch type of the text it was found in (the name of the
+ * item, the name of a folder above it, its documentation, its port names or
+ * its semantic types) and the number of times it was found there.
+ * 
+ * Words are looked up by prefix through the primary key, so a search costs a
+ * range scan per word of the query instead of a scan of every search string.
+ * The items that contain every word of the query are returned best first,
+ * ranked by the type of text the words were found in, how often they were
+ * found and how rare they are in the index.
+ */
+public class LibTermIndex {
+	private static final Log log = LogFactory.getLog(LibTermIndex.class
+			.getName());
+	private static final boolean isDebugging = log.isDebugEnabled();
+
+	/**
+	 * the name of the table in the database
+	 */
+	public static final String LIB_TERMS_TABLE_NAME = "LIBRARY_TERMS";
+
+	/** Words shorter than this are not indexed. */
+	public static final int MIN_TERM_LENGTH = 2;
+
+	/** Words are cut to this length. */
+	public static final int MAX_TERM_LENGTH = 64;
+
+	/** Common words that are not indexed. */
+	private static final Set<String> STOP_WORDS = new HashSet<String>(Arrays
+			.asList(new String[] { "an", "and", "are", "as", "at", "be", "br",
+					"by", "for", "from", "if", "in", "is", "it", "li", "of",
+					"on", "or", "that", "the", "this", "to", "ul", "with" }));
+
+	private Connection _conn;
+	private Statement _stmt;
+	private PreparedStatement _insertPrepStmt;
+	private PreparedStatement _deletePrepStmt;
+	private PreparedStatement _deleteAllPrepStmt;
+	private PreparedStatement _prefixPrepStmt;
+
+	/**
+	 * Rows queued by add between beginBatch and executeBatch, null when not
+	 * batching.
+	 */
+	private List<Object[]> _batchRows;
+
+	/** The keys of the rows in _batchRows. */
+	private Set<String> _batchKeys;
+
+	/** The number of items in the index, or -1 if it has to be counted. */
+	private int _itemCount = -1;
+
+	/**
+	 * Create an index that uses the given connection.
+	 * 
+	 * @param conn
+	 */
+	public LibTermIndex(Connection conn) {
+		_conn = conn;
+		try {
+			_stmt = _conn.createStatement();
+			_insertPrepStmt = _conn.prepareStatement("insert into "
+					+ LIB_TERMS_TABLE_NAME
+					+ " (term, liid, type, freq) values ( ?, ?, ?, ? )");
+			_deletePrepStmt = _conn.prepareStatement("delete from "
+					+ LIB_TERMS_TABLE_NAME + " where liid = ?");
+			_deleteAllPrepStmt = _conn.prepareStatement("delete from "
+					+ LIB_TERMS_TABLE_NAME);
+			_prefixPrepStmt = _conn.prepareStatement("select term, liid, type, freq from "
+					+ LIB_TERMS_TABLE_NAME + " where term >= ? and term < ?");
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Add the words of the given text to the index for an item. A word that
+	 * is already indexed for the item and type is left as it is.
+	 * 
+	 * @param type
+	 *            the LibSearch type of the text
+	 * @param liid
+	 * @param text
+	 * @throws SQLException
+	 */
+	public void add(int type, int liid, String text) throws SQLException {
+		if (text == null) {
+			return;
+		}
+		Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+		for (String term : tokenize(text)) {
+			Integer count = counts.get(term);
+			counts.put(term, new Integer(count == null ? 1 : count
+					.intValue() + 1));
+		}
+		if (counts.isEmpty()) {
+			return;
+		}
+		_itemCount = -1;
+
+		for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+			Object[] row = new Object[] { entry.getKey(), new Integer(liid),
+					new Integer(type), entry.getValue() };
+			if (_batchRows != null) {
+				// skip duplicates here rather than have them stop the batch
+				if (_batchKeys.add(entry.getKey() + "\n" + liid + "\n" + type)) {
+					_batchRows.add(row);
+					if (_batchRows.size() >= BatchUpdate.BATCH_SIZE) {
+						flushBatch();
+					}
+				}
+				continue;
+			}
+
+			for (int i = 0; i < row.length; i++) {
+				_insertPrepStmt.setObject(i + 1, row[i]);
+			}
+			try {
+				_insertPrepStmt.executeUpdate();
+			} catch (SQLException sqle) {
+				if (sqle.getErrorCode() == -104) {
+					// the word is already indexed for this item and type
+				} else {
+					throw sqle;
+				}
+			} finally {
+				_insertPrepStmt.clearParameters();
+			}
+		}
+	}
+
+	/**
+	 * Queue the rows of following add calls and send them to the database in
+	 * JDBC batches, until executeBatch is called.
+	 */
+	public void beginBatch() {
+		_batchRows = new ArrayList<Object[]>();
+		_batchKeys = new HashSet<String>();
+	}
+
+	/**
+	 * Insert the rows queued since beginBatch and stop batching.
+	 * 
+	 * @throws SQLException
+	 */
+	public void executeBatch() throws SQLException {
+		if (_batchRows != null) {
+			flushBatch();
+		}
+		_batchRows = null;
+		_batchKeys = null;
+	}
+
+	private void flushBatch() throws SQLException {
+		if (!_batchRows.isEmpty()) {
+			// rows that were sent in an earlier batch fail and are skipped
+			BatchUpdate.execute(_insertPrepStmt, _batchRows);
+			_batchRows.clear();
+			_batchKeys.clear();
+		}
+	}
+
+	/**
+	 * Remove the words of an item from the index.
+	 * 
+	 * @param liid
+	 * @throws SQLException
+	 */
+	public void remove(int liid) throws SQLException {
+		_deletePrepStmt.setInt(1, liid);
+		_deletePrepStmt.executeUpdate();
+		_deletePrepStmt.clearParameters();
+		_itemCount = -1;
+	}
+
+	/**
+	 * Delete everything from the index.
+	 * 
+	 * @throws SQLException
+	 */
+	public void clear() throws SQLException {
+		_deleteAllPrepStmt.executeUpdate();
+		_itemCount = -1;
+	}
+
+	/**
+	 * Return true if nothing has been indexed, e.g. because the library index
+	 * was built before there was a LIBRARY_TERMS table.
+	 */
+	public boolean isEmpty() {
+		try {
+			ResultSet rs = null;
+			try {
+				_stmt.setMaxRows(1);
+				rs = _stmt.executeQuery("SELECT LIID FROM "
+						+ LIB_TERMS_TABLE_NAME);
+				return !rs.next();
+			} finally {
+				if (rs != null) {
+					rs.close();
+				}
+				_stmt.setMaxRows(0);
+			}
+		} catch (SQLException sqle) {
+			sqle.printStackTrace();
+			return true;
+		}
+	}
+
+	/**
+	 * Return the LIIDs of the items that contain a word starting with each
+	 * word of the given value, in the given types of text, best match first.
+	 * 
+	 * @param value
+	 * @param types
+	 *            the LibSearch types to look in, or an empty collection for
+	 *            all of them
+	 * @return the matching LIIDs, or null if the value has no words that are
+	 *         indexed
+	 * @throws SQLException
+	 */
+	public Vector<Integer> search(String value, Collection<Integer> types)
+			throws SQLException {
+		List<String> words = new ArrayList<String>(new LinkedHashSet<String>(
+				tokenize(value)));
+		if (words.isEmpty()) {
+			return null;
+		}
+
+		double itemCount = Math.max(getItemCount(), 1);
+		Map<Integer, double[]> scores = null;
+		for (String word : words) {
+			Map<Integer, double[]> wordScores = searchPrefix(word, types);
+			// rarer words count for more
+			double idf = Math.log(1.0 + itemCount / Math.max(wordScores.size(), 1));
+			if (scores == null) {
+				scores = wordScores;
+				for (double[] score : scores.values()) {
+					score[0] *= idf;
+				}
+			} else {
+				// keep the items that contain every word
+				Map<Integer, double[]> both = new HashMap<Integer, double[]>();
+				for (Map.Entry<Integer, double[]> entry : wordScores.entrySet()) {
+					double[] score = scores.get(entry.getKey());
+					if (score != null) {
+						score[0] += entry.getValue()[0] * idf;
+						both.put(entry.getKey(), score);
+					}
+				}
+				scores = both;
+			}
+			if (scores.isEmpty()) {
+				break;
+			}
+		}
+
+		final Map<Integer, double[]> ranked = scores;
+		List<Integer> liids = new ArrayList<Integer>(ranked.keySet());
+		Collections.sort(liids, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int c = Double.compare(ranked.get(b)[0], ranked.get(a)[0]);
+				return c != 0 ? c : a.compareTo(b);
+			}
+		});
+		if (isDebugging)
+			log.debug(words + ": " + liids.size() + " items");
+		return new Vector<Integer>(liids);
+	}
+
+	/**
+	 * Return the score of each item that has a word starting with the given
+	 * prefix in one of the given types of text.
+	 */
+	private Map<Integer, double[]> searchPrefix(String prefix,
+			Collection<Integer> types) throws SQLException {
+		Map<Integer, double[]> scores = new HashMap<Integer, double[]>();
+		_prefixPrepStmt.setString(1, prefix);
+		_prefixPrepStmt.setString(2, prefix + Character.MAX_VALUE);
+		ResultSet rs = null;
+		try {
+			rs = _prefixPrepStmt.executeQuery();
+			while (rs.next()) {
+				String term = rs.getString(1);
+				Integer liid = new Integer(rs.getInt(2));
+				int type = rs.getInt(3);
+				if (!types.isEmpty() && !types.contains(new Integer(type))) {
+					continue;
+				}
+				double score = getWeight(type) * (1.0 + Math.log(rs.getInt(4)));
+				if (term.length() == prefix.length()) {
+					// the whole word rather than the start of it
+					score *= 2;
+				}
+				double[] total = scores.get(liid);
+				if (total == null) {
+					scores.put(liid, new double[] { score });
+				} else {
+					total[0] += score;
+				}
+			}
+		} finally {
+			if (rs != null) {
+				rs.close();
+			}
+			_prefixPrepStmt.clearParameters();
+		}
+		return scores;
+	}
+
+	/** Return the number of items in the index. */
+	private int getItemCount() throws SQLException {
+		if (_itemCount < 0) {
+			ResultSet rs = null;
+			try {
+				rs = _stmt.executeQuery("SELECT count(DISTINCT LIID) FROM "
+						+ LIB_TERMS_TABLE_NAME);
+				_itemCount = rs.next() ? rs.getInt(1) : 0;
+			} finally {
+				if (rs != null) {
+					rs.close();
+				}
+			}
+		}
+		return _itemCount;
+	}
+
+	/**
+	 * Return how much a word found in the given LibSearch type of text counts
+	 * toward the rank of an item.
+	 * 
+	 * @param type
+	 * @return
+	 */
+	public static double getWeight(int type) {
+		switch (type) {
+		case LibSearch.TYPE_NAME:
+			return 16;
+		case LibSearch.TYPE_CLASSNAME:
+		case LibSearch.TYPE_ONTCLASSNAME:
+		case LibSearch.TYPE_SEMANTICTYPE:
+			return 4;
+		case LibSearch.TYPE_PORT:
+			return 2;
+		default:
+			return 1;
+		}
+	}
+
+	/**
+	 * Split text into the words that are indexed: runs of letters and digits,
+	 * in lower case. A word in mixed case, e.g. StringToXML, is indexed whole
+	 * and by its parts, string, to and xml.
+	 * 
+	 * @param text
+	 * @return the words, in the order found, with repeats
+	 */
+	public static List<String> tokenize(String text) {
+		List<String> terms = new ArrayList<String>();
+		if (text == null) {
+			return terms;
+		}
+		int length = text.length();
+		int start = 0;
+		while (start < length) {
+			while (start < length
+					&& !Character.isLetterOrDigit(text.charAt(start))) {
+				start++;
+			}
+			int end = start;
+			while (end < length && Character.isLetterOrDigit(text.charAt(end))) {
+				end++;
+			}
+			if (end > start) {
+				String word = text.substring(start, end);
+				addTerm(terms, word);
+				// the parts of a camel case word
+				int partStart = 0;
+				for (int i = 1; i <= word.length(); i++) {
+					if (i == word.length() || isPartBoundary(word, i)) {
+						if (partStart > 0 || i < word.length()) {
+							addTerm(terms, word.substring(partStart, i));
+						}
+						partStart = i;
+					}
+				}
+			}
+			start = end;
+		}
+		return terms;
+	}
+
+	/**
+	 * Return true if a new part of a camel case word starts at index i, e.g.
+	 * before the T and the X of StringToXML.
+	 */
+	private static boolean isPartBoundary(String word, int i) {
+		char previous = word.charAt(i - 1);
+		char current = word.charAt(i);
+		if (Character.isUpperCase(current)) {
+			return Character.isLowerCase(previous)
+					|| Character.isDigit(previous)
+					|| (i + 1 < word.length() && Character.isLowerCase(word
+							.charAt(i + 1)));
+		}
+		return Character.isDigit(current) != Character.isDigit(previous);
+	}
+
+	private static void addTerm(List<String> terms, String word) {
+		String term = word.toLowerCase();
+		if (term.length() > MAX_TERM_LENGTH) {
+			term = term.substring(0, MAX_TERM_LENGTH);
+		}
+		if (term.length() >= MIN_TERM_LENGTH && !STOP_WORDS.contains(term)) {
+			terms.add(term);
+		}
+	}
+
+	/**
+	 * Return the text of an actor's MoML that is indexed besides its name: the
+	 * text of its KeplerDocumentation, the names of its ports and the
+	 * concepts of its semantic types, by LibSearch type. The MoML is read as
+	 * XML, without instantiating the actor.
+	 * 
+	 * @param moml
+	 *            e.g. from ActorCacheObject.getActorString()
+	 * @return the text of each type, empty if the MoML cannot be read
+	 */
+	public static Map<Integer, String> getActorText(String moml) {
+		Map<Integer, String> text = new HashMap<Integer, String>();
+		if (moml == null) {
+			return text;
+		}
+		try {
+			DocumentBuilderFactory factory = DocumentBuilderFactory
+					.newInstance();
+			DocumentBuilder builder = factory.newDocumentBuilder();
+			// the DTD is not needed to read the text, and is not fetched
+			builder.setEntityResolver(new EntityResolver() {
+				public InputSource resolveEntity(String publicId,
+						String systemId) throws SAXException, IOException {
+					return new InputSource(new StringReader(""));
+				}
+			});
+			Document doc = builder.parse(new InputSource(new StringReader(
+					moml)));
+
+			StringBuilder documentation = new StringBuilder();
+			StringBuilder ports = new StringBuilder();
+			StringBuilder semanticTypes = new StringBuilder();
+
+			NodeList children = doc.getDocumentElement().getChildNodes();
+			for (int i = 0; i < children.getLength(); i++) {
+				Node child = children.item(i);
+				if (!(child instanceof Element)) {
+					continue;
+				}
+				Element element = (Element) child;
+				String name = element.getAttribute("name");
+				String className = element.getAttribute("class");
+				if (element.getTagName().equals("port")) {
+					ports.append(name).append(' ');
+				} else if (!element.getTagName().equals("property")) {
+					continue;
+				} else if (name.equals("KeplerDocumentation")) {
+					documentation.append(element.getTextContent()).append(' ');
+				} else if (className.endsWith("PortAttribute")) {
+					ports.append(name).append(' ');
+				} else if (className.equals("org.kepler.sms.SemanticType")) {
+					// the concept is the fragment of the ontology URI
+					String value = element.getAttribute("value");
+					semanticTypes.append(value.substring(value.indexOf('#') + 1))
+							.append(' ');
+				}
+			}
+			text.put(new Integer(LibSearch.TYPE_DOCUMENTATION), documentation
+					.toString());
+			text.put(new Integer(LibSearch.TYPE_PORT), ports.toString());
+			text.put(new Integer(LibSearch.TYPE_SEMANTICTYPE), semanticTypes
+					.toString());
+		} catch (Exception e) {
+			log.warn("Unable to read the actor for the search index: "
+					+ e.getMessage());
+		}
+		return text;
+	}
+}
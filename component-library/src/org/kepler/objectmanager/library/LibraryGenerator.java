@@ -29,18 +29,15 @@
 
 package org.kepler.objectmanager.library;
 
-import java.util.Stack;
 import java.util.Vector;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.kepler.moml.LazyEntityLibrary;
 
 import ptolemy.kernel.ComponentEntity;
-import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.IllegalActionException;
-import ptolemy.kernel.util.NamedObj;
 import ptolemy.kernel.util.Workspace;
-import ptolemy.moml.EntityLibrary;
 
 /**
  * This class is used for generating the Component Library from the prebuilt
@@ -50,27 +47,50 @@ import ptolemy.moml.EntityLibrary;
  * LibraryManager do. This will keep confusion about the API to a minimum
  * (before they were all in the same class).
  * 
+ * The library is generated lazily: generate() only returns the root, and the
+ * children of each folder are read from the LibIndex, a page at a time, when
+ * the folder is first expanded or otherwise asked for its contents. This
+ * keeps the time to open the library independent of the size of the index.
+ * 
  * @author Aaron Schultz
  */
-public class LibraryGenerator {
+public class LibraryGenerator implements LazyEntityLibrary.Loader {
 
 	private static final Log log = LogFactory.getLog(LibraryGenerator.class
 			.getName());
 	private static final boolean isDebugging = log.isDebugEnabled();
 
+	/**
+	 * The number of children read from the LibIndex per query.
+	 */
+	public static final int PAGE_SIZE = 256;
+
 	/**
 	 * Convenience reference.
 	 */
 	private LibraryManager _libMan;
 
+	/**
+	 * The index the library is generated from.
+	 */
+	private LibIndex _libIndex;
+
 	public LibraryGenerator() {
 		_libMan = LibraryManager.getInstance();
 	}
 
-	public CompositeEntity generate(Workspace workspace, LibIndex libIndex) {
-		CompositeEntity _root = null;
+	/**
+	 * Return the root of the library. Its contents are created from the given
+	 * index when they are first asked for.
+	 * 
+	 * @param workspace
+	 * @param libIndex
+	 * @return
+	 */
+	public LazyEntityLibrary generate(Workspace workspace, LibIndex libIndex) {
+		_libIndex = libIndex;
+		LazyEntityLibrary _root = new LazyEntityLibrary(workspace);
 		try {
-			_root = (CompositeEntity) new EntityLibrary(workspace);
 			_root.setName("kepler actor library");
 		} catch (ptolemy.kernel.util.NameDuplicationException nde) {
 			// do nothing, just leave the name blank
@@ -78,64 +98,49 @@ public class LibraryGenerator {
 		} catch (IllegalActionException e) {
 			e.printStackTrace();
 		}
-		if (_root == null) return null;
+		_root.setLoader(this);
+		return _root;
+	}
 
-		Stack<LibItem> s = new Stack<LibItem>();
-		Stack<NamedObj> treeObjs = new Stack<NamedObj>();
-		treeObjs.push(_root);
+	/**
+	 * Create the children of the given library from the index. The root of
+	 * the library has no LIID and gets the items at the top of the index.
+	 * 
+	 * @param library
+	 * @throws Exception
+	 */
+	public void load(LazyEntityLibrary library) throws Exception {
+		if (_libIndex == null) {
+			_libIndex = _libMan.getIndex();
+		}
+		Integer parent = null;
+		int liid = LibraryManager.getLiidFor(library);
+		if (liid != -1) {
+			parent = new Integer(liid);
+		}
+		if (isDebugging)
+			log.debug("load(" + library.getName() + "," + parent + ")");
 
-		Vector<LibItem> items = libIndex.getItems();
-		System.gc();
-		for (LibItem item : items) {
-			// if (isDebugging) log.debug(item.debugString());
-			try {
-				// if (isDebugging) log.debug("s.size(): " + s.size());
-				// if (isDebugging) log.debug("treeObjs.size(): " +
-				// treeObjs.size());
-				while (s.size() > 0) {
-					int lastRight = s.elementAt(s.size() - 1).getRight();
-					int thisRight = item.getRight();
-					if (lastRight < thisRight) {
-						// if (isDebugging)
-						// log.debug(s.elementAt(s.size()-1).getRight() + " < "
-						// + item.getRight());
-						s.pop();
-						treeObjs.pop();
-					} else {
-						break;
-					}
-				}
-				if (isDebugging) log.debug( s.toString() );
-				if (isDebugging) log.debug( treeObjs.toString() );
-				NamedObj parent = treeObjs.elementAt(treeObjs.size() - 1);
-				if (isDebugging) log.debug(parent.getName() + " " + parent.getClass().getName());
-				if (parent instanceof CompositeEntity) {
+		int afterLeft = -1;
+		Vector<LibItem> page;
+		do {
+			page = _libIndex.getChildItems(parent, afterLeft, PAGE_SIZE);
+			for (LibItem item : page) {
+				afterLeft = item.getLeft();
+				try {
 					ComponentEntity current = _libMan.createAndAddTreeItem(
-							(CompositeEntity) parent, item);
-					if (isDebugging) {
-						String indent = " ";
-						for (int i = 0; i < treeObjs.size(); i++) {
-							indent += "+-";
-						}
-						log.debug(indent + " " + current.getName() + "     "
-								+ current.getClass().getName());
+							library, item);
+					if (current instanceof LazyEntityLibrary) {
+						((LazyEntityLibrary) current).setLoader(this);
 					}
-					s.push(item);
-					treeObjs.push(current);
-				} else {
-					log
-							.error("Parent is something other than CompositeEntity!  Should never happen.");
-					// Try refreshing the order
-					
-					// Try complete reubild
-					return _root;
+					if (isDebugging && current != null)
+						log.debug(" +- " + current.getName() + "     "
+								+ current.getClass().getName());
+				} catch (Exception e) {
+					e.printStackTrace();
 				}
-			} catch (Exception e) {
-				e.printStackTrace();
 			}
-		}
-		System.gc();
-		return _root;
+		} while (page.size() == PAGE_SIZE);
 	}
 
 }
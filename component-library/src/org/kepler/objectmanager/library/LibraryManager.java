@@ -59,6 +59,7 @@ import org.kepler.kar.KARFile;
 import org.kepler.moml.FolderEntityLibrary;
 import org.kepler.moml.KAREntityLibrary;
 import org.kepler.moml.KARErrorEntityLibrary;
+import org.kepler.moml.LazyEntityLibrary;
 import org.kepler.moml.NamedObjId;
 import org.kepler.moml.OntologyEntityLibrary;
 import org.kepler.objectmanager.cache.CacheManager;
@@ -156,6 +157,12 @@ public class LibraryManager implements TreeExpansionListener {
 	 */
 	private LibIndex _libIndex;
 
+	/**
+	 * Creates the contents of the folders of the Actor Library from the
+	 * LibIndex as they are expanded.
+	 */
+	private LibraryGenerator _generator;
+
 	/**
 	 * This is the EntityTreeModel version of the library, used in
 	 * AnnotatedPTree.
@@ -299,13 +306,13 @@ public class LibraryManager implements TreeExpansionListener {
 	 * will be created along with any parent path components that do not already
 	 * exist. The newly created ComponentEntity will then be returned.
 	 * 
-	 * This method is private because API users should only be using addKAR and
-	 * deleteKAR methods to modify the Library.
+	 * This method is package private, for the tests, because API users should
+	 * only be using addKAR and deleteKAR methods to modify the Library.
 	 * 
 	 * @param li
 	 * @return
 	 */
-	private ComponentEntity assureTreeItem(LibItem li) {
+	ComponentEntity<?> assureTreeItem(LibItem li) {
 		if (isDebugging)
 			log.debug("assureTreeItem(" + li.getName() + ")");
 		ComponentEntity ce = null;
@@ -340,6 +347,11 @@ public class LibraryManager implements TreeExpansionListener {
 					// add this puppy to the tree
 					ComponentEntity newCE = createAndAddTreeItem(current,
 							pathItem);
+					if (newCE instanceof LazyEntityLibrary
+							&& _generator != null) {
+						// the rest of its contents come from the index
+						((LazyEntityLibrary) newCE).setLoader(_generator);
+					}
 					if (newCE != null) {
 						if (newCE instanceof CompositeEntity) {
 							current = (CompositeEntity) newCE;
@@ -419,23 +431,32 @@ public class LibraryManager implements TreeExpansionListener {
 				log
 						.error("\n\nPreorder values are corrupt! Rebuilding index.\n\n");
 				_libIndex.rebuild();
-			} else if (changed) {
-				// rebuild the index if the KARs in the local repositories have
-				// changed
+			} else if (_libIndex.getSearcher().getTermIndex().isEmpty()) {
+				// the index was built before the words of the items were
+				// indexed for searching
+				log.info("Building the search index of the library");
 				_libIndex.rebuild();
+			} else if (changed) {
+				// update the items of the KARs in the local repositories that
+				// have changed, or rebuild the index if that fails
+				if (!_libIndex.update(kcm.getChangedKARFiles())) {
+					_libIndex.rebuild();
+				}
 			}
 			if (isDebugging)
 				log.debug("\n\nTIME " + (System.currentTimeMillis() - start)
 						+ "\n\n");
 
-			// Generate the actor library using the library index
-			LibraryGenerator lg = new LibraryGenerator();
+			// Generate the actor library using the library index, the
+			// contents of its folders are read from the index when the
+			// folders are expanded
+			_generator = new LibraryGenerator();
 			
 			// we're using the same workspace so we need to remove the entities
 			clearActorLibrary();
 			
-			CompositeEntity newLibrary = lg.generate(_actorLibraryWorkspace,
-					_libIndex);
+			CompositeEntity newLibrary = _generator.generate(
+					_actorLibraryWorkspace, _libIndex);
 			this.setActorLibrary(newLibrary);
 
 		} catch (Exception e) {
@@ -528,7 +549,7 @@ public class LibraryManager implements TreeExpansionListener {
 			ce.setDisplayName(displayName);
 			break;
 		case LibIndex.TYPE_CONCEPT:
-			ce = new EntityLibrary(parent, li.getName());
+			ce = new LazyEntityLibrary(parent, li.getName());
 			ce.setDisplayName(displayName);
 			break;
 		case LibIndex.TYPE_FOLDER:
@@ -717,7 +738,8 @@ public class LibraryManager implements TreeExpansionListener {
 
 	/**
 	 * Look in the entire tree and return the ComponentEntity that matches the
-	 * given LIID.
+	 * given LIID. Folders whose contents have not been read from the index
+	 * yet are not searched.
 	 * 
 	 * @param liid
 	 * @return
@@ -734,7 +756,10 @@ public class LibraryManager implements TreeExpansionListener {
 	}
 
 	/**
-	 * Recurse all children under parent to match the given LIID.
+	 * Recurse all children under parent to match the given LIID. Children
+	 * whose contents have not been read from the index yet are not searched,
+	 * so that looking for an item does not create the whole tree; if the item
+	 * is under one of them, it is created when their contents are read.
 	 * 
 	 * @param parent
 	 * @param liid
@@ -753,6 +778,10 @@ public class LibraryManager implements TreeExpansionListener {
 			List<CompositeEntity> children = parent
 					.entityList(CompositeEntity.class);
 			for (CompositeEntity child : children) {
+				if (child instanceof LazyEntityLibrary
+						&& ((LazyEntityLibrary) child).isLoadPending()) {
+					continue;
+				}
 				ce = findTreeItemDeep(child, liid);
 				if (ce != null) {
 					break;
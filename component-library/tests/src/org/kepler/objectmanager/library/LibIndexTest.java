@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2010 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * '$Author$'
+ * '$Date$'
+ * '$Revision$'
+ * 
+ * Permission is hereby granted, without written agreement and without
+ * license or royalty fees, to use, copy, modify, and distribute this
+ * software and its documentation for any purpose, provided that the above
+ * copyright notice and the following two paragraphs appear in all copies
+ * of this software.
+ *
+ * IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ * FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ * THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ * PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ * CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ * ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ */
+
+package org.kepler.objectmanager.library;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Inserts and removes items of a test folder of the library index and
+ * checks after each step that the LFT and RGT values still nest.
+ */
+public class LibIndexTest extends TestCase {
+
+	LibIndex index;
+
+	LibItem root;
+
+	public LibIndexTest(String name) {
+		super(name);
+	}
+
+	public void setUp() throws Exception {
+		LibraryManager manager = LibraryManager.getInstance();
+		if (manager.getIndex() == null) {
+			manager.buildLibrary();
+		}
+		index = manager.getIndex();
+		root = item(null, "LibIndexTest", LibIndex.TYPE_FOLDER);
+	}
+
+	public void tearDown() throws Exception {
+		index.removeItem(root);
+	}
+
+	/**
+	 * Create a suite of tests to be run together
+	 */
+	public static Test suite() {
+		TestSuite suite = new TestSuite();
+		suite.addTest(new LibIndexTest("testInsertIntoOneGap"));
+		suite.addTest(new LibIndexTest("testRemoveSubtree"));
+		suite.addTest(new LibIndexTest("testUpdate"));
+		return suite;
+	}
+
+	/**
+	 * Insert children that each sort between the first child and the one
+	 * inserted before, so that they all go into the same gap and it has to
+	 * be respaced.
+	 */
+	public void testInsertIntoOneGap() throws Exception {
+		item(root.getLiid(), "a", LibIndex.TYPE_FOLDER);
+		item(root.getLiid(), "z", LibIndex.TYPE_FOLDER);
+		String name = "b";
+		for (int i = 0; i < 30; i++) {
+			item(root.getLiid(), name, LibIndex.TYPE_FOLDER);
+			assertTrue("after inserting " + name, index.verifyPreorderValues());
+			// the next name goes right after "a" and before this one
+			name = "a" + name;
+		}
+
+		List<LibItem> children = index.getChildItems(root.getLiid(), -1, 100);
+		assertEquals(32, children.size());
+		for (int i = 1; i < children.size(); i++) {
+			assertTrue(children.get(i - 1).getName().compareToIgnoreCase(
+					children.get(i).getName()) < 0);
+		}
+	}
+
+	/**
+	 * Remove a folder with a subtree and insert into the gap it leaves.
+	 */
+	public void testRemoveSubtree() throws Exception {
+		LibItem first = item(root.getLiid(), "first", LibIndex.TYPE_FOLDER);
+		LibItem middle = item(root.getLiid(), "middle", LibIndex.TYPE_FOLDER);
+		item(root.getLiid(), "last", LibIndex.TYPE_FOLDER);
+		LibItem sub = item(middle.getLiid(), "sub", LibIndex.TYPE_FOLDER);
+		LibItem leaf = item(sub.getLiid(), "leaf", LibIndex.TYPE_FOLDER);
+		item(first.getLiid(), "other", LibIndex.TYPE_FOLDER);
+		assertTrue(index.verifyPreorderValues());
+
+		assertTrue(index.removeItem(middle));
+		assertTrue(index.verifyPreorderValues());
+		assertFalse(exists(middle));
+		assertFalse(exists(sub));
+		assertFalse(exists(leaf));
+		assertTrue(exists(first));
+		assertEquals(2, index.getChildItems(root.getLiid(), -1, 100).size());
+
+		item(root.getLiid(), "middle again", LibIndex.TYPE_FOLDER);
+		assertTrue(index.verifyPreorderValues());
+		assertEquals(3, index.getChildItems(root.getLiid(), -1, 100).size());
+	}
+
+	/**
+	 * Update the index for a KAR that is not cached and check that its
+	 * items and the folder left empty are removed.
+	 */
+	public void testUpdate() throws Exception {
+		File karFile = new File("LibIndexTest-not-cached.kar")
+				.getAbsoluteFile();
+		LibItem folder = item(root.getLiid(), "folder", LibIndex.TYPE_FOLDER);
+		LibItem kar = new LibItem();
+		kar.setParent(folder.getLiid());
+		kar.setName(karFile.getName());
+		kar.setType(LibIndex.TYPE_KAR);
+		kar.addAttribute(LibIndex.ATT_KARFILE, karFile.toString());
+		index.insert(kar);
+		LibItem entry = item(kar.getLiid(), "entry", LibIndex.TYPE_COMPONENT);
+		LibItem sibling = item(root.getLiid(), "sibling", LibIndex.TYPE_FOLDER);
+		assertTrue(index.verifyPreorderValues());
+
+		assertTrue(index.update(Collections.singleton(karFile)));
+		assertTrue(index.verifyPreorderValues());
+		assertFalse(exists(kar));
+		assertFalse(exists(entry));
+		assertFalse(exists(folder));
+		assertTrue(exists(sibling));
+	}
+
+	/** Return true if an item is still in the index. */
+	private boolean exists(LibItem li) throws SQLException {
+		return LibraryManager.getInstance().getPopulatedLibItem(li.getLiid())
+				.getName() != null;
+	}
+
+	/** Insert an item. */
+	private LibItem item(Integer parent, String name, int type)
+			throws SQLException {
+		LibItem li = new LibItem();
+		li.setParent(parent);
+		li.setName(name);
+		li.setType(type);
+		index.insert(li);
+		return li;
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2010 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * '$Author$'
+ * '$Date$'
+ * '$Revision$'
+ * 
+ * Permission is hereby granted, without written agreement and without
+ * license or royalty fees, to use, copy, modify, and distribute this
+ * software and its documentation for any purpose, provided that the above
+ * copyright notice and the following two paragraphs appear in all copies
+ * of this software.
+ *
+ * IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ * FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ * THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ * PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ * CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ * ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ */
+
+package org.kepler.objectmanager.library;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Checks how LibTermIndex splits text into words and ranks and forgets the
+ * items, using a LIBRARY_TERMS table in an in-memory database.
+ */
+public class LibTermIndexTest extends TestCase {
+
+	Connection conn;
+
+	LibTermIndex index;
+
+	public LibTermIndexTest(String name) {
+		super(name);
+	}
+
+	public void setUp() throws Exception {
+		Class.forName("org.hsqldb.jdbcDriver");
+		conn = DriverManager.getConnection("jdbc:hsqldb:mem:LibTermIndexTest",
+				"sa", "");
+		Statement stmt = conn.createStatement();
+		try {
+			// as in configuration.xml, without the key to LIBRARY_INDEX
+			stmt.execute("create table " + LibTermIndex.LIB_TERMS_TABLE_NAME
+					+ " ( TERM varchar not null, LIID integer not null,"
+					+ " TYPE integer not null, FREQ integer not null,"
+					+ " PRIMARY KEY (TERM,LIID,TYPE) )");
+		} finally {
+			stmt.close();
+		}
+		index = new LibTermIndex(conn);
+	}
+
+	public void tearDown() throws Exception {
+		Statement stmt = conn.createStatement();
+		try {
+			stmt.execute("drop table " + LibTermIndex.LIB_TERMS_TABLE_NAME);
+		} finally {
+			stmt.close();
+		}
+		conn.close();
+	}
+
+	/**
+	 * Create a suite of tests to be run together
+	 */
+	public static Test suite() {
+		TestSuite suite = new TestSuite();
+		suite.addTest(new LibTermIndexTest("testTokenizeParts"));
+		suite.addTest(new LibTermIndexTest("testTokenizeStopWords"));
+		suite.addTest(new LibTermIndexTest("testTokenizeLength"));
+		suite.addTest(new LibTermIndexTest("testPrefixRanking"));
+		suite.addTest(new LibTermIndexTest("testEveryWord"));
+		suite.addTest(new LibTermIndexTest("testRemoveAndClear"));
+		return suite;
+	}
+
+	public void testTokenizeParts() {
+		assertEquals(Arrays.asList("stringtoxml", "string", "xml"),
+				LibTermIndex.tokenize("StringToXML"));
+		assertEquals(Arrays.asList("xmlparser", "xml", "parser"),
+				LibTermIndex.tokenize("XMLParser"));
+		assertEquals(Arrays.asList("float2int", "float", "int"), LibTermIndex
+				.tokenize("Float2Int"));
+		assertEquals(Arrays.asList("sine", "wave", "sinewave", "sine",
+				"wave"), LibTermIndex.tokenize("sine_wave, SineWave"));
+		assertEquals(Arrays.asList("ramp"), LibTermIndex.tokenize("ramp"));
+	}
+
+	public void testTokenizeStopWords() {
+		assertEquals(Arrays.asList("sum", "parts"), LibTermIndex
+				.tokenize("The sum OF the parts"));
+		assertEquals(Arrays.asList("ports"), LibTermIndex
+				.tokenize("<ul><li>ports</li></ul>"));
+	}
+
+	public void testTokenizeLength() {
+		assertEquals(Collections.EMPTY_LIST, LibTermIndex.tokenize("a b c"));
+		assertEquals(Collections.EMPTY_LIST, LibTermIndex.tokenize(null));
+		StringBuilder word = new StringBuilder();
+		for (int i = 0; i < LibTermIndex.MAX_TERM_LENGTH + 10; i++) {
+			word.append('x');
+		}
+		List<String> terms = LibTermIndex.tokenize(word.toString());
+		assertEquals(1, terms.size());
+		assertEquals(LibTermIndex.MAX_TERM_LENGTH, terms.get(0).length());
+	}
+
+	/**
+	 * A whole word in a name ranks above the start of a word in a name,
+	 * which ranks above words in the documentation.
+	 */
+	public void testPrefixRanking() throws Exception {
+		index.add(LibSearch.TYPE_DOCUMENTATION, 1, "ramp up, ramp down");
+		index.add(LibSearch.TYPE_NAME, 2, "Rampage");
+		index.add(LibSearch.TYPE_NAME, 3, "Ramp");
+		index.add(LibSearch.TYPE_NAME, 4, "Sine");
+
+		assertEquals(Arrays.asList(3, 2, 1), index.search("ramp", Collections
+				.<Integer> emptyList()));
+		// the start of both names, so equal and in LIID order
+		assertEquals(Arrays.asList(2, 3), index.search("RAM", Collections
+				.singleton(LibSearch.TYPE_NAME)));
+		assertEquals(Arrays.asList(), index.search("cosine", Collections
+				.<Integer> emptyList()));
+		// nothing to look for
+		assertNull(index.search("the", Collections.<Integer> emptyList()));
+	}
+
+	/**
+	 * Only the items with every word of the query are found.
+	 */
+	public void testEveryWord() throws Exception {
+		index.add(LibSearch.TYPE_NAME, 1, "Ramp");
+		index.add(LibSearch.TYPE_NAME, 2, "Sine");
+		index.add(LibSearch.TYPE_NAME, 3, "Sine Ramp");
+		index.add(LibSearch.TYPE_NAME, 4, "Sine");
+		index.add(LibSearch.TYPE_PORT, 4, "ramp");
+
+		assertEquals(Arrays.asList(3, 4), index.search("ramp sine",
+				Collections.<Integer> emptyList()));
+	}
+
+	/**
+	 * Forget items and check that the rest can still be found.
+	 */
+	public void testRemoveAndClear() throws Exception {
+		index.beginBatch();
+		index.add(LibSearch.TYPE_NAME, 1, "Ramp");
+		index.add(LibSearch.TYPE_NAME, 2, "Ramp Sine");
+		index.add(LibSearch.TYPE_NAME, 2, "Ramp");
+		index.executeBatch();
+		assertFalse(index.isEmpty());
+		assertEquals(Arrays.asList(1, 2), index.search("ramp", Collections
+				.<Integer> emptyList()));
+
+		index.remove(1);
+		assertEquals(Arrays.asList(2), index.search("ramp", Collections
+				.<Integer> emptyList()));
+		assertEquals(Arrays.asList(2), index.search("sine", Collections
+				.<Integer> emptyList()));
+
+		// adding again after a remove
+		index.add(LibSearch.TYPE_NAME, 1, "Ramp");
+		assertEquals(Arrays.asList(1, 2), index.search("ramp", Collections
+				.<Integer> emptyList()));
+
+		index.clear();
+		assertTrue(index.isEmpty());
+		assertEquals(Arrays.asList(), index.search("ramp", Collections
+				.<Integer> emptyList()));
+	}
+}
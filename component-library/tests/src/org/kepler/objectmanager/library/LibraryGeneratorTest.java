@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2010 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * '$Author$'
+ * '$Date$'
+ * '$Revision$'
+ * 
+ * Permission is hereby granted, without written agreement and without
+ * license or royalty fees, to use, copy, modify, and distribute this
+ * software and its documentation for any purpose, provided that the above
+ * copyright notice and the following two paragraphs appear in all copies
+ * of this software.
+ *
+ * IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ * FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ * THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ * PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ * CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ * ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ */
+
+package org.kepler.objectmanager.library;
+
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.kepler.moml.LazyEntityLibrary;
+
+import ptolemy.kernel.ComponentEntity;
+import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.Workspace;
+
+/**
+ * Checks that the library tree reads the contents of a folder from the
+ * index in pages, only when they are asked for, and that items can be
+ * added to folders that have not been read yet.
+ */
+public class LibraryGeneratorTest extends TestCase {
+
+	LibraryManager manager;
+
+	LibIndex index;
+
+	LibItem root;
+
+	public LibraryGeneratorTest(String name) {
+		super(name);
+	}
+
+	public void setUp() throws Exception {
+		manager = LibraryManager.getInstance();
+		if (manager.getIndex() == null) {
+			manager.buildLibrary();
+		}
+		index = manager.getIndex();
+		root = item(null, "LibraryGeneratorTest", LibIndex.TYPE_FOLDER);
+	}
+
+	public void tearDown() throws Exception {
+		index.removeItem(root);
+	}
+
+	/**
+	 * Create a suite of tests to be run together
+	 */
+	public static Test suite() {
+		TestSuite suite = new TestSuite();
+		suite.addTest(new LibraryGeneratorTest("testPaging"));
+		suite.addTest(new LibraryGeneratorTest("testFindInUnloadedFolder"));
+		suite.addTest(new LibraryGeneratorTest("testAssureInUnloadedFolder"));
+		return suite;
+	}
+
+	/**
+	 * Read a folder with more children than fit in one page.
+	 */
+	public void testPaging() throws Exception {
+		int count = LibraryGenerator.PAGE_SIZE + 10;
+		Set<Integer> liids = new HashSet<Integer>();
+		for (int i = 0; i < count; i++) {
+			liids.add(Integer.valueOf(item(root.getLiid(), child(i),
+					LibIndex.TYPE_CONCEPT).getLiid()));
+		}
+
+		CompositeEntity folder = generateFolder();
+		List<?> children = folder.entityList(ComponentEntity.class);
+		assertEquals(count, children.size());
+		for (int i = 0; i < count; i++) {
+			ComponentEntity<?> entity = (ComponentEntity<?>) children.get(i);
+			assertEquals(child(i), entity.getName());
+			assertTrue(liids.remove(Integer.valueOf(LibraryManager
+					.getLiidFor(entity))));
+		}
+		assertTrue(liids.isEmpty());
+	}
+
+	/**
+	 * Look for an item of a folder that has not been read yet, which must
+	 * not read it.
+	 */
+	public void testFindInUnloadedFolder() throws Exception {
+		LibItem inner = item(root.getLiid(), "inner", LibIndex.TYPE_CONCEPT);
+
+		CompositeEntity folder = generateFolder();
+		CompositeEntity library = (CompositeEntity) folder.getContainer();
+		assertNull(manager.findTreeItemDeep(library, inner.getLiid()));
+		assertTrue(((LazyEntityLibrary) folder).isLoadPending());
+
+		folder.entityList();
+		assertNotNull(manager.findTreeItemDeep(library, inner.getLiid()));
+	}
+
+	/**
+	 * Add an item to the tree under folders that have not been read yet,
+	 * after it was added to the index, and check that it is there once.
+	 */
+	public void testAssureInUnloadedFolder() throws Exception {
+		LibItem inner = item(root.getLiid(), "inner", LibIndex.TYPE_FOLDER);
+		item(inner.getLiid(), "old", LibIndex.TYPE_CONCEPT);
+
+		// the library tree already exists, but not this part of it
+		ComponentEntity<?> folder = manager.assureTreeItem(root);
+		assertTrue(folder instanceof LazyEntityLibrary);
+		assertTrue(((LazyEntityLibrary) folder).isLoadPending());
+
+		LibItem added = item(inner.getLiid(), "new", LibIndex.TYPE_CONCEPT);
+		ComponentEntity<?> entity = manager.assureTreeItem(added);
+		assertNotNull(entity);
+		assertEquals(added.getLiid(), LibraryManager.getLiidFor(entity));
+
+		List<?> folders = ((CompositeEntity) folder).entityList();
+		assertEquals(1, folders.size());
+		List<?> items = ((CompositeEntity) folders.get(0)).entityList();
+		assertEquals(2, items.size());
+		assertSame(entity, manager.findTreeItem(added.getLiid()));
+	}
+
+	/**
+	 * Generate a library from the index and return the test folder of it,
+	 * whose contents are not read yet.
+	 */
+	private CompositeEntity generateFolder() {
+		LazyEntityLibrary library = new LibraryGenerator().generate(
+				new Workspace(), index);
+		CompositeEntity folder = (CompositeEntity) library.getEntity(root
+				.getName());
+		assertNotNull(folder);
+		assertTrue(((LazyEntityLibrary) folder).isLoadPending());
+		return folder;
+	}
+
+	/** Return the name of a child, so that the names sort by number. */
+	private static String child(int i) {
+		return "child" + (10000 + i);
+	}
+
+	/** Insert an item. */
+	private LibItem item(Integer parent, String name, int type)
+			throws SQLException {
+		LibItem li = new LibItem();
+		li.setParent(parent);
+		li.setName(name);
+		li.setType(type);
+		index.insert(li);
+		return li;
+	}
+}
@@ -0,0 +1,41 @@
+/**
+ *  '$RCSfile$'
+ *  '$Author$'
+ *  '$Date$'
+ *  '$Revision$'
+ *
+ *  For Details:
+ *  http://www.kepler-project.org
+ *
+ *  Copyright (c) 2010 The Regents of the
+ *  University of California. All rights reserved. Permission is hereby granted,
+ *  without written agreement and without license or royalty fees, to use, copy,
+ *  modify, and distribute this software and its documentation for any purpose,
+ *  provided that the above copyright notice and the following two paragraphs
+ *  appear in all copies of this software. IN NO EVENT SHALL THE UNIVERSITY OF
+ *  CALIFORNIA BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL,
+ *  OR CONSEQUENTIAL DAMAGES ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS
+ *  DOCUMENTATION, EVEN IF THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE. THE UNIVERSITY OF CALIFORNIA SPECIFICALLY
+ *  DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE
+ *  SOFTWARE PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ *  CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ *  ENHANCEMENTS, OR MODIFICATIONS.
+ */
+
+package org.kepler.kar;
+
+/**
+ * A KAREntryHandler whose cache method only reads the entry and builds a
+ * CacheObject from it, without touching the cache database, the file system
+ * or any state shared between calls. The cache method of such a handler may
+ * be called for several KARs at once from different threads, which is what
+ * KARCacheManager does while synchronizing the cache with the local
+ * repositories.
+ *
+ * @see KARFile#prepareKARContents(java.util.Set)
+ */
+public interface ConcurrentKAREntryHandler extends KAREntryHandler {
+
+}
@@ -27,13 +27,27 @@
 package org.kepler.kar;
 
 import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -41,6 +55,7 @@ import org.kepler.objectmanager.cache.CacheContent;
 import org.kepler.objectmanager.cache.CacheManager;
 import org.kepler.objectmanager.cache.LocalRepositoryManager;
 import org.kepler.objectmanager.lsid.KeplerLSID;
+import org.kepler.util.sql.BatchUpdate;
 import org.kepler.util.sql.DatabaseFactory;
 
 import ptolemy.util.MessageHandler;
@@ -61,6 +76,8 @@ public class KARCacheManager {
 	public static final String KARS_CACHED_TABLE_NAME = "KARS_CACHED";
 	public static final String KAR_ERRORS_TABLE_NAME = "KAR_ERRORS";
 	public static final String KAR_CONTENTS_TABLE_NAME = "KAR_CONTENTS";
+	public static final String KAR_DIGESTS_TABLE_NAME = "KAR_DIGESTS";
+	public static final String KAR_ENTRY_DIGESTS_TABLE_NAME = "KAR_ENTRY_DIGESTS";
 
 	private Connection _conn;
 	private Statement _stmt;
@@ -70,6 +87,28 @@ public class KARCacheManager {
 	private PreparedStatement _karsLastModifiedPrepStmt;
 	private PreparedStatement _fileForFilePrepStmt;
 	private PreparedStatement _allKarsInCache;
+	private PreparedStatement _allKarsLastModified;
+	private PreparedStatement _allKarDigests;
+	private PreparedStatement _entryDigestsForFile;
+	private PreparedStatement _insDigestPrepStmt;
+	private PreparedStatement _insEntryDigestPrepStmt;
+	private PreparedStatement _updateKarPrepStmt;
+	private PreparedStatement _updateKarsLastModifiedPrepStmt;
+	private PreparedStatement _updateErrorsLastModifiedPrepStmt;
+	private PreparedStatement _lsidForEntryPrepStmt;
+
+	/**
+	 * True while synchronizeKARCacheWithLocalRepositories() is writing its
+	 * changes; the insert methods then leave committing and rolling back to
+	 * it so that the whole synchronization is one transaction.
+	 */
+	private boolean _inTransaction = false;
+
+	/**
+	 * The KAR files whose cached contents were added, changed or removed by
+	 * the last synchronizeKARCacheWithLocalRepositories().
+	 */
+	private Set<File> _changedKARFiles = new HashSet<File>();
 	
 	public KARCacheManager() {
 
@@ -104,6 +143,27 @@ public class KARCacheManager {
                     + " UNION SELECT FILE FROM " + KAR_ERRORS_TABLE_NAME + " WHERE FILE = ?");
 			_allKarsInCache = _conn.prepareStatement("SELECT FILE FROM " + KARS_CACHED_TABLE_NAME
 	                + " UNION SELECT FILE FROM " + KAR_ERRORS_TABLE_NAME);
+			_allKarsLastModified = _conn.prepareStatement("SELECT FILE, LASTMODIFIED FROM "
+					+ KARS_CACHED_TABLE_NAME + " UNION SELECT FILE, LASTMODIFIED FROM "
+					+ KAR_ERRORS_TABLE_NAME);
+			_allKarDigests = _conn.prepareStatement("SELECT FILE, DIGEST FROM "
+					+ KAR_DIGESTS_TABLE_NAME);
+			_entryDigestsForFile = _conn.prepareStatement("SELECT NAME, DIGEST FROM "
+					+ KAR_ENTRY_DIGESTS_TABLE_NAME + " WHERE FILE = ?");
+			_insDigestPrepStmt = _conn.prepareStatement("insert into "
+					+ KAR_DIGESTS_TABLE_NAME + " (file, digest) values ( ?, ? )");
+			_insEntryDigestPrepStmt = _conn.prepareStatement("insert into "
+					+ KAR_ENTRY_DIGESTS_TABLE_NAME + " (file, name, digest)"
+					+ " values ( ?, ?, ? )");
+			_updateKarPrepStmt = _conn.prepareStatement("UPDATE "
+					+ KARS_CACHED_TABLE_NAME + " SET LSID = ?, VERSION = ?,"
+					+ " REPONAME = ?, LASTMODIFIED = ? WHERE FILE = ?");
+			_updateKarsLastModifiedPrepStmt = _conn.prepareStatement("UPDATE "
+					+ KARS_CACHED_TABLE_NAME + " SET LASTMODIFIED = ? WHERE FILE = ?");
+			_updateErrorsLastModifiedPrepStmt = _conn.prepareStatement("UPDATE "
+					+ KAR_ERRORS_TABLE_NAME + " SET LASTMODIFIED = ? WHERE FILE = ?");
+			_lsidForEntryPrepStmt = _conn.prepareStatement("SELECT LSID FROM "
+					+ KAR_CONTENTS_TABLE_NAME + " WHERE FILE = ? AND NAME = ?");
 
 
 
@@ -303,6 +363,10 @@ public class KARCacheManager {
 			_stmt.executeUpdate(deleteAll);
 			deleteAll = "delete from " + KAR_ERRORS_TABLE_NAME;
 			_stmt.executeUpdate(deleteAll);
+			deleteAll = "delete from " + KAR_DIGESTS_TABLE_NAME;
+			_stmt.executeUpdate(deleteAll);
+			deleteAll = "delete from " + KAR_ENTRY_DIGESTS_TABLE_NAME;
+			_stmt.executeUpdate(deleteAll);
 		} catch (SQLException sqle) {
 			log.error(sqle.getMessage());
 			sqle.printStackTrace();
@@ -313,80 +377,206 @@ public class KARCacheManager {
 	/**
 	 * Update the KAR cache tables to reflect the kar files on disk.
 	 * 
+	 * A KAR whose last modified time differs from the cached one is digested
+	 * and compared with the digest recorded when it was cached. If only its
+	 * time changed, e.g. after a touch, rsync or checkout, just the time is
+	 * updated. Otherwise the entries are digested too, and only those that
+	 * were added, changed or removed are re-cached or removed from the
+	 * cache.
+	 * 
+	 * The changed KARs are digested and opened on a pool of one thread per
+	 * processor, and the entries handled by ConcurrentKAREntryHandlers are
+	 * deserialized there as well. The cache tables are then updated from
+	 * this thread, in the order of the files, and the changes are committed
+	 * as one transaction.
+	 * 
 	 * @return boolean true if the cache was changed because of the
 	 *         synchronization.
 	 */
 	public boolean synchronizeKARCacheWithLocalRepositories() {
 		boolean contentsOnDiskHaveChanged = false;
+		Set<File> changedKARFiles = new HashSet<File>();
 
 		LocalRepositoryManager lrm = LocalRepositoryManager.getInstance();
 		lrm.scanReposForKarFiles();
 		Vector<File> karFiles = lrm.getKarFiles();
 
-		if (isDebugging)
-			log
-					.debug("loop through all the kar files and make sure they are in the cache");
-		for (int k = 0; k < karFiles.size(); k++) {
-			
+		// see which kar files have a different last modified time than
+		// when they were added to the cache
+		Map<String, Long> cachedTimes = getLastModifiedTimesOfFilesInCache();
+		final Map<String, String> cachedDigests = getDigestsOfFilesInCache();
+		// KARs in error are read again even if their contents did not
+		// change, so that their module dependencies are checked again
+		for (KARCacheError error : getKARCacheErrors()) {
+			cachedDigests.remove(error.getFile().toString());
+		}
+		List<File> changedFiles = new ArrayList<File>();
+		for (File f : karFiles) {
+			Long time = cachedTimes.get(f.toString());
+			if (time == null || time.longValue() != f.lastModified()) {
+				changedFiles.add(f);
+			}
+		}
+
+		ExecutorService pool = null;
+		List<Future<ScannedKAR>> scannedKars = new ArrayList<Future<ScannedKAR>>();
+		List<Future<?>> preparedKars = new ArrayList<Future<?>>();
+		if (!changedFiles.isEmpty()) {
+			int threads = Math.min(changedFiles.size(), Runtime.getRuntime()
+					.availableProcessors());
+			pool = Executors.newFixedThreadPool(threads);
+
+			// digest the files and read the manifests in parallel
+			for (final File f : changedFiles) {
+				scannedKars.add(pool.submit(new Callable<ScannedKAR>() {
+					public ScannedKAR call() throws Exception {
+						return scanKAR(f, cachedDigests.get(f.toString()));
+					}
+				}));
+			}
+
+			// the dependency check reads the configuration, so it is done
+			// here; the KARs that will be cached are then prepared in
+			// parallel
+			Set<KeplerLSID> cachedLsids = new HashSet<KeplerLSID>();
 			try {
-				File f = karFiles.elementAt(k);
-												
-				final long time = getLastModifiedTimeOfFileInCache(f.toString());
-				
-				// see if the last modified time is different than the time
-				// when added to the cache
-				if(time != f.lastModified()) {
-				
-				    // they are different, so update the cache.
-				    
-				    // see if the file was previously cached
-				    if(time > 0) {
-				        log.debug(f + " has a different modified time than in cache; will update cache.");
-				        // remove previous version
-				        removeKARFromCache(f);
-				    } else {
-				        log.debug(f + " is not in cache.");
-				    }
-				
-				    KARFile kFile = new KARFile(f);
-					// This KAR is not cached, go ahead and cache it
-					boolean allDependenciesSatisfied = kFile.areAllModuleDependenciesSatisfied();
-					if (allDependenciesSatisfied) {
+				cachedLsids.addAll(CacheManager.getInstance().getCachedLsids());
+			} catch (Exception e) {
+				log.warn("Unable to read the LSIDs in the cache.", e);
+			}
+			final Set<KeplerLSID> alreadyCached = cachedLsids;
+			for (int k = 0; k < changedFiles.size(); k++) {
+				ScannedKAR scanned = getScannedKAR(scannedKars.get(k),
+						changedFiles.get(k));
+				Future<?> prepared = null;
+				if (scanned != null && scanned.karFile != null
+						&& scanned.karFile.areAllModuleDependenciesSatisfied()) {
+					final KARFile kFile = scanned.karFile;
+					prepared = pool.submit(new Runnable() {
+						public void run() {
+							kFile.prepareKARContents(alreadyCached);
+						}
+					});
+				}
+				preparedKars.add(prepared);
+			}
+		}
+
+		boolean autoCommit = true;
+		try {
+			autoCommit = _conn.getAutoCommit();
+			_conn.setAutoCommit(false);
+			_inTransaction = true;
+
+			if (isDebugging)
+				log
+						.debug("loop through all the kar files and make sure they are in the cache");
+			for (int k = 0; k < changedFiles.size(); k++) {
+				File f = changedFiles.get(k);
+				try {
+					boolean wasCached = cachedTimes.containsKey(f.toString());
+					ScannedKAR scanned = getScannedKAR(scannedKars.get(k), f);
+					if (scanned != null && scanned.karFile == null) {
+						log.debug(f + " has a different modified time than in cache but the same contents.");
+						updateLastModifiedTimeInCache(f);
+						continue;
+					}
+
+					// see if the contents of the file were previously cached
+					Map<String, String> cachedEntryDigests = new HashMap<String, String>();
+					if (wasCached) {
+						log.debug(f + " has different contents than in cache; will update cache.");
+						cachedEntryDigests = getEntryDigestsInCache(f);
+					} else {
+						log.debug(f + " is not in cache.");
+					}
+
+					Future<?> prepared = preparedKars.get(k);
+					if (scanned != null && prepared != null
+							&& scanned.entryDigests != null
+							&& !cachedEntryDigests.isEmpty()) {
+						// only update the entries that changed
+						waitForPreparation(prepared, f);
+						if (updateKARContents(scanned.karFile,
+								cachedEntryDigests, scanned.entryDigests)) {
+							setDigests(f, scanned.digest, scanned.entryDigests);
+							contentsOnDiskHaveChanged = true;
+							changedKARFiles.add(f);
+							continue;
+						}
+					}
+
+					if (wasCached) {
+						// remove previous version
+						removeKARFromCache(f);
+						changedKARFiles.add(f);
+					}
+					if (scanned == null) {
+						continue;
+					}
+					KARFile kFile = scanned.karFile;
+					if (prepared != null) {
+						// This KAR is not cached, go ahead and cache it
+						waitForPreparation(prepared, f);
 						kFile.cacheKARContents();
+						setDigests(f, scanned.digest, scanned.entryDigests);
 					} else {
 						insertKARError(kFile);
+						setDigests(f, scanned.digest, null);
 					}
 					contentsOnDiskHaveChanged = true;
-				}				
-			} catch (Exception e) {
-				log.warn("Unable to process kar file \""
-						+ karFiles.elementAt(k).toString() + "\".", e);
+					changedKARFiles.add(f);
+				} catch (Exception e) {
+					log.warn("Unable to process kar file \""
+							+ f.toString() + "\".", e);
+				}
 			}
-		}
 
-		if (isDebugging)
-			log
-					.debug("loop through the cache and make sure there are matching KAR files");
-		try {
+			if (isDebugging)
+				log
+						.debug("loop through the cache and make sure there are matching KAR files");
+			try {
 
-			ResultSet rs = _allKarsInCache.executeQuery();
-			if (rs != null) {
-				while (rs.next()) {
-					String cachedFileStr = rs.getString(1);
-					File cachedKar = new File(cachedFileStr);
-					if (!karFiles.contains(cachedKar)) {
-						removeKARFromCache(cachedKar);
-						contentsOnDiskHaveChanged = true;
+				ResultSet rs = _allKarsInCache.executeQuery();
+				if (rs != null) {
+					while (rs.next()) {
+						String cachedFileStr = rs.getString(1);
+						File cachedKar = new File(cachedFileStr);
+						if (!karFiles.contains(cachedKar)) {
+							removeKARFromCache(cachedKar);
+							contentsOnDiskHaveChanged = true;
+							changedKARFiles.add(cachedKar);
+						}
 					}
+					rs.close();
 				}
-				rs.close();
+			} catch (Exception sqle) {
+				sqle.printStackTrace();
+			}
+
+			_conn.commit();
+		} catch (SQLException e) {
+			log.error("Unable to commit the KAR cache synchronization.", e);
+			try {
+				_conn.rollback();
+			} catch (SQLException e1) {
+				e1.printStackTrace();
+			}
+		} finally {
+			_inTransaction = false;
+			try {
+				_conn.setAutoCommit(autoCommit);
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+			if (pool != null) {
+				pool.shutdownNow();
 			}
-		} catch (Exception sqle) {
-			sqle.printStackTrace();
 		}
 
 		// free up the kar files
 		karFiles = null;
+		_changedKARFiles = changedKARFiles;
 
 		if (contentsOnDiskHaveChanged) {
 			log
@@ -400,6 +590,202 @@ public class KARCacheManager {
 		return contentsOnDiskHaveChanged;
 	}
 
+	/**
+	 * Return the KAR files whose cached contents were added, changed or
+	 * removed by the last synchronizeKARCacheWithLocalRepositories(), so that
+	 * the library can update only their items.
+	 */
+	public Set<File> getChangedKARFiles() {
+		return Collections.unmodifiableSet(_changedKARFiles);
+	}
+
+	/**
+	 * A KAR file whose modified time changed, as seen by the
+	 * synchronization pool.
+	 */
+	private static class ScannedKAR {
+		/** The digest of the file, null if it could not be read. */
+		String digest;
+		/** The opened KAR, null if its digest is the cached one. */
+		KARFile karFile;
+		/** The digests of the entries, null if they could not be read. */
+		Map<String, String> entryDigests;
+	}
+
+	/**
+	 * Digest a KAR file and, unless it has the cached digest, open it and
+	 * digest its entries. Called on the synchronization pool.
+	 */
+	private static ScannedKAR scanKAR(File f, String cachedDigest)
+			throws IOException {
+		ScannedKAR scanned = new ScannedKAR();
+		try {
+			scanned.digest = KARFile.computeDigest(f);
+		} catch (IOException e) {
+			log.debug("Unable to digest " + f, e);
+		}
+		if (scanned.digest != null && scanned.digest.equals(cachedDigest)) {
+			return scanned;
+		}
+		scanned.karFile = new KARFile(f);
+		try {
+			scanned.entryDigests = scanned.karFile.getEntryDigests();
+		} catch (IOException e) {
+			log.debug("Unable to digest the entries of " + f, e);
+		}
+		return scanned;
+	}
+
+	/**
+	 * Wait for a KAR scanned by the synchronization pool, returning null if
+	 * it could not be opened.
+	 */
+	private ScannedKAR getScannedKAR(Future<ScannedKAR> scanned, File f) {
+		try {
+			return scanned.get();
+		} catch (ExecutionException e) {
+			log.warn("Unable to process kar file \"" + f.toString() + "\".",
+					e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return null;
+	}
+
+	/**
+	 * Wait for the entries of a KAR to be prepared by the synchronization
+	 * pool. If that failed the entries are cached without preparation.
+	 */
+	private void waitForPreparation(Future<?> prepared, File f)
+			throws InterruptedException {
+		try {
+			prepared.get();
+		} catch (ExecutionException e) {
+			log.debug("Unable to prepare " + f, e.getCause());
+		}
+	}
+
+	/**
+	 * Bring the cached entries of a KAR that is in the KARS_CACHED table up
+	 * to date with the KAR on disk, comparing the digests of its entries.
+	 * Entries that were removed or changed are removed from the cache unless
+	 * another KAR contains them, and entries that were added or changed are
+	 * cached.
+	 * 
+	 * @return false if the KAR is not in the KARS_CACHED table
+	 */
+	private boolean updateKARContents(KARFile karFile,
+			Map<String, String> cachedEntryDigests,
+			Map<String, String> entryDigests) throws Exception {
+		File karFileLocation = karFile.getFileLocation();
+		String reponame = karFile.getLocalRepoName();
+		_updateKarPrepStmt.setString(1, karFile.getLSID().toString());
+		_updateKarPrepStmt.setString(2, karFile.getVersion());
+		if (reponame == null) {
+			_updateKarPrepStmt.setNull(3, java.sql.Types.VARCHAR);
+		} else {
+			_updateKarPrepStmt.setString(3, reponame);
+		}
+		_updateKarPrepStmt.setLong(4, karFileLocation.lastModified());
+		_updateKarPrepStmt.setString(5, karFileLocation.toString());
+		int rows = _updateKarPrepStmt.executeUpdate();
+		_updateKarPrepStmt.clearParameters();
+		if (rows == 0) {
+			return false;
+		}
+
+		Set<String> changedEntries = new HashSet<String>();
+		for (Map.Entry<String, String> entry : entryDigests.entrySet()) {
+			if (!entry.getValue().equals(cachedEntryDigests.get(entry.getKey()))) {
+				changedEntries.add(entry.getKey());
+			}
+		}
+		for (String name : cachedEntryDigests.keySet()) {
+			if (changedEntries.contains(name) || !entryDigests.containsKey(name)) {
+				removeEntryFromCache(karFileLocation, name);
+			}
+		}
+		if (isDebugging)
+			log.debug(changedEntries.size() + " of " + entryDigests.size()
+					+ " entries of " + karFileLocation + " changed");
+
+		if (!changedEntries.isEmpty()) {
+			karFile.cacheKARContents(changedEntries);
+		}
+		return true;
+	}
+
+	/**
+	 * Remove an entry of a KAR from the KAR_CONTENTS table, and its object
+	 * from the cache unless another KAR contains it.
+	 */
+	private void removeEntryFromCache(File karFile, String entryName)
+			throws Exception {
+		String lsidStr = null;
+		_lsidForEntryPrepStmt.setString(1, karFile.toString());
+		_lsidForEntryPrepStmt.setString(2, entryName);
+		ResultSet rs = _lsidForEntryPrepStmt.executeQuery();
+		try {
+			if (rs.next()) {
+				lsidStr = rs.getString(1);
+			}
+		} finally {
+			rs.close();
+		}
+		if (lsidStr == null) {
+			return;
+		}
+
+		KeplerLSID lsid = new KeplerLSID(lsidStr);
+		String delQuery = "DELETE FROM " + KAR_CONTENTS_TABLE_NAME
+				+ " WHERE file = '" + karFile.toString() + "' AND lsid = '"
+				+ lsidStr + "'";
+		if (isDebugging)
+			log.debug(delQuery);
+		_stmt.executeUpdate(delQuery);
+		if (getKARCacheContents(lsid).size() == 0) {
+			CacheManager.getInstance().removeObject(lsid);
+		}
+	}
+
+	/**
+	 * Record the digest of a KAR file and of its entries, replacing the ones
+	 * recorded before.
+	 * 
+	 * @param entryDigests
+	 *            the entry digests, or null if the entries are not cached
+	 */
+	private void setDigests(File karFile, String digest,
+			Map<String, String> entryDigests) throws SQLException {
+		deleteDigests(karFile);
+		if (digest == null) {
+			return;
+		}
+		_insDigestPrepStmt.setString(1, karFile.toString());
+		_insDigestPrepStmt.setString(2, digest);
+		_insDigestPrepStmt.executeUpdate();
+		_insDigestPrepStmt.clearParameters();
+		if (entryDigests != null) {
+			List<Object[]> rows = new ArrayList<Object[]>(entryDigests.size());
+			for (Map.Entry<String, String> entry : entryDigests.entrySet()) {
+				rows.add(new Object[] { karFile.toString(), entry.getKey(),
+						entry.getValue() });
+			}
+			BatchUpdate.execute(_insEntryDigestPrepStmt, rows);
+		}
+		if (!_inTransaction) {
+			_conn.commit();
+		}
+	}
+
+	/** Delete the recorded digests of a KAR file and of its entries. */
+	private void deleteDigests(File karFile) throws SQLException {
+		String where = " WHERE file = '" + karFile.toString() + "'";
+		_stmt.executeUpdate("DELETE FROM " + KAR_DIGESTS_TABLE_NAME + where);
+		_stmt.executeUpdate("DELETE FROM " + KAR_ENTRY_DIGESTS_TABLE_NAME
+				+ where);
+	}
+
 	/**
 	 * Remove a KAR file from the cache. The contents of the KAR are also
 	 * removed only if the objects don't exist in another KAR.
@@ -435,6 +821,8 @@ public class KARCacheManager {
 				success = true;
 			}
 
+			deleteDigests(karFile);
+
 			if (success) {
 				// Check to see if the LSIDs are in any other KARS
 				// If they aren't then remove them from the Cache completely
@@ -484,14 +872,20 @@ public class KARCacheManager {
 			if (isDebugging)
 				log.debug(rows + " rows affected on insert");
 
-			_conn.commit();
+			if (!_inTransaction) {
+				_conn.commit();
+			}
 			_insErrorsPrepStmt.clearParameters();
 			if (isDebugging)
 				log.debug("insert succeeded");
 			return true;
 		} catch (Exception sqle) {
 			try {
-				_conn.rollback();
+				// inside a synchronization only this statement failed,
+				// keep the other changes of the transaction
+				if (!_inTransaction) {
+					_conn.rollback();
+				}
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
@@ -535,7 +929,9 @@ public class KARCacheManager {
 			if (isDebugging)
 				log.debug(rows + " rows affected on insert");
 
-			_conn.commit();
+			if (!_inTransaction) {
+				_conn.commit();
+			}
 			_insertPrepStmt.clearParameters();
 			if (isDebugging)
 				log.debug("insert succeeded");
@@ -543,7 +939,11 @@ public class KARCacheManager {
 		} catch (Exception sqle) {
 			log.error("Failed to insert KAR " + karFile.getPath() + " into database: " + sqle.getMessage());
 			try {
-				_conn.rollback();
+				// inside a synchronization only this statement failed,
+				// keep the other changes of the transaction
+				if (!_inTransaction) {
+					_conn.rollback();
+				}
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
@@ -568,7 +968,9 @@ public class KARCacheManager {
 			_insContentsPrepStmt.setString(3, entryName);
 			_insContentsPrepStmt.setString(4, entryType);
 			_insContentsPrepStmt.executeUpdate();
-			_conn.commit();
+			if (!_inTransaction) {
+				_conn.commit();
+			}
 			_insContentsPrepStmt.clearParameters();
 		} catch (SQLException sqle) {
 			// if this entry is not found in the CACHECONTENTTABLE
@@ -581,6 +983,73 @@ public class KARCacheManager {
 		}
 	}
 
+	/**
+	 * Insert rows into the KAR_CONTENTS table for many entries of a KAR with
+	 * JDBC batches, committed as one transaction (or as part of the
+	 * synchronization transaction). As with insertEntryIntoCache, entries
+	 * whose LSID is not in the CACHECONTENTTABLE are ignored.
+	 * 
+	 * @param karFile
+	 * @param entries
+	 * @return the number of rows inserted
+	 */
+	public int insertEntriesIntoCache(File karFile,
+			Collection<? extends KAREntry> entries) {
+		if (isDebugging)
+			log.debug("insertEntriesIntoCache(" + karFile.toString() + ", "
+					+ entries.size() + " entries)");
+		if (entries.isEmpty()) {
+			return 0;
+		}
+
+		List<Object[]> rows = new ArrayList<Object[]>(entries.size());
+		for (KAREntry entry : entries) {
+			rows.add(new Object[] { karFile.toString(),
+					entry.getLSID().toString(), entry.getName(),
+					entry.getType() });
+		}
+
+		int inserted = 0;
+		boolean autoCommit = true;
+		try {
+			if (!_inTransaction) {
+				autoCommit = _conn.getAutoCommit();
+				_conn.setAutoCommit(false);
+			}
+			boolean[] applied = BatchUpdate.execute(_insContentsPrepStmt, rows);
+			for (boolean a : applied) {
+				if (a) {
+					inserted++;
+				}
+			}
+			if (!_inTransaction) {
+				_conn.commit();
+			}
+		} catch (SQLException sqle) {
+			log.error("Failed to insert the entries of " + karFile
+					+ " into database: " + sqle.getMessage());
+			try {
+				if (!_inTransaction) {
+					_conn.rollback();
+				}
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+			inserted = 0;
+		} finally {
+			if (!_inTransaction) {
+				try {
+					_conn.setAutoCommit(autoCommit);
+				} catch (SQLException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		if (isDebugging)
+			log.debug(inserted + " of " + rows.size() + " rows inserted");
+		return inserted;
+	}
+
 	/**
 	 * Determine if the KAR represented by the supplied LSID has already been
 	 * cached.
@@ -679,6 +1148,106 @@ public class KARCacheManager {
         return -1;
 	}
 
+	/**
+	 * Get the last modified times of all the files in the cache, indexed by
+	 * file name, with one query.
+	 */
+	public Map<String, Long> getLastModifiedTimesOfFilesInCache() {
+		Map<String, Long> times = new HashMap<String, Long>();
+		try {
+			ResultSet result = null;
+			try {
+				result = _allKarsLastModified.executeQuery();
+				while (result.next()) {
+					times.put(result.getString(1), result.getLong(2));
+				}
+			} finally {
+				if (result != null) {
+					result.close();
+				}
+			}
+		} catch (Exception e) {
+			MessageHandler.error("Error reading the files in the cache.", e);
+		}
+		return times;
+	}
+
+	/**
+	 * Get the digests of the contents of all the files in the cache, indexed
+	 * by file name. Files cached before digests were recorded are missing.
+	 */
+	public Map<String, String> getDigestsOfFilesInCache() {
+		Map<String, String> digests = new HashMap<String, String>();
+		try {
+			ResultSet result = null;
+			try {
+				result = _allKarDigests.executeQuery();
+				while (result.next()) {
+					digests.put(result.getString(1), result.getString(2));
+				}
+			} finally {
+				if (result != null) {
+					result.close();
+				}
+			}
+		} catch (Exception e) {
+			MessageHandler.error("Error reading the digests of the files in the cache.", e);
+		}
+		return digests;
+	}
+
+	/**
+	 * Get the digests of the cached entries of a KAR file, indexed by entry
+	 * name. The map is empty if the entries were not digested when cached.
+	 */
+	public Map<String, String> getEntryDigestsInCache(File karFile) {
+		Map<String, String> digests = new HashMap<String, String>();
+		try {
+			ResultSet result = null;
+			try {
+				_entryDigestsForFile.setString(1, karFile.toString());
+				result = _entryDigestsForFile.executeQuery();
+				while (result.next()) {
+					digests.put(result.getString(1), result.getString(2));
+				}
+			} finally {
+				if (result != null) {
+					result.close();
+				}
+			}
+		} catch (Exception e) {
+			MessageHandler.error("Error reading the entry digests of " + karFile + ".", e);
+		}
+		return digests;
+	}
+
+	/**
+	 * Set the last modified time of a file in the cache to the time of the
+	 * file on disk, without touching its contents.
+	 * 
+	 * @return true if the file is in the cache
+	 */
+	public boolean updateLastModifiedTimeInCache(File karFile) {
+		int rows = 0;
+		try {
+			long time = karFile.lastModified();
+			String name = karFile.toString();
+			_updateKarsLastModifiedPrepStmt.setLong(1, time);
+			_updateKarsLastModifiedPrepStmt.setString(2, name);
+			rows += _updateKarsLastModifiedPrepStmt.executeUpdate();
+			_updateErrorsLastModifiedPrepStmt.setLong(1, time);
+			_updateErrorsLastModifiedPrepStmt.setString(2, name);
+			rows += _updateErrorsLastModifiedPrepStmt.executeUpdate();
+			if (!_inTransaction) {
+				_conn.commit();
+			}
+		} catch (SQLException e) {
+			log.error("Failed to update the modified time of " + karFile
+					+ ": " + e.getMessage());
+		}
+		return rows > 0;
+	}
+
 	/**
 	 * Method for getting an instance of this singleton class.
 	 */
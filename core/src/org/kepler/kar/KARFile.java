@@ -23,15 +23,21 @@
 package org.kepler.kar;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.Vector;
 import java.util.jar.Attributes;
 import java.util.jar.Attributes.Name;
@@ -165,6 +171,11 @@ public class KARFile extends JarFile implements Serializable {
 	 */
 	public static final String DEP_SEPARATOR = ";";
 
+	/**
+	 * The message digest algorithm of KAR and KAREntry digests.
+	 */
+	public static final String DIGEST_ALGORITHM = "SHA-1";
+
 	/**
 	 * If the KARFile object was created from a KARFile on disk this is the File
 	 * path and name of that file.
@@ -181,6 +192,12 @@ public class KARFile extends JarFile implements Serializable {
 	 */
 	private Hashtable<KeplerLSID, String> _lsidNames = new Hashtable<KeplerLSID, String>();
 
+	/**
+	 * CacheObjects built ahead of time by prepareKARContents(), indexed by
+	 * entry name and handler class. Entries are removed as they are cached.
+	 */
+	private transient Hashtable<String, CacheObject> _preparedObjects;
+
 	/**
 	 * Constructor for creating a KARFile from an existing file.
 	 * 
@@ -385,6 +402,97 @@ public class KARFile extends JarFile implements Serializable {
 		return _fileOnDisk;
 	}
 
+	/**
+	 * Return the hex encoded digest of the contents of a file, used to tell
+	 * a KAR that really changed from one whose modification time changed.
+	 * 
+	 * @param f
+	 *            the file to digest
+	 * @throws IOException
+	 */
+	public static String computeDigest(File f) throws IOException {
+		MessageDigest md = newMessageDigest();
+		InputStream is = new FileInputStream(f);
+		try {
+			updateDigest(md, is);
+		} finally {
+			is.close();
+		}
+		return toHex(md.digest());
+	}
+
+	/**
+	 * Return a hex encoded digest of every KAREntry in this KAR indexed by
+	 * entry name. The manifest attributes of the entry (its LSID, type,
+	 * dependencies, etc.) are always digested. If the manifest already lists
+	 * a digest of the entry, as it does in a signed KAR, that digest stands
+	 * for the contents; otherwise the contents of the entry are read and
+	 * digested as well.
+	 * 
+	 * @throws IOException
+	 */
+	public Map<String, String> getEntryDigests() throws IOException {
+		Map<String, String> digests = new HashMap<String, String>();
+		for (KAREntry entry : karEntries()) {
+			MessageDigest md = newMessageDigest();
+			boolean manifestDigest = false;
+			Attributes atts = entry.getAttributes();
+			if (atts != null) {
+				// sort the attributes so the digest does not depend on
+				// the order they were written in
+				TreeMap<String, String> sorted = new TreeMap<String, String>();
+				for (Map.Entry<Object, Object> att : atts.entrySet()) {
+					String name = att.getKey().toString();
+					sorted.put(name, String.valueOf(att.getValue()));
+					if (name.endsWith("-Digest")) {
+						manifestDigest = true;
+					}
+				}
+				for (Map.Entry<String, String> att : sorted.entrySet()) {
+					md.update((att.getKey() + ": " + att.getValue() + "\n")
+							.getBytes("UTF-8"));
+				}
+			}
+			if (!manifestDigest) {
+				InputStream is = getInputStream(entry);
+				try {
+					updateDigest(md, is);
+				} finally {
+					is.close();
+				}
+			}
+			digests.put(entry.getName(), toHex(md.digest()));
+		}
+		return digests;
+	}
+
+	private static MessageDigest newMessageDigest() throws IOException {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(DIGEST_ALGORITHM + " is not available: "
+					+ e.getMessage());
+		}
+	}
+
+	private static void updateDigest(MessageDigest md, InputStream is)
+			throws IOException {
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = is.read(buffer)) != -1) {
+			md.update(buffer, 0, read);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+			hex.append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+
 	/**
 	 * returns a KAREntry for the given lsid. If there is not KAREntry then
 	 * return null.
@@ -557,6 +665,21 @@ public class KARFile extends JarFile implements Serializable {
 	 * @throws Exception
 	 */
 	public void cacheKARContents() throws Exception {
+		cacheKARContents(null);
+	}
+
+	/**
+	 * Cache the named entries of this KARFile. When names are given the KAR
+	 * must already have a row in the KARS_CACHED table, as it does when
+	 * KARCacheManager updates the entries of a KAR that changed since it was
+	 * cached; the other entries are left as they are.
+	 * 
+	 * @param entryNames
+	 *            the names of the entries to cache, or null to add this KAR
+	 *            to the cache with all of its entries
+	 * @throws Exception
+	 */
+	public void cacheKARContents(Set<String> entryNames) throws Exception {
 		if (isDebugging) {
 			log.debug("openKAR: " + this.toString());
 		}
@@ -575,10 +698,12 @@ public class KARFile extends JarFile implements Serializable {
 			}
 
 			// Add a row to the KARS_CACHED table
-			boolean inserted = kcm.insertIntoCache(this);
-			if (!inserted) {
-				// This KAR has already been cached, don't do it again
-				return;
+			if (entryNames == null) {
+				boolean inserted = kcm.insertIntoCache(this);
+				if (!inserted) {
+					// This KAR has already been cached, don't do it again
+					return;
+				}
 			}
 
 			// keep two lists while traversing the dependencies, start with all
@@ -586,10 +711,21 @@ public class KARFile extends JarFile implements Serializable {
 			// and move them into the cached entries as they are cached (or if
 			// they are already cached)
 			Vector<KAREntry> entries = (Vector<KAREntry>) karEntries();
+			if (entryNames != null) {
+				Iterator<KAREntry> it = entries.iterator();
+				while (it.hasNext()) {
+					if (!entryNames.contains(it.next().getName())) {
+						it.remove();
+					}
+				}
+			}
 			Hashtable<KeplerLSID, KAREntry> cachedEntries = new Hashtable<KeplerLSID, KAREntry>();
+			File karFile = getFileLocation();
 
 			// do one pass through the entries to see if any of them are already
-			// in the cache
+			// in the cache, and insert rows into the KAR_CONTENTS table for
+			// them in one batch
+			Vector<KAREntry> contents = new Vector<KAREntry>();
 			for (KAREntry entry : entries) {
 				KeplerLSID lsid = entry.getLSID();
 
@@ -599,70 +735,54 @@ public class KARFile extends JarFile implements Serializable {
 
 					// add this entry into the cachedEntries list
 					cachedEntries.put(entry.getLSID(), entry);
-
-					// Insert a row into the KAR_CONTENTS table for this entry
-					File karFile = getFileLocation();
-					KeplerLSID entryLsid = entry.getLSID();
-					String entryName = entry.getName();
-					String entryType = entry.getType();
-					kcm.insertEntryIntoCache(karFile, entryLsid, entryName,
-							entryType);
+					contents.add(entry);
 				}
 			}
+			kcm.insertEntriesIntoCache(karFile, contents);
 
 			// remove entries that were already cached
 			for (KAREntry entry : cachedEntries.values()) {
 				entries.remove(entry);
 			}
 
-			// keep cycling through the uncached entries until the list is empty
+			// keep cycling through the uncached entries until the list is
+			// empty. Every pass caches all the entries whose dependencies
+			// were cached by the passes before it, and inserts their objects
+			// and KAR_CONTENTS rows in batches
 			while (entries.size() > 0) {
 
 				// keep track of the entries cached during this pass
 				Vector<KAREntry> cachedThisPass = new Vector<KAREntry>(entries
 						.size());
+				Hashtable<KeplerLSID, CacheObject> objects = new Hashtable<KeplerLSID, CacheObject>();
+				contents = new Vector<KAREntry>();
 
 				// cycle through all of the remaining, uncached entries
 				for (KAREntry entry : entries) {
 					if (isDebugging)
 						log.debug(entry.getName());
 
-					// get the dependency list for this entry
-					List<KeplerLSID> depList = entry.getLsidDependencies();
-
-					if (depList.size() == 0) {
-						// if there are no dependencies we just cache it
-						boolean success = cache(entry);
+					// check to make sure that all of the dependencies have
+					// already been cached
+					boolean allDependenciesHaveBeenCached = true;
+					for (KeplerLSID lsid : entry.getLsidDependencies()) {
+						// if any of the dependencies have not been cached,
+						// set false
+						if (!cm.isContained(lsid)) {
+							allDependenciesHaveBeenCached = false;
+							break;
+						}
+					}
+					if (allDependenciesHaveBeenCached) {
+						// all dependencies have been cached so it is
+						// OK to cache this entry
+						boolean success = cache(entry, objects, contents);
 						if (success) {
 							cachedEntries.put(entry.getLSID(), entry);
 							cachedThisPass.add(entry);
-							break;
 						}
 						if (isDebugging)
 							log.debug(success);
-					} else {
-						// if there are dependencies then we check to make sure
-						// that all of the dependencies have already been cached
-						boolean allDependenciesHaveBeenCached = true;
-						for (KeplerLSID lsid : depList) {
-							// if any of the dependencies have not been cached,
-							// set false
-							if (!cm.isContained(lsid)) {
-								allDependenciesHaveBeenCached = false;
-							}
-						}
-						if (allDependenciesHaveBeenCached) {
-							// all dependencies have been cached so it is
-							// OK to cache this entry
-							boolean success = cache(entry);
-							if (success) {
-								cachedEntries.put(entry.getLSID(), entry);
-								cachedThisPass.add(entry);
-								break;
-							}
-							if (isDebugging)
-								log.debug(success);
-						}
 					}
 				}
 				if (cachedThisPass.size() == 0) {
@@ -674,6 +794,24 @@ public class KARFile extends JarFile implements Serializable {
 					break;
 				}
 
+				// insert the objects of this pass into the cache and record
+				// their entries in the KAR_CONTENTS table, skipping entries
+				// whose objects could not be inserted
+				try {
+					cm.insertObjects(objects.values());
+				} catch (CacheException ce) {
+					log.warn("KAREntries were not cached: " + contents);
+				}
+				Iterator<KAREntry> contentsIt = contents.iterator();
+				while (contentsIt.hasNext()) {
+					KAREntry entry = contentsIt.next();
+					if (!cm.isContained(entry.getLSID())) {
+						log.warn("KAREntry was not cached: " + entry.getName());
+						contentsIt.remove();
+					}
+				}
+				kcm.insertEntriesIntoCache(karFile, contents);
+
 				// remove any entries that got cached this pass
 				for (KAREntry entry : cachedThisPass) {
 					entries.remove(entry);
@@ -682,10 +820,57 @@ public class KARFile extends JarFile implements Serializable {
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			// drop prepared objects of entries that were not cached
+			_preparedObjects = null;
 		}
 
 	}
 
+	/**
+	 * Build the CacheObjects of the entries handled by
+	 * ConcurrentKAREntryHandlers ahead of cacheKARContents(). Only the KAR
+	 * itself is read, so several KARs can be prepared at once on different
+	 * threads; cacheKARContents() later inserts the prepared objects instead
+	 * of calling those handlers again. Entries of other handlers are left to
+	 * cacheKARContents().
+	 * 
+	 * @param cachedLsids
+	 *            LSIDs already in the cache, whose entries are skipped
+	 */
+	public void prepareKARContents(Set<KeplerLSID> cachedLsids) {
+		Hashtable<String, CacheObject> prepared = new Hashtable<String, CacheObject>();
+		for (KAREntry entry : karEntries()) {
+			if (entry.getAttributes() == null
+					|| cachedLsids.contains(entry.getLSID())) {
+				continue;
+			}
+			Vector<KAREntryHandler> handlers = getHandlersForEntry(entry);
+			if (handlers == null) {
+				continue;
+			}
+			for (KAREntryHandler keh : handlers) {
+				if (keh instanceof ConcurrentKAREntryHandler) {
+					try {
+						CacheObject co = keh.cache(this, entry);
+						if (co != null) {
+							prepared.put(getPreparedKey(keh, entry), co);
+						}
+					} catch (Exception e) {
+						// cache() calls the handler again and reports it
+						if (isDebugging)
+							log.debug("Could not prepare " + entry.getName(), e);
+					}
+				}
+			}
+		}
+		_preparedObjects = prepared;
+	}
+
+	private static String getPreparedKey(KAREntryHandler keh, KAREntry entry) {
+		return keh.getClass().getName() + " " + entry.getName();
+	}
+
 	/**
 	 * Here we go through all the KAREntries and call the open method of the
 	 * appropriate KAREntryHandlers. It is assumed that cacheKARContents() has
@@ -873,31 +1058,33 @@ public class KARFile extends JarFile implements Serializable {
 	}
 
 	/**
-	 * Insert the object into the cache and record it in the kar contents table.
+	 * Get the objects to insert into the cache for an entry from its
+	 * KAREntryHandlers. The objects are added to the given table and the
+	 * entry to the given list of rows for the kar contents table, so that
+	 * the caller can insert them together with those of other entries.
 	 * 
 	 * @param entry
+	 * @param objects
+	 *            the objects to insert, indexed by LSID
+	 * @param contents
+	 *            the entries to record in the kar contents table
 	 * @return true if the entry could be cached
 	 */
-	private boolean cache(KAREntry entry) {
+	private boolean cache(KAREntry entry,
+			Hashtable<KeplerLSID, CacheObject> objects,
+			Vector<KAREntry> contents) {
 		if (entry.getAttributes() == null) {
 			return false;
 		}
 
-		CacheManager cm;
-		KARCacheManager kcm;
 		try {
-			cm = CacheManager.getInstance();
-			kcm = KARCacheManager.getInstance();
+			CacheManager cm = CacheManager.getInstance();
 
-			if (cm.isContained(entry.getLSID())) {
+			if (objects.containsKey(entry.getLSID())
+					|| cm.isContained(entry.getLSID())) {
 				// This entry is already cached
 				// make sure there is a row for it in the KAR_CONTENTS table
-				File karFile = getFileLocation();
-				KeplerLSID entryLsid = entry.getLSID();
-				String entryName = entry.getName();
-				String entryType = entry.getType();
-				kcm.insertEntryIntoCache(karFile, entryLsid, entryName,
-						entryType);
+				contents.add(entry);
 				return true;
 			}
 		} catch (CacheException e1) {
@@ -918,24 +1105,26 @@ public class KARFile extends JarFile implements Serializable {
 
 		// loop through all of the handlers and pass the entry to their cache
 		// method
-		// if they return a cache object then insert it into the cache.
+		// if they return a cache object then it is inserted into the cache.
+		boolean cached = false;
 		for (KAREntryHandler keh : handlers) {
 			try {
-				CacheObject co = keh.cache(this, entry);
-				if (co != null) {
-
-					// The handler returned a CacheObject, insert it into the
-					// cache
-					cm.insertObject(co);
-
-					// Insert a row into the KAR_CONTENTS table for this entry
-					File karFile = getFileLocation();
-					KeplerLSID entryLsid = entry.getLSID();
-					String entryName = entry.getName();
-					String entryType = entry.getType();
-					kcm.insertEntryIntoCache(karFile, entryLsid, entryName,
-							entryType);
-
+				CacheObject co = null;
+				if (_preparedObjects != null) {
+					co = _preparedObjects.remove(getPreparedKey(keh, entry));
+				}
+				if (co == null) {
+					co = keh.cache(this, entry);
+				}
+				if (co != null && co.getLSID() != null) {
+					if (objects.containsKey(co.getLSID())) {
+						log.warn("KAREntry was not cached: " + entry.getName());
+					} else {
+						objects.put(co.getLSID(), co);
+						cached = true;
+					}
+				} else if (co != null) {
+					log.warn("KAREntry has no lsid: " + entry.getName());
 				}
 			} catch (CacheException ce) {
 				log.warn("KAREntry was not cached: " + entry.getName());
@@ -943,6 +1132,10 @@ public class KARFile extends JarFile implements Serializable {
 				e.printStackTrace();
 			}
 		}
+		if (cached) {
+			// a row is inserted into the KAR_CONTENTS table for this entry
+			contents.add(entry);
+		}
 
 		return true;
 	}
@@ -29,6 +29,7 @@ import java.util.Vector;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.kepler.kar.ConcurrentKAREntryHandler;
 import org.kepler.kar.KAREntry;
 import org.kepler.kar.KAREntryHandler;
 import org.kepler.kar.KAREntryHandlerFactory;
@@ -57,7 +58,8 @@ import ptolemy.moml.MoMLParser;
 /**
  * @author Aaron Schultz
  */
-public class ActorMetadataKAREntryHandler implements KAREntryHandler {
+public class ActorMetadataKAREntryHandler implements
+		ConcurrentKAREntryHandler {
 
 	private static final Log log = LogFactory
 			.getLog(ActorMetadataKAREntryHandler.class.getName());
@@ -196,7 +198,7 @@ public class ActorMetadataKAREntryHandler implements KAREntryHandler {
 	 * @see org.kepler.kar.KAREntryHandler#cache(org.kepler.kar.KARFile,
 	 * java.util.jar.JarEntry)
 	 */
-	public synchronized CacheObject cache(KARFile karFile, KAREntry entry) throws Exception {
+	public CacheObject cache(KARFile karFile, KAREntry entry) throws Exception {
 		if (isDebugging) {
 			log.debug("cache(" + karFile.toString() + "," + entry.toString()
 					+ ")");
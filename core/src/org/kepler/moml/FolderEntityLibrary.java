@@ -38,14 +38,13 @@ import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
 import ptolemy.kernel.util.Workspace;
-import ptolemy.moml.EntityLibrary;
 
 /**
  * A convenience class to determine the different types of
  * EntityLibraries in the trees for assigning icons.
  * @author Aaron Schultz
  */
-public class FolderEntityLibrary extends EntityLibrary {
+public class FolderEntityLibrary extends LazyEntityLibrary {
 	
 	private File fileOnDisk;
 
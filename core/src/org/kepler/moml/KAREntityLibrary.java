@@ -38,7 +38,6 @@ import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
 import ptolemy.kernel.util.Workspace;
-import ptolemy.moml.EntityLibrary;
 
 /**
  * A convenience class to determine the different types of EntityLibraries in
@@ -47,7 +46,7 @@ import ptolemy.moml.EntityLibrary;
  * @author Aaron Schultz
  * 
  */
-public class KAREntityLibrary extends EntityLibrary {
+public class KAREntityLibrary extends LazyEntityLibrary {
 
 	private File karFile = null;
 
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2010 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * '$Author$'
+ * '$Date$'
+ * '$Revision$'
+ *
+ * Permission is hereby granted, without written agreement and without
+ * license or royalty fees, to use, copy, modify, and distribute this
+ * software and its documentation for any purpose, provided that the above
+ * copyright notice and the following two paragraphs appear in all copies
+ * of this software.
+ *
+ * IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ * FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ * THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ * PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ * CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ * ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ */
+
+package org.kepler.moml;
+
+import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.InvalidStateException;
+import ptolemy.kernel.util.NameDuplicationException;
+import ptolemy.kernel.util.Workspace;
+import ptolemy.moml.EntityLibrary;
+
+/**
+ * An EntityLibrary whose contents are created by a Loader the first time
+ * they are asked for, e.g. when the folder is expanded in a tree, instead
+ * of being parsed from MoML. The loader is called once; after that the
+ * library behaves like any other EntityLibrary.
+ * 
+ * Libraries without a loader are ordinary EntityLibraries.
+ */
+public class LazyEntityLibrary extends EntityLibrary {
+
+	/**
+	 * Creates the contents of a LazyEntityLibrary.
+	 */
+	public interface Loader {
+		/**
+		 * Add the contents of the given library to it.
+		 * 
+		 * @param library
+		 * @throws Exception
+		 */
+		public void load(LazyEntityLibrary library) throws Exception;
+	}
+
+	private Loader _loader = null;
+
+	public LazyEntityLibrary() {
+	}
+
+	/**
+	 * @param workspace
+	 */
+	public LazyEntityLibrary(Workspace workspace) {
+		super(workspace);
+	}
+
+	/**
+	 * @param container
+	 * @param name
+	 * @throws NameDuplicationException
+	 * @throws IllegalActionException
+	 */
+	public LazyEntityLibrary(CompositeEntity container, String name)
+			throws NameDuplicationException, IllegalActionException {
+		super(container, name);
+	}
+
+	/**
+	 * Set the loader that creates the contents of this library the first
+	 * time they are asked for.
+	 * 
+	 * @param loader
+	 */
+	public void setLoader(Loader loader) {
+		_loader = loader;
+	}
+
+	/**
+	 * Return true if the contents of this library have not been created yet.
+	 */
+	public boolean isLoadPending() {
+		return _loader != null;
+	}
+
+	/**
+	 * Create the contents with the loader, if there is one and it has not
+	 * been called yet, before populating the library the usual way.
+	 */
+	public void populate() throws InvalidStateException {
+		if (_loader != null && !_populating && !_cloning) {
+			Loader loader = _loader;
+			// clear it first so a failing loader is not called again
+			_loader = null;
+			_populating = true;
+			try {
+				loader.load(this);
+			} catch (Exception e) {
+				throw new InvalidStateException(this, e,
+						"Failed to load library");
+			} finally {
+				_populating = false;
+			}
+		}
+		super.populate();
+	}
+
+}
@@ -36,7 +36,6 @@ import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
 import ptolemy.kernel.util.Workspace;
-import ptolemy.moml.EntityLibrary;
 
 /**
  * A convenience class to determine the different types of
@@ -44,7 +43,7 @@ import ptolemy.moml.EntityLibrary;
  * @author Aaron Schultz
  *
  */
-public class OntologyEntityLibrary extends EntityLibrary {
+public class OntologyEntityLibrary extends LazyEntityLibrary {
 
 	/**
 	 * 
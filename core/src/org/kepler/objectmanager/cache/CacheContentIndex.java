@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2010 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * '$Author$'
+ * '$Date$'
+ * '$Revision$'
+ *
+ * Permission is hereby granted, without written agreement and without
+ * license or royalty fees, to use, copy, modify, and distribute this
+ * software and its documentation for any purpose, provided that the above
+ * copyright notice and the following two paragraphs appear in all copies
+ * of this software.
+ *
+ * IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ * FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ * THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ * PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ * CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ * ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ */
+
+package org.kepler.objectmanager.cache;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.kepler.objectmanager.lsid.KeplerLSID;
+
+/**
+ * An in-memory copy of the rows of the CACHECONTENTTABLE, keyed by LSID, by
+ * class name and by LSID without revision.
+ *
+ * The index is loaded once from the table by CacheManager, which then
+ * updates it after each committed insert, update and delete, so that
+ * lookups by LSID or class name do not need the database or the
+ * CacheManager monitor. Any number of threads may read the index while
+ * CacheManager changes it; a reader sees each row either before or after
+ * a change.
+ *
+ * LSIDs are kept as strings; callers get new KeplerLSID objects, since
+ * KeplerLSID is mutable.
+ */
+class CacheContentIndex {
+
+	private static final Log log = LogFactory.getLog(CacheContentIndex.class
+			.getName());
+	private static final boolean isDebugging = log.isDebugEnabled();
+
+	/** The columns of a CACHECONTENTTABLE row. */
+	static class Row {
+		final String name;
+		final String lsid;
+		final String date;
+		final String file;
+		final String type;
+		final String className;
+
+		Row(String name, String lsid, String date, String file, String type,
+				String className) {
+			this.name = name;
+			this.lsid = lsid;
+			this.date = date;
+			this.file = file;
+			this.type = type;
+			this.className = className;
+		}
+	}
+
+	/** LSID to row. */
+	private final ConcurrentHashMap<String, Row> _rows = new ConcurrentHashMap<String, Row>();
+
+	/** Class name to the LSIDs of the rows with that class name. */
+	private final ConcurrentHashMap<String, Set<String>> _lsidsByClass = new ConcurrentHashMap<String, Set<String>>();
+
+	/** LSID without revision to the LSIDs of all cached revisions. */
+	private final ConcurrentHashMap<String, Set<String>> _lsidsByObject = new ConcurrentHashMap<String, Set<String>>();
+
+	/**
+	 * Load the rows of the CACHECONTENTTABLE, replacing the contents of the
+	 * index.
+	 */
+	void load(Statement stmt) throws SQLException {
+		clear();
+		ResultSet rs = stmt.executeQuery("SELECT NAME,LSID,DATE,FILE,TYPE,CLASSNAME FROM "
+				+ CacheManager.CACHETABLENAME);
+		try {
+			while (rs.next()) {
+				put(new Row(rs.getString(1), rs.getString(2), rs.getString(3),
+						rs.getString(4), rs.getString(5), rs.getString(6)));
+			}
+		} finally {
+			rs.close();
+		}
+		if (isDebugging)
+			log.debug(_rows.size() + " cache rows indexed.");
+	}
+
+	/** Add or replace a row. */
+	void put(Row row) {
+		Row old = _rows.put(row.lsid, row);
+		if (old != null && old.className != null
+				&& !old.className.equals(row.className)) {
+			remove(_lsidsByClass, old.className, old.lsid);
+		}
+		if (row.className != null) {
+			add(_lsidsByClass, row.className, row.lsid);
+		}
+		add(_lsidsByObject, withoutRevision(row.lsid), row.lsid);
+	}
+
+	/** Remove the row of an LSID. */
+	void remove(String lsid) {
+		Row old = _rows.remove(lsid);
+		if (old != null) {
+			if (old.className != null) {
+				remove(_lsidsByClass, old.className, lsid);
+			}
+			remove(_lsidsByObject, withoutRevision(lsid), lsid);
+		}
+	}
+
+	/** Remove all rows. */
+	void clear() {
+		_rows.clear();
+		_lsidsByClass.clear();
+		_lsidsByObject.clear();
+	}
+
+	/** Return the row of an LSID, or null if it is not cached. */
+	Row get(String lsid) {
+		return _rows.get(lsid);
+	}
+
+	/** Return true if an LSID is cached. */
+	boolean contains(String lsid) {
+		return _rows.containsKey(lsid);
+	}
+
+	/** Return the number of rows. */
+	int size() {
+		return _rows.size();
+	}
+
+	/** Return the cached LSIDs. */
+	Collection<String> getLsids() {
+		return Collections.unmodifiableSet(_rows.keySet());
+	}
+
+	/** Return the cached LSIDs whose rows have a class name. */
+	Collection<String> getLsidsForClass(String className) {
+		return get(_lsidsByClass, className);
+	}
+
+	/**
+	 * Return the cached revisions of an object, given as an LSID without
+	 * revision.
+	 */
+	Collection<String> getLsidsForObject(String lsidWithoutRevision) {
+		return get(_lsidsByObject, lsidWithoutRevision);
+	}
+
+	/**
+	 * Return an LSID string without its revision, the same as
+	 * KeplerLSID.toStringWithoutRevision() but without parsing it.
+	 */
+	static String withoutRevision(String lsid) {
+		int anchor = lsid.indexOf(KeplerLSID.anchorSeparatorChar);
+		if (anchor >= 0) {
+			lsid = lsid.substring(0, anchor);
+		}
+		int separator = lsid.lastIndexOf(KeplerLSID.separatorChar);
+		return separator >= 0 ? lsid.substring(0, separator) : lsid;
+	}
+
+	private static void add(ConcurrentHashMap<String, Set<String>> map,
+			String key, String lsid) {
+		Set<String> lsids = map.get(key);
+		if (lsids == null) {
+			Set<String> newLsids = Collections
+					.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			lsids = map.putIfAbsent(key, newLsids);
+			if (lsids == null) {
+				lsids = newLsids;
+			}
+		}
+		lsids.add(lsid);
+	}
+
+	private static void remove(ConcurrentHashMap<String, Set<String>> map,
+			String key, String lsid) {
+		// empty sets are left in the map; removing them could race with add
+		Set<String> lsids = map.get(key);
+		if (lsids != null) {
+			lsids.remove(lsid);
+		}
+	}
+
+	private static Collection<String> get(
+			ConcurrentHashMap<String, Set<String>> map, String key) {
+		Set<String> lsids = map.get(key);
+		if (lsids == null) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(lsids);
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2010 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * '$Author$'
+ * '$Date$'
+ * '$Revision$'
+ *
+ * Permission is hereby granted, without written agreement and without
+ * license or royalty fees, to use, copy, modify, and distribute this
+ * software and its documentation for any purpose, provided that the above
+ * copyright notice and the following two paragraphs appear in all copies
+ * of this software.
+ *
+ * IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ * FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ * THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ * PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ * CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ * ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ */
+
+package org.kepler.objectmanager.cache;
+
+/**
+ * The size and use of an entry of the cache, as seen by a
+ * CacheEvictionPolicy.
+ */
+public class CacheEntryInfo {
+
+	private final String _lsid;
+	private final String _type;
+	private final long _size;
+	private final long _lastAccess;
+	private final int _hits;
+
+	/**
+	 * @param lsid
+	 *            the LSID of the entry.
+	 * @param type
+	 *            the class of the cache object.
+	 * @param size
+	 *            the bytes on disk of the object and its data.
+	 * @param lastAccess
+	 *            the time in milliseconds the entry was last used.
+	 * @param hits
+	 *            the number of times the entry was read.
+	 */
+	public CacheEntryInfo(String lsid, String type, long size,
+			long lastAccess, int hits) {
+		_lsid = lsid;
+		_type = type;
+		_size = size;
+		_lastAccess = lastAccess;
+		_hits = hits;
+	}
+
+	/** Return the LSID of the entry. */
+	public String getLsid() {
+		return _lsid;
+	}
+
+	/** Return the class of the cache object. */
+	public String getType() {
+		return _type;
+	}
+
+	/** Return the bytes on disk of the object and its data. */
+	public long getSize() {
+		return _size;
+	}
+
+	/** Return the time in milliseconds the entry was last used. */
+	public long getLastAccess() {
+		return _lastAccess;
+	}
+
+	/** Return the number of times the entry was read. */
+	public int getHits() {
+		return _hits;
+	}
+
+	public String toString() {
+		return _lsid + " (" + _size + " bytes, " + _hits + " hits, last "
+				+ _lastAccess + ")";
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2010 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * '$Author$'
+ * '$Date$'
+ * '$Revision$'
+ *
+ * Permission is hereby granted, without written agreement and without
+ * license or royalty fees, to use, copy, modify, and distribute this
+ * software and its documentation for any purpose, provided that the above
+ * copyright notice and the following two paragraphs appear in all copies
+ * of this software.
+ *
+ * IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ * FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ * THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ * PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ * CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ * ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ */
+
+package org.kepler.objectmanager.cache;
+
+import java.util.List;
+
+/**
+ * Chooses entries of the cache to evict. CacheEvictor runs its policies in
+ * order, each on the entries the ones before it kept.
+ *
+ * @see LRUEvictionPolicy
+ * @see LFUEvictionPolicy
+ * @see TTLEvictionPolicy
+ */
+public interface CacheEvictionPolicy {
+
+	/**
+	 * Choose the entries to evict.
+	 *
+	 * @param entries
+	 *            the entries that may be evicted. Pinned entries, i.e. the
+	 *            contents of cached KARs, are not included.
+	 * @param totalSize
+	 *            the bytes of all the entries of the cache, including pinned
+	 *            ones.
+	 * @param now
+	 *            the current time in milliseconds.
+	 * @return the entries to evict.
+	 */
+	public List<CacheEntryInfo> selectEvictions(List<CacheEntryInfo> entries,
+			long totalSize, long now);
+}
@@ -0,0 +1,675 @@
+/*
+ * Copyright (c) 2010 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * '$Author$'
+ * '$Date$'
+ * '$Revision$'
+ *
+ * Permission is hereby granted, without written agreement and without
+ * license or royalty fees, to use, copy, modify, and distribute this
+ * software and its documentation for any purpose, provided that the above
+ * copyright notice and the following two paragraphs appear in all copies
+ * of this software.
+ *
+ * IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ * FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ * THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ * PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ * CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ * ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ */
+
+package org.kepler.objectmanager.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.kepler.configuration.ConfigurationManager;
+import org.kepler.configuration.ConfigurationProperty;
+import org.kepler.kar.KARCacheManager;
+import org.kepler.objectmanager.lsid.KeplerLSID;
+import org.kepler.util.sql.BatchUpdate;
+import org.kepler.util.sql.DatabaseFactory;
+
+/**
+ * Keeps the cache of CacheManager within bounds of size and age.
+ *
+ * CacheManager tells the evictor about each write, read and removal. The
+ * evictor keeps the size, last access time and number of reads of each
+ * entry in memory and writes them to the CACHE_ACCESS table when it runs,
+ * so that they survive restarts.
+ *
+ * Each run, in a background thread every intervalMinutes, hands the
+ * entries to the eviction policies in order and purges the ones they
+ * choose. Cached KARs and their contents are pinned and never evicted,
+ * since the KAR would have to be cached again to get them back, and so are
+ * entries that are the semantic type of another entry and data objects
+ * whose data is being fetched. Only data kept in the cache directory is
+ * deleted with its entry; files that data objects merely point to, such
+ * as the EXTERNAL files of DataCacheFileObject, are left alone and not
+ * counted in the size of the cache.
+ *
+ * The policies are read from the cacheEviction property of the core module
+ * configuration: policy is lru, lfu or none, with maxSizeMB the size they
+ * keep the cache under, and maxAgeDays, if more than 0, adds a
+ * TTLEvictionPolicy.
+ */
+public class CacheEvictor {
+
+	private static final Log log = LogFactory.getLog(CacheEvictor.class
+			.getName());
+	private static final boolean isDebugging = log.isDebugEnabled();
+
+	/** The name of the configuration property of the policies. */
+	public static final String CONFIG_PROPERTY_NAME = "cacheEviction";
+
+	/** The size limit in megabytes if it is not configured. */
+	public static final long DEFAULT_MAX_SIZE_MB = 2048;
+
+	/** The minutes between runs if it is not configured. */
+	public static final long DEFAULT_INTERVAL_MINUTES = 30;
+
+	public static final String ACCESS_TABLE_NAME = "CACHE_ACCESS";
+
+	private final CacheManager _cacheManager;
+
+	private final File _objectDir;
+
+	private final List<CacheEvictionPolicy> _policies = new CopyOnWriteArrayList<CacheEvictionPolicy>();
+
+	/** LSID to the use of the entry. */
+	private final ConcurrentHashMap<String, Access> _access = new ConcurrentHashMap<String, Access>();
+
+	/** Class name to whether the class keeps data outside its object file. */
+	private final Map<String, Boolean> _hasDataFile = new ConcurrentHashMap<String, Boolean>();
+
+	/** Allows one run at a time, whether scheduled or called. */
+	private final Object _runLock = new Object();
+
+	private Connection _conn;
+	private PreparedStatement _updateStmt;
+	private PreparedStatement _insertStmt;
+
+	private ScheduledExecutorService _scheduler;
+
+	private final AtomicLong _evictionCount = new AtomicLong();
+	private final AtomicLong _evictedBytes = new AtomicLong();
+	private volatile long _lastEvictionTime = 0;
+
+	/** The use of one entry. */
+	private static class Access {
+		volatile long size;
+		volatile long lastAccess;
+		volatile int hits;
+		/** True if this changed since it was last written to the table. */
+		volatile boolean dirty;
+
+		Access(long size, long lastAccess, int hits, boolean dirty) {
+			this.size = size;
+			this.lastAccess = lastAccess;
+			this.hits = hits;
+			this.dirty = dirty;
+		}
+	}
+
+	/**
+	 * Create an evictor for a cache, loading the use of the entries from
+	 * the CACHE_ACCESS table. The evictor has no policies and does not run
+	 * until configure() or addPolicy() and start() are called.
+	 *
+	 * @param cacheManager
+	 *            the cache.
+	 * @param objectDir
+	 *            the directory of the serialized objects of the cache.
+	 */
+	CacheEvictor(CacheManager cacheManager, File objectDir) {
+		_cacheManager = cacheManager;
+		_objectDir = objectDir;
+		try {
+			_conn = DatabaseFactory.getDBConnection();
+			_updateStmt = _conn.prepareStatement("UPDATE " + ACCESS_TABLE_NAME
+					+ " SET SIZE = ?, LASTACCESS = ?, HITS = ? WHERE LSID = ?");
+			_insertStmt = _conn.prepareStatement("INSERT INTO "
+					+ ACCESS_TABLE_NAME
+					+ " (LSID, SIZE, LASTACCESS, HITS) VALUES (?, ?, ?, ?)");
+			load();
+		} catch (Exception e) {
+			log.error("Could not load the use of the cache entries: "
+					+ e.getMessage());
+		}
+	}
+
+	/**
+	 * Set the policies from the configuration and start running in the
+	 * background.
+	 */
+	void configure() {
+		long maxSize = DEFAULT_MAX_SIZE_MB;
+		long maxAgeDays = 0;
+		long interval = DEFAULT_INTERVAL_MINUTES;
+		String policy = "lru";
+		try {
+			ConfigurationProperty coreProperty = ConfigurationManager
+					.getInstance().getProperty(
+							ConfigurationManager.getModule("core"));
+			ConfigurationProperty evictionProperty = coreProperty
+					.getProperty(CONFIG_PROPERTY_NAME);
+			if (evictionProperty != null) {
+				policy = getValue(evictionProperty, "policy", policy);
+				maxSize = Long.parseLong(getValue(evictionProperty,
+						"maxSizeMB", String.valueOf(maxSize)));
+				maxAgeDays = Long.parseLong(getValue(evictionProperty,
+						"maxAgeDays", String.valueOf(maxAgeDays)));
+				interval = Long.parseLong(getValue(evictionProperty,
+						"intervalMinutes", String.valueOf(interval)));
+			}
+		} catch (Exception e) {
+			log.warn("Could not read " + CONFIG_PROPERTY_NAME
+					+ ", using the defaults: " + e.getMessage());
+		}
+
+		maxSize *= 1024L * 1024L;
+		if (policy.equalsIgnoreCase("lru")) {
+			addPolicy(new LRUEvictionPolicy(maxSize));
+		} else if (policy.equalsIgnoreCase("lfu")) {
+			addPolicy(new LFUEvictionPolicy(maxSize));
+		} else if (!policy.equalsIgnoreCase("none")) {
+			log.warn("Unknown " + CONFIG_PROPERTY_NAME + ".policy " + policy
+					+ ", the cache size is not bounded.");
+		}
+		if (maxAgeDays > 0) {
+			addPolicy(new TTLEvictionPolicy(TimeUnit.DAYS.toMillis(maxAgeDays)));
+		}
+		if (!_policies.isEmpty() && interval > 0) {
+			start(TimeUnit.MINUTES.toMillis(interval));
+		}
+	}
+
+	/** Add a policy, run after the ones already added. */
+	public void addPolicy(CacheEvictionPolicy policy) {
+		_policies.add(policy);
+	}
+
+	/** Remove a policy. */
+	public void removePolicy(CacheEvictionPolicy policy) {
+		_policies.remove(policy);
+	}
+
+	/** Return the policies, in the order they run. */
+	public List<CacheEvictionPolicy> getPolicies() {
+		return Collections.unmodifiableList(_policies);
+	}
+
+	/**
+	 * Run in a background thread, every interval milliseconds, until
+	 * stop() is called.
+	 */
+	public synchronized void start(long interval) {
+		stop();
+		_scheduler = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "CacheEvictor");
+						thread.setDaemon(true);
+						thread.setPriority(Thread.MIN_PRIORITY);
+						return thread;
+					}
+				});
+		_scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					evict();
+				} catch (Exception e) {
+					log.error("Error evicting cache entries", e);
+				}
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/** Stop running in the background. */
+	public synchronized void stop() {
+		if (_scheduler != null) {
+			_scheduler.shutdownNow();
+			_scheduler = null;
+		}
+	}
+
+	/** Stop, write the use of the entries and close the connection. */
+	void shutdown() {
+		stop();
+		synchronized (_runLock) {
+			if (_conn != null) {
+				try {
+					flush();
+					_updateStmt.close();
+					_insertStmt.close();
+					_conn.close();
+				} catch (SQLException e) {
+					log.error("Error closing the cache evictor connection: "
+							+ e.getMessage());
+				}
+				_conn = null;
+			}
+		}
+	}
+
+	/** Called by CacheManager after an object is inserted or updated. */
+	void recordWrite(CacheObjectInterface co, String filename) {
+		String lsid = co.getLSID().toString();
+		long size = getSize(filename, getDataFile(co));
+		Access access = _access.get(lsid);
+		if (access == null) {
+			_access.put(lsid, new Access(size, System.currentTimeMillis(), 0,
+					true));
+		} else {
+			access.size = size;
+			access.lastAccess = System.currentTimeMillis();
+			access.dirty = true;
+		}
+	}
+
+	/** Called by CacheManager when an object is read from the cache. */
+	void recordAccess(String lsid) {
+		Access access = _access.get(lsid);
+		if (access != null) {
+			access.lastAccess = System.currentTimeMillis();
+			// not atomic; a read at the same time as another may be missed
+			access.hits++;
+			access.dirty = true;
+		}
+	}
+
+	/** Called by CacheManager after an object is removed. */
+	void recordRemove(String lsid) {
+		_access.remove(lsid);
+	}
+
+	/** Called by CacheManager after the cache is cleared. */
+	void recordClear() {
+		_access.clear();
+	}
+
+	/**
+	 * Return the bytes on disk of the entries of the cache. Entries cached
+	 * before the evictor was added are not counted until its first run.
+	 */
+	public long getCacheSize() {
+		long size = 0;
+		for (Access access : _access.values()) {
+			size += access.size;
+		}
+		return size;
+	}
+
+	/** Return the number of entries whose use is known. */
+	public int getEntryCount() {
+		return _access.size();
+	}
+
+	/** Return the number of entries evicted since the evictor was created. */
+	public long getEvictionCount() {
+		return _evictionCount.get();
+	}
+
+	/** Return the bytes of the entries evicted since the evictor was created. */
+	public long getEvictedBytes() {
+		return _evictedBytes.get();
+	}
+
+	/** Return the time in milliseconds of the last run, or 0. */
+	public long getLastEvictionTime() {
+		return _lastEvictionTime;
+	}
+
+	/**
+	 * Run the policies now and purge the entries they choose.
+	 *
+	 * @return the number of entries purged.
+	 */
+	public int evict() throws CacheException {
+		synchronized (_runLock) {
+			if (_conn == null) {
+				return 0;
+			}
+			long now = System.currentTimeMillis();
+			List<CacheEntryInfo> candidates = new ArrayList<CacheEntryInfo>();
+			long totalSize;
+			try {
+				totalSize = collect(candidates);
+			} catch (SQLException e) {
+				throw new CacheException("Could not read the cache entries", e);
+			}
+
+			Set<String> chosen = new HashSet<String>();
+			List<CacheEntryInfo> evictions = new ArrayList<CacheEntryInfo>();
+			for (CacheEvictionPolicy policy : _policies) {
+				List<CacheEntryInfo> remaining = new ArrayList<CacheEntryInfo>();
+				for (CacheEntryInfo entry : candidates) {
+					if (!chosen.contains(entry.getLsid())) {
+						remaining.add(entry);
+					}
+				}
+				for (CacheEntryInfo entry : policy.selectEvictions(remaining,
+						totalSize, now)) {
+					if (chosen.add(entry.getLsid())) {
+						evictions.add(entry);
+						totalSize -= entry.getSize();
+					}
+				}
+			}
+
+			int count = 0;
+			for (CacheEntryInfo entry : evictions) {
+				try {
+					if (!purge(entry)) {
+						continue;
+					}
+					count++;
+					_evictionCount.incrementAndGet();
+					_evictedBytes.addAndGet(entry.getSize());
+				} catch (Exception e) {
+					log.warn("Could not evict " + entry.getLsid() + ": "
+							+ e.getMessage());
+				}
+			}
+			if (count > 0) {
+				log.info("Evicted " + count + " cache entries, the cache is "
+						+ getCacheSize() + " bytes");
+			}
+
+			try {
+				flush();
+			} catch (SQLException e) {
+				log.warn("Could not save the use of the cache entries: "
+						+ e.getMessage());
+			}
+			_lastEvictionTime = now;
+			return count;
+		}
+	}
+
+	/**
+	 * Write the changed use of the entries to the CACHE_ACCESS table.
+	 */
+	void flush() throws SQLException {
+		synchronized (_runLock) {
+			if (_conn == null) {
+				return;
+			}
+			List<Object[]> rows = new ArrayList<Object[]>();
+			for (Map.Entry<String, Access> entry : _access.entrySet()) {
+				Access access = entry.getValue();
+				if (access.dirty) {
+					access.dirty = false;
+					rows.add(new Object[] { Long.valueOf(access.size),
+							Long.valueOf(access.lastAccess),
+							Integer.valueOf(access.hits), entry.getKey() });
+				}
+			}
+			if (rows.isEmpty()) {
+				return;
+			}
+
+			boolean autoCommit = _conn.getAutoCommit();
+			_conn.setAutoCommit(false);
+			try {
+				List<Object[]> inserts = new ArrayList<Object[]>();
+				boolean[] applied = BatchUpdate.execute(_updateStmt, rows);
+				for (int i = 0; i < applied.length; i++) {
+					if (!applied[i]) {
+						Object[] row = rows.get(i);
+						inserts.add(new Object[] { row[3], row[0], row[1],
+								row[2] });
+					}
+				}
+				if (!inserts.isEmpty()) {
+					// the rows of entries removed meanwhile are refused by
+					// the foreign key and skipped
+					BatchUpdate.execute(_insertStmt, inserts);
+				}
+				_conn.commit();
+			} catch (SQLException e) {
+				_conn.rollback();
+				throw e;
+			} finally {
+				_conn.setAutoCommit(autoCommit);
+			}
+			if (isDebugging)
+				log.debug(rows.size() + " cache access rows written.");
+		}
+	}
+
+	/**
+	 * Load the use of the entries from the CACHE_ACCESS table.
+	 */
+	private void load() throws SQLException {
+		Statement stmt = _conn.createStatement();
+		try {
+			ResultSet rs = stmt.executeQuery("SELECT LSID, SIZE, LASTACCESS, HITS FROM "
+					+ ACCESS_TABLE_NAME);
+			try {
+				while (rs.next()) {
+					_access.put(rs.getString(1), new Access(rs.getLong(2), rs
+							.getLong(3), rs.getInt(4), false));
+				}
+			} finally {
+				rs.close();
+			}
+		} finally {
+			stmt.close();
+		}
+		if (isDebugging)
+			log.debug(_access.size() + " cache access rows loaded.");
+	}
+
+	/**
+	 * Add the entries of the cache that may be evicted to a list, adding
+	 * the use of entries cached before the evictor was added.
+	 *
+	 * @return the bytes of all the entries.
+	 */
+	private long collect(List<CacheEntryInfo> candidates) throws SQLException {
+		Set<String> pinned = new HashSet<String>();
+		Map<String, String[]> rows = new HashMap<String, String[]>();
+		Statement stmt = _conn.createStatement();
+		try {
+			ResultSet rs = stmt.executeQuery("SELECT LSID FROM "
+					+ KARCacheManager.KAR_CONTENTS_TABLE_NAME
+					+ " UNION SELECT LSID FROM "
+					+ KARCacheManager.KARS_CACHED_TABLE_NAME
+					+ " UNION SELECT SEMTYPE FROM "
+					+ CacheManager.CACHE_SEMTYPES_TABLE_NAME);
+			try {
+				while (rs.next()) {
+					pinned.add(rs.getString(1));
+				}
+			} finally {
+				rs.close();
+			}
+			rs = stmt.executeQuery("SELECT LSID, DATE, FILE, TYPE FROM "
+					+ CacheManager.CACHETABLENAME);
+			try {
+				while (rs.next()) {
+					rows.put(rs.getString(1), new String[] { rs.getString(2),
+							rs.getString(3), rs.getString(4) });
+				}
+			} finally {
+				rs.close();
+			}
+		} finally {
+			stmt.close();
+		}
+
+		long totalSize = 0;
+		for (Map.Entry<String, String[]> row : rows.entrySet()) {
+			String lsid = row.getKey();
+			String type = row.getValue()[2];
+			Access access = _access.get(lsid);
+			if (access == null) {
+				access = new Access(getSize(row.getValue()[1], null),
+						parseDate(row.getValue()[0]), 0, true);
+				if (hasDataFile(type)) {
+					// read the object for the size of its data; this is
+					// not counted as a use since the entry is not yet known
+					addDataFileSize(lsid, access);
+				}
+				Access old = _access.putIfAbsent(lsid, access);
+				if (old != null) {
+					access = old;
+				}
+			}
+			totalSize += access.size;
+
+			if (pinned.contains(lsid)
+					|| isBusy(_cacheManager.getLoadedObject(lsid))) {
+				continue;
+			}
+			candidates.add(new CacheEntryInfo(lsid, type, access.size,
+					access.lastAccess, access.hits));
+		}
+		return totalSize;
+	}
+
+	/**
+	 * Remove an entry from the cache, with its data.
+	 *
+	 * @return false if the entry was found in use and kept.
+	 */
+	private boolean purge(CacheEntryInfo entry) throws Exception {
+		if (isDebugging)
+			log.debug("evicting " + entry);
+		return _cacheManager.evictObject(new KeplerLSID(entry.getLsid()));
+	}
+
+	/** Return true if an object is a data object whose data is being fetched. */
+	static boolean isBusy(CacheObjectInterface co) {
+		if (co instanceof DataCacheObject) {
+			DataCacheObject item = (DataCacheObject) co;
+			return item.isBusy() || item.isEmpty();
+		}
+		return false;
+	}
+
+	private void addDataFileSize(String lsid, Access access) {
+		try {
+			CacheObjectInterface co = _cacheManager.peekObject(new KeplerLSID(
+					lsid));
+			File dataFile = co == null ? null : getDataFile(co);
+			if (dataFile != null) {
+				access.size += dataFile.length();
+			}
+		} catch (Exception e) {
+			log.warn("Could not read the size of the data of " + lsid + ": "
+					+ e.getMessage());
+		}
+	}
+
+	/** Return true if objects of a class keep data outside their file. */
+	private boolean hasDataFile(String className) {
+		if (className == null) {
+			return false;
+		}
+		Boolean hasDataFile = _hasDataFile.get(className);
+		if (hasDataFile == null) {
+			try {
+				Class<?> c = Class.forName(className);
+				hasDataFile = Boolean.valueOf(DataCacheObject.class
+						.isAssignableFrom(c)
+						|| RawDataCacheObject.class.isAssignableFrom(c));
+			} catch (Throwable t) {
+				hasDataFile = Boolean.FALSE;
+			}
+			_hasDataFile.put(className, hasDataFile);
+		}
+		return hasDataFile.booleanValue();
+	}
+
+	/**
+	 * Return the file of the data of an object kept outside its object file,
+	 * or null. EXTERNAL files and files outside the cache directory do not
+	 * belong to the cache and are never returned.
+	 */
+	static File getDataFile(CacheObjectInterface co) {
+		File file = null;
+		if (co instanceof DataCacheFileObject
+				&& ((DataCacheFileObject) co).getFileLocation()
+						== DataCacheFileObject.EXTERNAL) {
+			return null;
+		} else if (co instanceof DataCacheObject) {
+			String name = ((DataCacheObject) co).getAbsoluteFileName();
+			if (name != null && name.length() > 0) {
+				file = new File(name);
+			}
+		} else if (co instanceof RawDataCacheObject) {
+			file = (File) ((RawDataCacheObject) co).getObject();
+		}
+		return file != null && isInCache(file) ? file : null;
+	}
+
+	/** Return true if a file is in the cache directory. */
+	static boolean isInCache(File file) {
+		try {
+			String cacheDir = new File(CacheManager.cachePath)
+					.getCanonicalPath() + File.separator;
+			return file.getCanonicalPath().startsWith(cacheDir);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private long getSize(String filename, File dataFile) {
+		long size = filename == null ? 0 : new File(_objectDir, filename)
+				.length();
+		if (dataFile != null) {
+			size += dataFile.length();
+		}
+		return size;
+	}
+
+	private static long parseDate(String date) {
+		try {
+			return Long.parseLong(date);
+		} catch (Exception e) {
+			return 0;
+		}
+	}
+
+	private static String getValue(ConfigurationProperty parent, String name,
+			String defaultValue) {
+		ConfigurationProperty property = parent.getProperty(name);
+		if (property == null || property.getValue() == null
+				|| property.getValue().trim().length() == 0) {
+			return defaultValue;
+		}
+		return property.getValue().trim();
+	}
+}
@@ -42,12 +42,17 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -56,6 +61,7 @@ import org.kepler.kar.KAREntryHandler;
 import org.kepler.kar.KAREntryHandlerFactory;
 import org.kepler.objectmanager.lsid.KeplerLSID;
 import org.kepler.util.DotKeplerManager;
+import org.kepler.util.sql.BatchUpdate;
 import org.kepler.util.sql.DatabaseFactory;
 
 import ptolemy.actor.gui.Configuration;
@@ -101,6 +107,37 @@ public class CacheManager {
 	private PreparedStatement _getSemTypeForLsidPrepStmt;
 	private PreparedStatement _getLsidsForClassPrepStmt;
 
+	/**
+	 * The rows of the CACHECONTENTTABLE, so that lookups by LSID or class
+	 * name need neither the database nor the monitor of this object. It is
+	 * loaded when the CacheManager is created and updated after every
+	 * commit that changes the table. If it could not be loaded, lookups go
+	 * to the database.
+	 */
+	private final CacheContentIndex _index = new CacheContentIndex();
+	private volatile boolean _indexLoaded = false;
+
+	/**
+	 * Locks of the objects, by LSID string. The write lock of an LSID is held
+	 * while its object is serialized and its rows are changed, the read lock
+	 * while its object is deserialized. Objects with different LSIDs can be
+	 * read and written at the same time.
+	 */
+	private final StripedLock _lsidLocks = new StripedLock(64);
+
+	/**
+	 * Guards the connection and its statements, which cannot be used by
+	 * several threads at once. It is only held while talking to the
+	 * database, and always after the lock of an LSID, never before.
+	 */
+	private final Object _dbLock = new Object();
+
+	/** The time stamp of the last temp file name, see getTempFile(). */
+	private final AtomicLong _lastTempFileTime = new AtomicLong();
+
+	/** Tracks the use of the entries and evicts them, see CacheEvictor. */
+	private final CacheEvictor _evictor;
+
 	/**
 	 * Construct a new CacheManager
 	 */
@@ -144,6 +181,14 @@ public class CacheManager {
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
+
+		try {
+			_index.load(_stmt);
+			_indexLoaded = true;
+		} catch (Exception e) {
+			log.error("Could not load the cache index, lookups will query "
+					+ "the database: " + e.getMessage());
+		}
 		
 		// create the directory for the serialized java objects if it
 		// does not exist
@@ -152,6 +197,8 @@ public class CacheManager {
 		    MessageHandler.error("Could not create directories " + objectDir);
 		}
 
+		_evictor = new CacheEvictor(this, objectDir);
+
 	}
 
 	/**
@@ -161,6 +208,7 @@ public class CacheManager {
 		if (cache == null) {
 			cache = new CacheManager();
 			cache.initKAREntryHandlers();
+			cache._evictor.configure();
 		}
 		return cache;
 	}
@@ -170,7 +218,10 @@ public class CacheManager {
 	    
 	    if(cache != null) {
 	        
+	        cache._evictor.shutdown();
 	        cache.objectHash.clear();
+	        cache._indexLoaded = false;
+	        cache._index.clear();
 	        cache.listeners.clear();
 	        cache.karEntryHandlers.clear();
 
@@ -191,10 +242,18 @@ public class CacheManager {
 	 * returns a temp file that is guaranteed to be around for one kepler
 	 * session but could be deleted if the cache gets too full.
 	 */
-	public synchronized File getTempFile() {
+	public File getTempFile() {
 		File f = new File(tmpPath);
 		f.mkdirs();
-		f = new File(tmpPath, "tmp" + System.currentTimeMillis());
+		// use the current time, or one more than the last one so that
+		// threads asking at the same millisecond get different files
+		long time;
+		long last;
+		do {
+			last = _lastTempFileTime.get();
+			time = Math.max(System.currentTimeMillis(), last + 1);
+		} while (!_lastTempFileTime.compareAndSet(last, time));
+		f = new File(tmpPath, "tmp" + time);
 		// TODO: register this file somewhere so it can get deleted later
 		return f;
 	}
@@ -268,7 +327,7 @@ public class CacheManager {
 	 * @param co
 	 *            the cache object to insert
 	 */
-	public synchronized void insertObject(CacheObjectInterface co)
+	public void insertObject(CacheObjectInterface co)
 			throws CacheException {
 		if (co == null)
 			return;
@@ -287,60 +346,192 @@ public class CacheManager {
 		if (isDebugging)
 			log.debug(co.getClass().getName());
 
-		// save the entry to the DB
+		String className = null;
+		if (co instanceof ActorCacheObject) {
+			className = ((ActorCacheObject) co).getClassName();
+		}
+
+		Lock lock = _lsidLocks.writeLock(lsid);
+		lock.lock();
 		try {
-			_cacheInsertStatement.clearParameters();
-			_cacheInsertStatement.setString(1, name);
-			_cacheInsertStatement.setString(2, lsid.toString());
-			_cacheInsertStatement.setString(3, date);
-			_cacheInsertStatement.setString(4, filename);
-			_cacheInsertStatement.setString(5, co.getClass().getName());
+			// save the entry to the DB
+			try {
+				objectHash.put(lsid, co);
+				serializeObjectInFile(co, filename);
+				synchronized (_dbLock) {
+					try {
+						_cacheInsertStatement.clearParameters();
+						_cacheInsertStatement.setString(1, name);
+						_cacheInsertStatement.setString(2, lsid.toString());
+						_cacheInsertStatement.setString(3, date);
+						_cacheInsertStatement.setString(4, filename);
+						_cacheInsertStatement.setString(5, co.getClass().getName());
+						if (className != null) {
+							_cacheInsertStatement.setString(6, className);
+						} else {
+							_cacheInsertStatement.setNull(6, java.sql.Types.VARCHAR);
+						}
+						_cacheInsertStatement.executeUpdate();
+
+						// insert the semantic types for this object
+						if (co instanceof CacheObject) {
+							Vector<String> semTypes = ((CacheObject) co).getSemanticTypes();
+							for (String semType : semTypes) {
+								_cacheSemTypesInsertStmt.clearParameters();
+								_cacheSemTypesInsertStmt.setString(1, lsid.toString());
+								_cacheSemTypesInsertStmt.setString(2, semType);
+								_cacheSemTypesInsertStmt.executeUpdate();
+							}
+						}
+
+						_conn.commit();
+					} catch (Exception sqle) {
+						rollback(sqle);
+						throw sqle;
+					}
+				}
+				_index.put(new CacheContentIndex.Row(name, lsid, date, filename,
+						co.getClass().getName(), className));
+				_evictor.recordWrite(co, filename);
+			} catch (CacheException e) {
+				throw e;
+			} catch (Exception sqle) {
+				log.error(sqle.getMessage());
+				log.error("Could not insert entry into cache: " + name + " "
+						+ lsid);
+				throw new CacheException(
+						"Could not create hsql entry for new CacheObjectInterface: ",
+						sqle);
+			}
+		} finally {
+			lock.unlock();
+		}
+		notifyListeners(co, "add");
+	}
+
+	/**
+	 * insert many new CacheObjectInterfaces into the cache. The rows are
+	 * written with JDBC batches and committed as one transaction, instead of
+	 * one round trip and commit per object and semantic type as with
+	 * insertObject. An object that cannot be inserted, e.g. because its LSID
+	 * is already in the cache, is logged and skipped without failing the
+	 * others.
+	 * 
+	 * @param objects
+	 *            the cache objects to insert
+	 * @return the objects that were inserted
+	 */
+	public List<CacheObjectInterface> insertObjects(
+			Collection<? extends CacheObjectInterface> objects)
+			throws CacheException {
+		List<CacheObjectInterface> candidates = new ArrayList<CacheObjectInterface>(
+				objects.size());
+		List<Object[]> rows = new ArrayList<Object[]>(objects.size());
+		Set<String> lsids = new HashSet<String>();
+		String date = String.valueOf(System.currentTimeMillis());
+		List<CacheObjectInterface> inserted = new ArrayList<CacheObjectInterface>(
+				objects.size());
+		List<Object[]> insertedRows = new ArrayList<Object[]>(objects.size());
+
+		for (CacheObjectInterface co : objects) {
+			if (co == null) {
+				continue;
+			}
+			KeplerLSID klsid = co.getLSID();
+			if (klsid == null) {
+				log.warn("KAREntry has no lsid: " + co.getName());
+				continue;
+			}
+			String lsid = klsid.toString();
+			if (!lsids.add(lsid)) {
+				log.error("Could not insert entry into cache: "
+						+ co.getName() + " " + lsid);
+				continue;
+			}
+			String filename = klsid.createFilename();
+			String className = null;
 			if (co instanceof ActorCacheObject) {
-				String className = ((ActorCacheObject) co).getClassName();
-				_cacheInsertStatement.setString(6, className);
-			} else {
-				_cacheInsertStatement.setNull(6, java.sql.Types.VARCHAR);
+				className = ((ActorCacheObject) co).getClassName();
 			}
-			objectHash.put(lsid, co);
-			serializeObjectInFile(co, filename);
-			_cacheInsertStatement.executeUpdate();
-
-			// insert the semantic types for this object
-			if (co instanceof CacheObject) {
-				Vector<String> semTypes = ((CacheObject) co).getSemanticTypes();
-				for (String semType : semTypes) {
-					_cacheSemTypesInsertStmt.clearParameters();
-					_cacheSemTypesInsertStmt.setString(1, lsid.toString());
-					_cacheSemTypesInsertStmt.setString(2, semType);
-					_cacheSemTypesInsertStmt.executeUpdate();
-				}
+			Lock lock = _lsidLocks.writeLock(lsid);
+			lock.lock();
+			try {
+				serializeObjectInFile(co, filename);
+			} catch (CacheException e) {
+				log.error("Could not insert entry into cache: "
+						+ co.getName() + " " + lsid, e);
+				continue;
+			} finally {
+				lock.unlock();
 			}
+			candidates.add(co);
+			rows.add(new Object[] { co.getName(), lsid, date, filename,
+					co.getClass().getName(), className });
+		}
 
-			_conn.commit();
-		} catch (Exception sqle) {
-			log.error(sqle.getMessage());
+		synchronized (_dbLock) {
+			boolean autoCommit = true;
 			try {
-				_conn.rollback();
-			} catch (Exception e) {
+				autoCommit = _conn.getAutoCommit();
+				_conn.setAutoCommit(false);
+
+				boolean[] applied = BatchUpdate.execute(_cacheInsertStatement,
+						rows);
+				List<Object[]> semTypeRows = new ArrayList<Object[]>();
+				for (int i = 0; i < applied.length; i++) {
+					CacheObjectInterface co = candidates.get(i);
+					if (!applied[i]) {
+						log.error("Could not insert entry into cache: "
+								+ co.getName() + " " + co.getLSID());
+						continue;
+					}
+					inserted.add(co);
+					insertedRows.add(rows.get(i));
+					// insert the semantic types for this object
+					if (co instanceof CacheObject) {
+						for (String semType : ((CacheObject) co).getSemanticTypes()) {
+							semTypeRows.add(new Object[] {
+									co.getLSID().toString(), semType });
+						}
+					}
+				}
+				BatchUpdate.execute(_cacheSemTypesInsertStmt, semTypeRows);
+
+				_conn.commit();
+			} catch (Exception sqle) {
+				log.error(sqle.getMessage());
+				rollback(sqle);
 				throw new CacheException(
-						"Could not roll back the database after error "
-								+ sqle.getMessage(), e);
+						"Could not create hsql entries for new CacheObjectInterfaces: ",
+						sqle);
+			} finally {
+				try {
+					_conn.setAutoCommit(autoCommit);
+				} catch (SQLException e) {
+					log.error(e.getMessage());
+				}
 			}
-			// sqle.printStackTrace();
-			log
-					.error("Could not insert entry into cache: " + name + " "
-							+ lsid);
-			throw new CacheException(
-					"Could not create hsql entry for new CacheObjectInterface: ",
-					sqle);
 		}
-		notifyListeners(co, "add");
+
+		for (Object[] row : insertedRows) {
+			_index.put(new CacheContentIndex.Row((String) row[0],
+					(String) row[1], (String) row[2], (String) row[3],
+					(String) row[4], (String) row[5]));
+		}
+		for (CacheObjectInterface co : inserted) {
+			objectHash.put(co.getLSID().toString(), co);
+			_evictor.recordWrite(co, co.getLSID().createFilename());
+		}
+		for (CacheObjectInterface co : inserted) {
+			notifyListeners(co, "add");
+		}
+		return inserted;
 	}
 
 	/**
 	 * update a CacheObjectInterface in the cache.
 	 */
-	public synchronized void updateObject(CacheObjectInterface co)
+	public void updateObject(CacheObjectInterface co)
 			throws CacheException {
 		// get the critical info
 		String name = co.getName();
@@ -349,27 +540,38 @@ public class CacheManager {
 		String filename = co.getLSID().createFilename();
 		String coType = co.getClass().getName();
 		// save the entry to the DB
+		Lock lock = _lsidLocks.writeLock(lsid);
+		lock.lock();
 		try {
-			_cacheUpdateStatement.setString(1, name);
-			_cacheUpdateStatement.setString(2, date);
-			_cacheUpdateStatement.setString(3, filename);
-			_cacheUpdateStatement.setString(4, coType);
-			_cacheUpdateStatement.setString(5, lsid.toString());
-			_cacheUpdateStatement.executeUpdate();
-			_cacheUpdateStatement.clearParameters();
+			// serialize before taking the database lock; the row only
+			// changes if this works
 			serializeObjectInFile(co, filename);
-			_conn.commit();
-		} catch (Exception sqle) {
-			try {
-				_conn.rollback();
-			} catch (Exception e) {
-				throw new CacheException(
-						"Could not roll back the database after error "
-								+ sqle.getMessage(), e);
+			synchronized (_dbLock) {
+				try {
+					_cacheUpdateStatement.setString(1, name);
+					_cacheUpdateStatement.setString(2, date);
+					_cacheUpdateStatement.setString(3, filename);
+					_cacheUpdateStatement.setString(4, coType);
+					_cacheUpdateStatement.setString(5, lsid.toString());
+					_cacheUpdateStatement.executeUpdate();
+					_cacheUpdateStatement.clearParameters();
+					_conn.commit();
+				} catch (Exception sqle) {
+					rollback(sqle);
+					throw new CacheException(
+							"Could not create hsql entry for new CacheObjectInterface: ",
+							sqle);
+				}
 			}
-			throw new CacheException(
-					"Could not create hsql entry for new CacheObjectInterface: ",
-					sqle);
+			// the class name column is not updated
+			CacheContentIndex.Row old = _index.get(lsid);
+			if (old != null) {
+				_index.put(new CacheContentIndex.Row(name, lsid, date,
+						filename, coType, old.className));
+			}
+			_evictor.recordWrite(co, filename);
+		} finally {
+			lock.unlock();
 		}
 		notifyListeners(co, "update");
 	}
@@ -380,57 +582,160 @@ public class CacheManager {
 	 * @param lsid
 	 */
 	public void removeObject(KeplerLSID lsid) throws CacheException {
+		removeObject(lsid, "remove");
+	}
+
+	/**
+	 * remove the CacheObjectInterface with the specified lsid because the
+	 * cache is too large or the object too old, rather than at the request
+	 * of the user. Listeners are told that the object was purged.
+	 * 
+	 * @param lsid
+	 */
+	public void purgeObject(KeplerLSID lsid) throws CacheException {
+		removeObject(lsid, "purge");
+	}
+
+	/**
+	 * Return the evictor of this cache, e.g. to read its size and the number
+	 * of evictions.
+	 */
+	public CacheEvictor getEvictor() {
+		return _evictor;
+	}
+
+	/**
+	 * Return the object of an LSID if it is in memory, without reading it
+	 * from disk or counting a use.
+	 */
+	CacheObjectInterface getLoadedObject(String lsid) {
+		return objectHash.get(lsid);
+	}
+
+	/**
+	 * Return the object of an LSID, reading it from disk if it is not in
+	 * memory, without counting a use or keeping the object read in memory.
+	 * Returns null if the LSID is not in the cache.
+	 */
+	CacheObjectInterface peekObject(KeplerLSID lsid) throws CacheException {
+		CacheObjectInterface co = objectHash.get(lsid.toString());
+		if (co != null) {
+			return co;
+		}
+		Lock lock = _lsidLocks.readLock(lsid.toString());
+		lock.lock();
+		try {
+			String[] row = findRow(lsid);
+			if (row == null) {
+				return null;
+			}
+			return deserialize(lsid, row[0], row[1]);
+		} catch (SQLException sqle) {
+			throw new CacheException("SQL exception when getting object", sqle);
+		} catch (Exception e) {
+			throw new CacheException(
+					"Exception occurred while deserializing object", e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Purge an entry chosen by the evictor with the data it keeps in the
+	 * cache directory, unless it is a data object whose data is being
+	 * fetched. The entry is checked under the lock that the purge holds,
+	 * so that it cannot be loaded and started in between.
+	 *
+	 * @return false if the entry is in use and was kept.
+	 */
+	boolean evictObject(KeplerLSID lsid) throws CacheException {
+		CacheObjectInterface co;
+		Lock lock = _lsidLocks.writeLock(lsid.toString());
+		lock.lock();
+		try {
+			co = objectHash.get(lsid.toString());
+			if (CacheEvictor.isBusy(co)) {
+				return false;
+			}
+			File dataFile = CacheEvictor.getDataFile(co == null ? peekObject(lsid)
+					: co);
+			if (dataFile != null && dataFile.exists() && !dataFile.delete()) {
+				log.warn("Could not delete " + dataFile);
+			}
+			deleteEntry(lsid);
+		} finally {
+			lock.unlock();
+		}
+		if (co != null) {
+			notifyListeners(co, "purge");
+		}
+		return true;
+	}
+
+	private void removeObject(KeplerLSID lsid, String op) throws CacheException {
 		// grab a copy from the hash to use for calling listeners. There will be
 		// no listeners on an object returned from the db.
 		CacheObjectInterface co = (CacheObjectInterface) objectHash.get(lsid
 				.toString());
+		Lock lock = _lsidLocks.writeLock(lsid.toString());
+		lock.lock();
 		try {
-			String sql = "SELECT file FROM " + CACHETABLENAME + " WHERE lsid='"
-					+ lsid.toString() + "'";
-			if (isDebugging)
-				log.debug(sql);
-			ResultSet rs = _stmt.executeQuery(sql);
-			if (rs == null)
-				throw new SQLException("Query Failed: " + sql);
-			if (rs.next()) {
-				File f = new File(objectPath, rs.getString("file"));
-				if (isDebugging)
-					log.debug(f.toString());
-				if (f.exists()) {
-					f.delete();
-				}
-			}
-			rs.close();
+			deleteEntry(lsid);
+		} finally {
+			lock.unlock();
+		}
+		if (co != null) {
+			notifyListeners(co, op);
+		}
+	}
 
+	/**
+	 * Delete the row and object file of an entry and forget it. The caller
+	 * holds the write lock of the LSID.
+	 */
+	private void deleteEntry(KeplerLSID lsid) throws CacheException {
+		synchronized (_dbLock) {
 			try {
-				sql = "DELETE FROM " + CACHETABLENAME + " WHERE lsid='"
+				String sql = "SELECT file FROM " + CACHETABLENAME + " WHERE lsid='"
 						+ lsid.toString() + "'";
-				if (isDebugging) {
-					// log.debug(showDB());
+				if (isDebugging)
 					log.debug(sql);
+				ResultSet rs = _stmt.executeQuery(sql);
+				if (rs == null)
+					throw new SQLException("Query Failed: " + sql);
+				if (rs.next()) {
+					File f = new File(objectPath, rs.getString("file"));
+					if (isDebugging)
+						log.debug(f.toString());
+					if (f.exists()) {
+						f.delete();
+					}
 				}
-				_stmt.execute(sql);
+				rs.close();
+
+				try {
+					sql = "DELETE FROM " + CACHETABLENAME + " WHERE lsid='"
+							+ lsid.toString() + "'";
+					if (isDebugging) {
+						// log.debug(showDB());
+						log.debug(sql);
+					}
+					_stmt.execute(sql);
+				} catch (Exception e) {
+					log.error(lsid.toString() + " did not exist in "
+							+ CACHETABLENAME);
+					log.error(e.getMessage());
+				}
+				_conn.commit();
 			} catch (Exception e) {
-				log.error(lsid.toString() + " did not exist in "
-						+ CACHETABLENAME);
-				log.error(e.getMessage());
+				rollback(e);
+				throw new CacheException("Error removing object " + lsid
+						+ " from the cache", e);
 			}
-			_conn.commit();
-			objectHash.remove(lsid.toString());
-		} catch (Exception e) {
-			try {
-				_conn.rollback();
-			} catch (Exception e1) {
-				throw new CacheException(
-						"Could not roll back the database after error "
-								+ e.getMessage(), e1);
-			}
-			throw new CacheException("Error removing object " + lsid
-					+ " from the cache", e);
-		}
-		if (co != null) {
-			notifyListeners(co, "remove");
 		}
+		_index.remove(lsid.toString());
+		objectHash.remove(lsid.toString());
+		_evictor.recordRemove(lsid.toString());
 	}
 
 	/**
@@ -540,53 +845,24 @@ public class CacheManager {
 							.debug("the object contained by this cache object is NULL");
 				}
 			*/
+			_evictor.recordAccess(lsid.toString());
 			return co;
 		}
 
-		// Now look in the database:
+		// the write lock is held while the object is serialized
+		Lock lock = _lsidLocks.readLock(lsid.toString());
+		lock.lock();
 		try {
-			String query = "select name, lsid, file from " + CACHETABLENAME
-					+ " where lsid='" + lsid.toString() + "'";
-			ResultSet rs = null;
-			try {
-				rs = _stmt.executeQuery(query);
-				if (rs == null)
-					throw new SQLException("Query Failed: " + query);
-				if (rs.next()) {
-					// found it in the database.
-					String name = rs.getString("name");
-					String file = rs.getString("file");
-					if (isDebugging)
-						log.debug(name + " " + file);
-					File theObjectFile = new File(objectPath, file);
-					if (isDebugging)
-						log.debug(theObjectFile.toString());
-					FileInputStream fileInputStream = null;
-					ObjectInputStream ois = null;
-					try {
-						fileInputStream = new FileInputStream(theObjectFile);
-					    ois = new ObjectInputStream(fileInputStream);
-	    				// deserialize the CacheObjectInterface
-	    				co = (CacheObjectInterface) ois.readObject();
-	    				co.setName(name);
-	    				co.setLSID(lsid);
-	    				// add the CacheObjectInterface to the hashtable for easier
-	    				// access next time
-	    				objectHash.put(lsid.toString(), co);
-	    				return co;
-					} finally {
-					    if(ois != null) {
-					        ois.close();
-					    }
-					    if(fileInputStream != null) {
-					    	fileInputStream.close();
-					    }
-					}
-				}
-			} finally {
-				if(rs != null) {
-					rs.close();
-				}
+			// another reader may have loaded it while we waited
+			co = objectHash.get(lsid.toString());
+			if (co != null) {
+				_evictor.recordAccess(lsid.toString());
+				return co;
+			}
+			String[] row = findRow(lsid);
+			if (row != null) {
+				_evictor.recordAccess(lsid.toString());
+				return readObject(lsid, row[0], row[1]);
 			}
 		} catch (SQLException sqle) {
 			sqle.printStackTrace();
@@ -594,10 +870,117 @@ public class CacheManager {
 		} catch (Exception e) {
 			throw new CacheException(
 					"Exception occurred while deserializing object", e);
+		} finally {
+			lock.unlock();
 		}
 		return co;
 	}
 
+	/**
+	 * Roll back the connection after an error. The caller holds _dbLock.
+	 */
+	private void rollback(Exception cause) throws CacheException {
+		try {
+			_conn.rollback();
+		} catch (Exception e) {
+			throw new CacheException(
+					"Could not roll back the database after error "
+							+ cause.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Return the name and file of the row of an LSID, from the index if it
+	 * is loaded or else from the database, or null if there is no row. The
+	 * caller holds a lock of the LSID.
+	 */
+	private String[] findRow(KeplerLSID lsid) throws SQLException {
+		String name = null;
+		String file = null;
+		if (_indexLoaded) {
+			// then in the index, which has every row of the database
+			CacheContentIndex.Row row = _index.get(lsid.toString());
+			if (row == null) {
+				return null;
+			}
+			name = row.name;
+			file = row.file;
+		} else {
+			// Now look in the database:
+			String query = "select name, lsid, file from " + CACHETABLENAME
+					+ " where lsid='" + lsid.toString() + "'";
+			synchronized (_dbLock) {
+				ResultSet rs = null;
+				try {
+					rs = _stmt.executeQuery(query);
+					if (rs == null)
+						throw new SQLException("Query Failed: " + query);
+					if (rs.next()) {
+						// found it in the database.
+						name = rs.getString("name");
+						file = rs.getString("file");
+					}
+				} finally {
+					if(rs != null) {
+						rs.close();
+					}
+				}
+			}
+		}
+		return file == null ? null : new String[] { name, file };
+	}
+
+	/**
+	 * Deserialize the CacheObjectInterface of a row of the CACHECONTENTTABLE
+	 * and add it to the objectHash. Readers of one LSID share the lock, so
+	 * if another thread has put the object in the objectHash first, that
+	 * object is returned and this copy is dropped.
+	 */
+	private CacheObjectInterface readObject(KeplerLSID lsid, String name,
+			String file) throws Exception {
+		CacheObjectInterface co = deserialize(lsid, name, file);
+		// add the CacheObjectInterface to the hashtable for easier
+		// access next time
+		synchronized (objectHash) {
+			CacheObjectInterface loaded = objectHash.get(lsid.toString());
+			if (loaded != null) {
+				return loaded;
+			}
+			objectHash.put(lsid.toString(), co);
+		}
+		return co;
+	}
+
+	/**
+	 * Deserialize the CacheObjectInterface of a row of the CACHECONTENTTABLE.
+	 */
+	private CacheObjectInterface deserialize(KeplerLSID lsid, String name,
+			String file) throws Exception {
+		if (isDebugging)
+			log.debug(name + " " + file);
+		File theObjectFile = new File(objectPath, file);
+		if (isDebugging)
+			log.debug(theObjectFile.toString());
+		FileInputStream fileInputStream = null;
+		ObjectInputStream ois = null;
+		try {
+			fileInputStream = new FileInputStream(theObjectFile);
+			ois = new ObjectInputStream(fileInputStream);
+			// deserialize the CacheObjectInterface
+			CacheObjectInterface co = (CacheObjectInterface) ois.readObject();
+			co.setName(name);
+			co.setLSID(lsid);
+			return co;
+		} finally {
+			if (ois != null) {
+				ois.close();
+			}
+			if (fileInputStream != null) {
+				fileInputStream.close();
+			}
+		}
+	}
+
 	public Vector<CacheContent> getCachedContents() {
 		return getCachedContents("");
 	}
@@ -615,38 +998,40 @@ public class CacheManager {
 		if (!type.trim().equals("")) {
 			query += " WHERE TYPE = '" + type + "'";
 		}
-		try {
-			ResultSet rs = null;
+		synchronized (_dbLock) {
 			try {
-				rs = _stmt.executeQuery(query);
-				if (rs == null)
-					throw new SQLException("Query Failed: " + query);
-				while (rs.next()) {
-					CacheContent cc = new CacheContent();
-					cc.setName(rs.getString(1));
-					try {
-						KeplerLSID lsid = new KeplerLSID(rs.getString(2));
-						cc.setLsid(lsid);
-						Long l = Long.parseLong(rs.getString(3));
-						Date d = new Date(l);
-						cc.setDateChanged(d);
-						File f = new File(rs.getString(4));
-						cc.setFile(f);
-						cc.setType(rs.getString(5));
-						cc.setClassName(rs.getString(6));
-						contents.add(cc);
-					} catch (Exception e) {
-						e.printStackTrace();
+				ResultSet rs = null;
+				try {
+					rs = _stmt.executeQuery(query);
+					if (rs == null)
+						throw new SQLException("Query Failed: " + query);
+					while (rs.next()) {
+						CacheContent cc = new CacheContent();
+						cc.setName(rs.getString(1));
+						try {
+							KeplerLSID lsid = new KeplerLSID(rs.getString(2));
+							cc.setLsid(lsid);
+							Long l = Long.parseLong(rs.getString(3));
+							Date d = new Date(l);
+							cc.setDateChanged(d);
+							File f = new File(rs.getString(4));
+							cc.setFile(f);
+							cc.setType(rs.getString(5));
+							cc.setClassName(rs.getString(6));
+							contents.add(cc);
+						} catch (Exception e) {
+							e.printStackTrace();
+						}
+					}
+				} finally {
+					if(rs != null) {
+						rs.close();
 					}
 				}
-			} finally {
-				if(rs != null) {
-					rs.close();
-				}
+			} catch (SQLException e1) {
+				e1.printStackTrace();
+				contents = new Vector<CacheContent>();
 			}
-		} catch (SQLException e1) {
-			e1.printStackTrace();
-			contents = new Vector<CacheContent>();
 		}
 
 		return contents;
@@ -670,29 +1055,49 @@ public class CacheManager {
 	public Vector<KeplerLSID> getCachedLsids(KeplerLSID lsid) {
 		Vector<KeplerLSID> lsids = new Vector<KeplerLSID>();
 
+		if (_indexLoaded) {
+			Collection<String> lsidStrs;
+			if (lsid == null) {
+				lsidStrs = _index.getLsids();
+			} else {
+				lsidStrs = _index.getLsidsForObject(lsid
+						.toStringWithoutRevision());
+			}
+			for (String lsidStr : lsidStrs) {
+				try {
+					lsids.add(new KeplerLSID(lsidStr));
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+			return lsids;
+		}
+
 		String query = "SELECT LSID FROM " + CACHETABLENAME;
 		if (lsid != null) {
 			query += " WHERE LSID like '" + lsid.toStringWithoutRevision() + "%'";
 		}
 		if (isDebugging) log.debug(query);
-		ResultSet rs;
-		try {
-			rs = _stmt.executeQuery(query);
-			if (rs == null)
-				throw new SQLException("Query Failed: " + query);
-			while (rs.next()) {
-				String lsidStr = rs.getString(1);
-				try {
-					KeplerLSID cachedLsid = new KeplerLSID(lsidStr);
-					lsids.add(cachedLsid);
-				} catch (Exception e) {
-					e.printStackTrace();
+		synchronized (_dbLock) {
+			ResultSet rs;
+			try {
+				rs = _stmt.executeQuery(query);
+				if (rs == null)
+					throw new SQLException("Query Failed: " + query);
+				while (rs.next()) {
+					String lsidStr = rs.getString(1);
+					try {
+						KeplerLSID cachedLsid = new KeplerLSID(lsidStr);
+						lsids.add(cachedLsid);
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
 				}
+				rs.close();
+			} catch (SQLException e1) {
+				e1.printStackTrace();
+				lsids = new Vector<KeplerLSID>();
 			}
-			rs.close();
-		} catch (SQLException e1) {
-			e1.printStackTrace();
-			lsids = new Vector<KeplerLSID>();
 		}
 		
 		return lsids;
@@ -701,18 +1106,26 @@ public class CacheManager {
 	/** Get a list of LSIDs for a class name. */
 	public List<KeplerLSID> getCachedLsidsForClass(String className) throws Exception {
 	    List<KeplerLSID> retval = new LinkedList<KeplerLSID>();
-	    ResultSet result = null;
-        try {
-            _getLsidsForClassPrepStmt.setString(1, className);
-            result = _getLsidsForClassPrepStmt.executeQuery();
-            while (result.next()) {
-                retval.add(new KeplerLSID(result.getString(1)));
-            }
-        } finally {
-            if (result != null) {
-                result.close();
-            }
-        }
+	    if (_indexLoaded) {
+	        for (String lsid : _index.getLsidsForClass(className)) {
+	            retval.add(new KeplerLSID(lsid));
+	        }
+	        return retval;
+	    }
+	    synchronized (_dbLock) {
+		    ResultSet result = null;
+	        try {
+	            _getLsidsForClassPrepStmt.setString(1, className);
+	            result = _getLsidsForClassPrepStmt.executeQuery();
+	            while (result.next()) {
+	                retval.add(new KeplerLSID(result.getString(1)));
+	            }
+	        } finally {
+	            if (result != null) {
+	                result.close();
+	            }
+	        }
+	    }
 	    return retval;
 	}
 
@@ -742,25 +1155,27 @@ public class CacheManager {
 
 		Vector<KeplerLSID> semTypes = new Vector<KeplerLSID>();
 
-		ResultSet rs;
-		try {
-	        _getSemTypeForLsidPrepStmt.setString(1, lsid.toString());
-			rs = _getSemTypeForLsidPrepStmt.executeQuery();
-			if (rs == null)
-				throw new SQLException("Query Failed: " + _getSemTypeForLsidPrepStmt);
-			while (rs.next()) {
-				String lsidStr = rs.getString(1);
-				try {
-					KeplerLSID semType = new KeplerLSID(lsidStr);
-					semTypes.add(semType);
-				} catch (Exception e) {
-					e.printStackTrace();
+		synchronized (_dbLock) {
+			ResultSet rs;
+			try {
+		        _getSemTypeForLsidPrepStmt.setString(1, lsid.toString());
+				rs = _getSemTypeForLsidPrepStmt.executeQuery();
+				if (rs == null)
+					throw new SQLException("Query Failed: " + _getSemTypeForLsidPrepStmt);
+				while (rs.next()) {
+					String lsidStr = rs.getString(1);
+					try {
+						KeplerLSID semType = new KeplerLSID(lsidStr);
+						semTypes.add(semType);
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
 				}
+				rs.close();
+			} catch (SQLException e1) {
+				e1.printStackTrace();
+				semTypes = new Vector<KeplerLSID>();
 			}
-			rs.close();
-		} catch (SQLException e1) {
-			e1.printStackTrace();
-			semTypes = new Vector<KeplerLSID>();
 		}
 
 		return semTypes;
@@ -789,7 +1204,7 @@ public class CacheManager {
 		CacheObject coWithHighestLSID = null;
 		try {
 			long highestRev = 0;
-			Vector<KeplerLSID> cachedLsids = getCachedLsids();
+			Vector<KeplerLSID> cachedLsids = getCachedLsids(anLsid);
 			for (KeplerLSID lsid : cachedLsids) {
 				if (lsid.equalsWithoutRevision(anLsid)) {
 					if (lsid.getRevision() > highestRev) {
@@ -864,42 +1279,43 @@ public class CacheManager {
 			throws CacheException {
 		if (isDebugging)
 			log.debug("getCacheObjectIterator(" + type + ")");
-		try {
-			Vector<CacheObjectInterface> items = new Vector<CacheObjectInterface>();
-			String sql = "select name, lsid, file, type from " + CACHETABLENAME;
-			if (!type.trim().equals("")) {
-				sql += " WHERE type = '" + type + "'";
-			}
-			if (isDebugging)
-				log.debug(sql);
-			ResultSet rs = _stmt.executeQuery(sql);
-			while (rs.next()) {
-				String name = rs.getString("name");
-				String file = rs.getString("file");
-				String lsidString = rs.getString("lsid");
-				String coType = rs.getString("type");
-				if (isDebugging) {
-					log.debug("name: " + name);
-					log.debug("file: " + file);
-					log.debug("lsidString: " + lsidString);
-					log.debug("type: " + coType);
+		synchronized (_dbLock) {
+			try {
+				Vector<CacheObjectInterface> items = new Vector<CacheObjectInterface>();
+				String sql = "select name, lsid, file, type from " + CACHETABLENAME;
+				if (!type.trim().equals("")) {
+					sql += " WHERE type = '" + type + "'";
 				}
+				if (isDebugging)
+					log.debug(sql);
+				ResultSet rs = _stmt.executeQuery(sql);
+				while (rs.next()) {
+					String name = rs.getString("name");
+					String file = rs.getString("file");
+					String lsidString = rs.getString("lsid");
+					String coType = rs.getString("type");
+					if (isDebugging) {
+						log.debug("name: " + name);
+						log.debug("file: " + file);
+						log.debug("lsidString: " + lsidString);
+						log.debug("type: " + coType);
+					}
 
-				CacheObjectInterface coi = (CacheObjectInterface) objectHash
-						.get(lsidString);
-				if (coi == null) {
-					deserializeCacheObject(file);
+					CacheObjectInterface coi = objectHash.get(lsidString);
+					if (coi == null) {
+						deserializeCacheObject(file);
+					}
+					items.add(coi);
 				}
-				items.add(coi);
+				rs.close();
+				return items.iterator();
+			} catch (Exception e) {
+				e.printStackTrace();
+				throw new CacheException(
+						"Error creating CacheObjectInterface iterator. "
+								+ "Try removing the ~/.kepler directory?: "
+								+ e.getMessage());
 			}
-			rs.close();
-			return items.iterator();
-		} catch (Exception e) {
-			e.printStackTrace();
-			throw new CacheException(
-					"Error creating CacheObjectInterface iterator. "
-							+ "Try removing the ~/.kepler directory?: "
-							+ e.getMessage());
 		}
 	}
 
@@ -909,17 +1325,22 @@ public class CacheManager {
 	 * @param lsid
 	 */
 	public boolean isContained(KeplerLSID lsid) throws CacheException {
+		if (_indexLoaded) {
+			return _index.contains(lsid.toString());
+		}
 		boolean foundIt = false;
-		try {
-		    _getLsidForLsidPrepStmt.setString(1, lsid.toString());
-			ResultSet rs = _getLsidForLsidPrepStmt.executeQuery();
-			if (rs.next()) {
-				foundIt = true;
+		synchronized (_dbLock) {
+			try {
+			    _getLsidForLsidPrepStmt.setString(1, lsid.toString());
+				ResultSet rs = _getLsidForLsidPrepStmt.executeQuery();
+				if (rs.next()) {
+					foundIt = true;
+				}
+				rs.close();
+			} catch (Exception e) {
+				throw new CacheException("Error determining contents of cache: "
+						+ e.getMessage());
 			}
-			rs.close();
-		} catch (Exception e) {
-			throw new CacheException("Error determining contents of cache: "
-					+ e.getMessage());
 		}
 		
 		/*
@@ -935,14 +1356,23 @@ public class CacheManager {
 	 * clear the cache of all contents
 	 */
 	public void clearCache() throws SQLException, CacheException {
-		// Remove the data files.
-		CacheUtil.cleanUpDir(new File(objectPath));
-		// Clear our objectHash.
-		objectHash.clear();
-
-		String sql = "delete from " + CACHETABLENAME;
-		_stmt.execute(sql);
-		_conn.commit();
+		_lsidLocks.lockAll();
+		try {
+			// Remove the data files.
+			CacheUtil.cleanUpDir(new File(objectPath));
+			// Clear our objectHash.
+			objectHash.clear();
+
+			String sql = "delete from " + CACHETABLENAME;
+			synchronized (_dbLock) {
+				_stmt.execute(sql);
+				_conn.commit();
+			}
+			_index.clear();
+			_evictor.recordClear();
+		} finally {
+			_lsidLocks.unlockAll();
+		}
 
 	}
 
@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2010 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * '$Author$'
+ * '$Date$'
+ * '$Revision$'
+ *
+ * Permission is hereby granted, without written agreement and without
+ * license or royalty fees, to use, copy, modify, and distribute this
+ * software and its documentation for any purpose, provided that the above
+ * copyright notice and the following two paragraphs appear in all copies
+ * of this software.
+ *
+ * IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ * FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ * THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ * PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ * CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ * ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ */
+
+package org.kepler.objectmanager.cache;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.kepler.configuration.ConfigurationManager;
+import org.kepler.configuration.ConfigurationProperty;
+
+/**
+ * Runs the work of DataCacheObjects, i.e. their downloads, on a shared pool
+ * of threads instead of one new thread per object.
+ *
+ * The pool has at most maxDownloads threads, and at most
+ * maxDownloadsPerHost of them work for the same host, as given by
+ * DataCacheObject.getSourceHost(); the rest of the work for a busy host
+ * waits in a queue of that host. Both limits are read from the dataCache
+ * property of the core module configuration.
+ *
+ * An object that is started while it is already waiting or running is not
+ * queued again, so that two actors asking for the same item share one
+ * download; both are notified through the item's listeners.
+ *
+ * The queue depths and counters are meant for monitoring and tests.
+ */
+public class DataCacheExecutor {
+
+	private static final Log log = LogFactory.getLog(DataCacheExecutor.class
+			.getName());
+	private static final boolean isDebugging = log.isDebugEnabled();
+
+	/** The name of the configuration property of the limits. */
+	public static final String CONFIG_PROPERTY_NAME = "dataCache";
+
+	/** The number of threads if it is not configured. */
+	public static final int DEFAULT_MAX_DOWNLOADS = 8;
+
+	/** The number of threads per host if it is not configured. */
+	public static final int DEFAULT_MAX_DOWNLOADS_PER_HOST = 2;
+
+	private static DataCacheExecutor instance = null;
+
+	private final ThreadPoolExecutor _pool;
+
+	private final int _maxPerHost;
+
+	/** The work of each host, by host name. Guarded by this. */
+	private final Map<String, HostQueue> _hosts = new HashMap<String, HostQueue>();
+
+	/** The objects waiting or running, to coalesce starts. Guarded by this. */
+	private final Map<DataCacheObject, String> _pending = new HashMap<DataCacheObject, String>();
+
+	private int _waiting = 0;
+	private int _peakWaiting = 0;
+	private long _completed = 0;
+	private long _coalesced = 0;
+
+	/**
+	 * Create an executor.
+	 *
+	 * @param maxDownloads
+	 *            the number of threads.
+	 * @param maxDownloadsPerHost
+	 *            the number of threads that may work for one host.
+	 */
+	public DataCacheExecutor(int maxDownloads, int maxDownloadsPerHost) {
+		if (maxDownloads < 1 || maxDownloadsPerHost < 1) {
+			throw new IllegalArgumentException(
+					"The download limits must be positive, got "
+							+ maxDownloads + " and " + maxDownloadsPerHost);
+		}
+		_maxPerHost = maxDownloadsPerHost;
+		_pool = new ThreadPoolExecutor(maxDownloads, maxDownloads, 60L,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new DownloadThreadFactory());
+		// let the threads go when there is nothing to download
+		_pool.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Return the shared executor, creating it with the configured limits on
+	 * the first call.
+	 */
+	public static synchronized DataCacheExecutor getInstance() {
+		if (instance == null) {
+			instance = new DataCacheExecutor(getConfiguredLimit(
+					"maxDownloads", DEFAULT_MAX_DOWNLOADS), getConfiguredLimit(
+					"maxDownloadsPerHost", DEFAULT_MAX_DOWNLOADS_PER_HOST));
+		}
+		return instance;
+	}
+
+	/**
+	 * Run an object's work, unless it is already waiting or running.
+	 *
+	 * @param item
+	 *            the object.
+	 * @return true if the work was queued, false if it was coalesced with
+	 *         the work already queued for the object.
+	 */
+	public synchronized boolean execute(DataCacheObject item) {
+		if (_pending.containsKey(item)) {
+			_coalesced++;
+			if (isDebugging)
+				log.debug("already queued: " + item.getName());
+			return false;
+		}
+		String host = item.getSourceHost();
+		if (host == null) {
+			host = "";
+		}
+		_pending.put(item, host);
+
+		HostQueue queue = _hosts.get(host);
+		if (queue == null) {
+			queue = new HostQueue();
+			_hosts.put(host, queue);
+		}
+		if (queue.running < _maxPerHost) {
+			queue.running++;
+			_pool.execute(new Task(item, host));
+		} else {
+			queue.waiting.add(item);
+			_waiting++;
+		}
+		_peakWaiting = Math.max(_peakWaiting, getQueueDepth());
+		return true;
+	}
+
+	/**
+	 * Remove an object's work if it has not started yet.
+	 *
+	 * @return true if the work was removed.
+	 */
+	public synchronized boolean cancel(DataCacheObject item) {
+		String host = _pending.get(item);
+		if (host == null) {
+			return false;
+		}
+		HostQueue queue = _hosts.get(host);
+		if (queue != null && queue.waiting.remove(item)) {
+			_waiting--;
+			_pending.remove(item);
+			return true;
+		}
+		// it is in the pool; tasks in the pool's queue are not removed so
+		// that the count of running tasks of the host stays right
+		return false;
+	}
+
+	/** Return true if an object's work is waiting or running. */
+	public synchronized boolean isPending(DataCacheObject item) {
+		return _pending.containsKey(item);
+	}
+
+	/**
+	 * Return the number of objects whose work has not started, both those
+	 * waiting for their host and those waiting for a thread.
+	 */
+	public synchronized int getQueueDepth() {
+		return _waiting + _pool.getQueue().size();
+	}
+
+	/** Return the number of objects of a host waiting for the host. */
+	public synchronized int getQueueDepth(String host) {
+		HostQueue queue = _hosts.get(host);
+		return queue == null ? 0 : queue.waiting.size();
+	}
+
+	/** Return the largest queue depth seen. */
+	public synchronized int getPeakQueueDepth() {
+		return _peakWaiting;
+	}
+
+	/** Return the number of objects whose work is running. */
+	public int getActiveCount() {
+		return _pool.getActiveCount();
+	}
+
+	/** Return the number of objects whose work has finished. */
+	public synchronized long getCompletedCount() {
+		return _completed;
+	}
+
+	/** Return the number of starts that joined work already queued. */
+	public synchronized long getCoalescedCount() {
+		return _coalesced;
+	}
+
+	/** Return the number of threads. */
+	public int getMaxDownloads() {
+		return _pool.getMaximumPoolSize();
+	}
+
+	/** Return the number of threads that may work for one host. */
+	public int getMaxDownloadsPerHost() {
+		return _maxPerHost;
+	}
+
+	/** Called by a task when its work has finished. */
+	private synchronized void finished(DataCacheObject item, String host) {
+		_pending.remove(item);
+		_completed++;
+		HostQueue queue = _hosts.get(host);
+		DataCacheObject next = queue.waiting.poll();
+		if (next != null) {
+			_waiting--;
+			_pool.execute(new Task(next, host));
+		} else {
+			queue.running--;
+			if (queue.running == 0) {
+				_hosts.remove(host);
+			}
+		}
+	}
+
+	/**
+	 * Read a limit from the configuration.
+	 */
+	private static int getConfiguredLimit(String name, int defaultValue) {
+		try {
+			ConfigurationProperty coreProperty = ConfigurationManager
+					.getInstance().getProperty(
+							ConfigurationManager.getModule("core"));
+			ConfigurationProperty dataCacheProperty = coreProperty
+					.getProperty(CONFIG_PROPERTY_NAME);
+			if (dataCacheProperty != null) {
+				ConfigurationProperty limitProperty = dataCacheProperty
+						.getProperty(name);
+				if (limitProperty != null) {
+					int limit = Integer.parseInt(limitProperty.getValue()
+							.trim());
+					if (limit > 0) {
+						return limit;
+					}
+					log.warn(CONFIG_PROPERTY_NAME + "." + name
+							+ " must be positive, using " + defaultValue);
+				}
+			}
+		} catch (Exception e) {
+			log.warn("Could not read " + CONFIG_PROPERTY_NAME + "." + name
+					+ ", using " + defaultValue + ": " + e.getMessage());
+		}
+		return defaultValue;
+	}
+
+	/** The work of one host. */
+	private static class HostQueue {
+		/** The number of tasks of the host in the pool. */
+		int running = 0;
+		/** The objects waiting for one of those to finish. */
+		final LinkedList<DataCacheObject> waiting = new LinkedList<DataCacheObject>();
+	}
+
+	/** Runs the work of an object in a pool thread. */
+	private class Task implements Runnable {
+		private final DataCacheObject _item;
+		private final String _host;
+
+		Task(DataCacheObject item, String host) {
+			_item = item;
+			_host = host;
+		}
+
+		public void run() {
+			Thread thread = Thread.currentThread();
+			String threadName = thread.getName();
+			if (_item.getName() != null) {
+				thread.setName(_item.getName());
+			}
+			try {
+				_item.run();
+			} catch (RuntimeException e) {
+				log.error("Error getting " + _item.getName(), e);
+			} finally {
+				thread.setName(threadName);
+				// an interrupt by DataCacheObject.stop() is for this item only
+				Thread.interrupted();
+				finished(_item, _host);
+			}
+		}
+	}
+
+	/** Creates low priority daemon threads. */
+	private static class DownloadThreadFactory implements ThreadFactory {
+		private final AtomicInteger _count = new AtomicInteger();
+
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "DataCache-"
+					+ _count.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+	}
+
+	/** Return a summary of the state, for debugging. */
+	public synchronized String toString() {
+		StringBuilder buf = new StringBuilder();
+		buf.append("DataCacheExecutor: ");
+		buf.append(getActiveCount()).append(" running, ");
+		buf.append(getQueueDepth()).append(" waiting");
+		for (Map.Entry<String, HostQueue> entry : _hosts.entrySet()) {
+			buf.append(", ");
+			buf.append(entry.getKey().length() == 0 ? "local" : entry.getKey());
+			buf.append(": ").append(entry.getValue().running).append('/')
+					.append(entry.getValue().waiting.size());
+		}
+		buf.append(", ").append(_completed).append(" completed, ");
+		buf.append(_coalesced).append(" coalesced");
+		return buf.toString();
+	}
+}
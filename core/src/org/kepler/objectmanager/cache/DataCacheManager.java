@@ -29,6 +29,7 @@
 
 package org.kepler.objectmanager.cache;
 
+import java.util.concurrent.locks.Lock;
 import java.util.zip.CRC32;
 
 import org.apache.commons.logging.Log;
@@ -37,6 +38,15 @@ import org.kepler.objectmanager.ObjectManager;
 import org.kepler.objectmanager.lsid.KeplerLSID;
 import org.kepler.objectmanager.lsid.LSIDGenerator;
 
+/**
+ * Stores data files and DataCacheObjects in the cache under LSIDs derived
+ * from their logical names.
+ *
+ * The static methods lock the LSID they work on, so that calls for
+ * different items run at the same time while calls for the same item are
+ * ordered: lookups share a read lock and calls that add or remove an item
+ * take the write lock.
+ */
 public class DataCacheManager {
 
 	private static final Log log = LogFactory.getLog(ObjectManager.class
@@ -48,6 +58,9 @@ public class DataCacheManager {
 	
 	private CacheManager cm;
 
+	/** Locks of the items, by LSID string. */
+	private final StripedLock mLocks = new StripedLock(64);
+
 	private DataCacheManager() {
 		try {
 			cm = CacheManager.getInstance();
@@ -68,11 +81,16 @@ public class DataCacheManager {
 	 * 
 	 * @param dobj
 	 */
-	public synchronized static void removeItem(DataCacheObject dobj) {
+	public static void removeItem(DataCacheObject dobj) {
+		Lock lock = mDataCacheManager.mLocks.writeLock(dobj.getLSID()
+				.toString());
+		lock.lock();
 		try {
 			getInstance().cm.removeObject(dobj.getLSID());
 		} catch (CacheException e) {
 			log.error("Cannot remove DataCacheObject " + dobj.toString());
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -83,7 +101,7 @@ public class DataCacheManager {
 	 * @param aType
 	 * @param aFileLocation
 	 * 	 */
-	public synchronized static DataCacheFileObject putFile(
+	public static DataCacheFileObject putFile(
 			String aPhysicalFileName, String aLogicalName, String aType,
 			int aFileLocation) {
 		try {
@@ -106,7 +124,13 @@ public class DataCacheManager {
 		dfo.initializeWithFileName(aPhysicalFileName, aLogicalName, aType,
 				aFileLocation);
 		dfo.setLSID(lsid);
-		cm.insertObject(dfo);
+		Lock lock = mLocks.writeLock(lsid.toString());
+		lock.lock();
+		try {
+			cm.insertObject(dfo);
+		} finally {
+			lock.unlock();
+		}
 
 		return dfo;
 	}
@@ -119,7 +143,7 @@ public class DataCacheManager {
 	 *            Name of file to retrieve from cache.
 	 * @return The DataCacheFileObject or null if not found in cache.
 	 */
-	public synchronized static DataCacheFileObject getFile(String aLogicalName,
+	public static DataCacheFileObject getFile(String aLogicalName,
 			String aType) {
 		try {
 			return mDataCacheManager.getFileInternal(aLogicalName, aType);
@@ -137,8 +161,14 @@ public class DataCacheManager {
 
 		KeplerLSID lsid = LSIDGenerator.getInstance().getNewLSID();
 		if (isDebugging) log.debug( lsid.toString() );
-		DataCacheFileObject item = (DataCacheFileObject) cm.getObject(lsid);
-		return item;
+		Lock lock = mLocks.readLock(lsid.toString());
+		lock.lock();
+		try {
+			DataCacheFileObject item = (DataCacheFileObject) cm.getObject(lsid);
+			return item;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
@@ -148,7 +178,7 @@ public class DataCacheManager {
 	 * @param aResourceName
 	 * @param aClassName
 	 * 	 */
-	public synchronized static DataCacheObject getCacheItem(
+	public static DataCacheObject getCacheItem(
 			DataCacheListener aListener, String aName, String aResourceName,
 			String aClassName) {
 		return getCacheItem(aListener, aName, null, aResourceName, aClassName);
@@ -162,7 +192,7 @@ public class DataCacheManager {
 	 * @param aResourceName
 	 * @param aClassName
 	 * 	 */
-	public synchronized static DataCacheObject getCacheItem(
+	public static DataCacheObject getCacheItem(
 			DataCacheListener aListener, String aName, String aIdentifier, String aResourceName,
 			String aClassName) {
 
@@ -200,16 +230,32 @@ public class DataCacheManager {
 		KeplerLSID lsid = getDataLSID(magicString);
 		if (isDebugging) log.debug( lsid.toString() );
 
-		DataCacheObject dobj = (DataCacheObject) cm.getObject(lsid);
+		// most items are in the cache; look for them under the read lock
+		DataCacheObject dobj;
+		Lock lock = mLocks.readLock(lsid.toString());
+		lock.lock();
+		try {
+			dobj = (DataCacheObject) cm.getObject(lsid);
+		} finally {
+			lock.unlock();
+		}
 		if (dobj != null) {
 			dobj.addListener(aListener);
 			return dobj;
 		}
 
 		// dboj == null means it was not in the cache. We create a new one and
-		// register it.
+		// register it, unless another thread did since we looked.
 
+		lock = mLocks.writeLock(lsid.toString());
+		lock.lock();
 		try {
+			dobj = (DataCacheObject) cm.getObject(lsid);
+			if (dobj != null) {
+				dobj.addListener(aListener);
+				return dobj;
+			}
+
 			Class clazz = Class.forName(aClassName);
 			dobj = (DataCacheObject) clazz.newInstance();
 			dobj.setLSID(lsid);
@@ -223,6 +269,8 @@ public class DataCacheManager {
 			return dobj;
 		} catch (Exception e1) {
 			log.error("Unable to create new object", e1);
+		} finally {
+			lock.unlock();
 		}
 
 		return null;
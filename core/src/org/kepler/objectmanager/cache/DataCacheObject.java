@@ -36,6 +36,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
@@ -67,10 +69,16 @@ public abstract class DataCacheObject extends CacheObject implements Runnable,
 	protected final static int CACHE_EMPTY = 4;
 
 	/**
-	 * Description of the Field
+	 * The thread doing the work, while it runs.
 	 */
 	private transient Thread mThread = null;
 
+	/**
+	 * Guards mThread, so that stop() only interrupts a thread that is still
+	 * doing the work of this object.
+	 */
+	private transient Object mThreadLock = new Object();
+
 	/**
 	 * Description of the Field
 	 */
@@ -393,48 +401,101 @@ public abstract class DataCacheObject extends CacheObject implements Runnable,
 	// -- Runnable Interface
 	// ----------------------------------------------------------------
 	/**
-	 * Description of the Method
+	 * Queue the work of getting the data on the shared DataCacheExecutor. If
+	 * the work is already queued or running this does nothing; the caller's
+	 * listener, added with addListener, is notified when it is done.
 	 */
 	public void start() {
-		if (mThread == null) {
-			mThread = new Thread(this);
-			mThread.setPriority(Thread.MIN_PRIORITY);
-			mThread.setName(super._name);
-			mThread.start();
-		}
+		DataCacheExecutor.getInstance().execute(this);
 	}
 
+	/**
+	 * Stop getting the data. Work that has not started is taken off the
+	 * queue and ends in error; running work is interrupted.
+	 */
 	public void stop() {
-		if (mThread != null) {
-			mThread.interrupt();
+		boolean cancelled;
+		synchronized (mThreadLock) {
+			if (mThread != null) {
+				mThread.interrupt();
+				return;
+			}
+			cancelled = DataCacheExecutor.getInstance().cancel(this);
+		}
+		if (cancelled) {
+			mStatus = CACHE_ERROR;
+			notifyListeners();
 		}
 	}
 
 	/**
+	 * Return the host the data comes from, so that DataCacheExecutor can
+	 * limit the downloads from each host. This is the host of the resource
+	 * name if it is a URL, otherwise the empty string.
 	 */
-	public void run() {
-		if (!isReady()) {
-			mStatus = CACHE_BUSY;
+	public String getSourceHost() {
+		return getHost(mResourceName);
+	}
 
-			if (mThread.isInterrupted()) {
-				mStatus = CACHE_ERROR;
-			} else {
-				mStatus = doWork();
+	/**
+	 * Return the host of a URL, or the empty string if it is not a URL with
+	 * a host.
+	 */
+	protected static String getHost(String url) {
+		if (url != null) {
+			try {
+				String host = new URI(url.trim()).getHost();
+				if (host != null) {
+					return host.toLowerCase();
+				}
+			} catch (URISyntaxException e) {
+				// not a URL
 			}
 		}
-		if (mThread.isInterrupted()) {
-			mStatus = CACHE_ERROR;
+		return "";
+	}
+
+	/**
+	 * Do the work of getting the data and notify the listeners. This is
+	 * called by a thread of DataCacheExecutor.
+	 */
+	public void run() {
+		Thread thread = Thread.currentThread();
+		synchronized (mThreadLock) {
+			mThread = thread;
 		}
+		try {
+			if (!isReady()) {
+				mStatus = CACHE_BUSY;
+
+				if (thread.isInterrupted()) {
+					mStatus = CACHE_ERROR;
+				} else {
+					try {
+						mStatus = doWork();
+					} catch (RuntimeException e) {
+						log.error("Error getting the data of " + getName(), e);
+						mStatus = CACHE_ERROR;
+					}
+				}
+			}
+			if (thread.isInterrupted()) {
+				mStatus = CACHE_ERROR;
+			}
 
-		log.debug("run - Done With Work.");
-		notifyListeners();
+			log.debug("run - Done With Work.");
+			notifyListeners();
 
-		try {
-			CacheManager.getInstance().updateObject(this);
-		} catch (CacheException e) {
-			log.error("CacheException occurred during run", e);
+			try {
+				CacheManager.getInstance().updateObject(this);
+			} catch (CacheException e) {
+				log.error("CacheException occurred during run", e);
+			}
+		} finally {
+			synchronized (mThreadLock) {
+				mThread = null;
+			}
 		}
-		mThread = null;
 	}
 
 	/**
@@ -449,6 +510,7 @@ public abstract class DataCacheObject extends CacheObject implements Runnable,
 			ClassNotFoundException {
 		ois.defaultReadObject();
 		mListeners = new Vector();
+		mThreadLock = new Object();
 	}
 
 }
\ No newline at end of file
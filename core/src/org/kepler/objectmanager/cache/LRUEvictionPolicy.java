@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2010 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * '$Author$'
+ * '$Date$'
+ * '$Revision$'
+ *
+ * Permission is hereby granted, without written agreement and without
+ * license or royalty fees, to use, copy, modify, and distribute this
+ * software and its documentation for any purpose, provided that the above
+ * copyright notice and the following two paragraphs appear in all copies
+ * of this software.
+ *
+ * IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ * FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ * THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ * PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ * CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ * ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ */
+
+package org.kepler.objectmanager.cache;
+
+import java.util.Comparator;
+
+/**
+ * Evicts the least recently used entries until the cache is no larger than
+ * a number of bytes.
+ */
+public class LRUEvictionPolicy extends SizeBoundedEvictionPolicy {
+
+	/**
+	 * @param maxSize
+	 *            the largest size of the cache in bytes.
+	 */
+	public LRUEvictionPolicy(long maxSize) {
+		super(maxSize);
+	}
+
+	protected Comparator<CacheEntryInfo> getEvictionOrder() {
+		return new Comparator<CacheEntryInfo>() {
+			public int compare(CacheEntryInfo a, CacheEntryInfo b) {
+				return compareLongs(a.getLastAccess(), b.getLastAccess());
+			}
+		};
+	}
+
+	static int compareLongs(long a, long b) {
+		return a < b ? -1 : (a == b ? 0 : 1);
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2010 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * '$Author$'
+ * '$Date$'
+ * '$Revision$'
+ *
+ * Permission is hereby granted, without written agreement and without
+ * license or royalty fees, to use, copy, modify, and distribute this
+ * software and its documentation for any purpose, provided that the above
+ * copyright notice and the following two paragraphs appear in all copies
+ * of this software.
+ *
+ * IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ * FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ * THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ * PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ * CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ * ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ */
+
+package org.kepler.objectmanager.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A policy that evicts entries, in the order given by a comparator, until
+ * the cache is no larger than a number of bytes.
+ */
+public abstract class SizeBoundedEvictionPolicy implements
+		CacheEvictionPolicy {
+
+	private final long _maxSize;
+
+	/**
+	 * @param maxSize
+	 *            the largest size of the cache in bytes.
+	 */
+	protected SizeBoundedEvictionPolicy(long maxSize) {
+		_maxSize = maxSize;
+	}
+
+	/** Return the largest size of the cache in bytes. */
+	public long getMaxSize() {
+		return _maxSize;
+	}
+
+	public List<CacheEntryInfo> selectEvictions(List<CacheEntryInfo> entries,
+			long totalSize, long now) {
+		List<CacheEntryInfo> evictions = new ArrayList<CacheEntryInfo>();
+		if (totalSize <= _maxSize) {
+			return evictions;
+		}
+		List<CacheEntryInfo> sorted = new ArrayList<CacheEntryInfo>(entries);
+		Collections.sort(sorted, getEvictionOrder());
+		for (CacheEntryInfo entry : sorted) {
+			if (totalSize <= _maxSize) {
+				break;
+			}
+			evictions.add(entry);
+			totalSize -= entry.getSize();
+		}
+		return evictions;
+	}
+
+	/** Return the order in which entries are evicted, first ones first. */
+	protected abstract Comparator<CacheEntryInfo> getEvictionOrder();
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2010 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * '$Author$'
+ * '$Date$'
+ * '$Revision$'
+ *
+ * Permission is hereby granted, without written agreement and without
+ * license or royalty fees, to use, copy, modify, and distribute this
+ * software and its documentation for any purpose, provided that the above
+ * copyright notice and the following two paragraphs appear in all copies
+ * of this software.
+ *
+ * IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ * FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ * THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ * PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ * CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ * ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ */
+
+package org.kepler.objectmanager.cache;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A fixed number of read-write locks shared by any number of keys, e.g.
+ * LSIDs. Keys with the same hash always get the same lock, so threads
+ * working on the same key exclude each other while threads working on
+ * different keys usually do not.
+ *
+ * A thread must not hold the locks of two keys at once, except through
+ * lockAll(), since the two keys may share a lock or be locked in the
+ * opposite order by another thread.
+ */
+class StripedLock {
+
+	private final ReadWriteLock[] _locks;
+
+	/**
+	 * Create the locks.
+	 *
+	 * @param stripes
+	 *            the number of locks, rounded up to a power of two.
+	 */
+	StripedLock(int stripes) {
+		int size = 1;
+		while (size < stripes) {
+			size <<= 1;
+		}
+		_locks = new ReadWriteLock[size];
+		for (int i = 0; i < size; i++) {
+			_locks[i] = new ReentrantReadWriteLock();
+		}
+	}
+
+	/** Return the shared lock of a key. */
+	Lock readLock(Object key) {
+		return get(key).readLock();
+	}
+
+	/** Return the exclusive lock of a key. */
+	Lock writeLock(Object key) {
+		return get(key).writeLock();
+	}
+
+	/** Take the exclusive locks of all keys, in a fixed order. */
+	void lockAll() {
+		for (ReadWriteLock lock : _locks) {
+			lock.writeLock().lock();
+		}
+	}
+
+	/** Release the locks taken by lockAll(). */
+	void unlockAll() {
+		for (int i = _locks.length - 1; i >= 0; i--) {
+			_locks[i].writeLock().unlock();
+		}
+	}
+
+	private ReadWriteLock get(Object key) {
+		// spread the bits of the hash, as HashMap does
+		int h = key.hashCode();
+		h ^= (h >>> 20) ^ (h >>> 12);
+		h ^= (h >>> 7) ^ (h >>> 4);
+		return _locks[h & (_locks.length - 1)];
+	}
+}
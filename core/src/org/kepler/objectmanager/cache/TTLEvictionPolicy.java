@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2010 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * '$Author$'
+ * '$Date$'
+ * '$Revision$'
+ *
+ * Permission is hereby granted, without written agreement and without
+ * license or royalty fees, to use, copy, modify, and distribute this
+ * software and its documentation for any purpose, provided that the above
+ * copyright notice and the following two paragraphs appear in all copies
+ * of this software.
+ *
+ * IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ * FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ * THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ * PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ * CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ * ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ */
+
+package org.kepler.objectmanager.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Evicts the entries that have not been used for some time, whatever the
+ * size of the cache.
+ */
+public class TTLEvictionPolicy implements CacheEvictionPolicy {
+
+	private final long _maxAge;
+
+	/**
+	 * @param maxAge
+	 *            the time in milliseconds an entry is kept after its last
+	 *            use.
+	 */
+	public TTLEvictionPolicy(long maxAge) {
+		_maxAge = maxAge;
+	}
+
+	/** Return the time in milliseconds an entry is kept after its last use. */
+	public long getMaxAge() {
+		return _maxAge;
+	}
+
+	public List<CacheEntryInfo> selectEvictions(List<CacheEntryInfo> entries,
+			long totalSize, long now) {
+		List<CacheEntryInfo> evictions = new ArrayList<CacheEntryInfo>();
+		for (CacheEntryInfo entry : entries) {
+			if (now - entry.getLastAccess() > _maxAge) {
+				evictions.add(entry);
+			}
+		}
+		return evictions;
+	}
+}
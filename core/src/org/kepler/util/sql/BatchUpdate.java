@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2010 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * '$Author$'
+ * '$Date$'
+ * '$Revision$'
+ *
+ * Permission is hereby granted, without written agreement and without
+ * license or royalty fees, to use, copy, modify, and distribute this
+ * software and its documentation for any purpose, provided that the above
+ * copyright notice and the following two paragraphs appear in all copies
+ * of this software.
+ *
+ * IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ * FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ * THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ * PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ * CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ * ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ */
+
+package org.kepler.util.sql;
+
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ *
+ * Runs many rows through one PreparedStatement as JDBC batches.
+ *
+ * A failing row, e.g. one that violates a key, does not fail the rows
+ * around it: the driver stops the batch at that row (HSQL does) or goes
+ * on past it, and in the first case the rows after it are sent as a new
+ * batch. The caller learns which rows were applied, which is what the
+ * single row insert methods of the caches report with their return value
+ * or by ignoring the error.
+ *
+ * Committing is left to the caller, so that the batches of several
+ * statements can be part of one transaction.
+ *
+ * @version $Id$
+ *
+ */
+
+public class BatchUpdate
+{
+    /** Rows are sent to the database this many at a time. */
+    public static final int BATCH_SIZE = 500;
+
+    private BatchUpdate()
+    {
+    }
+
+    /** Execute a statement once for each row of parameters.
+     *  @param statement the statement to execute.
+     *  @param rows the parameters of each row; a null parameter is set
+     *  as a null VARCHAR.
+     *  @return for each row, true if it was applied.
+     */
+    public static boolean[] execute(PreparedStatement statement,
+        List<Object[]> rows) throws SQLException
+    {
+        boolean[] applied = new boolean[rows.size()];
+        int start = 0;
+        while(start < rows.size())
+        {
+            int end = Math.min(start + BATCH_SIZE, rows.size());
+            for(int i = start; i < end; i++)
+            {
+                Object[] row = rows.get(i);
+                for(int j = 0; j < row.length; j++)
+                {
+                    if(row[j] == null)
+                    {
+                        statement.setNull(j + 1, Types.VARCHAR);
+                    }
+                    else
+                    {
+                        statement.setObject(j + 1, row[j]);
+                    }
+                }
+                statement.addBatch();
+            }
+
+            int[] counts;
+            try
+            {
+                counts = statement.executeBatch();
+            }
+            catch(BatchUpdateException e)
+            {
+                statement.clearBatch();
+                counts = e.getUpdateCounts();
+                if(counts == null)
+                {
+                    counts = new int[0];
+                }
+                if(_isDebugging)
+                {
+                    _log.debug("row " + (start + counts.length)
+                        + " of the batch failed: " + e.getMessage());
+                }
+            }
+            finally
+            {
+                statement.clearParameters();
+            }
+
+            for(int i = 0; i < counts.length; i++)
+            {
+                applied[start + i] = counts[i] > 0 ||
+                    counts[i] == Statement.SUCCESS_NO_INFO;
+            }
+
+            if(counts.length < end - start)
+            {
+                // the driver stopped at a failed row; go on after it
+                start += counts.length + 1;
+            }
+            else
+            {
+                start = end;
+            }
+        }
+        return applied;
+    }
+
+    private static final Log _log = LogFactory.getLog(BatchUpdate.class);
+    private static final boolean _isDebugging = _log.isDebugEnabled();
+}
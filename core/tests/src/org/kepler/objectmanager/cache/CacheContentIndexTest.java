@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2010 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * '$Author$'
+ * '$Date$'
+ * '$Revision$'
+ * 
+ * Permission is hereby granted, without written agreement and without
+ * license or royalty fees, to use, copy, modify, and distribute this
+ * software and its documentation for any purpose, provided that the above
+ * copyright notice and the following two paragraphs appear in all copies
+ * of this software.
+ *
+ * IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ * FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ * THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ * PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ * CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ * ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ */
+
+
+package org.kepler.objectmanager.cache;
+
+import java.util.Collection;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Checks that the secondary lookups of CacheContentIndex follow the rows
+ * as they are added, replaced and removed.
+ */
+public class CacheContentIndexTest extends TestCase {
+
+	private static final String ACTOR = "urn:lsid:kepler-project.org:actor:1:1";
+	private static final String ACTOR_REV2 = "urn:lsid:kepler-project.org:actor:1:2";
+	private static final String OTHER = "urn:lsid:kepler-project.org:actor:12:1";
+
+	CacheContentIndex index;
+
+	public CacheContentIndexTest(String name) {
+		super(name);
+	}
+
+	public void setUp() {
+		index = new CacheContentIndex();
+	}
+
+	/**
+	 * Create a suite of tests to be run together
+	 */
+	public static Test suite() {
+		TestSuite suite = new TestSuite();
+		suite.addTest(new CacheContentIndexTest("testWithoutRevision"));
+		suite.addTest(new CacheContentIndexTest("testPutAndRemove"));
+		suite.addTest(new CacheContentIndexTest("testReplace"));
+		suite.addTest(new CacheContentIndexTest("testClear"));
+		return suite;
+	}
+
+	public void testWithoutRevision() {
+		assertEquals("urn:lsid:kepler-project.org:actor:1",
+				CacheContentIndex.withoutRevision(ACTOR));
+		assertEquals("urn:lsid:kepler-project.org:actor:1",
+				CacheContentIndex.withoutRevision(ACTOR_REV2 + "#anchor"));
+	}
+
+	public void testPutAndRemove() {
+		index.put(row(ACTOR, "ptolemy.actor.lib.Ramp"));
+		index.put(row(ACTOR_REV2, "ptolemy.actor.lib.Ramp"));
+		index.put(row(OTHER, null));
+
+		assertTrue(index.contains(ACTOR));
+		assertEquals(3, index.size());
+		assertEquals(2, index.getLsidsForClass("ptolemy.actor.lib.Ramp")
+				.size());
+		Collection<String> revisions = index
+				.getLsidsForObject("urn:lsid:kepler-project.org:actor:1");
+		assertEquals(2, revisions.size());
+		assertFalse(revisions.contains(OTHER));
+
+		index.remove(ACTOR);
+		assertFalse(index.contains(ACTOR));
+		assertNull(index.get(ACTOR));
+		assertEquals(1, index.getLsidsForClass("ptolemy.actor.lib.Ramp")
+				.size());
+		assertEquals(1, index.getLsidsForObject(
+				"urn:lsid:kepler-project.org:actor:1").size());
+	}
+
+	public void testReplace() {
+		index.put(row(ACTOR, "ptolemy.actor.lib.Ramp"));
+		index.put(row(ACTOR, "ptolemy.actor.lib.Const"));
+
+		assertEquals(1, index.size());
+		assertTrue(index.getLsidsForClass("ptolemy.actor.lib.Ramp").isEmpty());
+		assertTrue(index.getLsidsForClass("ptolemy.actor.lib.Const").contains(
+				ACTOR));
+	}
+
+	public void testClear() {
+		index.put(row(ACTOR, "ptolemy.actor.lib.Ramp"));
+		index.clear();
+
+		assertEquals(0, index.size());
+		assertTrue(index.getLsidsForClass("ptolemy.actor.lib.Ramp").isEmpty());
+		assertTrue(index.getLsids().isEmpty());
+	}
+
+	private static CacheContentIndex.Row row(String lsid, String className) {
+		return new CacheContentIndex.Row("name", lsid, "0", lsid, "type",
+				className);
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2010 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * '$Author$'
+ * '$Date$'
+ * '$Revision$'
+ * 
+ * Permission is hereby granted, without written agreement and without
+ * license or royalty fees, to use, copy, modify, and distribute this
+ * software and its documentation for any purpose, provided that the above
+ * copyright notice and the following two paragraphs appear in all copies
+ * of this software.
+ *
+ * IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ * FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ * THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ * PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ * CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ * ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ */
+package org.kepler.objectmanager.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Checks which entries the eviction policies choose.
+ */
+public class CacheEvictionPolicyTest extends TestCase {
+
+	List<CacheEntryInfo> entries;
+
+	public CacheEvictionPolicyTest(String name) {
+		super(name);
+	}
+
+	public void setUp() {
+		// a: old and often used, b: recent and seldom used,
+		// c: oldest and seldom used, d: newest and never used
+		entries = new ArrayList<CacheEntryInfo>();
+		entries.add(entry("a", 100, 2000, 10));
+		entries.add(entry("b", 100, 8000, 1));
+		entries.add(entry("c", 100, 1000, 1));
+		entries.add(entry("d", 100, 9000, 0));
+	}
+
+	/**
+	 * Create a suite of tests to be run together
+	 */
+	public static Test suite() {
+		TestSuite suite = new TestSuite();
+		suite.addTest(new CacheEvictionPolicyTest("testLRU"));
+		suite.addTest(new CacheEvictionPolicyTest("testLFU"));
+		suite.addTest(new CacheEvictionPolicyTest("testUnderLimit"));
+		suite.addTest(new CacheEvictionPolicyTest("testPinnedSize"));
+		suite.addTest(new CacheEvictionPolicyTest("testTTL"));
+		return suite;
+	}
+
+	public void testLRU() {
+		List<CacheEntryInfo> evictions = new LRUEvictionPolicy(250)
+				.selectEvictions(entries, 400, 10000);
+		assertEquals("[c, a]", lsids(evictions));
+	}
+
+	public void testLFU() {
+		List<CacheEntryInfo> evictions = new LFUEvictionPolicy(250)
+				.selectEvictions(entries, 400, 10000);
+		// d has no hits; b and c have one each, c is older
+		assertEquals("[d, c]", lsids(evictions));
+	}
+
+	public void testUnderLimit() {
+		assertTrue(new LRUEvictionPolicy(400).selectEvictions(entries, 400,
+				10000).isEmpty());
+	}
+
+	/**
+	 * Pinned entries count towards the size but cannot be evicted, so all
+	 * the others go and the cache may stay over the limit.
+	 */
+	public void testPinnedSize() {
+		List<CacheEntryInfo> evictions = new LRUEvictionPolicy(250)
+				.selectEvictions(entries, 1000, 10000);
+		assertEquals("[c, a, b, d]", lsids(evictions));
+	}
+
+	public void testTTL() {
+		List<CacheEntryInfo> evictions = new TTLEvictionPolicy(5000)
+				.selectEvictions(entries, 400, 10000);
+		assertEquals("[a, c]", lsids(evictions));
+	}
+
+	private static CacheEntryInfo entry(String lsid, long size,
+			long lastAccess, int hits) {
+		return new CacheEntryInfo(lsid, CacheObject.class.getName(), size,
+				lastAccess, hits);
+	}
+
+	private static String lsids(List<CacheEntryInfo> entries) {
+		List<String> lsids = new ArrayList<String>();
+		for (CacheEntryInfo entry : entries) {
+			lsids.add(entry.getLsid());
+		}
+		return lsids.toString();
+	}
+}
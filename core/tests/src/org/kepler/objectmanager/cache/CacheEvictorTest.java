@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2010 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * '$Author$'
+ * '$Date$'
+ * '$Revision$'
+ * 
+ * Permission is hereby granted, without written agreement and without
+ * license or royalty fees, to use, copy, modify, and distribute this
+ * software and its documentation for any purpose, provided that the above
+ * copyright notice and the following two paragraphs appear in all copies
+ * of this software.
+ *
+ * IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ * FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ * THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ * PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ * CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ * ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ */
+package org.kepler.objectmanager.cache;
+
+import java.io.File;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.kepler.objectmanager.lsid.KeplerLSID;
+
+/**
+ * Checks that the evictor only deletes data that belongs to the cache and
+ * keeps entries whose data is being fetched.
+ */
+public class CacheEvictorTest extends TestCase {
+
+	CacheManager cache;
+
+	File external;
+
+	public CacheEvictorTest(String name) {
+		super(name);
+	}
+
+	public void setUp() throws Exception {
+		cache = CacheManager.getInstance();
+		cache.clearCache();
+		external = File.createTempFile("CacheEvictorTest", ".dat");
+	}
+
+	public void tearDown() throws Exception {
+		cache.clearCache();
+		external.delete();
+	}
+
+	/**
+	 * Create a suite of tests to be run together
+	 */
+	public static Test suite() {
+		TestSuite suite = new TestSuite();
+		suite.addTest(new CacheEvictorTest("testDataFile"));
+		suite.addTest(new CacheEvictorTest("testEvictExternal"));
+		suite.addTest(new CacheEvictorTest("testEvictBusy"));
+		return suite;
+	}
+
+	/**
+	 * Only files in the cache directory that are not EXTERNAL are data
+	 * files of the cache.
+	 */
+	public void testDataFile() {
+		DataCacheFileObject item = new DataCacheFileObject();
+		item.initializeWithFileName(external.getAbsolutePath(), "external",
+				null, DataCacheFileObject.EXTERNAL);
+		assertNull(CacheEvictor.getDataFile(item));
+
+		// not EXTERNAL, but still outside the cache
+		item.setFileLocation(DataCacheFileObject.INTERNAL);
+		assertNull(CacheEvictor.getDataFile(item));
+
+		item.setBaseFileName("internal");
+		assertEquals(new File(item.getAbsoluteFileName()), CacheEvictor
+				.getDataFile(item));
+	}
+
+	/**
+	 * Evict an entry that points to an EXTERNAL file and check that the
+	 * file is still there.
+	 */
+	public void testEvictExternal() throws Exception {
+		DataCacheFileObject item = new DataCacheFileObject();
+		item.setLSID(new KeplerLSID("urn:lsid:localhost:evictor:1:1"));
+		item.initializeWithFileName(external.getAbsolutePath(), "external",
+				null, DataCacheFileObject.EXTERNAL);
+		cache.insertObject(item);
+		item.run();
+		assertTrue(item.isReady());
+
+		assertTrue(cache.evictObject(item.getLSID()));
+		assertFalse(cache.isContained(item.getLSID()));
+		assertTrue(external.exists());
+	}
+
+	/**
+	 * Try to evict an entry whose data has not been fetched.
+	 */
+	public void testEvictBusy() throws Exception {
+		DataCacheFileObject item = new DataCacheFileObject();
+		item.setLSID(new KeplerLSID("urn:lsid:localhost:evictor:2:1"));
+		item.setName("busy");
+		cache.insertObject(item);
+		assertTrue(CacheEvictor.isBusy(item));
+
+		assertFalse(cache.evictObject(item.getLSID()));
+		assertTrue(cache.isContained(item.getLSID()));
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2010 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * '$Author$'
+ * '$Date$'
+ * '$Revision$'
+ * 
+ * Permission is hereby granted, without written agreement and without
+ * license or royalty fees, to use, copy, modify, and distribute this
+ * software and its documentation for any purpose, provided that the above
+ * copyright notice and the following two paragraphs appear in all copies
+ * of this software.
+ *
+ * IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ * FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ * THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ * PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ * CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ * ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ */
+
+
+package org.kepler.objectmanager.cache;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Checks the limits, coalescing and counters of DataCacheExecutor with data
+ * items that wait until they are released.
+ */
+public class DataCacheExecutorTest extends TestCase {
+
+	public DataCacheExecutorTest(String name) {
+		super(name);
+	}
+
+	/**
+	 * Create a suite of tests to be run together
+	 */
+	public static Test suite() {
+		TestSuite suite = new TestSuite();
+		suite.addTest(new DataCacheExecutorTest("testSourceHost"));
+		suite.addTest(new DataCacheExecutorTest("testLimits"));
+		suite.addTest(new DataCacheExecutorTest("testCoalesce"));
+		suite.addTest(new DataCacheExecutorTest("testCancel"));
+		suite.addTest(new DataCacheExecutorTest("testStop"));
+		suite.addTest(new DataCacheExecutorTest("testFailingWork"));
+		return suite;
+	}
+
+	public void testSourceHost() {
+		BlockingItem item = new BlockingItem(null, null);
+		item.setResourceName("http://KNB.ecoinformatics.org/knb/metacat");
+		assertEquals("knb.ecoinformatics.org", item.getSourceHost());
+		item.setResourceName("/home/user/data.csv");
+		assertEquals("", item.getSourceHost());
+		item.setResourceName(null);
+		assertEquals("", item.getSourceHost());
+	}
+
+	/**
+	 * Start more items than the limits allow and check that only the
+	 * allowed number run at once.
+	 */
+	public void testLimits() throws Exception {
+		DataCacheExecutor executor = new DataCacheExecutor(3, 2);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger running = new AtomicInteger();
+		BlockingItem[] items = new BlockingItem[6];
+		for (int i = 0; i < items.length; i++) {
+			items[i] = new BlockingItem(release, running);
+			items[i].setResourceName("http://host" + (i % 2) + "/item" + i);
+			assertTrue(executor.execute(items[i]));
+		}
+
+		// two per host would be four, but there are only three threads
+		waitFor(running, 3);
+		Thread.sleep(100);
+		assertEquals(3, running.get());
+		assertEquals(3, executor.getQueueDepth());
+		assertEquals(2, executor.getQueueDepth("host0")
+				+ executor.getQueueDepth("host1"));
+
+		release.countDown();
+		waitForCompletion(executor, items.length);
+		assertEquals(0, executor.getQueueDepth());
+		assertEquals(3, executor.getPeakQueueDepth());
+		for (BlockingItem item : items) {
+			assertTrue(item.isReady());
+			assertEquals(1, item.runs.get());
+		}
+	}
+
+	/**
+	 * Start one item twice while it is waiting and check that it runs once.
+	 */
+	public void testCoalesce() throws Exception {
+		DataCacheExecutor executor = new DataCacheExecutor(1, 1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger running = new AtomicInteger();
+		BlockingItem first = new BlockingItem(release, running);
+		BlockingItem second = new BlockingItem(release, running);
+		assertTrue(executor.execute(first));
+		assertTrue(executor.execute(second));
+		assertFalse(executor.execute(second));
+		assertFalse(executor.execute(first));
+		assertEquals(2, executor.getCoalescedCount());
+
+		release.countDown();
+		waitForCompletion(executor, 2);
+		assertEquals(1, first.runs.get());
+		assertEquals(1, second.runs.get());
+		assertFalse(executor.isPending(second));
+	}
+
+	/**
+	 * Cancel an item that waits for its host.
+	 */
+	public void testCancel() throws Exception {
+		DataCacheExecutor executor = new DataCacheExecutor(2, 1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger running = new AtomicInteger();
+		BlockingItem first = new BlockingItem(release, running);
+		first.setResourceName("http://host/first");
+		BlockingItem second = new BlockingItem(release, running);
+		second.setResourceName("http://host/second");
+		executor.execute(first);
+		executor.execute(second);
+		waitFor(running, 1);
+
+		assertFalse(executor.cancel(first));
+		assertTrue(executor.cancel(second));
+		assertEquals(0, executor.getQueueDepth());
+
+		release.countDown();
+		waitForCompletion(executor, 1);
+		assertEquals(0, second.runs.get());
+	}
+
+	/**
+	 * Stop an item while it runs, then again after it is done.
+	 */
+	public void testStop() throws Exception {
+		DataCacheExecutor executor = new DataCacheExecutor(1, 1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger running = new AtomicInteger();
+		BlockingItem item = new BlockingItem(release, running);
+		executor.execute(item);
+		waitFor(running, 1);
+
+		item.stop();
+		waitForCompletion(executor, 1);
+		assertTrue(item.isError());
+
+		// nothing runs the item any more, so this must not interrupt
+		// whatever the pool thread does next
+		item.stop();
+		BlockingItem next = new BlockingItem(release, running);
+		release.countDown();
+		executor.execute(next);
+		waitForCompletion(executor, 2);
+		assertTrue(next.isReady());
+	}
+
+	/**
+	 * Run an item whose work throws and check that it ends in error and
+	 * its listeners hear about it.
+	 */
+	public void testFailingWork() throws Exception {
+		DataCacheExecutor executor = new DataCacheExecutor(1, 1);
+		final CountDownLatch notified = new CountDownLatch(1);
+		FailingItem item = new FailingItem();
+		item.addListener(new DataCacheListener() {
+			public void complete(DataCacheObject aItem) {
+				notified.countDown();
+			}
+		});
+		executor.execute(item);
+		assertTrue(notified.await(10, TimeUnit.SECONDS));
+		waitForCompletion(executor, 1);
+		assertTrue(item.isError());
+	}
+
+	private static void waitFor(AtomicInteger count, int value)
+			throws InterruptedException {
+		long end = System.currentTimeMillis() + 10000;
+		while (count.get() < value && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		assertEquals(value, count.get());
+	}
+
+	private static void waitForCompletion(DataCacheExecutor executor,
+			long completed) throws InterruptedException {
+		long end = System.currentTimeMillis() + 10000;
+		while (executor.getCompletedCount() < completed
+				&& System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		assertEquals(completed, executor.getCompletedCount());
+	}
+
+	/** An item whose work waits until it is released. */
+	private static class BlockingItem extends DataCacheObject {
+		private static final long serialVersionUID = 1L;
+
+		final AtomicInteger runs = new AtomicInteger();
+		private final CountDownLatch _release;
+		private final AtomicInteger _running;
+
+		BlockingItem(CountDownLatch release, AtomicInteger running) {
+			_release = release;
+			_running = running;
+		}
+
+		public int doWork() {
+			runs.incrementAndGet();
+			_running.incrementAndGet();
+			try {
+				if (!_release.await(10, TimeUnit.SECONDS)) {
+					return CACHE_ERROR;
+				}
+				return CACHE_COMPLETE;
+			} catch (InterruptedException e) {
+				return CACHE_ERROR;
+			}
+		}
+	}
+
+	/** An item whose work throws. */
+	private static class FailingItem extends DataCacheObject {
+		private static final long serialVersionUID = 1L;
+
+		public int doWork() {
+			throw new IllegalStateException("no data");
+		}
+	}
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2010 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * '$Author$'
+ * '$Date$'
+ * '$Revision$'
+ * 
+ * Permission is hereby granted, without written agreement and without
+ * license or royalty fees, to use, copy, modify, and distribute this
+ * software and its documentation for any purpose, provided that the above
+ * copyright notice and the following two paragraphs appear in all copies
+ * of this software.
+ *
+ * IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ * FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ * THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ * PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ * CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ * ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ */
+
+
+package test.org.kepler.objectmanager.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.kepler.objectmanager.cache.CacheManager;
+import org.kepler.objectmanager.cache.CacheObject;
+import org.kepler.objectmanager.cache.CacheObjectInterface;
+import org.kepler.objectmanager.cache.DataCacheManager;
+import org.kepler.objectmanager.cache.DataCacheObject;
+import org.kepler.objectmanager.lsid.KeplerLSID;
+
+/**
+ * Runs inserts and lookups of different cache objects from a growing number
+ * of threads and prints the operations per second for each, so that it can
+ * be seen that they no longer wait on one monitor. The test checks that
+ * every object ends up in the cache, and that threads asking
+ * DataCacheManager for the same item at once all get the one item.
+ */
+public class CacheConcurrencyStressTest extends TestCase {
+
+	/** The objects each thread inserts and then looks up. */
+	private static final int OBJECTS_PER_THREAD = 200;
+
+	/** The size of the data serialized with each object. */
+	private static final int PAYLOAD_SIZE = 16 * 1024;
+
+	CacheManager cache;
+
+	public CacheConcurrencyStressTest(String name) {
+		super(name);
+		try {
+			cache = CacheManager.getInstance();
+		} catch (Exception e) {
+			fail("could not get instance of cache: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Create a suite of tests to be run together
+	 */
+	public static Test suite() {
+		TestSuite suite = new TestSuite();
+		suite.addTest(new CacheConcurrencyStressTest("testThroughput"));
+		suite.addTest(new CacheConcurrencyStressTest("testSameDataCacheItem"));
+		suite.addTest(new CacheConcurrencyStressTest("testConcurrentFirstLoad"));
+		return suite;
+	}
+
+	/**
+	 * Insert and look up objects with 1, 2, 4 and 8 threads.
+	 */
+	public void testThroughput() throws Exception {
+		for (int threads = 1; threads <= 8; threads *= 2) {
+			cache.clearCache();
+			long nanos = run(threads);
+			int operations = 2 * threads * OBJECTS_PER_THREAD;
+			System.out.println("CacheConcurrencyStressTest: " + threads
+					+ " threads: "
+					+ Math.round(operations / (nanos / 1e9)) + " ops/s");
+		}
+		cache.clearCache();
+	}
+
+	/**
+	 * Ask DataCacheManager for one item from many threads at once.
+	 */
+	public void testSameDataCacheItem() throws Exception {
+		cache.clearCache();
+		final int threads = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<DataCacheObject> items = Collections
+				.synchronizedList(new ArrayList<DataCacheObject>());
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int i = 0; i < threads; i++) {
+			Thread worker = new Thread() {
+				public void run() {
+					try {
+						start.await();
+						items.add(DataCacheManager.getCacheItem(null,
+								"stress item", "stress",
+								StressItem.class.getName()));
+					} catch (InterruptedException e) {
+						// the item is missing; the assert below fails
+					}
+				}
+			};
+			worker.start();
+			workers.add(worker);
+		}
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+
+		assertEquals(threads, items.size());
+		DataCacheObject first = items.get(0);
+		assertNotNull(first);
+		for (DataCacheObject item : items) {
+			assertSame(first, item);
+		}
+		cache.clearCache();
+	}
+
+	/**
+	 * Load one object that is only on disk from many threads at once.
+	 */
+	public void testConcurrentFirstLoad() throws Exception {
+		cache.clearCache();
+		KeplerLSID lsid = new KeplerLSID("urn:lsid:localhost:firstload:1:1");
+		cache.insertObject(new PayloadObject("first load", lsid));
+
+		// start over so the object has to be read back from disk
+		CacheManager.shutdown();
+		cache = CacheManager.getInstance();
+
+		final KeplerLSID key = lsid;
+		final int threads = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<CacheObjectInterface> objects = Collections
+				.synchronizedList(new ArrayList<CacheObjectInterface>());
+		final List<Throwable> errors = Collections
+				.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int i = 0; i < threads; i++) {
+			Thread worker = new Thread() {
+				public void run() {
+					try {
+						start.await();
+						objects.add(cache.getObject(key));
+					} catch (Throwable e) {
+						errors.add(e);
+					}
+				}
+			};
+			worker.start();
+			workers.add(worker);
+		}
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+
+		if (!errors.isEmpty()) {
+			fail(errors.size() + " threads failed: " + errors.get(0));
+		}
+		assertEquals(threads, objects.size());
+		CacheObjectInterface first = objects.get(0);
+		assertNotNull(first);
+		for (CacheObjectInterface co : objects) {
+			assertSame(first, co);
+		}
+		assertSame(first, cache.getObject(key));
+		cache.clearCache();
+	}
+
+	/**
+	 * Run the threads, each inserting and then looking up its own objects.
+	 * 
+	 * @return the time taken in nanoseconds.
+	 */
+	private long run(int threads) throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicInteger found = new AtomicInteger();
+		final List<Throwable> errors = Collections
+				.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			Thread worker = new Thread() {
+				public void run() {
+					try {
+						start.await();
+						List<KeplerLSID> lsids = new ArrayList<KeplerLSID>();
+						for (int i = 0; i < OBJECTS_PER_THREAD; i++) {
+							KeplerLSID lsid = new KeplerLSID(
+									"urn:lsid:localhost:stress" + thread + ":"
+											+ i + ":1");
+							cache.insertObject(new PayloadObject("stress" + i,
+									lsid));
+							lsids.add(lsid);
+						}
+						for (KeplerLSID lsid : lsids) {
+							CacheObjectInterface co = cache.getObject(lsid);
+							if (co != null && cache.isContained(lsid)) {
+								found.incrementAndGet();
+							}
+						}
+					} catch (Throwable e) {
+						errors.add(e);
+					}
+				}
+			};
+			worker.start();
+			workers.add(worker);
+		}
+
+		long begin = System.nanoTime();
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		long nanos = System.nanoTime() - begin;
+
+		if (!errors.isEmpty()) {
+			errors.get(0).printStackTrace();
+			fail(errors.size() + " threads failed: " + errors.get(0));
+		}
+		assertEquals(threads * OBJECTS_PER_THREAD, found.get());
+		return nanos;
+	}
+
+	/** A cache object with some data to serialize. */
+	public static class PayloadObject extends CacheObject {
+		private static final long serialVersionUID = 1L;
+
+		private byte[] payload = new byte[PAYLOAD_SIZE];
+
+		public PayloadObject(String name, KeplerLSID lsid) {
+			super(name, lsid);
+		}
+
+		public Object getObject() {
+			return payload;
+		}
+	}
+
+	/** A data cache item that is complete as soon as it is asked for. */
+	public static class StressItem extends DataCacheObject {
+		private static final long serialVersionUID = 1L;
+
+		public int doWork() {
+			return CACHE_COMPLETE;
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2010 The Regents of the University of California.
+ * All rights reserved.
+ *
+ * '$Author$'
+ * '$Date$'
+ * '$Revision$'
+ * 
+ * Permission is hereby granted, without written agreement and without
+ * license or royalty fees, to use, copy, modify, and distribute this
+ * software and its documentation for any purpose, provided that the above
+ * copyright notice and the following two paragraphs appear in all copies
+ * of this software.
+ *
+ * IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ * FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ * THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ * PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ * CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ * ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ */
+
+package test.org.kepler.objectmanager.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.kepler.objectmanager.cache.CacheManager;
+import org.kepler.objectmanager.cache.CacheObjectInterface;
+import org.kepler.objectmanager.cache.RawDataCacheObject;
+import org.kepler.objectmanager.lsid.KeplerLSID;
+
+/**
+ * Compares the rate at which CacheManager stores objects one at a time,
+ * each insert committed on its own, with the rate of one batched insert
+ * of all of them in a single transaction. The rates are printed; the test
+ * only checks that both ways store every object.
+ */
+public class CacheInsertBenchmark extends TestCase {
+
+	/** The number of objects inserted each way. */
+	private static final int COUNT = 2000;
+
+	CacheManager cache;
+
+	public CacheInsertBenchmark(String name) {
+		super(name);
+		try {
+			cache = CacheManager.getInstance();
+		} catch (Exception e) {
+			fail("could not get instance of cache: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Create a suite of tests to be run together
+	 */
+	public static Test suite() {
+		TestSuite suite = new TestSuite();
+		suite.addTest(new CacheInsertBenchmark("testInsertRate"));
+		return suite;
+	}
+
+	/**
+	 * Insert the objects one by one, then again as a batch, and report the
+	 * rows per second of each.
+	 */
+	public void testInsertRate() {
+		try {
+			cache.clearCache();
+
+			long start = System.nanoTime();
+			for (CacheObjectInterface co : createObjects("single")) {
+				cache.insertObject(co);
+			}
+			long single = System.nanoTime() - start;
+			assertEquals(COUNT, count("single"));
+
+			cache.clearCache();
+
+			List<CacheObjectInterface> objects = createObjects("batch");
+			start = System.nanoTime();
+			List<CacheObjectInterface> inserted = cache.insertObjects(objects);
+			long batch = System.nanoTime() - start;
+			assertEquals(COUNT, inserted.size());
+			assertEquals(COUNT, count("batch"));
+
+			System.out.println("CacheInsertBenchmark: " + COUNT
+					+ " objects, one by one: " + rate(single)
+					+ " rows/s, batched: " + rate(batch) + " rows/s");
+
+			cache.clearCache();
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("benchmark failed: " + e.getMessage());
+		}
+	}
+
+	private List<CacheObjectInterface> createObjects(String namespace)
+			throws Exception {
+		List<CacheObjectInterface> objects = new ArrayList<CacheObjectInterface>(
+				COUNT);
+		for (int i = 0; i < COUNT; i++) {
+			KeplerLSID lsid = new KeplerLSID("urn:lsid:localhost:" + namespace
+					+ ":" + i + ":1");
+			objects.add(new RawDataCacheObject(namespace + i, lsid));
+		}
+		return objects;
+	}
+
+	private int count(String namespace) throws Exception {
+		int found = 0;
+		for (int i = 0; i < COUNT; i++) {
+			KeplerLSID lsid = new KeplerLSID("urn:lsid:localhost:" + namespace
+					+ ":" + i + ":1");
+			if (cache.isContained(lsid)) {
+				found++;
+			}
+		}
+		return found;
+	}
+
+	private static long rate(long nanos) {
+		return Math.round(COUNT / (nanos / 1e9));
+	}
+}
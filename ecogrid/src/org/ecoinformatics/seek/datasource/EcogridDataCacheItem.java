@@ -198,6 +198,18 @@ public class EcogridDataCacheItem extends BufferedDataCacheObject {
 		mEndPoint = endPoint;
 	}
 
+	/**
+	 * Return the host of the resource name if it is a URL, otherwise the
+	 * host of the EcoGrid end point the data is read from.
+	 */
+	public String getSourceHost() {
+		String host = super.getSourceHost();
+		if (host.length() == 0) {
+			host = getHost(mEndPoint);
+		}
+		return host;
+	}
+
 	/**
 	 * If this item is a tar file
 	 * 
@@ -31,8 +31,14 @@ package org.kepler.gui;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 import java.util.Vector;
 
@@ -70,6 +76,9 @@ public class SimpleLibrarySearcher extends LibrarySearcher {
 
 	// the stack to create the return paths with
 	private Stack<Object> _pathStack;
+	// the LIIDs of the matches and the folders above them, or null to
+	// search every folder
+	private Set<Integer> _liidsOnPath;
 	private boolean skipRepositoryOntology = false;
 
 	/**
@@ -281,6 +290,17 @@ public class SimpleLibrarySearcher extends LibrarySearcher {
 
 		Object o = model.getRoot();
 
+		// only look in the folders that lead to a match, so that the
+		// contents of the other folders are not read from the index
+		try {
+			_liidsOnPath = LibraryManager.getInstance().getIndex()
+					.getAncestorLiids(liids);
+		} catch (SQLException e) {
+			log.warn("Unable to find the folders of the matches: "
+					+ e.getMessage());
+			_liidsOnPath = null;
+		}
+
 		// start from the root
 		_pathStack = new Stack<Object>();
 
@@ -303,6 +323,46 @@ public class SimpleLibrarySearcher extends LibrarySearcher {
 				}
 			}
 		}
+
+		orderByRank(liids);
+	}
+
+	/**
+	 * Put the results in the order of the given LIIDs, which the index
+	 * returns best match first, instead of the order of the tree.
+	 * 
+	 * @param liids
+	 */
+	private void orderByRank(Vector<Integer> liids) {
+		final Map<Integer, Integer> ranks = new HashMap<Integer, Integer>();
+		for (int i = liids.size() - 1; i >= 0; i--) {
+			ranks.put(liids.elementAt(i), new Integer(i));
+		}
+		List<TreePath> paths = new Vector<TreePath>();
+		for (int i = 0; i < _results.size(); i++) {
+			paths.add(_results.getTreePath(i));
+		}
+		Collections.sort(paths, new Comparator<TreePath>() {
+			public int compare(TreePath a, TreePath b) {
+				return getRank(a) - getRank(b);
+			}
+
+			private int getRank(TreePath path) {
+				Object last = path.getLastPathComponent();
+				if (last instanceof ComponentEntity) {
+					Integer rank = ranks.get(new Integer(LibraryManager
+							.getLiidFor((ComponentEntity<?>) last)));
+					if (rank != null) {
+						return rank.intValue();
+					}
+				}
+				return Integer.MAX_VALUE / 2;
+			}
+		});
+		_results.clear();
+		for (TreePath path : paths) {
+			_results.add(path);
+		}
 	}
 
 	/**
@@ -316,6 +376,15 @@ public class SimpleLibrarySearcher extends LibrarySearcher {
 		if (isDebugging)
 			log.debug("findLsids(" + liids + " " + entity.getName() + ")");
 
+		if (_liidsOnPath != null) {
+			int liid = LibraryManager.getLiidFor(entity);
+			if (liid != -1 && !_liidsOnPath.contains(new Integer(liid))) {
+				// no match in here
+				popstack();
+				return;
+			}
+		}
+
 		// loop through the children of the entity
 		for (Iterator i = entity.containedObjectsIterator(); i.hasNext();) {
 			NamedObj e = (NamedObj) i.next();
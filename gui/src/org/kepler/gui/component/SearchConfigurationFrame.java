@@ -61,6 +61,9 @@ public class SearchConfigurationFrame extends JFrame implements ActionListener {
 	private JCheckBox cbFolderName;
 	private JCheckBox cbKarName;
 	private JCheckBox cbLocalRepo;
+	private JCheckBox cbDocumentation;
+	private JCheckBox cbPortName;
+	private JCheckBox cbSemanticType;
 
 	private JPanel _controls;
 	private JButton _okButton;
@@ -157,6 +160,36 @@ public class SearchConfigurationFrame extends JFrame implements ActionListener {
 		}
 		_cbPane.add(cbLocalRepo);
 		
+		// Documentation check box
+		cbDocumentation = new JCheckBox(
+				StaticResources.getDisplayString(
+						"components.search.configuration.options.documentation",
+						"Component Documentation"));
+		if (_LibSearchConfig.contains(LibSearch.TYPE_DOCUMENTATION)){
+			cbDocumentation.setSelected(true);
+		}
+		_cbPane.add(cbDocumentation);
+		
+		// Port Name check box
+		cbPortName = new JCheckBox(
+				StaticResources.getDisplayString(
+						"components.search.configuration.options.portName",
+						"Port Name"));
+		if (_LibSearchConfig.contains(LibSearch.TYPE_PORT)){
+			cbPortName.setSelected(true);
+		}
+		_cbPane.add(cbPortName);
+		
+		// Semantic Type check box
+		cbSemanticType = new JCheckBox(
+				StaticResources.getDisplayString(
+						"components.search.configuration.options.semanticType",
+						"Semantic Type"));
+		if (_LibSearchConfig.contains(LibSearch.TYPE_SEMANTICTYPE)){
+			cbSemanticType.setSelected(true);
+		}
+		_cbPane.add(cbSemanticType);
+		
 		// TODO: get this working again
 		/* Class Name Checkbox
 		cbClassName = new JCheckBox("Component Java Class Name");
@@ -262,6 +295,30 @@ public class SearchConfigurationFrame extends JFrame implements ActionListener {
 			} else {
 				_LibSearchConfig.removeSearchType(LibSearch.TYPE_LOCALREPO);
 			}
+
+			if (cbDocumentation.isSelected()) {
+				if (!_LibSearchConfig.contains(LibSearch.TYPE_DOCUMENTATION)){
+					_LibSearchConfig.addSearchType(LibSearch.TYPE_DOCUMENTATION);
+				}
+			} else {
+				_LibSearchConfig.removeSearchType(LibSearch.TYPE_DOCUMENTATION);
+			}
+
+			if (cbPortName.isSelected()) {
+				if (!_LibSearchConfig.contains(LibSearch.TYPE_PORT)){
+					_LibSearchConfig.addSearchType(LibSearch.TYPE_PORT);
+				}
+			} else {
+				_LibSearchConfig.removeSearchType(LibSearch.TYPE_PORT);
+			}
+
+			if (cbSemanticType.isSelected()) {
+				if (!_LibSearchConfig.contains(LibSearch.TYPE_SEMANTICTYPE)){
+					_LibSearchConfig.addSearchType(LibSearch.TYPE_SEMANTICTYPE);
+				}
+			} else {
+				_LibSearchConfig.removeSearchType(LibSearch.TYPE_SEMANTICTYPE);
+			}
 			
 			_LibSearchConfig.serializeToDisk();
 			
@@ -1953,6 +1953,16 @@ public class IOPort extends ComponentPort {
         }
     }
 
+    /** Return true if there are port event listeners. Code that moves
+     *  data through the receivers of this port without calling get() or
+     *  send() can use this to check that no listener would miss events.
+     *  @return True if there are port event listeners.
+     *  @see #addIOPortEventListener(IOPortEventListener)
+     */
+    public boolean hasIOPortEventListeners() {
+        return _hasPortEventListeners;
+    }
+
     /** Return true if the specified channel can accept a token via the
      *  put() method.  If this port is not an output, or the channel index
      *  is out of range, then throw IllegalActionException.  If there
@@ -41,8 +41,10 @@ import ptolemy.data.DoubleToken;
 import ptolemy.data.IntToken;
 import ptolemy.data.Token;
 import ptolemy.data.expr.ASTPtRootNode;
+import ptolemy.data.expr.CompiledExpression;
 import ptolemy.data.expr.ModelScope;
 import ptolemy.data.expr.Parameter;
+import ptolemy.data.expr.ParseTreeCompiler;
 import ptolemy.data.expr.ParseTreeEvaluator;
 import ptolemy.data.expr.ParseTreeFreeVariableCollector;
 import ptolemy.data.expr.ParseTreeTypeInference;
@@ -101,6 +103,12 @@ import ptolemy.kernel.util.Workspace;
  the current time by the identifier name "time", and to the current
  iteration count by the identifier named "iteration."</p>
 
+ <p> If the expression and its inputs are of type double, int or
+ boolean, then the expression is compiled by ParseTreeCompiler
+ the first time the actor fires, so that it is evaluated without
+ creating intermediate tokens. Otherwise, it is evaluated by
+ ParseTreeEvaluator.</p>
+
  <p> This actor requires its all of its inputs to be present.  If
  inputs are not all present, then an exception will be thrown.</p>
 
@@ -162,6 +170,8 @@ public class Expression extends TypedAtomicActor {
             throws IllegalActionException {
         if (attribute == expression) {
             _parseTree = null;
+            _compiledExpression = null;
+            _compiled = false;
         }
     }
 
@@ -174,6 +184,8 @@ public class Expression extends TypedAtomicActor {
      */
     public Object clone(Workspace workspace) throws CloneNotSupportedException {
         Expression newObject = (Expression) super.clone(workspace);
+        newObject._compiled = false;
+        newObject._compiledExpression = null;
         newObject._iterationCount = 1;
         newObject._parseTree = null;
         newObject._parseTreeEvaluator = null;
@@ -228,7 +240,26 @@ public class Expression extends TypedAtomicActor {
                 _scope = new VariableScope();
             }
 
-            _result = _parseTreeEvaluator.evaluateParseTree(_parseTree, _scope);
+            // The types of the inputs are resolved by now, so compile
+            // the parse tree for them, once. If it cannot be compiled,
+            // or if the compiled expression returns null, evaluate the
+            // parse tree.
+            if (!_compiled) {
+                _compiledExpression = new ParseTreeCompiler()
+                        .compileParseTree(_parseTree, _scope);
+                _compiled = true;
+            }
+
+            _result = null;
+
+            if (_compiledExpression != null) {
+                _result = _compiledExpression.evaluate(_scope);
+            }
+
+            if (_result == null) {
+                _result = _parseTreeEvaluator.evaluateParseTree(_parseTree,
+                        _scope);
+            }
         } catch (Throwable throwable) {
             // Chain exceptions to get the actor that threw the exception.
             // Note that if evaluateParseTree does a divide by zero, we
@@ -307,6 +338,10 @@ public class Expression extends TypedAtomicActor {
     public void preinitialize() throws IllegalActionException {
         super.preinitialize();
         _tokenMap = new HashMap<String, Token>();
+
+        // The types of the inputs may differ from those of the last run.
+        _compiledExpression = null;
+        _compiled = false;
     }
 
     ///////////////////////////////////////////////////////////////////
@@ -537,6 +572,10 @@ public class Expression extends TypedAtomicActor {
 
     ///////////////////////////////////////////////////////////////////
     ////                         private variables                 ////
+    private boolean _compiled = false;
+
+    private CompiledExpression _compiledExpression = null;
+
     private int _iterationCount = 1;
 
     private ASTPtRootNode _parseTree = null;
@@ -209,7 +209,7 @@ public class StaticSchedulingDirector extends Director {
                         iterationCount));
             }
 
-            int returnValue = actor.iterate(iterationCount);
+            int returnValue = _iterateActor(actor, iterationCount);
 
             if (returnValue == STOP_ITERATING) {
                 _postfireReturns = false;
@@ -429,6 +429,21 @@ public class StaticSchedulingDirector extends Director {
     ///////////////////////////////////////////////////////////////////
     ////                         protected methods                 ////
 
+    /** Iterate the actor of a firing of the schedule the specified
+     *  number of times. This base class calls the iterate() method of
+     *  the actor. Derived classes may override this method to iterate
+     *  some actors differently.
+     *  @param actor The actor.
+     *  @param iterationCount The number of iterations.
+     *  @return NOT_READY, STOP_ITERATING, or COMPLETED.
+     *  @exception IllegalActionException If iterating the actor
+     *   throws it.
+     */
+    protected int _iterateActor(Actor actor, int iterationCount)
+            throws IllegalActionException {
+        return actor.iterate(iterationCount);
+    }
+
     /** Set the local scheduler for execution of this Director.
      *  This should not be called be directly.  Instead, call setContainer()
      *  on the scheduler.  This method removes any previous scheduler
@@ -0,0 +1,57 @@
+/* An expression compiled from a parse tree.
+
+ Copyright (c) 2014 The Regents of the University of California.
+ All rights reserved.
+ Permission is hereby granted, without written agreement and without
+ license or royalty fees, to use, copy, modify, and distribute this
+ software and its documentation for any purpose, provided that the above
+ copyright notice and the following two paragraphs appear in all copies
+ of this software.
+
+ IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ SUCH DAMAGE.
+
+ THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ ENHANCEMENTS, OR MODIFICATIONS.
+
+ PT_COPYRIGHT_VERSION_2
+ COPYRIGHTENDKEY
+
+ */
+package ptolemy.data.expr;
+
+import ptolemy.data.Token;
+import ptolemy.kernel.util.IllegalActionException;
+
+///////////////////////////////////////////////////////////////////
+//// CompiledExpression
+
+/**
+ An expression that has been compiled by ParseTreeCompiler, which can
+ be evaluated repeatedly without visiting the parse tree.
+
+ @version $Id$
+ @since Ptolemy II 10.0
+ @Pt.ProposedRating Red
+ @Pt.AcceptedRating Red
+ @see ptolemy.data.expr.ParseTreeCompiler
+ */
+public interface CompiledExpression {
+    /** Evaluate the expression using the specified scope to resolve
+     *  the values of variables. If a variable has a value of a type
+     *  other than the one the expression was compiled for, then
+     *  return null, and the parse tree should be evaluated with
+     *  ParseTreeEvaluator instead.
+     *  @param scope The scope for evaluation.
+     *  @return The result of evaluation, or null.
+     *  @exception IllegalActionException If an evaluation error occurs.
+     */
+    public Token evaluate(ParserScope scope) throws IllegalActionException;
+}
@@ -0,0 +1,1127 @@
+/* A visitor for parse trees of the expression language that compiles them.
+
+ Copyright (c) 2014 The Regents of the University of California.
+ All rights reserved.
+ Permission is hereby granted, without written agreement and without
+ license or royalty fees, to use, copy, modify, and distribute this
+ software and its documentation for any purpose, provided that the above
+ copyright notice and the following two paragraphs appear in all copies
+ of this software.
+
+ IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ SUCH DAMAGE.
+
+ THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ ENHANCEMENTS, OR MODIFICATIONS.
+
+ PT_COPYRIGHT_VERSION_2
+ COPYRIGHTENDKEY
+
+ */
+package ptolemy.data.expr;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+
+import ptolemy.data.BooleanToken;
+import ptolemy.data.DoubleToken;
+import ptolemy.data.IntToken;
+import ptolemy.data.ObjectToken;
+import ptolemy.data.type.BaseType;
+import ptolemy.data.type.Type;
+import ptolemy.data.unit.UnitUtilities;
+import ptolemy.kernel.util.IllegalActionException;
+
+///////////////////////////////////////////////////////////////////
+//// ParseTreeCompiler
+
+/**
+ This class compiles a parse tree into a tree of objects that evaluate
+ it on primitive doubles, ints and booleans, without creating a token
+ for each node, and without calling functions reflectively.
+ <p>
+ The types of the nodes are inferred with ParseTreeTypeInference.
+ A parse tree is compiled only if each of its nodes has type double,
+ int or boolean, and each node is a constant, an identifier, an
+ arithmetic, relational, logical, unary or power operation, a
+ functional if, or a call of a function of java.lang.Math on doubles
+ or ints. The compiled expression gives the same result as
+ ParseTreeEvaluator, including the wrapping of int overflows and the
+ exceptions for integer division by zero. For other trees,
+ compileParseTree() returns null, and the tree should be evaluated
+ with ParseTreeEvaluator.
+ <p>
+ The compiled expression looks up identifiers in the scope each time it
+ is evaluated, as ParseTreeEvaluator does. If a value has a type other
+ than the one inferred when compiling, or units are in use, then
+ it returns null, so that the caller can use ParseTreeEvaluator.
+
+ @version $Id$
+ @since Ptolemy II 10.0
+ @Pt.ProposedRating Red
+ @Pt.AcceptedRating Red
+ @see ptolemy.data.expr.ParseTreeEvaluator
+ */
+public class ParseTreeCompiler extends AbstractParseTreeVisitor {
+    ///////////////////////////////////////////////////////////////////
+    ////                         public methods                    ////
+
+    /** Compile the parse tree with the specified root node, using the
+     *  specified scope to infer the types of variables.
+     *  @param node The root of the parse tree.
+     *  @param scope The scope for type inference.
+     *  @return The compiled expression, or null if the parse tree
+     *   cannot be compiled.
+     */
+    public CompiledExpression compileParseTree(ASTPtRootNode node,
+            ParserScope scope) {
+        _scope = scope;
+
+        try {
+            ParseTreeTypeInference typeInference = new ParseTreeTypeInference();
+            typeInference.inferTypes(node, scope);
+            return new Compiled(_compile(node));
+        } catch (IllegalActionException ex) {
+            // Either the tree has nodes that are not supported, or the
+            // types cannot be inferred, in which case ParseTreeEvaluator
+            // will report the error.
+            return null;
+        } finally {
+            _scope = null;
+            _result = null;
+        }
+    }
+
+    /** Compile a function application, if it is a call of a function
+     *  of java.lang.Math.
+     *  @param node The specified node.
+     *  @exception IllegalActionException If the node cannot be compiled.
+     */
+    public void visitFunctionApplicationNode(ASTPtFunctionApplicationNode node)
+            throws IllegalActionException {
+        if (node.isConstant()) {
+            _result = _constant(node);
+            return;
+        }
+
+        String functionName = node.getFunctionName();
+
+        // A variable in scope with the name of the function, such as
+        // an array or a function, is applied instead of the function.
+        if (functionName == null || _scope != null
+                && _scope.get(functionName) != null) {
+            throw _unsupportedNodeException(node);
+        }
+
+        int argCount = node.jjtGetNumChildren() - 1;
+        Type[] argTypes = new Type[argCount];
+        Node[] args = new Node[argCount];
+
+        for (int i = 0; i < argCount; i++) {
+            args[i] = _compileChild(node, i + 1);
+            argTypes[i] = args[i].type;
+        }
+
+        CachedMethod cachedMethod = CachedMethod.findMethod(functionName,
+                argTypes, CachedMethod.FUNCTION);
+
+        if (!cachedMethod.isValid()) {
+            throw _unsupportedNodeException(node);
+        }
+
+        Method method = cachedMethod.getMethod();
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        Class<?> returnType = method.getReturnType();
+
+        if (method.getDeclaringClass() != Math.class
+                || parameterTypes.length != argCount) {
+            throw _unsupportedNodeException(node);
+        }
+
+        if (returnType == Double.TYPE) {
+            int function = -1;
+
+            if (argCount == 1 && parameterTypes[0] == Double.TYPE) {
+                function = _UNARY_FUNCTIONS.indexOf(method.getName());
+            } else if (argCount == 2 && parameterTypes[0] == Double.TYPE
+                    && parameterTypes[1] == Double.TYPE) {
+                function = _BINARY_FUNCTIONS.indexOf(method.getName());
+            }
+
+            if (function < 0) {
+                throw _unsupportedNodeException(node);
+            }
+
+            DoubleNode[] doubleArgs = new DoubleNode[argCount];
+
+            for (int i = 0; i < argCount; i++) {
+                doubleArgs[i] = _toDouble(args[i], node);
+            }
+
+            if (argCount == 1) {
+                _result = new UnaryFunction(function, doubleArgs[0]);
+            } else {
+                _result = new BinaryFunction(function, doubleArgs[0],
+                        doubleArgs[1]);
+            }
+        } else if (returnType == Integer.TYPE) {
+            for (int i = 0; i < argCount; i++) {
+                if (parameterTypes[i] != Integer.TYPE
+                        || !(args[i] instanceof IntNode)) {
+                    throw _unsupportedNodeException(node);
+                }
+            }
+
+            String name = method.getName();
+
+            if (argCount == 1 && name.equals("abs")) {
+                final IntNode arg = (IntNode) args[0];
+                _result = new IntNode() {
+                    int evaluate(ParserScope scope)
+                            throws IllegalActionException {
+                        return Math.abs(arg.evaluate(scope));
+                    }
+                };
+            } else if (argCount == 2
+                    && (name.equals("max") || name.equals("min"))) {
+                final IntNode left = (IntNode) args[0];
+                final IntNode right = (IntNode) args[1];
+                final boolean max = name.equals("max");
+                _result = new IntNode() {
+                    int evaluate(ParserScope scope)
+                            throws IllegalActionException {
+                        int leftValue = left.evaluate(scope);
+                        int rightValue = right.evaluate(scope);
+                        return max ? Math.max(leftValue, rightValue) : Math
+                                .min(leftValue, rightValue);
+                    }
+                };
+            } else {
+                throw _unsupportedNodeException(node);
+            }
+        } else {
+            throw _unsupportedNodeException(node);
+        }
+
+        _checkType(node);
+    }
+
+    /** Compile a functional if.
+     *  @param node The specified node.
+     *  @exception IllegalActionException If the node cannot be compiled.
+     */
+    public void visitFunctionalIfNode(ASTPtFunctionalIfNode node)
+            throws IllegalActionException {
+        if (node.isConstant()) {
+            _result = _constant(node);
+            return;
+        }
+
+        if (node.jjtGetNumChildren() != 3) {
+            throw _unsupportedNodeException(node);
+        }
+
+        final BooleanNode test = _toBoolean(_compileChild(node, 0), node);
+        Node thenNode = _compileChild(node, 1);
+        Node elseNode = _compileChild(node, 2);
+
+        // ParseTreeEvaluator converts the value of the chosen branch to
+        // the least upper bound of the types of both, which is the type
+        // of the node.
+        Type type = node.getType();
+
+        if (BaseType.DOUBLE.equals(type)) {
+            final DoubleNode thenValue = _toDouble(thenNode, node);
+            final DoubleNode elseValue = _toDouble(elseNode, node);
+            _result = new DoubleNode() {
+                double evaluate(ParserScope scope)
+                        throws IllegalActionException {
+                    return test.evaluate(scope) ? thenValue.evaluate(scope)
+                            : elseValue.evaluate(scope);
+                }
+            };
+        } else if (BaseType.INT.equals(type)) {
+            final IntNode thenValue = _toInt(thenNode, node);
+            final IntNode elseValue = _toInt(elseNode, node);
+            _result = new IntNode() {
+                int evaluate(ParserScope scope) throws IllegalActionException {
+                    return test.evaluate(scope) ? thenValue.evaluate(scope)
+                            : elseValue.evaluate(scope);
+                }
+            };
+        } else {
+            final BooleanNode thenValue = _toBoolean(thenNode, node);
+            final BooleanNode elseValue = _toBoolean(elseNode, node);
+            _result = new BooleanNode() {
+                boolean evaluate(ParserScope scope)
+                        throws IllegalActionException {
+                    return test.evaluate(scope) ? thenValue.evaluate(scope)
+                            : elseValue.evaluate(scope);
+                }
+            };
+        }
+
+        _checkType(node);
+    }
+
+    /** Compile a constant or an identifier. The value of an identifier
+     *  is looked up when the expression is evaluated.
+     *  @param node The specified node.
+     *  @exception IllegalActionException If the node cannot be compiled.
+     */
+    public void visitLeafNode(ASTPtLeafNode node) throws IllegalActionException {
+        if (node.isConstant()) {
+            _result = _constant(node);
+            return;
+        }
+
+        final String name = node.getName();
+        Type type = node.getType();
+
+        if (BaseType.DOUBLE.equals(type)) {
+            _result = new DoubleNode() {
+                double evaluate(ParserScope scope)
+                        throws IllegalActionException {
+                    ptolemy.data.Token value = _lookUp(scope, name);
+
+                    if (value == null || value.getClass() != DoubleToken.class
+                            || value.isNil()) {
+                        throw _MISMATCH;
+                    }
+
+                    return ((DoubleToken) value).doubleValue();
+                }
+            };
+        } else if (BaseType.INT.equals(type)) {
+            _result = new IntNode() {
+                int evaluate(ParserScope scope) throws IllegalActionException {
+                    ptolemy.data.Token value = _lookUp(scope, name);
+
+                    if (value == null || value.getClass() != IntToken.class
+                            || value.isNil()) {
+                        throw _MISMATCH;
+                    }
+
+                    return ((IntToken) value).intValue();
+                }
+            };
+        } else if (BaseType.BOOLEAN.equals(type)) {
+            _result = new BooleanNode() {
+                boolean evaluate(ParserScope scope)
+                        throws IllegalActionException {
+                    ptolemy.data.Token value = _lookUp(scope, name);
+
+                    if (value == null
+                            || value.getClass() != BooleanToken.class
+                            || value.isNil()) {
+                        throw _MISMATCH;
+                    }
+
+                    return ((BooleanToken) value).booleanValue();
+                }
+            };
+        } else {
+            throw _unsupportedNodeException(node);
+        }
+    }
+
+    /** Compile a logical AND or OR, which evaluates its operands only
+     *  until its value is known.
+     *  @param node The specified node.
+     *  @exception IllegalActionException If the node cannot be compiled.
+     */
+    public void visitLogicalNode(ASTPtLogicalNode node)
+            throws IllegalActionException {
+        if (node.isConstant()) {
+            _result = _constant(node);
+            return;
+        }
+
+        int numChildren = node.jjtGetNumChildren();
+        final BooleanNode[] children = new BooleanNode[numChildren];
+
+        for (int i = 0; i < numChildren; i++) {
+            children[i] = _toBoolean(_compileChild(node, i), node);
+        }
+
+        final boolean flag = node.isLogicalAnd();
+        _result = new BooleanNode() {
+            boolean evaluate(ParserScope scope) throws IllegalActionException {
+                for (BooleanNode child : children) {
+                    if (child.evaluate(scope) != flag) {
+                        return !flag;
+                    }
+                }
+
+                return flag;
+            }
+        };
+
+        _checkType(node);
+    }
+
+    /** Compile a power, where the exponents are ints.
+     *  @param node The specified node.
+     *  @exception IllegalActionException If the node cannot be compiled.
+     */
+    public void visitPowerNode(ASTPtPowerNode node)
+            throws IllegalActionException {
+        if (node.isConstant()) {
+            _result = _constant(node);
+            return;
+        }
+
+        Node result = _compileChild(node, 0);
+
+        for (int i = 1; i < node.jjtGetNumChildren(); i++) {
+            final IntNode exponent = _toInt(_compileChild(node, i), node);
+
+            // As Token.pow(), multiply iteratively.
+            if (result instanceof DoubleNode) {
+                final DoubleNode base = (DoubleNode) result;
+                result = new DoubleNode() {
+                    double evaluate(ParserScope scope)
+                            throws IllegalActionException {
+                        double value = base.evaluate(scope);
+                        int times = exponent.evaluate(scope);
+
+                        if (times == 0) {
+                            return 1.0;
+                        } else if (times < 0) {
+                            double power = value;
+
+                            for (int k = times; k < -1; k++) {
+                                power = power * value;
+                            }
+
+                            return 1.0 / power;
+                        } else {
+                            double power = value;
+
+                            for (int k = 0; k < times - 1; k++) {
+                                power = power * value;
+                            }
+
+                            return power;
+                        }
+                    }
+                };
+            } else if (result instanceof IntNode) {
+                final IntNode base = (IntNode) result;
+                result = new IntNode() {
+                    int evaluate(ParserScope scope)
+                            throws IllegalActionException {
+                        int value = base.evaluate(scope);
+                        int times = exponent.evaluate(scope);
+
+                        if (times == 0) {
+                            return 1;
+                        } else if (times < 0) {
+                            int power = value;
+
+                            for (int k = times; k < -1; k++) {
+                                power = power * value;
+                            }
+
+                            return 1 / power;
+                        } else {
+                            int power = value;
+
+                            for (int k = 0; k < times - 1; k++) {
+                                power = power * value;
+                            }
+
+                            return power;
+                        }
+                    }
+                };
+            } else {
+                throw _unsupportedNodeException(node);
+            }
+        }
+
+        _result = result;
+        _checkType(node);
+    }
+
+    /** Compile a multiplication, division or modulo.
+     *  @param node The specified node.
+     *  @exception IllegalActionException If the node cannot be compiled.
+     */
+    public void visitProductNode(ASTPtProductNode node)
+            throws IllegalActionException {
+        if (node.isConstant()) {
+            _result = _constant(node);
+            return;
+        }
+
+        _compileArithmetic(node, node.getLexicalTokenList());
+    }
+
+    /** Compile a comparison.
+     *  @param node The specified node.
+     *  @exception IllegalActionException If the node cannot be compiled.
+     */
+    public void visitRelationalNode(ASTPtRelationalNode node)
+            throws IllegalActionException {
+        if (node.isConstant()) {
+            _result = _constant(node);
+            return;
+        }
+
+        if (node.jjtGetNumChildren() != 2) {
+            throw _unsupportedNodeException(node);
+        }
+
+        final int kind = node.getOperator().kind;
+        Node left = _compileChild(node, 0);
+        Node right = _compileChild(node, 1);
+
+        if (left instanceof BooleanNode && right instanceof BooleanNode) {
+            if (kind != PtParserConstants.EQUALS
+                    && kind != PtParserConstants.NOTEQUALS) {
+                throw _unsupportedNodeException(node);
+            }
+
+            final BooleanNode leftValue = (BooleanNode) left;
+            final BooleanNode rightValue = (BooleanNode) right;
+            _result = new BooleanNode() {
+                boolean evaluate(ParserScope scope)
+                        throws IllegalActionException {
+                    boolean equal = leftValue.evaluate(scope) == rightValue
+                            .evaluate(scope);
+                    return kind == PtParserConstants.EQUALS ? equal : !equal;
+                }
+            };
+        } else if (left instanceof IntNode && right instanceof IntNode) {
+            final IntNode leftValue = (IntNode) left;
+            final IntNode rightValue = (IntNode) right;
+            _checkRelationalOperator(node, kind);
+            _result = new BooleanNode() {
+                boolean evaluate(ParserScope scope)
+                        throws IllegalActionException {
+                    int l = leftValue.evaluate(scope);
+                    int r = rightValue.evaluate(scope);
+
+                    switch (kind) {
+                    case PtParserConstants.EQUALS:
+                        return l == r;
+                    case PtParserConstants.NOTEQUALS:
+                        return l != r;
+                    case PtParserConstants.GTE:
+                        return l >= r;
+                    case PtParserConstants.GT:
+                        return l > r;
+                    case PtParserConstants.LTE:
+                        return l <= r;
+                    default:
+                        return l < r;
+                    }
+                }
+            };
+        } else {
+            final DoubleNode leftValue = _toDouble(left, node);
+            final DoubleNode rightValue = _toDouble(right, node);
+            _checkRelationalOperator(node, kind);
+            _result = new BooleanNode() {
+                boolean evaluate(ParserScope scope)
+                        throws IllegalActionException {
+                    double l = leftValue.evaluate(scope);
+                    double r = rightValue.evaluate(scope);
+
+                    switch (kind) {
+                    case PtParserConstants.EQUALS:
+                        return l == r;
+                    case PtParserConstants.NOTEQUALS:
+                        return l != r;
+                    case PtParserConstants.GTE:
+                        return l >= r;
+                    case PtParserConstants.GT:
+                        return l > r;
+                    case PtParserConstants.LTE:
+                        return l <= r;
+                    default:
+                        return l < r;
+                    }
+                }
+            };
+        }
+
+        _checkType(node);
+    }
+
+    /** Compile an addition or subtraction.
+     *  @param node The specified node.
+     *  @exception IllegalActionException If the node cannot be compiled.
+     */
+    public void visitSumNode(ASTPtSumNode node) throws IllegalActionException {
+        if (node.isConstant()) {
+            _result = _constant(node);
+            return;
+        }
+
+        _compileArithmetic(node, node.getLexicalTokenList());
+    }
+
+    /** Compile a negation, a logical not or a bitwise not.
+     *  @param node The specified node.
+     *  @exception IllegalActionException If the node cannot be compiled.
+     */
+    public void visitUnaryNode(ASTPtUnaryNode node)
+            throws IllegalActionException {
+        if (node.isConstant()) {
+            _result = _constant(node);
+            return;
+        }
+
+        Node child = _compileChild(node, 0);
+
+        if (node.isMinus() && child instanceof DoubleNode) {
+            // As ParseTreeEvaluator, subtract from zero, so that the
+            // negation of 0.0 is 0.0.
+            final DoubleNode value = (DoubleNode) child;
+            _result = new DoubleNode() {
+                double evaluate(ParserScope scope)
+                        throws IllegalActionException {
+                    return 0.0 - value.evaluate(scope);
+                }
+            };
+        } else if (node.isMinus() && child instanceof IntNode) {
+            final IntNode value = (IntNode) child;
+            _result = new IntNode() {
+                int evaluate(ParserScope scope) throws IllegalActionException {
+                    return 0 - value.evaluate(scope);
+                }
+            };
+        } else if (node.isNot() && child instanceof BooleanNode) {
+            final BooleanNode value = (BooleanNode) child;
+            _result = new BooleanNode() {
+                boolean evaluate(ParserScope scope)
+                        throws IllegalActionException {
+                    return !value.evaluate(scope);
+                }
+            };
+        } else if (node.isBitwiseNot() && child instanceof IntNode) {
+            final IntNode value = (IntNode) child;
+            _result = new IntNode() {
+                int evaluate(ParserScope scope) throws IllegalActionException {
+                    return ~value.evaluate(scope);
+                }
+            };
+        } else {
+            throw _unsupportedNodeException(node);
+        }
+
+        _checkType(node);
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         protected methods                 ////
+
+    /** Return an exception that indicates that the node cannot be
+     *  compiled. Unlike the base class, do not print a stack trace,
+     *  since not compiling a tree is not an error.
+     *  @param name The name of the type of node.
+     *  @return An exception.
+     */
+    protected IllegalActionException _unsupportedVisitException(String name) {
+        return new IllegalActionException("Nodes of type " + name
+                + " cannot be compiled.");
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private methods                   ////
+
+    /** Check that the compiled node has the type inferred for the node. */
+    private void _checkType(ASTPtRootNode node) throws IllegalActionException {
+        if (!_result.type.equals(node.getType())) {
+            throw _unsupportedNodeException(node);
+        }
+    }
+
+    /** Check that the operator is a comparison. */
+    private void _checkRelationalOperator(ASTPtRootNode node, int kind)
+            throws IllegalActionException {
+        if (kind != PtParserConstants.EQUALS
+                && kind != PtParserConstants.NOTEQUALS
+                && kind != PtParserConstants.GTE
+                && kind != PtParserConstants.GT
+                && kind != PtParserConstants.LTE
+                && kind != PtParserConstants.LT) {
+            throw _unsupportedNodeException(node);
+        }
+    }
+
+    /** Compile the children of a sum or product node, applying the
+     *  operators from left to right, as ParseTreeEvaluator does.
+     */
+    private void _compileArithmetic(ASTPtRootNode node,
+            List<Token> lexicalTokenList) throws IllegalActionException {
+        int numChildren = node.jjtGetNumChildren();
+
+        if (numChildren != lexicalTokenList.size() + 1) {
+            throw _unsupportedNodeException(node);
+        }
+
+        Node result = _compileChild(node, 0);
+
+        for (int i = 1; i < numChildren; i++) {
+            Token operator = lexicalTokenList.get(i - 1);
+            result = _arithmetic(node, operator.kind, result,
+                    _compileChild(node, i));
+        }
+
+        _result = result;
+        _checkType(node);
+    }
+
+    /** Return a node that applies an arithmetic operator. If both
+     *  operands are ints, then the operation is on ints, otherwise
+     *  on doubles, as the operations of IntToken and DoubleToken.
+     */
+    private Node _arithmetic(ASTPtRootNode node, int kind, Node left,
+            Node right) throws IllegalActionException {
+        if (left instanceof IntNode && right instanceof IntNode) {
+            final IntNode l = (IntNode) left;
+            final IntNode r = (IntNode) right;
+
+            switch (kind) {
+            case PtParserConstants.PLUS:
+                return new IntNode() {
+                    int evaluate(ParserScope scope)
+                            throws IllegalActionException {
+                        return l.evaluate(scope) + r.evaluate(scope);
+                    }
+                };
+            case PtParserConstants.MINUS:
+                return new IntNode() {
+                    int evaluate(ParserScope scope)
+                            throws IllegalActionException {
+                        return l.evaluate(scope) - r.evaluate(scope);
+                    }
+                };
+            case PtParserConstants.MULTIPLY:
+                return new IntNode() {
+                    int evaluate(ParserScope scope)
+                            throws IllegalActionException {
+                        return l.evaluate(scope) * r.evaluate(scope);
+                    }
+                };
+            case PtParserConstants.DIVIDE:
+                return new IntNode() {
+                    int evaluate(ParserScope scope)
+                            throws IllegalActionException {
+                        return l.evaluate(scope) / r.evaluate(scope);
+                    }
+                };
+            case PtParserConstants.MODULO:
+                return new IntNode() {
+                    int evaluate(ParserScope scope)
+                            throws IllegalActionException {
+                        return l.evaluate(scope) % r.evaluate(scope);
+                    }
+                };
+            default:
+                throw _unsupportedNodeException(node);
+            }
+        }
+
+        final DoubleNode l = _toDouble(left, node);
+        final DoubleNode r = _toDouble(right, node);
+
+        switch (kind) {
+        case PtParserConstants.PLUS:
+            return new DoubleNode() {
+                double evaluate(ParserScope scope)
+                        throws IllegalActionException {
+                    return l.evaluate(scope) + r.evaluate(scope);
+                }
+            };
+        case PtParserConstants.MINUS:
+            return new DoubleNode() {
+                double evaluate(ParserScope scope)
+                        throws IllegalActionException {
+                    return l.evaluate(scope) - r.evaluate(scope);
+                }
+            };
+        case PtParserConstants.MULTIPLY:
+            return new DoubleNode() {
+                double evaluate(ParserScope scope)
+                        throws IllegalActionException {
+                    return l.evaluate(scope) * r.evaluate(scope);
+                }
+            };
+        case PtParserConstants.DIVIDE:
+            return new DoubleNode() {
+                double evaluate(ParserScope scope)
+                        throws IllegalActionException {
+                    return l.evaluate(scope) / r.evaluate(scope);
+                }
+            };
+        case PtParserConstants.MODULO:
+            return new DoubleNode() {
+                double evaluate(ParserScope scope)
+                        throws IllegalActionException {
+                    return l.evaluate(scope) % r.evaluate(scope);
+                }
+            };
+        default:
+            throw _unsupportedNodeException(node);
+        }
+    }
+
+    /** Compile the specified node. */
+    private Node _compile(ASTPtRootNode node) throws IllegalActionException {
+        node.visit(this);
+        return _result;
+    }
+
+    /** Compile the specified child of the specified node. */
+    private Node _compileChild(ASTPtRootNode node, int i)
+            throws IllegalActionException {
+        return _compile((ASTPtRootNode) node.jjtGetChild(i));
+    }
+
+    /** Evaluate a constant node now and return a node for its value. */
+    private Node _constant(ASTPtRootNode node) throws IllegalActionException {
+        ptolemy.data.Token value;
+
+        try {
+            value = new ParseTreeEvaluator().evaluateParseTree(node, _scope);
+        } catch (ArithmeticException ex) {
+            // Leave the error to ParseTreeEvaluator.
+            throw _unsupportedNodeException(node);
+        }
+
+        if (value == null || value.isNil()) {
+            throw _unsupportedNodeException(node);
+        }
+
+        if (value.getClass() == DoubleToken.class) {
+            final double constant = ((DoubleToken) value).doubleValue();
+            return new DoubleNode() {
+                double evaluate(ParserScope scope) {
+                    return constant;
+                }
+            };
+        } else if (value.getClass() == IntToken.class) {
+            final int constant = ((IntToken) value).intValue();
+            return new IntNode() {
+                int evaluate(ParserScope scope) {
+                    return constant;
+                }
+            };
+        } else if (value.getClass() == BooleanToken.class) {
+            final boolean constant = ((BooleanToken) value).booleanValue();
+            return new BooleanNode() {
+                boolean evaluate(ParserScope scope) {
+                    return constant;
+                }
+            };
+        }
+
+        throw _unsupportedNodeException(node);
+    }
+
+    /** Look up the value of an identifier as ParseTreeEvaluator does. */
+    private static ptolemy.data.Token _lookUp(ParserScope scope, String name)
+            throws IllegalActionException {
+        ptolemy.data.Token value = null;
+
+        if (scope != null) {
+            value = scope.get(name);
+        }
+
+        if (value == null || value instanceof ObjectToken) {
+            ptolemy.data.Token constant = Constants.get(name);
+
+            if (constant != null) {
+                value = constant;
+            }
+        }
+
+        return value;
+    }
+
+    /** Return the node as a boolean node. */
+    private BooleanNode _toBoolean(Node child, ASTPtRootNode node)
+            throws IllegalActionException {
+        if (child instanceof BooleanNode) {
+            return (BooleanNode) child;
+        }
+
+        throw _unsupportedNodeException(node);
+    }
+
+    /** Return the node as a double node, converting an int node
+     *  losslessly.
+     */
+    private DoubleNode _toDouble(Node child, ASTPtRootNode node)
+            throws IllegalActionException {
+        if (child instanceof DoubleNode) {
+            return (DoubleNode) child;
+        } else if (child instanceof IntNode) {
+            final IntNode value = (IntNode) child;
+            return new DoubleNode() {
+                double evaluate(ParserScope scope)
+                        throws IllegalActionException {
+                    return value.evaluate(scope);
+                }
+            };
+        }
+
+        throw _unsupportedNodeException(node);
+    }
+
+    /** Return the node as an int node. */
+    private IntNode _toInt(Node child, ASTPtRootNode node)
+            throws IllegalActionException {
+        if (child instanceof IntNode) {
+            return (IntNode) child;
+        }
+
+        throw _unsupportedNodeException(node);
+    }
+
+    /** Return an exception that indicates that the node cannot be
+     *  compiled.
+     */
+    private IllegalActionException _unsupportedNodeException(
+            ASTPtRootNode node) {
+        return _unsupportedVisitException(node.getClass().getName());
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+
+    /** The functions of java.lang.Math from double to double. */
+    private static final List<String> _UNARY_FUNCTIONS = Arrays
+            .asList(new String[] { "abs", "acos", "asin", "atan", "cbrt",
+                    "ceil", "cos", "cosh", "exp", "expm1", "floor", "log",
+                    "log10", "log1p", "rint", "signum", "sin", "sinh", "sqrt",
+                    "tan", "tanh", "toDegrees", "toRadians" });
+
+    /** The functions of java.lang.Math from two doubles to double. */
+    private static final List<String> _BINARY_FUNCTIONS = Arrays
+            .asList(new String[] { "IEEEremainder", "atan2", "hypot", "max",
+                    "min", "pow" });
+
+    /** Thrown by the nodes for identifiers if a value has an
+     *  unexpected type.
+     */
+    private static final TypeMismatch _MISMATCH = new TypeMismatch();
+
+    /** The last node compiled. */
+    private Node _result;
+
+    /** The scope for type inference. */
+    private ParserScope _scope;
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         inner classes                     ////
+
+    /** A compiled node, which evaluates to a value of its type. */
+    private abstract static class Node {
+        Node(Type type) {
+            this.type = type;
+        }
+
+        /** Return the value as a token. */
+        abstract ptolemy.data.Token evaluateToken(ParserScope scope)
+                throws IllegalActionException;
+
+        /** The type of the value. */
+        final Type type;
+    }
+
+    /** A node that evaluates to a boolean. */
+    private abstract static class BooleanNode extends Node {
+        BooleanNode() {
+            super(BaseType.BOOLEAN);
+        }
+
+        abstract boolean evaluate(ParserScope scope)
+                throws IllegalActionException;
+
+        ptolemy.data.Token evaluateToken(ParserScope scope)
+                throws IllegalActionException {
+            return BooleanToken.getInstance(evaluate(scope));
+        }
+    }
+
+    /** A node that evaluates to a double. */
+    private abstract static class DoubleNode extends Node {
+        DoubleNode() {
+            super(BaseType.DOUBLE);
+        }
+
+        abstract double evaluate(ParserScope scope)
+                throws IllegalActionException;
+
+        ptolemy.data.Token evaluateToken(ParserScope scope)
+                throws IllegalActionException {
+            return new DoubleToken(evaluate(scope));
+        }
+    }
+
+    /** A node that evaluates to an int. */
+    private abstract static class IntNode extends Node {
+        IntNode() {
+            super(BaseType.INT);
+        }
+
+        abstract int evaluate(ParserScope scope)
+                throws IllegalActionException;
+
+        ptolemy.data.Token evaluateToken(ParserScope scope)
+                throws IllegalActionException {
+            return new IntToken(evaluate(scope));
+        }
+    }
+
+    /** A function of java.lang.Math from two doubles to double. */
+    private static class BinaryFunction extends DoubleNode {
+        BinaryFunction(int function, DoubleNode left, DoubleNode right) {
+            _function = function;
+            _left = left;
+            _right = right;
+        }
+
+        double evaluate(ParserScope scope) throws IllegalActionException {
+            double x = _left.evaluate(scope);
+            double y = _right.evaluate(scope);
+
+            // The order is that of _BINARY_FUNCTIONS.
+            switch (_function) {
+            case 0:
+                return Math.IEEEremainder(x, y);
+            case 1:
+                return Math.atan2(x, y);
+            case 2:
+                return Math.hypot(x, y);
+            case 3:
+                return Math.max(x, y);
+            case 4:
+                return Math.min(x, y);
+            default:
+                return Math.pow(x, y);
+            }
+        }
+
+        private final int _function;
+
+        private final DoubleNode _left;
+
+        private final DoubleNode _right;
+    }
+
+    /** The result of compiling a parse tree. */
+    private static class Compiled implements CompiledExpression {
+        Compiled(Node root) {
+            _root = root;
+        }
+
+        public ptolemy.data.Token evaluate(ParserScope scope)
+                throws IllegalActionException {
+            // The compiled nodes do not keep units, so leave values that
+            // may have units to ParseTreeEvaluator.
+            if (UnitUtilities.getNumCategories() != 0) {
+                return null;
+            }
+
+            try {
+                return _root.evaluateToken(scope);
+            } catch (TypeMismatch ex) {
+                return null;
+            }
+        }
+
+        private final Node _root;
+    }
+
+    /** Thrown if the value of an identifier has a type other than the
+     *  one inferred when compiling.
+     */
+    @SuppressWarnings("serial")
+    private static class TypeMismatch extends RuntimeException {
+        public Throwable fillInStackTrace() {
+            // Thrown often and never reported, so do not fill in the
+            // stack trace.
+            return this;
+        }
+    }
+
+    /** A function of java.lang.Math from double to double. */
+    private static class UnaryFunction extends DoubleNode {
+        UnaryFunction(int function, DoubleNode argument) {
+            _function = function;
+            _argument = argument;
+        }
+
+        double evaluate(ParserScope scope) throws IllegalActionException {
+            double x = _argument.evaluate(scope);
+
+            // The order is that of _UNARY_FUNCTIONS.
+            switch (_function) {
+            case 0:
+                return Math.abs(x);
+            case 1:
+                return Math.acos(x);
+            case 2:
+                return Math.asin(x);
+            case 3:
+                return Math.atan(x);
+            case 4:
+                return Math.cbrt(x);
+            case 5:
+                return Math.ceil(x);
+            case 6:
+                return Math.cos(x);
+            case 7:
+                return Math.cosh(x);
+            case 8:
+                return Math.exp(x);
+            case 9:
+                return Math.expm1(x);
+            case 10:
+                return Math.floor(x);
+            case 11:
+                return Math.log(x);
+            case 12:
+                return Math.log10(x);
+            case 13:
+                return Math.log1p(x);
+            case 14:
+                return Math.rint(x);
+            case 15:
+                return Math.signum(x);
+            case 16:
+                return Math.sin(x);
+            case 17:
+                return Math.sinh(x);
+            case 18:
+                return Math.sqrt(x);
+            case 19:
+                return Math.tan(x);
+            case 20:
+                return Math.tanh(x);
+            case 21:
+                return Math.toDegrees(x);
+            default:
+                return Math.toRadians(x);
+            }
+        }
+
+        private final DoubleNode _argument;
+
+        private final int _function;
+    }
+}
@@ -0,0 +1,105 @@
+# Tests for the ParseTreeCompiler class
+#
+# @Version: $Id$
+#
+# @Copyright (c) 2014 The Regents of the University of California.
+# All rights reserved.
+# 
+# Permission is hereby granted, without written agreement and without
+# license or royalty fees, to use, copy, modify, and distribute this
+# software and its documentation for any purpose, provided that the
+# above copyright notice and the following two paragraphs appear in all
+# copies of this software.
+# 
+# IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+# FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+# ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+# THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+# SUCH DAMAGE.
+# 
+# THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+# INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+# MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+# PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+# CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+# ENHANCEMENTS, OR MODIFICATIONS.
+# 
+# 						PT_COPYRIGHT_VERSION_2
+# 						COPYRIGHTENDKEY
+#######################################################################
+
+# Ptolemy II test bed, see $PTII/doc/coding/testing.html for more information.
+
+# Load up the test definitions.
+if {[string compare test [info procs test]] == 1} then { 
+    source testDefs.tcl
+} {}
+
+# Uncomment this to get a full report, or set in your Tcl shell window.
+# set VERBOSE 1
+
+# Evaluate an expression with ParseTreeEvaluator and compiled, where
+# x is value/1000.0, n is value and b is true if value is even.
+proc compare {expression value} {
+    java::call ptolemy.data.expr.test.ParseTreeCompilerBenchmark \
+	    compare $expression $value
+}
+
+######################################################################
+####
+# 
+test ParseTreeCompiler-1.1 {arithmetic on doubles and ints} {
+    list [compare "2.0 * x * x - 3.0 * x + 1.0" 7] \
+	    [compare "(x + n) / (n + 1)" 7] \
+	    [compare "n % 7 + n * 3 - 5" -3] \
+	    [compare "x - n" 1] \
+	    [compare "-x" 0]
+} {{0.979098 compiled} {0.875875 compiled} {-17 compiled} {-0.999 compiled} {0.0 compiled}}
+
+######################################################################
+####
+# 
+test ParseTreeCompiler-1.2 {ints wrap as IntToken does} {
+    list [compare "2147483647 + n" 1] \
+	    [compare "n*n*n*n*n*n*n*n" 7] \
+	    [compare "~n" 7]
+} {{-2147483648 compiled} {5764801 compiled} {-8 compiled}}
+
+######################################################################
+####
+# 
+test ParseTreeCompiler-1.3 {integer division by zero} {
+    catch {compare "n / (n - n)" 7} errMsg
+    list $errMsg
+} {{java.lang.ArithmeticException: / by zero}}
+
+######################################################################
+####
+# 
+test ParseTreeCompiler-2.1 {relational, logical and functional if} {
+    list [compare "x > 0.5 && n < 100 || b" 7] \
+	    [compare "n > 0.5" 1] \
+	    [compare "b == true" 0] \
+	    [compare "b ? n : x" 1] \
+	    [compare "!b" 1]
+} {{false compiled} {true compiled} {true compiled} {1.0E-3 compiled} {true compiled}}
+
+######################################################################
+####
+# 
+test ParseTreeCompiler-2.2 {powers, functions and constants} {
+    list [compare "x^-2" 1] \
+	    [compare "n^0" 7] \
+	    [compare "sin(n)" 1] \
+	    [compare "atan2(x, 1.0)" 0] \
+	    [compare "PI + n" 1]
+} {{1.0E6 compiled} {1 compiled} {0.8414709848079 compiled} {0.0 compiled} {4.1415926535898 compiled}}
+
+######################################################################
+####
+# 
+test ParseTreeCompiler-3.1 {expressions that are not compiled} {
+    list [compare "round(x)" 7] \
+	    [compare "{x, n}" 7] \
+	    [compare "\"a\" + n" 7]
+} {{0L not compiled} {{0.007, 7.0} not compiled} {"a7" not compiled}}
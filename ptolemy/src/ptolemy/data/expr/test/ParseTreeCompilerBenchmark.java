@@ -0,0 +1,205 @@
+/* A benchmark of compiled and interpreted evaluation of expressions.
+
+ Copyright (c) 2014 The Regents of the University of California.
+ All rights reserved.
+ Permission is hereby granted, without written agreement and without
+ license or royalty fees, to use, copy, modify, and distribute this
+ software and its documentation for any purpose, provided that the above
+ copyright notice and the following two paragraphs appear in all copies
+ of this software.
+
+ IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ SUCH DAMAGE.
+
+ THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ ENHANCEMENTS, OR MODIFICATIONS.
+
+ PT_COPYRIGHT_VERSION_2
+ COPYRIGHTENDKEY
+ */
+package ptolemy.data.expr.test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import ptolemy.data.BooleanToken;
+import ptolemy.data.DoubleToken;
+import ptolemy.data.IntToken;
+import ptolemy.data.Token;
+import ptolemy.data.expr.ASTPtRootNode;
+import ptolemy.data.expr.CompiledExpression;
+import ptolemy.data.expr.ParseTreeCompiler;
+import ptolemy.data.expr.ParseTreeEvaluator;
+import ptolemy.data.expr.ParserScope;
+import ptolemy.data.expr.PtParser;
+import ptolemy.data.type.Type;
+import ptolemy.graph.InequalityTerm;
+import ptolemy.kernel.util.IllegalActionException;
+
+///////////////////////////////////////////////////////////////////
+//// ParseTreeCompilerBenchmark
+
+/**
+ A benchmark that compares the time to evaluate expressions with
+ ParseTreeEvaluator and with the expressions compiled by
+ ParseTreeCompiler.
+ <p>
+ The expressions refer to a double <i>x</i>, an int <i>n</i> and a
+ boolean <i>b</i>, which change on every evaluation, as the inputs of
+ an Expression actor do. For each expression, the time of each
+ evaluation is printed. To run it:
+ <pre>
+ java -classpath $PTII ptolemy.data.expr.test.ParseTreeCompilerBenchmark [evaluations]
+ </pre>
+
+ @version $Id$
+ @since Ptolemy II 10.0
+ @Pt.ProposedRating Red
+ @Pt.AcceptedRating Red
+ */
+public class ParseTreeCompilerBenchmark {
+
+    /** Run the benchmark.
+     *  @param args The number of evaluations of each expression, by
+     *   default 1000000.
+     *  @exception IllegalActionException If an expression cannot be
+     *   parsed or evaluated.
+     */
+    public static void main(String[] args) throws IllegalActionException {
+        int evaluations = args.length > 0 ? Integer.parseInt(args[0])
+                : 1000000;
+
+        for (String expression : EXPRESSIONS) {
+            PtParser parser = new PtParser();
+            ASTPtRootNode root = parser.generateParseTree(expression);
+            Scope scope = new Scope();
+            scope.set(0);
+            CompiledExpression compiled = new ParseTreeCompiler()
+                    .compileParseTree(root, scope);
+
+            if (compiled == null) {
+                System.out.println(expression + ": not compiled");
+                continue;
+            }
+
+            ParseTreeEvaluator evaluator = new ParseTreeEvaluator();
+
+            // Run each twice, so that the second run is compiled by the JIT.
+            long interpreted = 0;
+            long compiledTime = 0;
+
+            for (int run = 0; run < 2; run++) {
+                long start = System.nanoTime();
+
+                for (int i = 0; i < evaluations; i++) {
+                    scope.set(i);
+                    _sink = evaluator.evaluateParseTree(root, scope);
+                }
+
+                interpreted = System.nanoTime() - start;
+                start = System.nanoTime();
+
+                for (int i = 0; i < evaluations; i++) {
+                    scope.set(i);
+                    _sink = compiled.evaluate(scope);
+                }
+
+                compiledTime = System.nanoTime() - start;
+            }
+
+            System.out.println(expression + ": interpreted "
+                    + interpreted / evaluations + " ns, compiled "
+                    + compiledTime / evaluations + " ns");
+        }
+    }
+
+    /** Evaluate the expression with ParseTreeEvaluator and with
+     *  ParseTreeCompiler, with the variables <i>x</i>, <i>n</i> and
+     *  <i>b</i> set from the specified value, and return the result.
+     *  @param expression The expression.
+     *  @param value The value of the variables.
+     *  @return The result of ParseTreeEvaluator, followed by "compiled"
+     *   if the compiled expression gives the same result, "differs"
+     *   if it does not, or "not compiled".
+     *  @exception IllegalActionException If the expression cannot be
+     *   parsed or evaluated.
+     */
+    public static String compare(String expression, int value)
+            throws IllegalActionException {
+        PtParser parser = new PtParser();
+        ASTPtRootNode root = parser.generateParseTree(expression);
+        Scope scope = new Scope();
+        scope.set(value);
+
+        Token interpreted = new ParseTreeEvaluator().evaluateParseTree(root,
+                scope);
+        CompiledExpression compiled = new ParseTreeCompiler()
+                .compileParseTree(root, scope);
+
+        if (compiled == null) {
+            return interpreted + " not compiled";
+        }
+
+        Token result = compiled.evaluate(scope);
+
+        if (result != null && result.getClass() == interpreted.getClass()
+                && result.toString().equals(interpreted.toString())) {
+            return interpreted + " compiled";
+        }
+
+        return interpreted + " differs: " + result;
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+
+    /** The expressions to evaluate. */
+    private static final String[] EXPRESSIONS = { "x + 1.0",
+            "2.0 * x * x - 3.0 * x + 1.0", "(x + n) / (n + 1)",
+            "sin(x) * cos(x) + sqrt(abs(x))", "n % 7 + n * 3 - 5",
+            "b ? x * 2.0 : x / 2.0", "x > 0.5 && n < 100 || b",
+            "x^3 - 2.0 * x^2 + exp(-x)" };
+
+    /** Where the results are put, so that they are not optimized away. */
+    private static volatile Token _sink;
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         inner classes                     ////
+
+    /** A scope with a double x, an int n and a boolean b. */
+    private static class Scope implements ParserScope {
+        public Token get(String name) {
+            return _values.get(name);
+        }
+
+        public Type getType(String name) {
+            Token value = _values.get(name);
+            return value == null ? null : value.getType();
+        }
+
+        public InequalityTerm getTypeTerm(String name) {
+            return null;
+        }
+
+        public Set identifierSet() {
+            return _values.keySet();
+        }
+
+        /** Set the variables from the specified value. */
+        void set(int value) {
+            _values.put("x", new DoubleToken(value * 0.001));
+            _values.put("n", new IntToken(value));
+            _values.put("b", BooleanToken.getInstance(value % 2 == 0));
+        }
+
+        private Map<String, Token> _values = new HashMap<String, Token>();
+    }
+}
@@ -0,0 +1,166 @@
+/* A benchmark of the contention on the workspace in a PN model.
+
+ Copyright (c) 2014 The Regents of the University of California.
+ All rights reserved.
+ Permission is hereby granted, without written agreement and without
+ license or royalty fees, to use, copy, modify, and distribute this
+ software and its documentation for any purpose, provided that the above
+ copyright notice and the following two paragraphs appear in all copies
+ of this software.
+
+ IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ SUCH DAMAGE.
+
+ THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ ENHANCEMENTS, OR MODIFICATIONS.
+
+ PT_COPYRIGHT_VERSION_2
+ COPYRIGHTENDKEY
+ */
+package ptolemy.domains.pn.kernel.test;
+
+import ptolemy.actor.Manager;
+import ptolemy.actor.TypedCompositeActor;
+import ptolemy.actor.lib.Discard;
+import ptolemy.actor.lib.Ramp;
+import ptolemy.actor.lib.Scale;
+import ptolemy.domains.pn.kernel.PNDirector;
+import ptolemy.kernel.util.KernelException;
+import ptolemy.kernel.util.Workspace;
+
+///////////////////////////////////////////////////////////////////
+//// WorkspaceContention
+
+/**
+ A benchmark of the contention on the workspace when many threads read
+ it at once, as the threads of the actors of a PN model do.
+ <p>
+ The benchmark runs a PN model of 64 actors, a Ramp, a chain of 62
+ Scale actors and a Discard, that passes a number of tokens down the
+ chain, so that the 64 actor threads read the structure of the model
+ on every firing. It also runs 64 threads that do nothing but get and
+ release read access to one workspace, to measure the cost of that
+ alone. Each is repeated, and the time of each run is printed.
+ To run it:
+ <pre>
+ java -classpath $PTII ptolemy.domains.pn.kernel.test.WorkspaceContention [tokens [runs]]
+ </pre>
+
+ @version $Id$
+ @since Ptolemy II 10.0
+ @Pt.ProposedRating Red
+ @Pt.AcceptedRating Red
+ */
+public class WorkspaceContention {
+
+    /** Run the benchmark.
+     *  @param args The number of tokens to send down the chain, by default
+     *   2000, and the number of runs, by default 5.
+     *  @exception Exception If the model cannot be built or run.
+     */
+    public static void main(String[] args) throws Exception {
+        int tokens = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        for (int run = 0; run < runs; run++) {
+            long start = System.nanoTime();
+            runModel(tokens);
+            long model = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            readWorkspace(ACTORS, tokens * 100);
+            long reads = System.nanoTime() - start;
+
+            System.out.println("run " + run + ": model "
+                    + model / 1000000 + " ms, "
+                    + model / tokens / 1000 + " us/token; " + ACTORS
+                    + " readers " + reads / 1000000 + " ms, "
+                    + reads / ((long) ACTORS * tokens * 100) + " ns/read");
+        }
+    }
+
+    /** Build and run the PN model of 64 actors.
+     *  @param tokens The number of tokens to send down the chain.
+     *  @exception KernelException If the model cannot be built or run.
+     */
+    public static void runModel(int tokens) throws KernelException {
+        Workspace workspace = new Workspace("W");
+        TypedCompositeActor top = new TypedCompositeActor(workspace);
+        top.setName("top");
+        new PNDirector(top, "director");
+        Manager manager = new Manager(workspace, "manager");
+        top.setManager(manager);
+
+        Ramp ramp = new Ramp(top, "ramp");
+        ramp.firingCountLimit.setExpression(Integer.toString(tokens));
+        Scale previous = null;
+
+        for (int i = 0; i < ACTORS - 2; i++) {
+            Scale scale = new Scale(top, "scale" + i);
+            if (previous == null) {
+                top.connect(ramp.output, scale.input);
+            } else {
+                top.connect(previous.output, scale.input);
+            }
+            previous = scale;
+        }
+
+        Discard discard = new Discard(top, "discard");
+        top.connect(previous.output, discard.input);
+
+        manager.execute();
+    }
+
+    /** Start threads that get and release read access to one workspace,
+     *  and wait for them to finish.
+     *  @param threads The number of threads.
+     *  @param reads The number of times each thread gets read access.
+     *  @exception InterruptedException If interrupted while waiting.
+     */
+    public static void readWorkspace(int threads, final int reads)
+            throws InterruptedException {
+        final Workspace workspace = new Workspace("W");
+        Thread[] readers = new Thread[threads];
+
+        for (int i = 0; i < threads; i++) {
+            readers[i] = new Thread("reader" + i) {
+                public void run() {
+                    for (int j = 0; j < reads; j++) {
+                        try {
+                            workspace.getReadAccess();
+                            _versions += workspace.getVersion();
+                        } finally {
+                            workspace.doneReading();
+                        }
+                    }
+                }
+            };
+        }
+
+        for (Thread reader : readers) {
+            reader.start();
+        }
+
+        for (Thread reader : readers) {
+            reader.join();
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+
+    /** The number of actors in the model and of reading threads. */
+    private static final int ACTORS = 64;
+
+    /** Where the readers put what they read, so that it is not
+     *  optimized away.
+     */
+    private static volatile long _versions;
+}
@@ -0,0 +1,77 @@
+/* An actor that can perform several iterations at once.
+
+ Copyright (c) 2014 The Regents of the University of California.
+ All rights reserved.
+ Permission is hereby granted, without written agreement and without
+ license or royalty fees, to use, copy, modify, and distribute this
+ software and its documentation for any purpose, provided that the above
+ copyright notice and the following two paragraphs appear in all copies
+ of this software.
+
+ IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ SUCH DAMAGE.
+
+ THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ ENHANCEMENTS, OR MODIFICATIONS.
+
+ PT_COPYRIGHT_VERSION_2
+ COPYRIGHTENDKEY
+
+ */
+package ptolemy.domains.sdf.kernel;
+
+import ptolemy.actor.Actor;
+import ptolemy.kernel.util.IllegalActionException;
+
+///////////////////////////////////////////////////////////////////
+//// BlockFiringActor
+
+/**
+ An actor that can perform several iterations at once. If the
+ <i>blockFiring</i> parameter of the SDFDirector is true, then the
+ director calls iterateBlock() instead of iterate() for each firing of
+ the schedule of an actor that implements this interface. The number of
+ iterations is the number of times that the actor is fired in a row by
+ the schedule, which the <i>vectorizationFactor</i> parameter of the
+ director multiplies. An actor can get the tokens that the iterations
+ consume with one call to get(), or to one of the methods of
+ {@link PrimitiveChannels}, compute the outputs in a loop, and send them
+ with one call to send(), instead of calling prefire(), fire() and
+ postfire() for each iteration.
+ <p>
+ An implementation calls prefire() once before the block and postfire()
+ once after it, not once per iteration. Only an actor whose prefire()
+ and postfire() do not depend on the iteration, that is, do not update
+ state that the next iteration reads, and whose postfire() returns the
+ same value after one iteration as after the whole block, should
+ implement this interface. An implementation should call iterate()
+ instead if a derived class may override prefire(), fire() or
+ postfire(), as {@link ptolemy.domains.sdf.lib.SDFTransformer} does.
+
+ @version $Id$
+ @since Ptolemy II 10.0
+ @Pt.ProposedRating Red
+ @Pt.AcceptedRating Red
+ @see SDFDirector#blockFiring
+ */
+public interface BlockFiringActor extends Actor {
+    /** Perform the specified number of iterations of the actor, with
+     *  the same effect as iterate(). The prefire() and postfire()
+     *  methods are called once for the whole block. An implementation
+     *  may call iterate() if it cannot perform the iterations at once,
+     *  for example if there are not enough tokens for all of them.
+     *  @param count The number of iterations to perform.
+     *  @return NOT_READY, STOP_ITERATING, or COMPLETED.
+     *  @exception IllegalActionException If iterating is not
+     *   permitted, or if prefire(), fire(), or postfire() throw it.
+     *  @see ptolemy.actor.Executable#iterate(int)
+     */
+    public int iterateBlock(int count) throws IllegalActionException;
+}
@@ -0,0 +1,483 @@
+/* An executor that fires the actors of a schedule on several threads.
+
+ Copyright (c) 2014 The Regents of the University of California.
+ All rights reserved.
+ Permission is hereby granted, without written agreement and without
+ license or royalty fees, to use, copy, modify, and distribute this
+ software and its documentation for any purpose, provided that the above
+ copyright notice and the following two paragraphs appear in all copies
+ of this software.
+
+ IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ SUCH DAMAGE.
+
+ THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ ENHANCEMENTS, OR MODIFICATIONS.
+
+ PT_COPYRIGHT_VERSION_2
+ COPYRIGHTENDKEY
+
+ */
+package ptolemy.domains.sdf.kernel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ptolemy.actor.Actor;
+import ptolemy.actor.Director;
+import ptolemy.actor.Executable;
+import ptolemy.actor.IOPort;
+import ptolemy.actor.Receiver;
+import ptolemy.actor.sched.Firing;
+import ptolemy.actor.sched.Schedule;
+import ptolemy.kernel.util.IllegalActionException;
+
+///////////////////////////////////////////////////////////////////
+//// ParallelScheduleExecutor
+
+/**
+ An executor that fires the actors of a schedule on the threads of a
+ ForkJoinPool, in an order that gives the same results as firing them
+ in the order of the schedule.
+ <p>
+ The firings of the schedule are the nodes of a graph, in which a firing
+ depends on the firings earlier in the schedule of the same actor and of
+ the actors that share a receiver with it, that is, the actors that are
+ connected to it. A firing is started when the firings that it depends on
+ have finished, so each actor fires in the order of the schedule, and the
+ tokens are put into and taken from each receiver in the same order as
+ when the schedule is executed by one thread. Firings that do not depend
+ on each other, such as the firings of the actors of independent branches
+ of a model, may run at the same time. A thread that finishes a firing
+ continues with one of the firings that became ready, and the others are
+ forked, so that idle threads of the pool steal them.
+ <p>
+ The firings of an actor are never run at the same time, because actors
+ have state. Actors that share state other than their channels, for
+ example actors that write to the same file, may interleave their
+ actions differently from one execution to the next.
+
+ @version $Id$
+ @since Ptolemy II 10.0
+ @Pt.ProposedRating Red
+ @Pt.AcceptedRating Red
+ @see SDFDirector#firingThreads
+ */
+public class ParallelScheduleExecutor {
+    /** Construct an executor for the specified schedule, and find the
+     *  firings that each firing depends on.
+     *  @param schedule The schedule.
+     *  @param version The version of the workspace for which the
+     *   dependencies are found.
+     *  @exception IllegalActionException If the receivers of a port
+     *   cannot be found.
+     */
+    public ParallelScheduleExecutor(Schedule schedule, long version)
+            throws IllegalActionException {
+        _schedule = schedule;
+        _version = version;
+
+        List<Firing> firings = new ArrayList<Firing>();
+        Set<Actor> actors = new LinkedHashSet<Actor>();
+        Iterator<?> iterator = schedule.firingIterator();
+
+        while (iterator.hasNext()) {
+            Firing firing = (Firing) iterator.next();
+            firings.add(firing);
+            actors.add(firing.getActor());
+        }
+
+        int count = firings.size();
+        _actors = new Actor[count];
+        _iterationCounts = new int[count];
+        _predecessorCounts = new int[count];
+        _successors = new int[count][];
+
+        Map<Actor, Set<Actor>> neighbors = _neighbors(actors);
+        Map<Actor, Integer> lastFirings = new HashMap<Actor, Integer>();
+        List<List<Integer>> successors = new ArrayList<List<Integer>>(count);
+        _sequential = true;
+
+        for (int i = 0; i < count; i++) {
+            Firing firing = firings.get(i);
+            Actor actor = firing.getActor();
+            _actors[i] = actor;
+            _iterationCounts[i] = firing.getIterationCount();
+            successors.add(new ArrayList<Integer>());
+
+            // The last earlier firing of each neighbor depends on the
+            // earlier firings of that neighbor, so it is enough to
+            // depend on it.
+            Set<Integer> predecessors = new HashSet<Integer>();
+
+            for (Actor neighbor : neighbors.get(actor)) {
+                Integer lastFiring = lastFirings.get(neighbor);
+
+                if (lastFiring != null) {
+                    predecessors.add(lastFiring);
+                }
+            }
+
+            for (Integer predecessor : predecessors) {
+                successors.get(predecessor).add(i);
+            }
+
+            _predecessorCounts[i] = predecessors.size();
+
+            if (i > 0 && !predecessors.contains(i - 1)) {
+                _sequential = false;
+            }
+
+            lastFirings.put(actor, i);
+        }
+
+        for (int i = 0; i < count; i++) {
+            List<Integer> list = successors.get(i);
+            _successors[i] = new int[list.size()];
+
+            for (int j = 0; j < _successors[i].length; j++) {
+                _successors[i][j] = list.get(j);
+            }
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         public methods                    ////
+
+    /** Fire the actors of the schedule once on the threads of the
+     *  specified pool, and return when all the firings have finished.
+     *  If a firing throws an exception, or if a stop of the director
+     *  is requested, then the firings that have not started are not
+     *  run, and the exception is thrown. No firing runs after this
+     *  method returns or throws: if the thread is interrupted, then
+     *  this method waits for the firings that have started to finish
+     *  before throwing.
+     *  @param pool The pool.
+     *  @param director The director that executes the schedule.
+     *  @return False if the postfire() method of an actor returned
+     *   false, and true otherwise.
+     *  @exception IllegalActionException If the iterate() method of an
+     *   actor throws it, if an actor is not ready to fire, or if the
+     *   thread is interrupted.
+     */
+    public boolean execute(ForkJoinPool pool, Director director)
+            throws IllegalActionException {
+        Execution execution = new Execution(director);
+
+        for (int i = 0; i < _actors.length; i++) {
+            if (_predecessorCounts[i] == 0) {
+                try {
+                    pool.execute(new FiringTask(execution, i));
+                } catch (RuntimeException ex) {
+                    // The pool rejected the firing. Do not start the
+                    // remaining firings, and skip this one so that the
+                    // firings that depend on it are counted down.
+                    execution.failure.compareAndSet(null, ex);
+                    execution.skip(i);
+                }
+            }
+        }
+
+        try {
+            execution.done.await();
+        } catch (InterruptedException ex) {
+            // Do not start the remaining firings, and wait for the
+            // firings that have started, so that none of them runs
+            // after this method throws.
+            execution.failure.compareAndSet(null, ex);
+            _awaitUninterruptibly(execution.done);
+            Thread.currentThread().interrupt();
+            throw new IllegalActionException(director, ex,
+                    "Interrupted while waiting for the actors to fire.");
+        }
+
+        Throwable failure = execution.failure.get();
+
+        if (failure instanceof IllegalActionException) {
+            throw (IllegalActionException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new IllegalActionException(director, failure,
+                    "Failed to fire the actors.");
+        }
+
+        return execution.postfireReturns;
+    }
+
+    /** Return the schedule.
+     *  @return The schedule.
+     */
+    public Schedule getSchedule() {
+        return _schedule;
+    }
+
+    /** Return the version of the workspace for which the dependencies
+     *  of the firings were found.
+     *  @return The version of the workspace.
+     */
+    public long getVersion() {
+        return _version;
+    }
+
+    /** Return true if each firing depends on the firing before it in
+     *  the schedule, so that no two firings can run at the same time.
+     *  @return True if the firings are sequential.
+     */
+    public boolean isSequential() {
+        return _sequential;
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private methods                   ////
+
+    /** Wait for the latch to count down to zero, even if the thread is
+     *  interrupted.
+     */
+    private static void _awaitUninterruptibly(CountDownLatch latch) {
+        while (true) {
+            try {
+                latch.await();
+                return;
+            } catch (InterruptedException ex) {
+                // Keep waiting, the caller restores the interrupt.
+            }
+        }
+    }
+
+    /** Return a map from each of the actors to the actors that share a
+     *  receiver with it, including itself.
+     */
+    private static Map<Actor, Set<Actor>> _neighbors(Set<Actor> actors)
+            throws IllegalActionException {
+        Map<Receiver, List<Actor>> users = new HashMap<Receiver, List<Actor>>();
+
+        for (Actor actor : actors) {
+            for (Object port : actor.inputPortList()) {
+                _addUser(users, ((IOPort) port).getReceivers(), actor);
+            }
+
+            for (Object port : actor.outputPortList()) {
+                _addUser(users, ((IOPort) port).getRemoteReceivers(), actor);
+            }
+        }
+
+        Map<Actor, Set<Actor>> neighbors = new HashMap<Actor, Set<Actor>>();
+
+        for (Actor actor : actors) {
+            Set<Actor> set = new HashSet<Actor>();
+            set.add(actor);
+            neighbors.put(actor, set);
+        }
+
+        for (List<Actor> list : users.values()) {
+            for (Actor actor : list) {
+                Set<Actor> set = neighbors.get(actor);
+
+                if (set != null) {
+                    set.addAll(list);
+                }
+            }
+        }
+
+        return neighbors;
+    }
+
+    /** Record that the actor uses the receivers. */
+    private static void _addUser(Map<Receiver, List<Actor>> users,
+            Receiver[][] receivers, Actor actor) {
+        if (receivers == null) {
+            return;
+        }
+
+        for (int i = 0; i < receivers.length; i++) {
+            if (receivers[i] == null) {
+                continue;
+            }
+
+            for (Receiver receiver : receivers[i]) {
+                List<Actor> list = users.get(receiver);
+
+                if (list == null) {
+                    list = new ArrayList<Actor>();
+                    users.put(receiver, list);
+                }
+
+                if (!list.contains(actor)) {
+                    list.add(actor);
+                }
+            }
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+
+    /** The actor of each firing. */
+    private Actor[] _actors;
+
+    /** The iteration count of each firing. */
+    private int[] _iterationCounts;
+
+    /** The number of firings that each firing depends on. */
+    private int[] _predecessorCounts;
+
+    /** The schedule. */
+    private Schedule _schedule;
+
+    /** True if each firing depends on the firing before it. */
+    private boolean _sequential;
+
+    /** The firings that depend on each firing. */
+    private int[][] _successors;
+
+    /** The version of the workspace for which the dependencies were found. */
+    private long _version;
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         inner classes                     ////
+
+    /** The state of one execution of the schedule. */
+    private class Execution {
+        Execution(Director director) {
+            _director = director;
+            _remaining = new AtomicIntegerArray(_predecessorCounts);
+            done = new CountDownLatch(_actors.length);
+        }
+
+        /** Run the firing, and then the firings that become ready, keeping
+         *  one of them for this thread and forking the others.
+         */
+        void run(int index) {
+            while (index >= 0) {
+                _fire(index);
+
+                int next = -1;
+
+                for (int successor : _successors[index]) {
+                    if (_remaining.decrementAndGet(successor) == 0) {
+                        if (next < 0) {
+                            next = successor;
+                        } else {
+                            try {
+                                new FiringTask(this, successor).fork();
+                            } catch (RuntimeException ex) {
+                                failure.compareAndSet(null, ex);
+                                skip(successor);
+                            }
+                        }
+                    }
+                }
+
+                done.countDown();
+                index = next;
+            }
+        }
+
+        /** Skip the firing and the firings that become ready, on the
+         *  calling thread. This is called after a failure was recorded,
+         *  for a firing that could not be given to the pool, so that
+         *  the firings that depend on it are counted down.
+         */
+        void skip(int index) {
+            List<Integer> ready = new ArrayList<Integer>();
+            ready.add(index);
+
+            while (!ready.isEmpty()) {
+                index = ready.remove(ready.size() - 1);
+
+                for (int successor : _successors[index]) {
+                    if (_remaining.decrementAndGet(successor) == 0) {
+                        ready.add(successor);
+                    }
+                }
+
+                done.countDown();
+            }
+        }
+
+        /** Counted down when a firing finishes or is skipped. */
+        final CountDownLatch done;
+
+        /** The first exception thrown by a firing. */
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        /** False if the postfire() method of an actor returned false. */
+        volatile boolean postfireReturns = true;
+
+        /** Iterate the actor of the firing, unless a firing failed or a
+         *  stop was requested.
+         */
+        private void _fire(int index) {
+            if (failure.get() != null || _director.isStopRequested()) {
+                return;
+            }
+
+            Actor actor = _actors[index];
+
+            try {
+                int returnValue;
+
+                if (_director instanceof SDFDirector) {
+                    // Honor the blockFiring parameter of the director.
+                    returnValue = ((SDFDirector) _director)._iterateActor(
+                            actor, _iterationCounts[index]);
+                } else {
+                    returnValue = actor.iterate(_iterationCounts[index]);
+                }
+
+                if (returnValue == Executable.STOP_ITERATING) {
+                    postfireReturns = false;
+                } else if (returnValue == Executable.NOT_READY) {
+                    throw new IllegalActionException(_director, actor,
+                            "Actor is not ready to fire.  Perhaps "
+                                    + actor.getName()
+                                    + ".prefire() returned false?");
+                }
+            } catch (Throwable throwable) {
+                failure.compareAndSet(null, throwable);
+            }
+        }
+
+        private Director _director;
+
+        /** The number of unfinished firings that each firing depends on. */
+        private AtomicIntegerArray _remaining;
+    }
+
+    /** A task that runs a firing and the firings that become ready. */
+    private static class FiringTask extends RecursiveAction {
+        FiringTask(Execution execution, int index) {
+            _execution = execution;
+            _index = index;
+        }
+
+        protected void compute() {
+            _execution.run(_index);
+        }
+
+        private Execution _execution;
+
+        private int _index;
+    }
+}
@@ -0,0 +1,281 @@
+/* Methods to move doubles and ints through ports without creating tokens.
+
+ Copyright (c) 2014 The Regents of the University of California.
+ All rights reserved.
+ Permission is hereby granted, without written agreement and without
+ license or royalty fees, to use, copy, modify, and distribute this
+ software and its documentation for any purpose, provided that the above
+ copyright notice and the following two paragraphs appear in all copies
+ of this software.
+
+ IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ SUCH DAMAGE.
+
+ THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ ENHANCEMENTS, OR MODIFICATIONS.
+
+ PT_COPYRIGHT_VERSION_2
+ COPYRIGHTENDKEY
+
+ */
+package ptolemy.domains.sdf.kernel;
+
+import ptolemy.actor.IOPort;
+import ptolemy.actor.Receiver;
+import ptolemy.actor.TypedIOPort;
+import ptolemy.data.DoubleToken;
+import ptolemy.data.IntToken;
+import ptolemy.data.ScalarToken;
+import ptolemy.data.Token;
+import ptolemy.data.type.BaseType;
+import ptolemy.data.type.Type;
+import ptolemy.kernel.util.IllegalActionException;
+
+///////////////////////////////////////////////////////////////////
+//// PrimitiveChannels
+
+/**
+ Methods that get and send arrays of doubles or ints through ports.
+ If the receivers of the channel are instances of SDFReceiver that store
+ primitive values, which is the case if the <i>primitiveChannels</i>
+ parameter of the SDFDirector is true and the types of the ports are
+ double or int, then the values are copied between arrays without
+ creating tokens. Otherwise, these methods call get() or send() on the
+ port, and convert between tokens and values.
+ <p>
+ The values are copied without creating tokens only if the port has no
+ IOPortEventListeners, so that listeners are notified of every token,
+ and only if there are enough tokens to get, so that the default value
+ of the port is used as usual if there are not.
+
+ @version $Id$
+ @since Ptolemy II 10.0
+ @Pt.ProposedRating Red
+ @Pt.AcceptedRating Red
+ @see SDFReceiver#setPrimitiveType(Type)
+ */
+public class PrimitiveChannels {
+    /** Instances of this class cannot be created.
+     */
+    private PrimitiveChannels() {
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         public methods                    ////
+
+    /** Get the specified number of values from the specified channel
+     *  of the port.
+     *  @param port The input port.
+     *  @param channelIndex The channel index.
+     *  @param values The array to put the values into.
+     *  @param count The number of values.
+     *  @exception IllegalActionException If the tokens cannot be
+     *   gotten, or if they cannot be converted losslessly to doubles.
+     */
+    public static void getDoubles(IOPort port, int channelIndex,
+            double[] values, int count) throws IllegalActionException {
+        SDFReceiver receiver = _primitiveReceiver(port, channelIndex);
+
+        if (receiver != null && receiver.hasToken(count)) {
+            receiver.getDoubles(values, count);
+            return;
+        }
+
+        Token[] tokens = port.get(channelIndex, count);
+
+        for (int i = 0; i < count; i++) {
+            values[i] = _scalar(port, tokens[i]).doubleValue();
+        }
+    }
+
+    /** Get the specified number of values from the specified channel
+     *  of the port.
+     *  @param port The input port.
+     *  @param channelIndex The channel index.
+     *  @param values The array to put the values into.
+     *  @param count The number of values.
+     *  @exception IllegalActionException If the tokens cannot be
+     *   gotten, or if they cannot be converted losslessly to ints.
+     */
+    public static void getInts(IOPort port, int channelIndex, int[] values,
+            int count) throws IllegalActionException {
+        SDFReceiver receiver = _primitiveReceiver(port, channelIndex);
+
+        if (receiver != null && receiver.getPrimitiveType() == BaseType.INT
+                && receiver.hasToken(count)) {
+            receiver.getInts(values, count);
+            return;
+        }
+
+        Token[] tokens = port.get(channelIndex, count);
+
+        for (int i = 0; i < count; i++) {
+            values[i] = _scalar(port, tokens[i]).intValue();
+        }
+    }
+
+    /** Return true if the specified channel of the input port stores
+     *  primitive values, so that getDoubles() or getInts() does not
+     *  create tokens. Actors that do not need the values as primitives
+     *  can use this to choose between getting tokens and getting values.
+     *  @param port The input port.
+     *  @param channelIndex The channel index.
+     *  @return True if the channel stores primitive values.
+     *  @exception IllegalActionException If there is no director.
+     */
+    public static boolean isPrimitive(IOPort port, int channelIndex)
+            throws IllegalActionException {
+        return _primitiveReceiver(port, channelIndex) != null;
+    }
+
+    /** Send the specified number of values to the specified channel of
+     *  the port.
+     *  @param port The output port.
+     *  @param channelIndex The channel index.
+     *  @param values The values.
+     *  @param count The number of values.
+     *  @exception IllegalActionException If the values cannot be
+     *   converted to the types of the receiving ports.
+     */
+    public static void sendDoubles(IOPort port, int channelIndex,
+            double[] values, int count) throws IllegalActionException {
+        Receiver[] receivers = _remotePrimitiveReceivers(port, channelIndex,
+                BaseType.DOUBLE);
+
+        if (receivers != null) {
+            for (Receiver receiver : receivers) {
+                ((SDFReceiver) receiver).putDoubles(values, count);
+            }
+
+            return;
+        }
+
+        Token[] tokens = new Token[count];
+
+        for (int i = 0; i < count; i++) {
+            tokens[i] = new DoubleToken(values[i]);
+        }
+
+        port.send(channelIndex, tokens, count);
+    }
+
+    /** Send the specified number of values to the specified channel of
+     *  the port.
+     *  @param port The output port.
+     *  @param channelIndex The channel index.
+     *  @param values The values.
+     *  @param count The number of values.
+     *  @exception IllegalActionException If the values cannot be
+     *   converted to the types of the receiving ports.
+     */
+    public static void sendInts(IOPort port, int channelIndex, int[] values,
+            int count) throws IllegalActionException {
+        Receiver[] receivers = _remotePrimitiveReceivers(port, channelIndex,
+                BaseType.INT);
+
+        if (receivers != null) {
+            for (Receiver receiver : receivers) {
+                ((SDFReceiver) receiver).putInts(values, count);
+            }
+
+            return;
+        }
+
+        Token[] tokens = new Token[count];
+
+        for (int i = 0; i < count; i++) {
+            tokens[i] = new IntToken(values[i]);
+        }
+
+        port.send(channelIndex, tokens, count);
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private methods                   ////
+
+    /** Return the receiver of the specified channel of the input port
+     *  if it is the only one and it stores primitive values, or null
+     *  otherwise.
+     */
+    private static SDFReceiver _primitiveReceiver(IOPort port,
+            int channelIndex) throws IllegalActionException {
+        if (port.hasIOPortEventListeners()) {
+            return null;
+        }
+
+        Receiver[][] receivers = port.getReceivers();
+
+        if (channelIndex < receivers.length
+                && receivers[channelIndex] != null
+                && receivers[channelIndex].length == 1
+                && receivers[channelIndex][0] instanceof SDFReceiver) {
+            SDFReceiver receiver = (SDFReceiver) receivers[channelIndex][0];
+
+            if (receiver.getPrimitiveType() != null) {
+                return receiver;
+            }
+        }
+
+        return null;
+    }
+
+    /** Return the receivers of the specified channel of the output port
+     *  if the port has the specified type and all of them store
+     *  primitive values that values of that type can be converted to,
+     *  or null otherwise.
+     */
+    private static Receiver[] _remotePrimitiveReceivers(IOPort port,
+            int channelIndex, Type type) throws IllegalActionException {
+        // The type of the port has to be checked, as TypedIOPort.send()
+        // does, and the events have to be sent to listeners.
+        if (!(port instanceof TypedIOPort)
+                || ((TypedIOPort) port).getType() != type
+                || port.hasIOPortEventListeners()) {
+            return null;
+        }
+
+        Receiver[][] farReceivers = port.getRemoteReceivers();
+
+        if (farReceivers == null || farReceivers.length <= channelIndex
+                || farReceivers[channelIndex] == null
+                || farReceivers[channelIndex].length == 0) {
+            return null;
+        }
+
+        for (Receiver receiver : farReceivers[channelIndex]) {
+            if (!(receiver instanceof SDFReceiver)) {
+                return null;
+            }
+
+            Type primitiveType = ((SDFReceiver) receiver).getPrimitiveType();
+
+            // An int can be converted to a double, but not the reverse.
+            if (primitiveType == null || type == BaseType.DOUBLE
+                    && primitiveType != BaseType.DOUBLE) {
+                return null;
+            }
+        }
+
+        return farReceivers[channelIndex];
+    }
+
+    /** Return the token as a scalar, or throw an exception if it is not
+     *  a scalar.
+     */
+    private static ScalarToken _scalar(IOPort port, Token token)
+            throws IllegalActionException {
+        if (token instanceof ScalarToken) {
+            return (ScalarToken) token;
+        }
+
+        throw new IllegalActionException(port, "Token " + token
+                + " is not a scalar.");
+    }
+}
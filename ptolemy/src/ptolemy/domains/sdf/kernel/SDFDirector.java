@@ -27,6 +27,7 @@
 package ptolemy.domains.sdf.kernel;
 
 import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
 
 import ptolemy.actor.Actor;
 import ptolemy.actor.CompositeActor;
@@ -34,9 +35,11 @@ import ptolemy.actor.IOPort;
 import ptolemy.actor.NoTokenException;
 import ptolemy.actor.Receiver;
 import ptolemy.actor.TypedCompositeActor;
+import ptolemy.actor.TypedIOPort;
 import ptolemy.actor.parameters.ParameterPort;
 import ptolemy.actor.sched.NotSchedulableException;
 import ptolemy.actor.sched.Schedule;
+import ptolemy.actor.sched.Scheduler;
 import ptolemy.actor.sched.StaticSchedulingDirector;
 import ptolemy.actor.util.DFUtilities;
 import ptolemy.actor.util.PeriodicDirector;
@@ -48,6 +51,7 @@ import ptolemy.data.IntToken;
 import ptolemy.data.Token;
 import ptolemy.data.expr.Parameter;
 import ptolemy.data.type.BaseType;
+import ptolemy.data.type.Type;
 import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.Attribute;
 import ptolemy.kernel.util.IllegalActionException;
@@ -128,6 +132,32 @@ import ptolemy.kernel.util.Workspace;
  by combining multiple firings of each actor.  The default value of the
  vectorizationFactor parameter is an IntToken with value one.
  </p><p>
+ If the <i>blockFiring</i> parameter of this director is true, then the
+ actors that implement {@link BlockFiringActor} are given the iterations
+ of each firing of the schedule as a block, by calling their
+ iterateBlock() method instead of iterate(), so that they can consume
+ and produce the tokens of all the iterations at once. This is more
+ effective if the <i>vectorizationFactor</i> is greater than one, as
+ the actors are then fired more times in a row. The default value is
+ false.
+ </p><p>
+ The <i>firingThreads</i> parameter of this director sets the number of
+ threads that fire the actors. If it is greater than one, then firings
+ of the schedule that do not depend on each other through the channels
+ between the actors, such as the firings of independent branches of a
+ model, may run at the same time on the threads of a work-stealing
+ pool. If it is zero, then the number of threads is the number of
+ available processors. It cannot be negative. Each actor fires in the
+ order of the schedule, and the tokens on each channel are the same as
+ when one thread fires the actors. See
+ {@link ParallelScheduleExecutor}. The default value is one.
+ </p><p>
+ If the <i>primitiveChannels</i> parameter is true, then the receivers
+ between ports of type double or int store the values of the tokens
+ instead of the tokens, and actors can get and send arrays of values
+ without creating tokens with the methods of {@link PrimitiveChannels}.
+ The default value is false.
+ </p><p>
  The SDF director has a <i>period</i> parameter which specifies the
  amount of model time that elapses per iteration. If the value of
  <i>period</i> is 0.0 (the default), then it has no effect, and
@@ -249,6 +279,13 @@ public class SDFDirector extends StaticSchedulingDirector implements
      */
     public Parameter allowRateChanges;
 
+    /** If true, then the iterations of each firing of the schedule of
+     *  an actor that implements {@link BlockFiringActor} are performed
+     *  by calling its iterateBlock() method instead of iterate(). This
+     *  is a boolean that defaults to false.
+     */
+    public Parameter blockFiring;
+
     /** If true, then buffer sizes are fixed according to the schedule,
      *  and attempts to write to the buffer that cause the buffer to
      *  exceed the schedule size result in an exception. This method
@@ -257,6 +294,19 @@ public class SDFDirector extends StaticSchedulingDirector implements
      */
     public Parameter constrainBufferSizes;
 
+    /** The number of threads that fire the actors. If the value is
+     *  greater than one, then the firings of the schedule that do not
+     *  depend on each other may run at the same time, see
+     *  {@link ParallelScheduleExecutor}. If the value is zero, then the
+     *  number of threads is the number of available processors. The
+     *  value cannot be negative. Actors that share state other than
+     *  their channels, such as actors that write to the same file,
+     *  should not be fired by more than one thread. When debug
+     *  listeners are registered with this director, the actors are
+     *  fired by one thread. This is an int that defaults to 1.
+     */
+    public Parameter firingThreads;
+
     /** A Parameter representing the number of times that postfire may be
      *  called before it returns false.  If the value is less than or
      *  equal to zero, then the execution will never return false in postfire,
@@ -293,6 +343,15 @@ public class SDFDirector extends StaticSchedulingDirector implements
      */
     public Parameter period;
 
+    /** If true, then receivers between ports of type double or int
+     *  store the values of the tokens in arrays of doubles instead of
+     *  storing the tokens, so that actors can use the methods of
+     *  {@link PrimitiveChannels} to get and send values without creating
+     *  tokens. This is a boolean that defaults to false.
+     *  @see SDFReceiver#setPrimitiveType(ptolemy.data.type.Type)
+     */
+    public Parameter primitiveChannels;
+
     /** Specify whether the execution should synchronize to the
      *  real time. This parameter has type boolean and defaults
      *  to false. If set to true, then this director stalls in the
@@ -359,6 +418,21 @@ public class SDFDirector extends StaticSchedulingDirector implements
                 _vectorizationFactor = newValue;
                 invalidateSchedule();
             }
+        } else if (attribute == blockFiring) {
+            _blockFiring = ((BooleanToken) blockFiring.getToken())
+                    .booleanValue();
+        } else if (attribute == firingThreads) {
+            int newValue = ((IntToken) firingThreads.getToken()).intValue();
+            if (newValue < 0) {
+                throw new IllegalActionException(this,
+                        "Cannot set a negative firingThreads: " + newValue
+                                + ". Use 0 for the number of available"
+                                + " processors.");
+            }
+            if (newValue != _firingThreads) {
+                _firingThreads = newValue;
+                _shutdownPool();
+            }
         }
 
         super.attributeChanged(attribute);
@@ -373,6 +447,8 @@ public class SDFDirector extends StaticSchedulingDirector implements
      */
     public Object clone(Workspace workspace) throws CloneNotSupportedException {
         SDFDirector newObject = (SDFDirector) super.clone(workspace);
+        newObject._parallelExecutor = null;
+        newObject._pool = null;
 
         // Subclasses may set this to null and handle this themselves.
         try {
@@ -483,13 +559,54 @@ public class SDFDirector extends StaticSchedulingDirector implements
         }
     }
 
-    /** Call super.fire() and reset the _prefire flag.
-     *  @exception IllegalActionException Thrown by super class.
+    /** Reset the _prefire flag and fire the actors in the order of
+     *  the schedule. If the <i>firingThreads</i> parameter is not one
+     *  and there are firings that do not depend on each other, then
+     *  fire the actors on the threads of a pool with a
+     *  {@link ParallelScheduleExecutor}. Otherwise, call super.fire().
+     *  @exception IllegalActionException If there is no scheduler,
+     *   or if firing an actor throws it.
      */
     @Override
     public void fire() throws IllegalActionException {
         _prefire = false;
-        super.fire();
+
+        // Debug output would be interleaved by the threads.
+        if (_firingThreads == 1 || _debugging) {
+            super.fire();
+            return;
+        }
+
+        Scheduler scheduler = getScheduler();
+
+        if (scheduler == null) {
+            throw new IllegalActionException("Attempted to fire "
+                    + "system with no scheduler");
+        }
+
+        Schedule schedule = scheduler.getSchedule();
+        long version = workspace().getVersion();
+
+        if (_parallelExecutor == null
+                || _parallelExecutor.getSchedule() != schedule
+                || _parallelExecutor.getVersion() != version) {
+            _parallelExecutor = new ParallelScheduleExecutor(schedule,
+                    version);
+        }
+
+        if (_parallelExecutor.isSequential()) {
+            super.fire();
+            return;
+        }
+
+        if (_pool == null) {
+            _pool = new ForkJoinPool(_firingThreads != 0 ? _firingThreads
+                    : Runtime.getRuntime().availableProcessors());
+        }
+
+        if (!_parallelExecutor.execute(_pool, this)) {
+            _postfireReturns = false;
+        }
     }
 
     /** Request a firing of the given actor at the given absolute
@@ -534,6 +651,11 @@ public class SDFDirector extends StaticSchedulingDirector implements
         super.initialize();
         _iterationCount = 0;
 
+        // The types are resolved by now. Initial tokens that actors have
+        // produced are kept by the receivers.
+        _setPrimitiveTypes(((BooleanToken) primitiveChannels.getToken())
+                .booleanValue());
+
         if (_periodicDirectorHelper != null) {
             _periodicDirectorHelper.initialize();
         }
@@ -945,6 +1067,41 @@ public class SDFDirector extends StaticSchedulingDirector implements
         return wasTransferred;
     }
 
+    /** Invoke the wrapup() method of the super class, and then shut
+     *  down the threads that fire the actors, if any.
+     *  @exception IllegalActionException If the wrapup() method of
+     *   the super class throws it.
+     */
+    public void wrapup() throws IllegalActionException {
+        try {
+            super.wrapup();
+        } finally {
+            _shutdownPool();
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         protected methods                 ////
+
+    /** Iterate the actor of a firing of the schedule the specified
+     *  number of times. If the <i>blockFiring</i> parameter is true
+     *  and the actor implements {@link BlockFiringActor}, then call its
+     *  iterateBlock() method. Otherwise, call its iterate() method.
+     *  @param actor The actor.
+     *  @param iterationCount The number of iterations.
+     *  @return NOT_READY, STOP_ITERATING, or COMPLETED.
+     *  @exception IllegalActionException If iterating the actor
+     *   throws it.
+     */
+    protected int _iterateActor(Actor actor, int iterationCount)
+            throws IllegalActionException {
+        if (_blockFiring && actor instanceof BlockFiringActor) {
+            return ((BlockFiringActor) actor).iterateBlock(iterationCount);
+        }
+
+        return super._iterateActor(actor, iterationCount);
+    }
+
     ///////////////////////////////////////////////////////////////////
     ////                         protected variables               ////
 
@@ -995,14 +1152,26 @@ public class SDFDirector extends StaticSchedulingDirector implements
         allowRateChanges.setTypeEquals(BaseType.BOOLEAN);
         allowRateChanges.setExpression("false");
 
+        blockFiring = new Parameter(this, "blockFiring");
+        blockFiring.setTypeEquals(BaseType.BOOLEAN);
+        blockFiring.setExpression("false");
+
         constrainBufferSizes = new Parameter(this, "constrainBufferSizes");
         constrainBufferSizes.setTypeEquals(BaseType.BOOLEAN);
         constrainBufferSizes.setExpression("true");
 
+        firingThreads = new Parameter(this, "firingThreads");
+        firingThreads.setTypeEquals(BaseType.INT);
+        firingThreads.setExpression("1");
+
         period = new Parameter(this, "period", new DoubleToken(1.0));
         period.setTypeEquals(BaseType.DOUBLE);
         period.setExpression("0.0");
 
+        primitiveChannels = new Parameter(this, "primitiveChannels");
+        primitiveChannels.setTypeEquals(BaseType.BOOLEAN);
+        primitiveChannels.setExpression("false");
+
         synchronizeToRealTime = new Parameter(this, "synchronizeToRealTime");
         synchronizeToRealTime.setExpression("false");
         synchronizeToRealTime.setTypeEquals(BaseType.BOOLEAN);
@@ -1018,6 +1187,53 @@ public class SDFDirector extends StaticSchedulingDirector implements
         _periodicDirectorHelper = new PeriodicDirectorHelper(this);
     }
 
+    /** Set the primitive type of the receivers of the input ports of
+     *  the actors to the type of the port if it is double or int and
+     *  primitive channels are used, and to null otherwise.
+     */
+    private void _setPrimitiveTypes(boolean primitive)
+            throws IllegalActionException {
+        CompositeActor container = (CompositeActor) getContainer();
+
+        for (Object entity : container.deepEntityList()) {
+            for (Object port : ((Actor) entity).inputPortList()) {
+                Type type = null;
+
+                if (primitive && port instanceof TypedIOPort) {
+                    type = ((TypedIOPort) port).getType();
+
+                    if (type != BaseType.DOUBLE && type != BaseType.INT) {
+                        type = null;
+                    }
+                }
+
+                Receiver[][] receivers = ((IOPort) port).getReceivers();
+
+                for (int i = 0; i < receivers.length; i++) {
+                    if (receivers[i] == null) {
+                        continue;
+                    }
+
+                    for (Receiver receiver : receivers[i]) {
+                        if (receiver instanceof SDFReceiver) {
+                            ((SDFReceiver) receiver).setPrimitiveType(type);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /** Shut down the pool of threads that fire the actors, if any. */
+    private void _shutdownPool() {
+        if (_pool != null) {
+            _pool.shutdown();
+            _pool = null;
+        }
+
+        _parallelExecutor = null;
+    }
+
     ///////////////////////////////////////////////////////////////////
     ////                package friendly variables                 ////
 
@@ -1027,6 +1243,22 @@ public class SDFDirector extends StaticSchedulingDirector implements
     ///////////////////////////////////////////////////////////////////
     ////                         private variables                 ////
 
+    /** Cache of the value of blockFiring. */
+    private boolean _blockFiring = false;
+
+    /** Cache of the value of firingThreads. */
+    private int _firingThreads = 1;
+
+    /** The executor of the schedule on several threads, or null if
+     *  the actors have not been fired by several threads.
+     */
+    private ParallelScheduleExecutor _parallelExecutor;
+
+    /** The threads that fire the actors, or null if they have not
+     *  been created.
+     */
+    private ForkJoinPool _pool;
+
     /** The real time at which the model begins executing. */
     private long _realStartTime = 0L;
 
@@ -29,6 +29,7 @@
 package ptolemy.domains.sdf.kernel;
 
 import java.util.Enumeration;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
 
@@ -36,7 +37,13 @@ import ptolemy.actor.AbstractReceiver;
 import ptolemy.actor.IOPort;
 import ptolemy.actor.NoRoomException;
 import ptolemy.actor.NoTokenException;
+import ptolemy.data.DoubleToken;
+import ptolemy.data.IntToken;
+import ptolemy.data.ScalarToken;
 import ptolemy.data.Token;
+import ptolemy.data.type.BaseType;
+import ptolemy.data.type.Type;
+import ptolemy.data.unit.UnitUtilities;
 import ptolemy.kernel.util.IllegalActionException;
 
 ///////////////////////////////////////////////////////////////////
@@ -53,6 +60,16 @@ import ptolemy.kernel.util.IllegalActionException;
  than zero (or infinite, indicated by a capacity of INFINITE_CAPACITY),
  then tokens removed from the receiver are stored in a history queue rather
  than simply removed. By default, the history capacity is zero.
+ <p>
+ If the primitive type is set to double or int with setPrimitiveType(),
+ then the receiver stores the values of the tokens put into it in an
+ array of doubles instead of storing the tokens, and creates tokens
+ only when they are taken with get(). Values can also be moved in and
+ out without creating tokens with putDoubles(), getDoubles(), putInts()
+ and getInts(). If a token is put that cannot be stored this way, such
+ as a token with units, or if the history capacity is set, then the
+ receiver goes back to storing tokens. The SDFDirector sets the
+ primitive type if its <i>primitiveChannels</i> parameter is true.
 
  @author Steve Neuendorffer
  @version $Id: SDFReceiver.java 65768 2013-03-07 03:33:00Z cxh $
@@ -106,6 +123,8 @@ public class SDFReceiver extends AbstractReceiver {
      */
     public void clear() {
         _queue.clear();
+        _primitiveFront = 0;
+        _primitiveSize = 0;
         _waitingTokens = 0;
     }
 
@@ -114,6 +133,16 @@ public class SDFReceiver extends AbstractReceiver {
      *  @return A list of instances of Token.
      */
     public List<Token> elementList() {
+        if (_primitiveType != null) {
+            List<Token> result = new LinkedList<Token>();
+
+            for (int i = 0; i < _primitiveSize; i++) {
+                result.add(_primitiveToken(i));
+            }
+
+            return result;
+        }
+
         return _queue.elementList();
     }
 
@@ -124,6 +153,13 @@ public class SDFReceiver extends AbstractReceiver {
      *  @exception NoTokenException If there is no token in the receiver.
      */
     public Token get() {
+        if (_primitiveType != null && _primitiveSize > 0) {
+            Token token = _primitiveToken(0);
+            _primitiveFront = (_primitiveFront + 1) & _primitives.length - 1;
+            _primitiveSize--;
+            return token;
+        }
+
         if (_queue.isEmpty()) {
             // The queue is empty.
             throw new NoTokenException(getContainer(),
@@ -152,11 +188,15 @@ public class SDFReceiver extends AbstractReceiver {
      *  @exception NoTokenException If the offset is out of range.
      */
     public Token get(int offset) {
+        if (_primitiveType != null && offset >= 0 && offset < _primitiveSize) {
+            return _primitiveToken(offset);
+        }
+
         try {
             return (Token) _queue.get(offset);
         } catch (NoSuchElementException ex) {
             throw new NoTokenException(getContainer(), "Offset " + offset
-                    + " out of range with " + _queue.size()
+                    + " out of range with " + size()
                     + " tokens in the receiver and " + _queue.historySize()
                     + " in history.");
         }
@@ -181,6 +221,19 @@ public class SDFReceiver extends AbstractReceiver {
             _tokenArray = new Token[count];
         }
 
+        if (_primitiveType != null) {
+            if (_primitiveSize < count) {
+                throw new NoTokenException(getContainer(), "The receiver"
+                        + " does not contain " + count + " tokens.");
+            }
+
+            for (int i = 0; i < count; i++) {
+                _tokenArray[i] = get();
+            }
+
+            return _tokenArray;
+        }
+
         _queue.takeArray(_tokenArray, count);
         return _tokenArray;
     }
@@ -193,6 +246,37 @@ public class SDFReceiver extends AbstractReceiver {
         return _queue.getCapacity();
     }
 
+    /** Remove the specified number of the oldest values from the
+     *  receiver and put them into the specified array, without creating
+     *  tokens if the receiver stores primitive values.
+     *  @param values The array to put the values into.
+     *  @param count The number of values.
+     *  @exception NoTokenException If there are not <i>count</i> tokens.
+     *  @exception IllegalActionException If a token is not a scalar that
+     *   can be converted to a double losslessly.
+     *  @see #setPrimitiveType(Type)
+     */
+    public void getDoubles(double[] values, int count)
+            throws IllegalActionException {
+        if (size() < count) {
+            throw new NoTokenException(getContainer(), "The receiver"
+                    + " does not contain " + count + " tokens.");
+        }
+
+        if (_primitiveType != null) {
+            int first = Math.min(count, _primitives.length - _primitiveFront);
+            System.arraycopy(_primitives, _primitiveFront, values, 0, first);
+            System.arraycopy(_primitives, 0, values, first, count - first);
+            _primitiveFront = (_primitiveFront + count) & _primitives.length
+                    - 1;
+            _primitiveSize -= count;
+        } else {
+            for (int i = 0; i < count; i++) {
+                values[i] = _scalar(get()).doubleValue();
+            }
+        }
+    }
+
     /** Return the capacity of the history queue.
      *  This will be zero if the history mechanism is disabled
      *  and INFINITE_CAPACITY if the history capacity is unbounded.
@@ -207,11 +291,56 @@ public class SDFReceiver extends AbstractReceiver {
         return _queue.getHistoryCapacity();
     }
 
+    /** Remove the specified number of the oldest values from the
+     *  receiver and put them into the specified array, without creating
+     *  tokens if the receiver stores primitive values of type int.
+     *  @param values The array to put the values into.
+     *  @param count The number of values.
+     *  @exception NoTokenException If there are not <i>count</i> tokens.
+     *  @exception IllegalActionException If a token is not a scalar that
+     *   can be converted to an int losslessly.
+     *  @see #setPrimitiveType(Type)
+     */
+    public void getInts(int[] values, int count) throws IllegalActionException {
+        if (size() < count) {
+            throw new NoTokenException(getContainer(), "The receiver"
+                    + " does not contain " + count + " tokens.");
+        }
+
+        if (_primitiveType == BaseType.INT) {
+            for (int i = 0; i < count; i++) {
+                values[i] = (int) _primitives[_primitiveFront];
+                _primitiveFront = (_primitiveFront + 1) & _primitives.length
+                        - 1;
+            }
+
+            _primitiveSize -= count;
+        } else {
+            for (int i = 0; i < count; i++) {
+                values[i] = _scalar(get()).intValue();
+            }
+        }
+    }
+
+    /** Return the type of the primitive values that this receiver
+     *  stores instead of tokens, or null if it stores tokens.
+     *  @return BaseType.DOUBLE, BaseType.INT or null.
+     *  @see #setPrimitiveType(Type)
+     */
+    public Type getPrimitiveType() {
+        return _primitiveType;
+    }
+
     /** Return true if put() will succeed in accepting a token.
      *  @return A boolean indicating whether a token can be put in this
      *   receiver.
      */
     public boolean hasRoom() {
+        if (_primitiveType != null) {
+            return _queue.getCapacity() == INFINITE_CAPACITY
+                    || _primitiveSize < _queue.getCapacity();
+        }
+
         return !_queue.isFull();
     }
 
@@ -236,7 +365,7 @@ public class SDFReceiver extends AbstractReceiver {
             return true;
         }
 
-        return _queue.size() + tokens <= _queue.getCapacity();
+        return size() + tokens <= _queue.getCapacity();
     }
 
     /** Return true if get() will succeed in returning a token.
@@ -244,7 +373,7 @@ public class SDFReceiver extends AbstractReceiver {
      *   receiver.
      */
     public boolean hasToken() {
-        return !_queue.isEmpty();
+        return _primitiveSize > 0 || !_queue.isEmpty();
     }
 
     /** Return true if get() will succeed in returning a token the given
@@ -262,7 +391,7 @@ public class SDFReceiver extends AbstractReceiver {
                     + "must not be negative. It was: " + tokens);
         }
 
-        return _queue.size() >= tokens;
+        return size() >= tokens;
     }
 
     /** Enumerate the tokens stored in the history queue, which are
@@ -304,6 +433,16 @@ public class SDFReceiver extends AbstractReceiver {
         if (token == null) {
             return;
         }
+
+        if (_primitiveType != null) {
+            if (_isPrimitive(token, _primitiveType)) {
+                _putPrimitive(_primitiveValue(token));
+                return;
+            }
+
+            _storeTokens();
+        }
+
         if (!_queue.put(token)) {
             throw new NoRoomException(getContainer(),
                     "Queue is at capacity of " + _queue.getCapacity()
@@ -311,6 +450,64 @@ public class SDFReceiver extends AbstractReceiver {
         }
     }
 
+    /** Put the specified number of values from the specified array
+     *  into the receiver. If the receiver stores primitive values of
+     *  type double, then no tokens are created. Otherwise, the values
+     *  are put as instances of DoubleToken, converted to the type of
+     *  the container.
+     *  @param values The values.
+     *  @param count The number of values.
+     *  @exception NoRoomException If there is not room for all values.
+     *  @exception IllegalActionException If the values cannot be
+     *   converted to the type of the container.
+     *  @see #setPrimitiveType(Type)
+     */
+    public void putDoubles(double[] values, int count)
+            throws IllegalActionException {
+        if (_primitiveType == BaseType.DOUBLE) {
+            _reservePrimitives(count);
+
+            int back = (_primitiveFront + _primitiveSize)
+                    & _primitives.length - 1;
+            int first = Math.min(count, _primitives.length - back);
+            System.arraycopy(values, 0, _primitives, back, first);
+            System.arraycopy(values, first, _primitives, 0, count - first);
+            _primitiveSize += count;
+        } else {
+            for (int i = 0; i < count; i++) {
+                _putConverted(new DoubleToken(values[i]));
+            }
+        }
+    }
+
+    /** Put the specified number of values from the specified array
+     *  into the receiver. If the receiver stores primitive values, then
+     *  no tokens are created. Otherwise, the values are put as
+     *  instances of IntToken, converted to the type of the container.
+     *  @param values The values.
+     *  @param count The number of values.
+     *  @exception NoRoomException If there is not room for all values.
+     *  @exception IllegalActionException If the values cannot be
+     *   converted to the type of the container.
+     *  @see #setPrimitiveType(Type)
+     */
+    public void putInts(int[] values, int count) throws IllegalActionException {
+        if (_primitiveType != null) {
+            // Every int can be represented as a double.
+            _reservePrimitives(count);
+
+            for (int i = 0; i < count; i++) {
+                _primitives[(_primitiveFront + _primitiveSize)
+                        & _primitives.length - 1] = values[i];
+                _primitiveSize++;
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                _putConverted(new IntToken(values[i]));
+            }
+        }
+    }
+
     /** Set receiver capacity. Use INFINITE_CAPACITY to indicate unbounded
      *  capacity (which is the default). If the number of tokens currently
      *  in the receiver exceeds the desired capacity, throw an exception.
@@ -320,6 +517,15 @@ public class SDFReceiver extends AbstractReceiver {
      *  @see #getCapacity()
      */
     public void setCapacity(int capacity) throws IllegalActionException {
+        // A negative capacity other than INFINITE_CAPACITY is left to
+        // the queue to reject.
+        if (capacity >= 0 && _primitiveSize > capacity) {
+            throw new IllegalActionException(getContainer(),
+                    "Failed to set capacity to " + capacity
+                            + ", since the receiver contains " + size()
+                            + " tokens.");
+        }
+
         try {
             _queue.setCapacity(capacity);
         } catch (IllegalActionException ex) {
@@ -344,6 +550,11 @@ public class SDFReceiver extends AbstractReceiver {
     public void setHistoryCapacity(int capacity) throws IllegalActionException {
         // As of Ptolemy II 2.0.1, we are not using the SDFReceiver.*History*
         // methods, but these are here for future use.
+        if (capacity != 0) {
+            // The tokens taken have to be kept.
+            _storeTokens();
+        }
+
         try {
             _queue.setHistoryCapacity(capacity);
         } catch (IllegalActionException ex) {
@@ -352,11 +563,57 @@ public class SDFReceiver extends AbstractReceiver {
         }
     }
 
+    /** Set the type of the primitive values that this receiver stores
+     *  instead of tokens. If the type is BaseType.DOUBLE or BaseType.INT,
+     *  then the receiver stores the values of instances of DoubleToken
+     *  or IntToken without units in an array of doubles, so that
+     *  getDoubles(), putDoubles(), getInts() and putInts() do not create
+     *  tokens. If the type is null, then the receiver stores tokens.
+     *  The receiver continues to store tokens if the history capacity is
+     *  not zero, or if it contains tokens that cannot be stored as
+     *  primitive values, and it goes back to storing tokens if such a
+     *  token is put into it later. The tokens in the receiver are kept
+     *  in either case.
+     *  @param type BaseType.DOUBLE, BaseType.INT or null.
+     *  @exception IllegalActionException If the type is another type.
+     *  @see #getPrimitiveType()
+     */
+    public void setPrimitiveType(Type type) throws IllegalActionException {
+        if (type != null && type != BaseType.DOUBLE && type != BaseType.INT) {
+            throw new IllegalActionException(getContainer(),
+                    "Cannot store tokens of type " + type
+                            + " as primitive values.");
+        }
+
+        if (type == _primitiveType) {
+            return;
+        }
+
+        _storeTokens();
+
+        if (type == null || _queue.getHistoryCapacity() != 0) {
+            return;
+        }
+
+        for (Object token : _queue.elementList()) {
+            if (!_isPrimitive((Token) token, type)) {
+                return;
+            }
+        }
+
+        int size = _queue.size();
+        _primitiveType = type;
+
+        for (int i = 0; i < size; i++) {
+            _putPrimitive(_primitiveValue((Token) _queue.take()));
+        }
+    }
+
     /** Return the number of tokens in the receiver.
      *  @return The number of tokens in the receiver.
      */
     public int size() {
-        return _queue.size();
+        return _queue.size() + _primitiveSize;
     }
 
     ///////////////////////////////////////////////////////////////////
@@ -370,8 +627,145 @@ public class SDFReceiver extends AbstractReceiver {
     /** The number of tokens waiting to be consumed during scheduling. */
     public int _waitingTokens = 0;
 
+    ///////////////////////////////////////////////////////////////////
+    ////                         private methods                   ////
+
+    /** Return true if the token can be stored as a primitive value
+     *  of the specified type.
+     */
+    private static boolean _isPrimitive(Token token, Type type) {
+        Class<?> tokenClass = type == BaseType.DOUBLE ? DoubleToken.class
+                : IntToken.class;
+
+        // Primitive values do not have units, and no token has units
+        // if there are no unit categories.
+        return token.getClass() == tokenClass && !token.isNil()
+                && UnitUtilities.getNumCategories() == 0;
+    }
+
+    /** Return a token for the primitive value at the specified offset
+     *  from the oldest.
+     */
+    private Token _primitiveToken(int offset) {
+        double value = _primitives[(_primitiveFront + offset)
+                & _primitives.length - 1];
+
+        if (_primitiveType == BaseType.INT) {
+            return new IntToken((int) value);
+        }
+
+        return new DoubleToken(value);
+    }
+
+    /** Return the value of a token that can be stored as a primitive
+     *  value.
+     */
+    private static double _primitiveValue(Token token) {
+        if (token instanceof IntToken) {
+            return ((IntToken) token).intValue();
+        }
+
+        return ((DoubleToken) token).doubleValue();
+    }
+
+    /** Put the token after converting it to the type of the container,
+     *  as putArray() does.
+     */
+    private void _putConverted(Token token) throws IllegalActionException {
+        IOPort container = getContainer();
+
+        if (container != null) {
+            token = container.convert(token);
+        }
+
+        put(token);
+    }
+
+    /** Put a primitive value. */
+    private void _putPrimitive(double value) {
+        _reservePrimitives(1);
+        _primitives[(_primitiveFront + _primitiveSize) & _primitives.length
+                - 1] = value;
+        _primitiveSize++;
+    }
+
+    /** Check that there is room for the specified number of primitive
+     *  values, and grow the array if needed.
+     */
+    private void _reservePrimitives(int count) {
+        int capacity = _queue.getCapacity();
+
+        if (capacity != INFINITE_CAPACITY && _primitiveSize + count > capacity) {
+            throw new NoRoomException(getContainer(),
+                    "Queue is at capacity of " + capacity
+                            + ". Cannot put a token.");
+        }
+
+        if (_primitiveSize + count > _primitives.length) {
+            // Keep the length a power of two, so that indexes wrap
+            // with a mask.
+            int length = _primitives.length;
+
+            while (length < _primitiveSize + count) {
+                length *= 2;
+            }
+
+            double[] primitives = new double[length];
+
+            for (int i = 0; i < _primitiveSize; i++) {
+                primitives[i] = _primitives[(_primitiveFront + i)
+                        & _primitives.length - 1];
+            }
+
+            _primitives = primitives;
+            _primitiveFront = 0;
+        }
+    }
+
+    /** Return the token as a scalar, or throw an exception if it is not
+     *  a scalar.
+     */
+    private ScalarToken _scalar(Token token) throws IllegalActionException {
+        if (token instanceof ScalarToken) {
+            return (ScalarToken) token;
+        }
+
+        throw new IllegalActionException(getContainer(), "Token " + token
+                + " is not a scalar.");
+    }
+
+    /** Move the primitive values into the queue as tokens, and store
+     *  tokens from now on.
+     */
+    private void _storeTokens() {
+        if (_primitiveType == null) {
+            return;
+        }
+
+        int size = _primitiveSize;
+
+        for (int i = 0; i < size; i++) {
+            _queue.put(get());
+        }
+
+        _primitiveType = null;
+    }
+
     ///////////////////////////////////////////////////////////////////
     ////                         private variables                 ////
+    // The primitive values in the receiver, in a circular buffer
+    // with a length that is a power of two.
+    private double[] _primitives = new double[4];
+
+    // The index of the oldest primitive value.
+    private int _primitiveFront;
+
+    // The number of primitive values.
+    private int _primitiveSize;
+
+    // The type of the primitive values, or null to store tokens.
+    private Type _primitiveType;
+
     // The queue containing the receiver data.
     private ArrayFIFOQueue _queue;
 
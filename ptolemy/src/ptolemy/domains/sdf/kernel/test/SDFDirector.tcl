@@ -574,3 +574,50 @@ test SDFDirector-9.3 {SynchronizeToRealTimeConstructor test} {
 48
 49
 }}
+
+######################################################################
+####
+#
+test SDFDirector-10.1 {Fire independent branches on several threads} {
+    set w [java::new ptolemy.kernel.util.Workspace W]
+    set manager [java::new ptolemy.actor.Manager $w Manager]
+    set e10 [java::new ptolemy.actor.TypedCompositeActor $w]
+    $e10 setName E10
+    $e10 setManager $manager
+    set d10 [java::new ptolemy.domains.sdf.kernel.SDFDirector $e10 D10]
+    setIterations $d10 3
+
+    set threads [java::cast ptolemy.data.expr.Parameter \
+	    [$d10 getAttribute firingThreads]]
+    $threads setExpression 4
+
+    set a1 [java::new ptolemy.domains.sdf.kernel.test.SDFTestRamp $e10 Ramp]
+    set a2 [java::new ptolemy.domains.sdf.kernel.test.SDFTestSplit $e10 Split]
+    set a3 [java::new ptolemy.domains.sdf.kernel.test.SDFTestConsumer $e10 Consumer1]
+    set a4 [java::new ptolemy.domains.sdf.kernel.test.SDFTestConsumer $e10 Consumer2]
+    $e10 connect [java::field $a1 output] [java::field $a2 input] R1
+    $e10 connect [java::field $a2 output1] [java::field $a3 input] R2
+    $e10 connect [java::field $a2 output2] [java::field $a4 input] R3
+
+    $manager run
+    list [$a3 getHistory] [$a4 getHistory]
+} {{0
+2
+4
+} {1
+3
+5
+}}
+
+test SDFDirector-10.2 {firingThreads cannot be negative} {
+    set e10 [java::new ptolemy.actor.TypedCompositeActor]
+    set d10 [java::new ptolemy.domains.sdf.kernel.SDFDirector $e10 D10]
+    set threads [java::cast ptolemy.data.expr.Parameter \
+	    [$d10 getAttribute firingThreads]]
+    $threads setExpression -1
+    catch {$threads validate} errMsg
+    # Zero is the number of available processors.
+    $threads setExpression 0
+    $threads validate
+    list [regexp {Cannot set a negative firingThreads: -1} $errMsg]
+} {1}
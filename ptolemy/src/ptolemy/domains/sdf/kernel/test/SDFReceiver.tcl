@@ -433,3 +433,69 @@ test SDFReceiver-6.3 {try to get historyElements} {
 	    [list $results4 $results5 $results6] \
 	    [list $results7 $results8 $results9] \
 } {{3 {{"foo"}} 1} {3 {{"foo"} {"bar"}} 2} {3 {{"bar"} {"bif"} {"baz"}} 3}}
+
+######################################################################
+####
+#
+test SDFReceiver-7.1 {Check putDoubles and getDoubles with primitives} {
+    set receiver [java::new ptolemy.domains.sdf.kernel.SDFReceiver]
+    $receiver setPrimitiveType [java::field ptolemy.data.type.BaseType DOUBLE]
+    set primitiveType [[$receiver getPrimitiveType] toString]
+
+    set values [java::new {double[]} 3 {1.5 2.5 3.5}]
+    $receiver putDoubles $values 3
+    $receiver putDoubles $values 2
+    set size [$receiver size]
+
+    set out [java::new {double[]} 4]
+    $receiver getDoubles $out 4
+    set token [$receiver get]
+
+    list $primitiveType $size [$out getrange] [$token toString] \
+	    [$receiver hasToken]
+} {double 5 {1.5 2.5 3.5 1.5} 2.5 0}
+
+test SDFReceiver-7.2 {Check setCapacity with primitives} {
+    set receiver [java::new ptolemy.domains.sdf.kernel.SDFReceiver]
+    $receiver setPrimitiveType [java::field ptolemy.data.type.BaseType DOUBLE]
+    set values [java::new {double[]} 3 {1.0 2.0 3.0}]
+    $receiver putDoubles $values 3
+
+    # Fails because receiver contains 3 values.
+    catch {$receiver setCapacity 2} result1
+    catch {$receiver setCapacity -2} result2
+    $receiver setCapacity 3
+    catch {$receiver putDoubles $values 1} result3
+    list $result1 $result2 $result3 [$receiver getCapacity]
+} {{ptolemy.kernel.util.IllegalActionException: Failed to set capacity to 2, since the receiver contains 3 tokens.} {ptolemy.kernel.util.IllegalActionException: Failed to set capacity to -2
+Because:
+Queue Capacity cannot be negative} {ptolemy.actor.NoRoomException: Queue is at capacity of 3. Cannot put a token.} 3}
+
+test SDFReceiver-7.3 {Put a token that is not a primitive value} {
+    set receiver [java::new ptolemy.domains.sdf.kernel.SDFReceiver]
+    $receiver setPrimitiveType [java::field ptolemy.data.type.BaseType DOUBLE]
+    set values [java::new {double[]} 2 {1.0 2.0}]
+    $receiver putDoubles $values 2
+
+    # The receiver goes back to storing tokens and keeps the values.
+    $receiver {put ptolemy.data.Token} [java::new ptolemy.data.StringToken foo]
+    set primitiveType [java::isnull [$receiver getPrimitiveType]]
+
+    set out [java::new {double[]} 2]
+    $receiver getDoubles $out 2
+    list $primitiveType [$out getrange] [[$receiver get] toString] \
+	    [$receiver size]
+} {1 {1.0 2.0} {"foo"} 0}
+
+test SDFReceiver-7.4 {Check getInts and putInts with primitives} {
+    set receiver [java::new ptolemy.domains.sdf.kernel.SDFReceiver]
+    $receiver {put ptolemy.data.Token} [java::new ptolemy.data.IntToken 7]
+    $receiver setPrimitiveType [java::field ptolemy.data.type.BaseType INT]
+
+    set values [java::new {int[]} 2 {8 9}]
+    $receiver putInts $values 2
+    set out [java::new {int[]} 3]
+    $receiver getInts $out 3
+    list [[$receiver getPrimitiveType] toString] [$out getrange] \
+	    [$receiver size]
+} {int {7 8 9} 0}
@@ -30,10 +30,15 @@ package ptolemy.domains.sdf.lib;
 import ptolemy.data.IntToken;
 import ptolemy.data.Token;
 import ptolemy.data.expr.Parameter;
+import ptolemy.data.type.BaseType;
+import ptolemy.data.type.Type;
+import ptolemy.domains.sdf.kernel.BlockFiringActor;
+import ptolemy.domains.sdf.kernel.PrimitiveChannels;
 import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.Attribute;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
+import ptolemy.kernel.util.Workspace;
 
 ///////////////////////////////////////////////////////////////////
 //// DownSample
@@ -53,6 +58,10 @@ import ptolemy.kernel.util.NameDuplicationException;
  <p>
  This actor is data polymorphic. It can accept any token
  type on the input.
+ <p>
+ If the <i>blockFiring</i> parameter of the director is true, then the
+ inputs of all the firings of this actor in a row are consumed at once,
+ and the outputs are sent at once.
 
  @see UpSample
  @author Steve Neuendorffer, Edward A. Lee
@@ -61,7 +70,7 @@ import ptolemy.kernel.util.NameDuplicationException;
  @Pt.ProposedRating Yellow (neuendor)
  @Pt.AcceptedRating Yellow (neuendor)
  */
-public class DownSample extends SDFTransformer {
+public class DownSample extends SDFTransformer implements BlockFiringActor {
     /** Construct an actor with the given container and name.
      *  @param container The container.
      *  @param name The name of this actor.
@@ -129,6 +138,19 @@ public class DownSample extends SDFTransformer {
         }
     }
 
+    /** Clone the actor into the specified workspace.
+     *  @param workspace The workspace for the new object.
+     *  @return A new actor.
+     *  @exception CloneNotSupportedException If a derived class has
+     *   an attribute that cannot be cloned.
+     */
+    public Object clone(Workspace workspace) throws CloneNotSupportedException {
+        DownSample newObject = (DownSample) super.clone(workspace);
+        newObject._doubles = null;
+        newObject._ints = null;
+        return newObject;
+    }
+
     /** Consume <i>factor</i> tokens from the input, and select one of
      *  them to send to the output based on the <i>phase</i>.
      *  @exception IllegalActionException If there is no director, or
@@ -136,18 +158,115 @@ public class DownSample extends SDFTransformer {
      */
     public void fire() throws IllegalActionException {
         super.fire();
+        _downSample(1);
+    }
 
+    /** Perform the specified number of iterations, consuming the inputs
+     *  of all of them at once and producing their outputs at once. If
+     *  the iterations cannot be performed at once, for example because
+     *  there are not enough tokens, then call iterate().
+     *  @param count The number of iterations to perform.
+     *  @return NOT_READY, STOP_ITERATING, or COMPLETED.
+     *  @exception IllegalActionException If iterating throws it.
+     */
+    public int iterateBlock(int count) throws IllegalActionException {
         int factorValue = ((IntToken) factor.getToken()).intValue();
-        Token[] valueArray = input.get(0, factorValue);
 
+        if (!_canIterateBlock(DownSample.class, count * factorValue)) {
+            return iterate(count);
+        }
+
+        if (!prefire()) {
+            return NOT_READY;
+        }
+
+        _downSample(count);
+        return postfire() ? COMPLETED : STOP_ITERATING;
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private methods                   ////
+
+    /** Consume the inputs and produce the outputs of the specified
+     *  number of firings.
+     */
+    private void _downSample(int count) throws IllegalActionException {
+        int factorValue = ((IntToken) factor.getToken()).intValue();
         int phaseValue = ((IntToken) phase.getToken()).intValue();
+        int inputCount = count * factorValue;
+
+        // If the input stores doubles or ints, then move the values
+        // without creating tokens.
+        Type type = input.getType();
+
+        if ((type == BaseType.DOUBLE || type == BaseType.INT)
+                && output.getType() == type
+                && PrimitiveChannels.isPrimitive(input, 0)) {
+            if (_doubles == null || _doubles.length < inputCount) {
+                _doubles = new double[inputCount];
+                _ints = new int[inputCount];
+            }
+
+            if (type == BaseType.DOUBLE) {
+                PrimitiveChannels.getDoubles(input, 0, _doubles, inputCount);
+            } else {
+                PrimitiveChannels.getInts(input, 0, _ints, inputCount);
+            }
+
+            if (phaseValue >= factorValue) {
+                throw new IllegalActionException(this,
+                        "Phase is out of range: " + phaseValue);
+            }
+
+            // The selected value of each firing is at an index at least
+            // that of its output, so the values can be moved in place.
+            for (int i = 0; i < count; i++) {
+                int selected = i * factorValue + factorValue - phaseValue - 1;
+
+                if (type == BaseType.DOUBLE) {
+                    _doubles[i] = _doubles[selected];
+                } else {
+                    _ints[i] = _ints[selected];
+                }
+            }
+
+            if (type == BaseType.DOUBLE) {
+                PrimitiveChannels.sendDoubles(output, 0, _doubles, count);
+            } else {
+                PrimitiveChannels.sendInts(output, 0, _ints, count);
+            }
+
+            return;
+        }
+
+        Token[] valueArray = input.get(0, inputCount);
 
         if (phaseValue >= factorValue) {
             throw new IllegalActionException(this, "Phase is out of range: "
                     + phaseValue);
         }
 
-        // Send the token.
-        output.send(0, valueArray[factorValue - phaseValue - 1]);
+        // Send the tokens.
+        if (count == 1) {
+            output.send(0, valueArray[factorValue - phaseValue - 1]);
+            return;
+        }
+
+        Token[] outputs = new Token[count];
+
+        for (int i = 0; i < count; i++) {
+            outputs[i] = valueArray[i * factorValue + factorValue - phaseValue
+                    - 1];
+        }
+
+        output.send(0, outputs, count);
     }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+
+    // The inputs when they are moved as doubles or ints.
+    private double[] _doubles;
+
+    private int[] _ints;
 }
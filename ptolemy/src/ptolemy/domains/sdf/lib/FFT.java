@@ -32,6 +32,7 @@ import ptolemy.data.IntToken;
 import ptolemy.data.ScalarToken;
 import ptolemy.data.Token;
 import ptolemy.data.expr.Parameter;
+import ptolemy.domains.sdf.kernel.BlockFiringActor;
 import ptolemy.data.type.BaseType;
 import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.Attribute;
@@ -50,6 +51,10 @@ import ptolemy.math.SignalProcessing;
  base-2 logarithm of the size. The default order is 8, which means that
  2<sup>8</sup> = 256 tokens are read and 2<sup>8</sup> = 256 tokens are
  produced.  The result of the FFT is a new array of Complex tokens.
+ <p>
+ If the <i>blockFiring</i> parameter of the director is true, then the
+ inputs of all the transforms computed in a row are read at once, and
+ their results are sent at once.
 
  @author Bart Kienhuis, Steve Neuendorffer
  @version $Id: FFT.java 65763 2013-03-07 01:54:37Z cxh $
@@ -58,7 +63,7 @@ import ptolemy.math.SignalProcessing;
  @Pt.AcceptedRating Yellow (neuendor)
  @see ptolemy.math.SignalProcessing#FFTComplexOut
  */
-public class FFT extends SDFTransformer {
+public class FFT extends SDFTransformer implements BlockFiringActor {
     /** Construct an actor with the given container and name.
      *  @param container The container.
      *  @param name The name of this actor.
@@ -140,6 +145,46 @@ public class FFT extends SDFTransformer {
         output.send(0, _outTokenArray, _transformSize);
     }
 
+    /** Perform the specified number of iterations, consuming the inputs
+     *  of all of the transforms at once and producing their outputs at
+     *  once. If the iterations cannot be performed at once, for example
+     *  because there are not enough tokens, then call iterate().
+     *  @param count The number of iterations to perform.
+     *  @return NOT_READY, STOP_ITERATING, or COMPLETED.
+     *  @exception IllegalActionException If iterating throws it.
+     */
+    public int iterateBlock(int count) throws IllegalActionException {
+        if (!_canIterateBlock(FFT.class, count * _transformSize)) {
+            return iterate(count);
+        }
+
+        if (!prefire()) {
+            return NOT_READY;
+        }
+
+        int length = count * _transformSize;
+        Token[] inTokenArray = input.get(0, length);
+        Token[] outTokenArray = new Token[length];
+
+        for (int offset = 0; offset < length; offset += _transformSize) {
+            for (int i = 0; i < _transformSize; i++) {
+                _inComplexArray[i] = ((ScalarToken) inTokenArray[offset + i])
+                        .complexValue();
+            }
+
+            Complex[] outComplexArray = SignalProcessing.FFTComplexOut(
+                    _inComplexArray, _orderValue);
+
+            for (int i = 0; i < _transformSize; i++) {
+                outTokenArray[offset + i] = new ComplexToken(
+                        outComplexArray[i]);
+            }
+        }
+
+        output.send(0, outTokenArray, length);
+        return postfire() ? COMPLETED : STOP_ITERATING;
+    }
+
     ///////////////////////////////////////////////////////////////////
     ////                         private variables                 ////
     private int _transformSize;
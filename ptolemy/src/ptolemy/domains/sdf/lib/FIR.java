@@ -31,13 +31,18 @@ import java.util.HashSet;
 import java.util.Set;
 
 import ptolemy.data.ArrayToken;
+import ptolemy.data.DoubleToken;
 import ptolemy.data.IntToken;
+import ptolemy.data.ScalarToken;
 import ptolemy.data.Token;
 import ptolemy.data.expr.Parameter;
 import ptolemy.data.type.ArrayType;
 import ptolemy.data.type.BaseType;
 import ptolemy.data.type.MonotonicFunction;
 import ptolemy.data.type.Type;
+import ptolemy.data.unit.UnitUtilities;
+import ptolemy.domains.sdf.kernel.BlockFiringActor;
+import ptolemy.domains.sdf.kernel.PrimitiveChannels;
 import ptolemy.graph.Inequality;
 import ptolemy.graph.InequalityTerm;
 import ptolemy.kernel.CompositeEntity;
@@ -98,6 +103,15 @@ import ptolemy.kernel.util.Workspace;
  of this actor.  This actor automatically sets the rates of the input
  and output ports to the decimation and interpolation ratios, respectively.</i>
  <p>
+ If the input and output are of type double, and the taps are doubles
+ or ints, then the filter computes with doubles instead of tokens, and
+ gets and sends its data with {@link PrimitiveChannels}, so that it does
+ not create tokens for intermediate results, nor for outputs when the
+ director uses primitive channels. If in addition the <i>blockFiring</i>
+ parameter of the director is true, then the inputs of all the
+ firings of the filter in a row are gotten at once, and the outputs are
+ sent at once.
+ <p>
  For more information about polyphase filters, see F. J. Harris,
  "Multirate FIR Filters for Interpolating and Desampling", in
  <i>Handbook of Digital Signal Processing</i>, Academic Press, 1987.
@@ -109,7 +123,7 @@ import ptolemy.kernel.util.Workspace;
  @Pt.AcceptedRating Yellow (neuendor)
  @see ptolemy.data.Token
  */
-public class FIR extends SDFTransformer {
+public class FIR extends SDFTransformer implements BlockFiringActor {
     /** Construct an actor with the given container and name.
      *  @param container The container.
      *  @param name The name of this actor.
@@ -230,6 +244,9 @@ public class FIR extends SDFTransformer {
         // Set the type constraints.
         newObject.taps.setTypeAtLeast(ArrayType.ARRAY_BOTTOM);
         newObject._taps = null;
+        newObject._doubleInputs = null;
+        newObject._doubleOutputs = null;
+        newObject._doubleTaps = null;
 
         return newObject;
     }
@@ -243,6 +260,11 @@ public class FIR extends SDFTransformer {
     public void fire() throws IllegalActionException {
         super.fire();
 
+        if (_isDouble()) {
+            _fireDoubles(1);
+            return;
+        }
+
         // Phase keeps track of which phase of the filter coefficients
         // are used. Starting phase depends on the _decimationPhaseValue value.
         int phase = _decimationValue - _decimationPhaseValue - 1;
@@ -309,6 +331,36 @@ public class FIR extends SDFTransformer {
         _initializeTaps();
     }
 
+    /** Perform the specified number of iterations. If the filter
+     *  computes with doubles, then consume the inputs of all of the
+     *  iterations at once, and produce their outputs at once.
+     *  Otherwise, call fire() for each iteration. If the iterations
+     *  cannot be performed at once, for example because there are not
+     *  enough tokens, then call iterate().
+     *  @param count The number of iterations to perform.
+     *  @return NOT_READY, STOP_ITERATING, or COMPLETED.
+     *  @exception IllegalActionException If iterating throws it.
+     */
+    public int iterateBlock(int count) throws IllegalActionException {
+        if (!_canIterateBlock(FIR.class, count * _decimationValue)) {
+            return iterate(count);
+        }
+
+        if (!prefire()) {
+            return NOT_READY;
+        }
+
+        if (_isDouble()) {
+            _fireDoubles(count);
+        } else {
+            for (int i = 0; i < count; i++) {
+                fire();
+            }
+        }
+
+        return postfire() ? COMPLETED : STOP_ITERATING;
+    }
+
     /** Return false if the input does not have enough tokens to fire.
      *  Otherwise, return what the superclass returns.
      *  @return False if the number of input tokens available is not at least
@@ -445,6 +497,102 @@ public class FIR extends SDFTransformer {
     /** Local cache of the zero token. */
     protected Token _zero;
 
+    ///////////////////////////////////////////////////////////////////
+    ////                         private methods                   ////
+
+    /** Consume the inputs and produce the outputs of the specified
+     *  number of firings, as fire() does, but compute with doubles.
+     */
+    private void _fireDoubles(int count) throws IllegalActionException {
+        if (_doubleTaps == null || _doubleTaps.length != _taps.length) {
+            _doubleTaps = new double[_taps.length];
+        }
+
+        // The taps may have been changed since the last firing, by
+        // LMSAdaptive for example.
+        for (int i = 0; i < _taps.length; i++) {
+            _doubleTaps[i] = ((ScalarToken) _taps[i]).doubleValue();
+        }
+
+        int inputCount = count * _decimationValue;
+
+        if (_doubleInputs == null || _doubleInputs.length < inputCount) {
+            _doubleInputs = new double[inputCount];
+        }
+
+        // Each firing produces _interpolationValue outputs.
+        int outputCount = count * _interpolationValue;
+
+        if (_doubleOutputs == null || _doubleOutputs.length < outputCount) {
+            _doubleOutputs = new double[outputCount];
+        }
+
+        PrimitiveChannels.getDoubles(input, 0, _doubleInputs, inputCount);
+
+        int inputs = 0;
+        int outputs = 0;
+
+        for (int firing = 0; firing < count; firing++) {
+            int phase = _decimationValue - _decimationPhaseValue - 1;
+
+            // The data is kept as tokens, since derived classes use it.
+            for (int inC = 1; inC <= _decimationValue; inC++) {
+                if (--_mostRecent < 0) {
+                    _mostRecent = _data.length - 1;
+                }
+
+                _data[_mostRecent] = new DoubleToken(_doubleInputs[inputs++]);
+            }
+
+            for (int inC = 1; inC <= _decimationValue; inC++) {
+                while (phase < _interpolationValue) {
+                    double sum = 0.0;
+
+                    for (int i = 0; i < _phaseLength; i++) {
+                        int tapsIndex = i * _interpolationValue + phase;
+
+                        int dataIndex = (_mostRecent + _decimationValue
+                                - inC + i) % _data.length;
+
+                        if (tapsIndex < _doubleTaps.length) {
+                            sum += _doubleTaps[tapsIndex]
+                                    * ((ScalarToken) _data[dataIndex])
+                                            .doubleValue();
+                        }
+                    }
+
+                    _doubleOutputs[outputs++] = sum;
+                    phase += _decimationValue;
+                }
+
+                phase -= _interpolationValue;
+            }
+        }
+
+        PrimitiveChannels.sendDoubles(output, 0, _doubleOutputs, outputs);
+    }
+
+    /** Return true if the input and output are doubles, and the taps
+     *  are doubles or ints without units, so that the filter can compute
+     *  with doubles and give the same results as with tokens.
+     */
+    private boolean _isDouble() {
+        if (input.getType() != BaseType.DOUBLE
+                || output.getType() != BaseType.DOUBLE
+                || UnitUtilities.getNumCategories() != 0) {
+            return false;
+        }
+
+        for (Token tap : _taps) {
+            if (tap.getClass() != DoubleToken.class
+                    && tap.getClass() != IntToken.class || tap.isNil()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     ///////////////////////////////////////////////////////////////////
     ////                         private variables                 ////
     // The tokens needed in FIR
@@ -454,6 +602,13 @@ public class FIR extends SDFTransformer {
 
     private Token _dataItem;
 
+    // The inputs, outputs and taps when computing with doubles.
+    private double[] _doubleInputs;
+
+    private double[] _doubleOutputs;
+
+    private double[] _doubleTaps;
+
     ///////////////////////////////////////////////////////////////////
     ////                         inner classes                     ////
 
@@ -31,6 +31,7 @@ import ptolemy.data.ComplexToken;
 import ptolemy.data.IntToken;
 import ptolemy.data.Token;
 import ptolemy.data.expr.Parameter;
+import ptolemy.domains.sdf.kernel.BlockFiringActor;
 import ptolemy.data.type.BaseType;
 import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.Attribute;
@@ -50,6 +51,10 @@ import ptolemy.math.SignalProcessing;
  which means that 2<sup>8</sup> = 256 tokens are read and 2<sup>8</sup>
  = 256 tokens are produced.
  The result of the IFFT is a new array of Complex tokens.
+ <p>
+ When the director fires the actors in blocks, several inverse
+ transforms in a row get their inputs with one get() and send their
+ results with one send().
 
  @author Bart Kienhuis, Steve Neuendorffer
  @version $Id: IFFT.java 65763 2013-03-07 01:54:37Z cxh $
@@ -58,7 +63,7 @@ import ptolemy.math.SignalProcessing;
  @Pt.AcceptedRating Yellow (eal)
  @see ptolemy.math.SignalProcessing#IFFTComplexOut
  */
-public class IFFT extends SDFTransformer {
+public class IFFT extends SDFTransformer implements BlockFiringActor {
     /** Construct an actor with the given container and name.
      *  @param container The container.
      *  @param name The name of this actor.
@@ -141,6 +146,46 @@ public class IFFT extends SDFTransformer {
         output.send(0, _outTokenArray, _transformSize);
     }
 
+    /** Perform the specified number of iterations, consuming the inputs
+     *  of all of the transforms at once and producing their outputs at
+     *  once. If the iterations cannot be performed at once, for example
+     *  because there are not enough tokens, then call iterate().
+     *  @param count The number of iterations to perform.
+     *  @return NOT_READY, STOP_ITERATING, or COMPLETED.
+     *  @exception IllegalActionException If iterating throws it.
+     */
+    public int iterateBlock(int count) throws IllegalActionException {
+        if (!_canIterateBlock(IFFT.class, count * _transformSize)) {
+            return iterate(count);
+        }
+
+        if (!prefire()) {
+            return NOT_READY;
+        }
+
+        int length = count * _transformSize;
+        Token[] inTokenArray = input.get(0, length);
+        Token[] outTokenArray = new Token[length];
+
+        for (int offset = 0; offset < length; offset += _transformSize) {
+            for (int i = 0; i < _transformSize; i++) {
+                _inComplexArray[i] = ((ComplexToken) inTokenArray[offset + i])
+                        .complexValue();
+            }
+
+            Complex[] outComplexArray = SignalProcessing.IFFTComplexOut(
+                    _inComplexArray, _orderValue);
+
+            for (int i = 0; i < _transformSize; i++) {
+                outTokenArray[offset + i] = new ComplexToken(
+                        outComplexArray[i]);
+            }
+        }
+
+        output.send(0, outTokenArray, length);
+        return postfire() ? COMPLETED : STOP_ITERATING;
+    }
+
     ///////////////////////////////////////////////////////////////////
     ////                         private variables                 ////
     private int _transformSize;
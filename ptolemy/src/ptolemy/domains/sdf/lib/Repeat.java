@@ -31,6 +31,7 @@ import ptolemy.actor.parameters.PortParameter;
 import ptolemy.data.IntToken;
 import ptolemy.data.Token;
 import ptolemy.data.expr.Parameter;
+import ptolemy.domains.sdf.kernel.BlockFiringActor;
 import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.Attribute;
 import ptolemy.kernel.util.IllegalActionException;
@@ -49,6 +50,11 @@ import ptolemy.kernel.util.NameDuplicationException;
  If the input does not have enough tokens, then this actor does
  nothing. If <i>blockSize</i> or <i>numberOfTimes</i> is zero,
  then it produces no outputs.
+ <p>
+ If the director fires the actors in blocks (its <i>blockFiring</i>
+ parameter is true), and the <i>numberOfTimes</i> port is not connected,
+ then the inputs of a block of firings are read together, and all of
+ their repetitions are sent together.
 
  @author Shankar Rao, Steve Neuendorffer
  @version $Id: Repeat.java 68279 2014-02-03 02:43:47Z cxh $
@@ -56,7 +62,7 @@ import ptolemy.kernel.util.NameDuplicationException;
  @Pt.ProposedRating Yellow (neuendor)
  @Pt.AcceptedRating Yellow (neuendor)
  */
-public class Repeat extends SDFTransformer {
+public class Repeat extends SDFTransformer implements BlockFiringActor {
     /** Construct an actor in the specified container with the specified
      *  name.
      *  @param container The container.
@@ -148,4 +154,49 @@ public class Repeat extends SDFTransformer {
             }
         }
     }
+
+    /** Perform the specified number of iterations, consuming the inputs
+     *  of all of them at once and producing their outputs at once. If
+     *  the iterations cannot be performed at once, for example because
+     *  there are not enough tokens, or because the <i>numberOfTimes</i>
+     *  port is connected and the value may change with each iteration,
+     *  then call iterate().
+     *  @param count The number of iterations to perform.
+     *  @return NOT_READY, STOP_ITERATING, or COMPLETED.
+     *  @exception IllegalActionException If iterating throws it.
+     */
+    public int iterateBlock(int count) throws IllegalActionException {
+        int blockSizeValue = ((IntToken) blockSize.getToken()).intValue();
+
+        if (numberOfTimes.getPort().getWidth() > 0
+                || !_canIterateBlock(Repeat.class, count * blockSizeValue)) {
+            return iterate(count);
+        }
+
+        if (!prefire()) {
+            return NOT_READY;
+        }
+
+        numberOfTimes.update();
+        int repetitions = ((IntToken) numberOfTimes.getToken()).intValue();
+        Token[] inputs = input.get(0, count * blockSizeValue);
+        int outputCount = count * repetitions * blockSizeValue;
+
+        if (outputCount > 0) {
+            Token[] outputs = new Token[outputCount];
+            int position = 0;
+
+            for (int i = 0; i < count; i++) {
+                for (int j = 0; j < repetitions; j++) {
+                    System.arraycopy(inputs, i * blockSizeValue, outputs,
+                            position, blockSizeValue);
+                    position += blockSizeValue;
+                }
+            }
+
+            output.send(0, outputs, outputCount);
+        }
+
+        return postfire() ? COMPLETED : STOP_ITERATING;
+    }
 }
@@ -148,4 +148,61 @@ public class SDFTransformer extends TypedAtomicActor implements SequenceActor {
      *  initial production.
      */
     public Parameter output_tokenInitProduction;
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         protected methods                 ////
+
+    /** Return true if the specified number of iterations of this actor
+     *  can be performed at once by the implementation of
+     *  {@link ptolemy.domains.sdf.kernel.BlockFiringActor#iterateBlock(int)}
+     *  in the specified class. This is the case if the input has one
+     *  channel with at least the specified number of tokens, there are
+     *  no debug listeners or actor firing listeners, which expect to be
+     *  notified of each iteration, no stop has been requested, and
+     *  prefire(), fire() and postfire() are not overridden by a class
+     *  derived from the specified class.
+     *  @param implementingClass The class that implements iterateBlock().
+     *  @param tokens The number of tokens that the iterations consume.
+     *  @return True if the iterations can be performed at once.
+     *  @exception IllegalActionException If it is thrown accessing the port.
+     */
+    protected boolean _canIterateBlock(Class<?> implementingClass, int tokens)
+            throws IllegalActionException {
+        if (_debugging || _notifyingActorFiring || _stopRequested) {
+            return false;
+        }
+
+        if (_blockClass != implementingClass) {
+            _blockIterationsInherited = true;
+
+            for (String name : new String[] { "prefire", "fire", "postfire" }) {
+                try {
+                    Class<?> declaringClass = getClass().getMethod(name)
+                            .getDeclaringClass();
+
+                    if (!declaringClass.isAssignableFrom(implementingClass)) {
+                        _blockIterationsInherited = false;
+                    }
+                } catch (NoSuchMethodException ex) {
+                    _blockIterationsInherited = false;
+                }
+            }
+
+            _blockClass = implementingClass;
+        }
+
+        return _blockIterationsInherited && input.getWidth() == 1
+                && input.hasToken(0, tokens);
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+
+    /** The class for which _blockIterationsInherited was found. */
+    private Class<?> _blockClass;
+
+    /** True if prefire(), fire() and postfire() are those of _blockClass
+     *  or of its base classes.
+     */
+    private boolean _blockIterationsInherited;
 }
@@ -34,6 +34,7 @@ import ptolemy.data.ArrayToken;
 import ptolemy.data.Token;
 import ptolemy.data.expr.Parameter;
 import ptolemy.data.type.ArrayType;
+import ptolemy.domains.sdf.kernel.BlockFiringActor;
 import ptolemy.graph.Inequality;
 import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.Attribute;
@@ -55,6 +56,10 @@ import ptolemy.kernel.util.Workspace;
  default value for the <i>initialOutputs</i> parameter causes a
  single integer token with value zero to be produced in
  initialize().
+ <p>
+ With the <i>blockFiring</i> parameter of the director set to true,
+ the tokens of several firings in a row are passed to the output with
+ a single get() and send().
 
  @author Steve Neuendorffer, Edward A. Lee
  @version $Id: SampleDelay.java 65768 2013-03-07 03:33:00Z cxh $
@@ -62,7 +67,7 @@ import ptolemy.kernel.util.Workspace;
  @Pt.ProposedRating Yellow (eal)
  @Pt.AcceptedRating Yellow (neuendor)
  */
-public class SampleDelay extends SDFTransformer {
+public class SampleDelay extends SDFTransformer implements BlockFiringActor {
     /** Construct an actor with the given container and name.
      *  @param container The container.
      *  @param name The name of this actor.
@@ -156,6 +161,27 @@ public class SampleDelay extends SDFTransformer {
         output.send(0, _outputsArray.arrayValue(), _outputsArray.length());
     }
 
+    /** Perform the specified number of iterations, reading all of
+     *  their input tokens at once and sending them to the output at
+     *  once. If there are not enough input tokens for all of the
+     *  iterations, then call iterate().
+     *  @param count The number of iterations to perform.
+     *  @return NOT_READY, STOP_ITERATING, or COMPLETED.
+     *  @exception IllegalActionException If iterating throws it.
+     */
+    public int iterateBlock(int count) throws IllegalActionException {
+        if (!_canIterateBlock(SampleDelay.class, count)) {
+            return iterate(count);
+        }
+
+        if (!prefire()) {
+            return NOT_READY;
+        }
+
+        output.send(0, input.get(0, count), count);
+        return postfire() ? COMPLETED : STOP_ITERATING;
+    }
+
     /** Check that the <i>initialOutputs</i> parameter contains an
      *  array token.  Set the <i>tokenInitProduction</i> parameter of
      *  the output port to the length of the value of <i>initialOutputs</i>
@@ -30,6 +30,7 @@ package ptolemy.domains.sdf.lib;
 import ptolemy.data.IntToken;
 import ptolemy.data.Token;
 import ptolemy.data.expr.Parameter;
+import ptolemy.domains.sdf.kernel.BlockFiringActor;
 import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.Attribute;
 import ptolemy.kernel.util.IllegalActionException;
@@ -60,6 +61,10 @@ import ptolemy.kernel.util.NameDuplicationException;
  This actor is data polymorphic. It can accept any token
  type on the input that supports the zero() method,
  and it sends output tokens of that type.
+ <p>
+ When the director's <i>blockFiring</i> parameter is true, consecutive
+ firings are performed together: their inputs are read with one get()
+ and the zero-padded outputs are sent with one send().
 
  @see DownSample
  @author Steve Neuendorffer, Edward A. Lee
@@ -68,7 +73,7 @@ import ptolemy.kernel.util.NameDuplicationException;
  @Pt.ProposedRating Yellow (neuendor)
  @Pt.AcceptedRating Yellow (eal)
  */
-public class UpSample extends SDFTransformer {
+public class UpSample extends SDFTransformer implements BlockFiringActor {
     /** Construct an actor with the given container and name.
      *  @param container The container.
      *  @param name The name of this actor.
@@ -179,4 +184,48 @@ public class UpSample extends SDFTransformer {
         }
         output.send(0, result, factorValue);
     }
+
+    /** Perform the specified number of iterations, consuming the inputs
+     *  of all of them at once and producing their outputs at once. If
+     *  the iterations cannot be performed at once, for example because
+     *  there are not enough tokens, then call iterate().
+     *  @param count The number of iterations to perform.
+     *  @return NOT_READY, STOP_ITERATING, or COMPLETED.
+     *  @exception IllegalActionException If iterating throws it.
+     */
+    public int iterateBlock(int count) throws IllegalActionException {
+        if (!_canIterateBlock(UpSample.class, count)) {
+            return iterate(count);
+        }
+
+        if (!prefire()) {
+            return NOT_READY;
+        }
+
+        Token[] tokens = input.get(0, count);
+        int factorValue = ((IntToken) factor.getToken()).intValue();
+        int phaseValue = ((IntToken) phase.getToken()).intValue();
+
+        if (phaseValue >= factorValue) {
+            throw new IllegalActionException(this, "Phase is out of range: "
+                    + phaseValue);
+        }
+
+        Token[] result = new Token[count * factorValue];
+
+        for (int i = 0; i < count; i++) {
+            Token zero = tokens[i].zero();
+
+            for (int j = 0; j < factorValue; j++) {
+                if (j == phaseValue) {
+                    result[i * factorValue + j] = tokens[i];
+                } else {
+                    result[i * factorValue + j] = zero;
+                }
+            }
+        }
+
+        output.send(0, result, count * factorValue);
+        return postfire() ? COMPLETED : STOP_ITERATING;
+    }
 }
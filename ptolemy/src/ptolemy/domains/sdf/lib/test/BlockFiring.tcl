@@ -0,0 +1,129 @@
+# Test the blockFiring parameter of the SDFDirector with the actors of
+# this package that implement BlockFiringActor.
+#
+# @Version: $Id$
+#
+# @Copyright (c) 2014 The Regents of the University of California.
+# All rights reserved.
+#
+# Permission is hereby granted, without written agreement and without
+# license or royalty fees, to use, copy, modify, and distribute this
+# software and its documentation for any purpose, provided that the
+# above copyright notice and the following two paragraphs appear in all
+# copies of this software.
+#
+# IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+# FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+# ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+# THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+# SUCH DAMAGE.
+#
+# THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+# INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+# MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+# PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+# CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+# ENHANCEMENTS, OR MODIFICATIONS.
+#
+# 						PT_COPYRIGHT_VERSION_2
+# 						COPYRIGHTENDKEY
+#######################################################################
+
+# Ptolemy II test bed, see $PTII/doc/coding/testing.html for more information.
+
+# Load up the test definitions.
+if {[string compare test [info procs test]] == 1} then {
+    source testDefs.tcl
+} {}
+
+# Run a Ramp that feeds the specified actor, which feeds a Recorder,
+# with the specified vectorizationFactor and blockFiring parameters
+# and return what the Recorder got. The script, if any, is evaluated
+# with the variable actor set to the actor to set its parameters.
+proc blockFiringRun {className vectorizationFactor blockFiring \
+        {script {}}} {
+    set e0 [sdfModel 3]
+    set director [$e0 getDirector]
+    [getParameter $director vectorizationFactor] setExpression \
+            $vectorizationFactor
+    [getParameter $director blockFiring] setExpression $blockFiring
+    set ramp [java::new ptolemy.actor.lib.Ramp $e0 ramp]
+    set actor [java::new $className $e0 actor]
+    set rec [java::new ptolemy.actor.lib.Recorder $e0 rec]
+    eval $script
+
+    $e0 connect \
+       [java::field [java::cast ptolemy.actor.lib.Source $ramp] output] \
+       [java::field [java::cast ptolemy.domains.sdf.lib.SDFTransformer $actor] input]
+    $e0 connect \
+       [java::field [java::cast ptolemy.domains.sdf.lib.SDFTransformer $actor] output] \
+       [java::field [java::cast ptolemy.actor.lib.Sink $rec] input]
+
+    [$e0 getManager] execute
+    return [enumToTokenValues [$rec getRecord 0]]
+}
+
+# Return the output of blockFiringRun with blockFiring true if it is
+# the same as with blockFiring false, and the two outputs otherwise.
+proc blockFiringCompare {className vectorizationFactor {script {}}} {
+    set expected [blockFiringRun $className $vectorizationFactor false \
+            $script]
+    set actual [blockFiringRun $className $vectorizationFactor true \
+            $script]
+    if {$expected != $actual} {
+        return [list $expected $actual]
+    }
+    return $actual
+}
+
+######################################################################
+####
+#
+test BlockFiring-1.1 {DownSample} {
+    blockFiringCompare ptolemy.domains.sdf.lib.DownSample 2 {
+        [getParameter $actor factor] setExpression 3
+        [getParameter $actor phase] setExpression 1
+    }
+} {1 4 7 10 13 16}
+
+test BlockFiring-1.2 {UpSample} {
+    blockFiringCompare ptolemy.domains.sdf.lib.UpSample 2 {
+        [getParameter $actor factor] setExpression 2
+        [getParameter $actor phase] setExpression 1
+    }
+} {0 0 0 1 0 2 0 3 0 4 0 5}
+
+test BlockFiring-1.3 {Repeat} {
+    blockFiringCompare ptolemy.domains.sdf.lib.Repeat 2 {
+        [getParameter $actor numberOfTimes] setExpression 2
+        [getParameter $actor blockSize] setExpression 3
+    }
+} {0 1 2 0 1 2 3 4 5 3 4 5 6 7 8 6 7 8 9 10 11 9 10 11 12 13 14 12 13 14 15 16 17 15 16 17}
+
+test BlockFiring-1.4 {SampleDelay} {
+    blockFiringCompare ptolemy.domains.sdf.lib.SampleDelay 4 {
+        [getParameter $actor initialOutputs] setExpression {{-2, -1}}
+    }
+} {-2 -1 0 1 2 3 4 5 6 7 8 9}
+
+test BlockFiring-1.5 {FFT} {
+    blockFiringCompare ptolemy.domains.sdf.lib.FFT 2 {
+        [getParameter $actor order] setExpression 2
+    }
+} {{6.0 + 0.0i} {-2.0 + 2.0i} {-2.0 + 0.0i} {-2.0 - 2.0i}\
+{22.0 + 0.0i} {-2.0 + 2.0i} {-2.0 + 0.0i} {-2.0 - 2.0i}\
+{38.0 + 0.0i} {-2.0 + 2.0i} {-2.0 + 0.0i} {-2.0 - 2.0i}\
+{54.0 + 0.0i} {-2.0 + 2.0i} {-2.0 + 0.0i} {-2.0 - 2.0i}\
+{70.0 + 0.0i} {-2.0 + 2.0i} {-2.0 + 0.0i} {-2.0 - 2.0i}\
+{86.0 + 0.0i} {-2.0 + 2.0i} {-2.0 + 0.0i} {-2.0 - 2.0i}}
+
+test BlockFiring-1.6 {IFFT} {
+    blockFiringCompare ptolemy.domains.sdf.lib.IFFT 2 {
+        [getParameter $actor order] setExpression 2
+    }
+} {{1.5 + 0.0i} {-0.5 - 0.5i} {-0.5 + 0.0i} {-0.5 + 0.5i}\
+{5.5 + 0.0i} {-0.5 - 0.5i} {-0.5 + 0.0i} {-0.5 + 0.5i}\
+{9.5 + 0.0i} {-0.5 - 0.5i} {-0.5 + 0.0i} {-0.5 + 0.5i}\
+{13.5 + 0.0i} {-0.5 - 0.5i} {-0.5 + 0.0i} {-0.5 + 0.5i}\
+{17.5 + 0.0i} {-0.5 - 0.5i} {-0.5 + 0.0i} {-0.5 + 0.5i}\
+{21.5 + 0.0i} {-0.5 - 0.5i} {-0.5 + 0.0i} {-0.5 + 0.5i}}
@@ -157,3 +157,30 @@ test FIR-3.1 {Test FIR for FIX datatype} {
     enumToTokenValues [$rec getRecord 0]
 
 } {-0.0625 0.0 0.1875 0.375 0.375 0.1875 0.0 -0.0625 0.0 0.0}
+
+test FIR-4.1 {Test FIR fired in blocks of iterations} {
+    set e0 [sdfModel 2 ]
+    set director [$e0 getDirector]
+    [getParameter $director vectorizationFactor] setExpression 5
+    [getParameter $director blockFiring] setExpression true
+    set pulse [java::new ptolemy.actor.lib.Pulse $e0 pulse]
+    set rec [java::new ptolemy.actor.lib.Recorder $e0 rec]
+    set fir [java::new ptolemy.domains.sdf.lib.FIR $e0 FIR]
+
+    $e0 connect \
+      [java::field [java::cast ptolemy.actor.lib.Source $pulse] output] \
+      [java::field [java::cast ptolemy.domains.sdf.lib.SDFTransformer $fir] input]
+
+    $e0 connect \
+     [java::field [java::cast ptolemy.domains.sdf.lib.SDFTransformer $fir] output] \
+     [java::field [java::cast ptolemy.actor.lib.Sink $rec] input]
+
+    set tapParam [getParameter $fir taps]
+    $tapParam setExpression {{-0.040609, -0.001628, 0.17853, 0.37665, 0.37665, 0.17853, -0.001628, -0.040609}}
+
+    [$e0 getManager] execute
+    epsilonDiff \
+	    {-0.040609 -0.001628 0.17853 0.37665 0.37665 0.17853 -0.001628 -0.040609 0.0 0.0} \
+	    [enumToTokenValues [$rec getRecord 0]]
+
+} {}
@@ -0,0 +1,133 @@
+/* A benchmark of an SDF signal processing chain with and without
+ primitive channels.
+
+ Copyright (c) 2014 The Regents of the University of California.
+ All rights reserved.
+ Permission is hereby granted, without written agreement and without
+ license or royalty fees, to use, copy, modify, and distribute this
+ software and its documentation for any purpose, provided that the above
+ copyright notice and the following two paragraphs appear in all copies
+ of this software.
+
+ IN NO EVENT SHALL THE UNIVERSITY OF CALIFORNIA BE LIABLE TO ANY PARTY
+ FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES
+ ARISING OUT OF THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF
+ THE UNIVERSITY OF CALIFORNIA HAS BEEN ADVISED OF THE POSSIBILITY OF
+ SUCH DAMAGE.
+
+ THE UNIVERSITY OF CALIFORNIA SPECIFICALLY DISCLAIMS ANY WARRANTIES,
+ INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE. THE SOFTWARE
+ PROVIDED HEREUNDER IS ON AN "AS IS" BASIS, AND THE UNIVERSITY OF
+ CALIFORNIA HAS NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES,
+ ENHANCEMENTS, OR MODIFICATIONS.
+
+ PT_COPYRIGHT_VERSION_2
+ COPYRIGHTENDKEY
+ */
+package ptolemy.domains.sdf.lib.test;
+
+import ptolemy.actor.Manager;
+import ptolemy.actor.TypedCompositeActor;
+import ptolemy.actor.lib.Discard;
+import ptolemy.actor.lib.Ramp;
+import ptolemy.domains.sdf.kernel.SDFDirector;
+import ptolemy.domains.sdf.lib.DownSample;
+import ptolemy.domains.sdf.lib.FFT;
+import ptolemy.domains.sdf.lib.FIR;
+import ptolemy.kernel.util.KernelException;
+
+///////////////////////////////////////////////////////////////////
+//// PrimitiveChannelsBenchmark
+
+/**
+ A benchmark of an SDF model that filters a signal and computes its
+ spectrum, a Ramp of doubles, a FIR filter with 32 taps, a DownSample
+ by 2 and an FFT of order 8, with the <i>primitiveChannels</i>
+ parameter of the director false and true. Each is repeated, and the
+ number of samples produced by the Ramp per second is printed.
+ To run it:
+ <pre>
+ java -classpath $PTII ptolemy.domains.sdf.lib.test.PrimitiveChannelsBenchmark [iterations [runs]]
+ </pre>
+
+ @version $Id$
+ @since Ptolemy II 10.0
+ @Pt.ProposedRating Red
+ @Pt.AcceptedRating Red
+ */
+public class PrimitiveChannelsBenchmark {
+
+    /** Run the benchmark.
+     *  @param args The number of iterations of the model, by default
+     *   2000, and the number of runs, by default 5.
+     *  @exception KernelException If the model cannot be built or run.
+     */
+    public static void main(String[] args) throws KernelException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        for (int run = 0; run < runs; run++) {
+            System.out.println("run " + run + ": tokens "
+                    + samplesPerSecond(iterations, false)
+                    + " samples/s, primitive channels "
+                    + samplesPerSecond(iterations, true) + " samples/s");
+        }
+    }
+
+    /** Build and run the model, and return the number of samples
+     *  produced by the Ramp per second.
+     *  @param iterations The number of iterations of the model.
+     *  @param primitiveChannels The value of the <i>primitiveChannels</i>
+     *   parameter of the director.
+     *  @return The number of samples per second.
+     *  @exception KernelException If the model cannot be built or run.
+     */
+    public static long samplesPerSecond(int iterations,
+            boolean primitiveChannels) throws KernelException {
+        TypedCompositeActor top = new TypedCompositeActor();
+        top.setName("top");
+        SDFDirector director = new SDFDirector(top, "director");
+        director.iterations.setExpression(Integer.toString(iterations));
+        director.primitiveChannels.setExpression(Boolean
+                .toString(primitiveChannels));
+        Manager manager = new Manager(top.workspace(), "manager");
+        top.setManager(manager);
+
+        Ramp ramp = new Ramp(top, "ramp");
+        ramp.init.setExpression("0.0");
+        ramp.step.setExpression("0.1");
+
+        FIR fir = new FIR(top, "fir");
+        StringBuffer taps = new StringBuffer("{");
+
+        for (int i = 0; i < TAPS; i++) {
+            taps.append(i == 0 ? "" : ", ");
+            taps.append(1.0 / TAPS);
+        }
+
+        fir.taps.setExpression(taps.append("}").toString());
+
+        DownSample downSample = new DownSample(top, "downSample");
+        FFT fft = new FFT(top, "fft");
+        Discard discard = new Discard(top, "discard");
+
+        top.connect(ramp.output, fir.input);
+        top.connect(fir.output, downSample.input);
+        top.connect(downSample.output, fft.input);
+        top.connect(fft.output, discard.input);
+
+        long start = System.nanoTime();
+        manager.execute();
+        long time = System.nanoTime() - start;
+
+        // Each iteration fires the FFT once and the Ramp twice 2^order times.
+        return 2L * 256 * iterations * 1000000000L / time;
+    }
+
+    ///////////////////////////////////////////////////////////////////
+    ////                         private variables                 ////
+
+    /** The number of taps of the filter. */
+    private static final int TAPS = 32;
+}
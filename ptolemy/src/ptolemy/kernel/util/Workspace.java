@@ -34,10 +34,10 @@ package ptolemy.kernel.util;
 
 import java.util.Collections;
 import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 ///////////////////////////////////////////////////////////////////
 //// Workspace
@@ -129,6 +129,17 @@ import java.util.List;
   to avoid invoking them within blocks that hold read access. Note that
   there is no difficulty acquiring read access from within a block
   holding write access.
+  <p>
+  Read access is granted without locking the workspace as long as no
+  thread holds or has requested write access. Each thread keeps its own
+  read depth, and the number of reading threads is kept in a few
+  counters shared out among the threads, so that threads reading at
+  the same time, such as the threads of a PN model, do not contend for
+  one lock. A thread asking for write access first makes this known
+  and only then counts the readers, so that it either sees every reader
+  or every new reader sees it and waits as before. Write access,
+  the version number and the directory are still guarded by the lock
+  on the workspace.
 
  @author Edward A. Lee, Mudit Goel, Lukito Muliadi, Xiaojun Liu
  @version $Id: Workspace.java 69081 2014-04-30 20:40:40Z eal $
@@ -253,34 +264,20 @@ public final class Workspace implements Nameable {
      *  @exception InvalidStateException If this method is called
      *   before a corresponding call to getReadAccess() by the same thread.
      */
-    public final synchronized void doneReading() {
-        Thread current = Thread.currentThread();
-        AccessRecord record = null;
-
-        if (current == _lastReader) {
-            record = _lastReaderRecord;
-        } else {
-            record = _getAccessRecord(current, false);
-        }
-
-        if (record == null) {
-            throw new InvalidStateException(this,
-                    "Workspace: doneReading() called without a prior "
-                            + "matching call to getReadAccess()!");
-        }
+    public final void doneReading() {
+        AccessRecord record = _accessRecords.get();
 
         if (record.readDepth > 0) {
             record.readDepth--;
 
             if (record.readDepth == 0) {
                 // the current thread is no longer a reader
-                _numReaders--;
+                _readers.decrementAndGet(record.stripe);
 
                 // notify waiting writers
                 // these writers may have read access, so this notification
-                // cannot be conditioned on _numReaders == 0
-                // possible condition: _writeReq >= _numReaders
-                notifyAll();
+                // cannot be conditioned on the number of readers being 0
+                _notifyWriters();
             }
         } else if (record.failedReadAttempts > 0) {
             record.failedReadAttempts--;
@@ -391,65 +388,33 @@ public final class Workspace implements Nameable {
      *   while waiting to get read access.
      *  @see #doneReading()
      */
-    public final synchronized void getReadAccess() {
+    public final void getReadAccess() {
         // This method should throw an InterruptedException when the
         // calling thread is interrupted. InterruptedException is a
         // checked exception, so changing this will lead to changes
         // everywhere this method is called, which is a huge amount
         // of work.
-        Thread current = Thread.currentThread();
-        AccessRecord record = null;
-
-        if (current == _lastReader) {
-            record = _lastReaderRecord;
-        } else {
-            record = _getAccessRecord(current, true);
-        }
+        AccessRecord record = _accessRecords.get();
 
         if (record.readDepth > 0) {
             // If the current thread has read permission, then grant
             // it read permission
             record.readDepth++;
             return;
-        } else if (current == _writer) {
-            record.readDepth++;
+        }
 
-            // The current thread has write permission, so we grant
-            // read permission.
-            // This is a new reader, so we increment the number
-            // of readers.
-            _numReaders++;
+        // This is a new reader. Count it first and then check for
+        // writers, see getWriteAccess().
+        _readers.incrementAndGet(record.stripe);
+
+        if (_writeGate == 0) {
+            record.readDepth = 1;
             return;
         }
 
         // Possibly need to wait for read access.
-        // First increment this to make the record not empty, so as to
-        // prevent the record from being deleted from the _readerRecords
-        // table by other threads.
         record.failedReadAttempts++;
-
-        // Go into a loop, and at each iteration check whether the current
-        // thread can get read access. If not then do a wait() on the
-        // workspace. Otherwise, exit the loop.
-        while (_waitingWriteRequests != 0 || _writer != null) {
-            try {
-                wait();
-            } catch (InterruptedException ex) {
-                throw new InternalErrorException(current.getName()
-                        + " - thread interrupted while waiting to get "
-                        + "read access: " + ex.getMessage());
-            }
-        }
-
-        record.failedReadAttempts--;
-
-        // Now there is no writer, and no thread waiting to get write access.
-        record.readDepth++;
-
-        // This is a new reader, so we increment the number
-        // of readers.
-        _numReaders++;
-        return;
+        _waitForReadAccess(record, 1);
     }
 
     /** Get the version number.  The version number is incremented on
@@ -457,7 +422,7 @@ public final class Workspace implements Nameable {
      *  It is meant to track changes to the objects in the workspace.
      *  @return A non-negative long integer.
      */
-    public synchronized final long getVersion() {
+    public final long getVersion() {
         return _version;
     }
 
@@ -499,80 +464,87 @@ public final class Workspace implements Nameable {
             return;
         }
 
-        AccessRecord record = null;
-
-        if (current == _lastReader) {
-            record = _lastReaderRecord;
-        } else {
-            record = _getAccessRecord(current, true);
-        }
+        AccessRecord record = _accessRecords.get();
 
         // Probably need to wait for write access.
-        // First increment this to make the record not empty, so as to
-        // prevent the record from being deleted from the _readerRecords
-        // table by other threads.
         record.failedWriteAttempts++;
 
-        // Go into an infinite 'while (true)' loop and check if this thread
-        // can get a write access. If yes, then return, if not then perform
-        // a wait() on the workspace.
-        while (true) {
-            if (_writer == null) {
-                // There are no writers. Are there any readers?
-                if (_numReaders == 0 || _numReaders == 1
-                        && record.readDepth > 0) {
-                    // No readers
-                    // or the only reader is the current thread
-                    _writer = current;
-                    _writeDepth = 1;
-                    record.failedWriteAttempts--;
-                    return;
-                }
-            }
-            int depth = 0;
-            try {
-                // If there is already another waiting write request, then
-                // we have to release any read permissions that we hold or a
-                // deadlock could occur. There is no need to release those
-                // read permissions if this is the only pending write
-                // request. If another write request shows up during the
-                // wait(), then in effect this first arrived write request
-                // will have priority because it holds a read permission.
-                // If the other thread also holds a read permission, it
-                // will have to release it upon issuing the write request.
-                // Thus, the subtlety described in the class comment
-                // will only occur if the second thread to attempt a
-                // write access has the problematic
-                // pattern of acquiring write requests inside of read
-                // permission blocks. This doesn't eliminate the problems
-                // associated with this subtlety, it just makes it
-                // somewhat less likely that they will occur.
-                if (_waitingWriteRequests > 0) {
-                    // Bert Rodier suggests that we should throw an
-                    // exception in this circumstance instead of just
-                    // releasing read requests.  This would have the
-                    // advantage that the problematic cases cited in
-                    // class comment may be identified (but only if
-                    // the exception is actually thrown, which depends
-                    // on an accident of thread scheduling). I would
-                    // prefer to use static analysis to identify cases
-                    // where write permissions are accessed within
-                    // read permission blocks, and analyze those
-                    // cases for correct usage. EAL 11/12/08.
-                    depth = _releaseAllReadPermissions();
+        // Keep new readers off the unlocked path before counting the
+        // readers. A reader counts itself before it checks the gate, so
+        // either it is counted below or it sees the gate and waits.
+        _writeGate++;
+
+        boolean granted = false;
+
+        try {
+            // Go into an infinite 'while (true)' loop and check if this thread
+            // can get a write access. If yes, then return, if not then perform
+            // a wait() on the workspace.
+            while (true) {
+                if (_writer == null) {
+                    // There are no writers. Are there any readers?
+                    long readers = _readerCount();
+
+                    if (readers == 0 || readers == 1 && record.readDepth > 0) {
+                        // No readers
+                        // or the only reader is the current thread
+                        _writer = current;
+                        _writeDepth = 1;
+                        record.failedWriteAttempts--;
+                        granted = true;
+                        return;
+                    }
                 }
-                _waitingWriteRequests++;
-                wait();
-            } catch (InterruptedException ex) {
-                throw new InternalErrorException(current.getName()
-                        + " - thread interrupted while waiting to get "
-                        + "write access: " + ex.getMessage());
-            } finally {
-                _waitingWriteRequests--;
-                if (depth > 0) {
-                    _reacquireReadPermissions(depth);
+                int depth = 0;
+                try {
+                    // If there is already another waiting write request, then
+                    // we have to release any read permissions that we hold or a
+                    // deadlock could occur. There is no need to release those
+                    // read permissions if this is the only pending write
+                    // request. If another write request shows up during the
+                    // wait(), then in effect this first arrived write request
+                    // will have priority because it holds a read permission.
+                    // If the other thread also holds a read permission, it
+                    // will have to release it upon issuing the write request.
+                    // Thus, the subtlety described in the class comment
+                    // will only occur if the second thread to attempt a
+                    // write access has the problematic
+                    // pattern of acquiring write requests inside of read
+                    // permission blocks. This doesn't eliminate the problems
+                    // associated with this subtlety, it just makes it
+                    // somewhat less likely that they will occur.
+                    if (_waitingWriteRequests > 0) {
+                        // Bert Rodier suggests that we should throw an
+                        // exception in this circumstance instead of just
+                        // releasing read requests.  This would have the
+                        // advantage that the problematic cases cited in
+                        // class comment may be identified (but only if
+                        // the exception is actually thrown, which depends
+                        // on an accident of thread scheduling). I would
+                        // prefer to use static analysis to identify cases
+                        // where write permissions are accessed within
+                        // read permission blocks, and analyze those
+                        // cases for correct usage. EAL 11/12/08.
+                        depth = _releaseAllReadPermissions();
+                    }
+                    _waitingWriteRequests++;
+                    wait();
+                } catch (InterruptedException ex) {
+                    throw new InternalErrorException(current.getName()
+                            + " - thread interrupted while waiting to get "
+                            + "write access: " + ex.getMessage());
+                } finally {
+                    _waitingWriteRequests--;
+                    if (depth > 0) {
+                        _reacquireReadPermissions(depth);
+                    }
                 }
             }
+        } finally {
+            if (!granted) {
+                _writeGate--;
+                notifyAll();
+            }
         }
     }
 
@@ -629,7 +601,7 @@ public final class Workspace implements Nameable {
      *  @see #wait(Object)
      *  @see #wait(Object, long)
      */
-    public synchronized int releaseReadPermission() {
+    public int releaseReadPermission() {
         return _releaseAllReadPermissions();
     }
 
@@ -872,20 +844,14 @@ public final class Workspace implements Nameable {
     private final synchronized void _doneWriting(
             boolean incrementWorkspaceVersion) {
         Thread current = Thread.currentThread();
-        AccessRecord record = null;
-
-        if (current == _lastReader) {
-            record = _lastReaderRecord;
-        } else {
-            record = _getAccessRecord(current, false);
-        }
+        AccessRecord record = _accessRecords.get();
 
         if (incrementWorkspaceVersion) {
             incrVersion();
         }
 
         if (current != _writer) {
-            if (record != null && record.failedWriteAttempts > 0) {
+            if (record.failedWriteAttempts > 0) {
                 record.failedWriteAttempts--;
             } else {
                 throw new InvalidStateException(this,
@@ -898,6 +864,7 @@ public final class Workspace implements Nameable {
 
                 if (_writeDepth == 0) {
                     _writer = null;
+                    _writeGate--;
                     notifyAll();
                 }
             } else {
@@ -908,54 +875,28 @@ public final class Workspace implements Nameable {
         }
     }
 
-    /** Return the AccessRecord object for the specified thread.
-     *  If the flag createNew is true and the current thread does not
-     *  have an access record, then create a new one and return it.
-     *  Set _lastReaderRecord to be the record returned.
+    /** Notify the threads waiting for write access, if any, that
+     *  a reader is done.
      */
-    private final AccessRecord _getAccessRecord(Thread current,
-            boolean createNew) {
-        //System.out.println("-- look up access record for "
-        //   + current.getName());
-        // If this object has been serialized and deserialized, then
-        // _readerRecords could be null.
-        if (_readerRecords == null) {
-            _readerRecords = new HashMap();
-        }
-
-        AccessRecord record = (AccessRecord) _readerRecords.get(current);
-
-        if (record == null) {
-            // delete any record that contains no history information
-            // AND is not the last reader's record
-            Iterator records = _readerRecords.values().iterator();
-
-            while (records.hasNext()) {
-                AccessRecord aRecord = (AccessRecord) records.next();
-
-                if (aRecord.failedReadAttempts == 0
-                        && aRecord.failedWriteAttempts == 0
-                        && aRecord.readDepth == 0
-                        && aRecord != _lastReaderRecord) {
-                    //System.out.println("-- delete record for thread "
-                    //        + aRecord.thread
-                    //        + " in " + current.getName());
-                    records.remove();
-                }
-            }
-
-            if (createNew) {
-                record = new AccessRecord();
-                _readerRecords.put(current, record);
+    private void _notifyWriters() {
+        if (_writeGate != 0) {
+            synchronized (this) {
+                notifyAll();
             }
         }
+    }
 
-        if (record != null) {
-            _lastReader = current;
-            _lastReaderRecord = record;
+    /** Return the number of threads that have read access, counting also
+     *  the threads that are just checking whether they may have it.
+     */
+    private long _readerCount() {
+        long count = 0;
+
+        for (int i = 0; i < _readers.length(); i += _STRIPE_SPACING) {
+            count += _readers.get(i);
         }
 
-        return record;
+        return count;
     }
 
     // Obtain permissions to read objects in the workspace. This obtains
@@ -969,7 +910,7 @@ public final class Workspace implements Nameable {
     //  workspace.
     // @exception InternalErrorException If the calling thread is interrupted
     //  while waiting to re-acquire read permissions.
-    private synchronized void _reacquireReadPermissions(int count) {
+    private void _reacquireReadPermissions(int count) {
         // If the count argument is equal to zero, which means we would like
         // the current thread to has read depth equal to 0, i.e. not a reader,
         // then it's already trivially done, since this method call is always
@@ -978,44 +919,24 @@ public final class Workspace implements Nameable {
             return;
         }
 
-        Thread current = Thread.currentThread();
-        AccessRecord record = null;
+        AccessRecord record = _accessRecords.get();
 
-        if (current == _lastReader) {
-            record = _lastReaderRecord;
-        } else {
-            record = _getAccessRecord(current, false);
-        }
-
-        if (record == null || count > record.failedReadAttempts) {
+        if (count > record.failedReadAttempts) {
             throw new InvalidStateException(this, "Trying to reacquire "
                     + "read permission not in record.");
         }
 
-        // Go into an infinite 'while (true)' loop, and each time through
-        // the loop, check if the condition is satisfied to have the current
-        // thread as a writer. If not, then wait on the workspace. Upon
-        // re-awakening, iterate in the loop again to check if the condition
-        // is now satisfied.
-        while (true) {
-            // If the current thread has write permission, or if there
-            // are no pending write requests, then grant read permission.
-            if (current == _writer || _waitingWriteRequests == 0
-                    && _writer == null) {
-                _numReaders++;
-                record.failedReadAttempts -= count;
-                record.readDepth = count;
-                return;
-            }
+        // As in getReadAccess(), count this thread as a reader first
+        // and then check for writers.
+        _readers.incrementAndGet(record.stripe);
 
-            try {
-                wait();
-            } catch (InterruptedException ex) {
-                throw new InternalErrorException(
-                        "Thread interrupted while waiting for read access!"
-                                + ex.getMessage());
-            }
+        if (_writeGate == 0) {
+            record.failedReadAttempts -= count;
+            record.readDepth = count;
+            return;
         }
+
+        _waitForReadAccess(record, count);
     }
 
     /** Frees the thread of all the readAccesses on the workspace
@@ -1025,31 +946,68 @@ public final class Workspace implements Nameable {
      *  @return The number of readAccess that the thread possessed on the
      *  workspace
      */
-    private synchronized int _releaseAllReadPermissions() {
-        // Find the current thread.
-        Thread current = Thread.currentThread();
-        AccessRecord record = null;
-
-        if (current == _lastReader) {
-            record = _lastReaderRecord;
-        } else {
-            record = _getAccessRecord(current, false);
-        }
+    private int _releaseAllReadPermissions() {
+        AccessRecord record = _accessRecords.get();
 
-        if (record == null || record.readDepth == 0) {
+        if (record.readDepth == 0) {
             // current thread is not a reader
             return 0;
         } else {
-            _numReaders--;
-            notifyAll();
+            _readers.decrementAndGet(record.stripe);
 
             int result = record.readDepth;
             record.failedReadAttempts += result;
             record.readDepth = 0;
+            _notifyWriters();
             return result;
         }
     }
 
+    /** Wait until the current thread may have read access, which it
+     *  was refused without waiting because there is a thread that has or
+     *  has requested write access. Read permission is granted if
+     *  the current thread has write permission, or if there is no writer
+     *  and no pending write requests.
+     *  @param record The access record of the current thread, which
+     *   was counted as a reader before the refusal.
+     *  @param depth The number of read permissions to grant, which are
+     *   counted in the failed read attempts of the record.
+     *  @exception InternalErrorException If the calling thread is
+     *   interrupted while waiting to get read access.
+     */
+    private synchronized void _waitForReadAccess(AccessRecord record,
+            int depth) {
+        // Stop counting this thread as a reader, a writer may be
+        // waiting for it.
+        _readers.decrementAndGet(record.stripe);
+        notifyAll();
+
+        Thread current = Thread.currentThread();
+
+        // Go into a loop, and at each iteration check whether the current
+        // thread can get read access. If not then do a wait() on the
+        // workspace. Otherwise, exit the loop.
+        while (current != _writer
+                && (_waitingWriteRequests != 0 || _writer != null)) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                throw new InternalErrorException(current.getName()
+                        + " - thread interrupted while waiting to get "
+                        + "read access: " + ex.getMessage());
+            }
+        }
+
+        // Now the current thread is the writer, or there is no writer
+        // and no thread waiting to get write access.
+        record.failedReadAttempts -= depth;
+        record.readDepth = depth;
+
+        // This is a new reader, so we increment the number
+        // of readers.
+        _readers.incrementAndGet(record.stripe);
+    }
+
     ///////////////////////////////////////////////////////////////////
     ////                         private variables                 ////
 
@@ -1060,7 +1018,7 @@ public final class Workspace implements Nameable {
     private String _name;
 
     /** @serial Version number. */
-    private long _version = 0;
+    private volatile long _version = 0;
 
     /** @serial The currently writing thread (if any). */
     private transient Thread _writer;
@@ -1074,20 +1032,42 @@ public final class Workspace implements Nameable {
      */
     private int _writeDepth = 0;
 
-    /** @serial The last thread that acquires/releases read permission.
+    /** The number of threads that have requested write access and not
+     *  gotten it yet, plus one while a thread has write access. Read
+     *  access is granted without locking the workspace only while this
+     *  is zero. It is changed only while holding the lock on the
+     *  workspace.
      */
-    private transient Thread _lastReader = null;
+    private volatile int _writeGate = 0;
 
-    private transient AccessRecord _lastReaderRecord = null;
+    /** The access records of the threads. */
+    private final ThreadLocal<AccessRecord> _accessRecords =
+            new ThreadLocal<AccessRecord>() {
+                protected AccessRecord initialValue() {
+                    return new AccessRecord();
+                }
+            };
 
-    private transient HashMap _readerRecords = new HashMap();
+    /** The number of readers, the sum of the counters at each
+     *  _STRIPE_SPACING element. A counter is incremented every time a
+     *  thread becomes a reader and decremented whenever a reader
+     *  relinquishes ALL its read access. The counters are spaced out
+     *  so that they do not share a cache line.
+     */
+    private final AtomicLongArray _readers = new AtomicLongArray(_STRIPES
+            * _STRIPE_SPACING);
 
-    /** @serial The number of readers.
-     *  The use of this field is to increment it every time we have a new
-     *  reader and decrement it whenever a reader relinquishes ALL its read
-     *  access.
+    /** The number of reader counters, the number of processors
+     *  rounded up to a power of two, but at most 16.
      */
-    private long _numReaders = 0;
+    private static final int _STRIPES = Integer.highestOneBit(Math.min(
+            Runtime.getRuntime().availableProcessors() * 2 - 1, 16));
+
+    /** The number of array elements from one reader counter to the next. */
+    private static final int _STRIPE_SPACING = 8;
+
+    /** The counter given to the next new access record. */
+    private static final AtomicInteger _nextStripe = new AtomicInteger();
 
     ///////////////////////////////////////////////////////////////////
     ////                         inner classes                     ////
@@ -1114,6 +1094,10 @@ public final class Workspace implements Nameable {
         // by a thread and not yet matched by a call to doneReading()
         public int readDepth = 0;
 
+        // the index of the reader counter of the thread
+        public final int stripe = (_nextStripe.getAndIncrement()
+                & _STRIPES - 1) * _STRIPE_SPACING;
+
         //public Thread thread = null;
         //public boolean inUse;
     }